@@ -19,11 +19,14 @@ import org.checkerframework.javacutil.TypeKindUtils;
 import org.checkerframework.javacutil.TypesUtils;
 
 import java.lang.annotation.Annotation;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -71,12 +74,43 @@ public class DefaultSlotManager implements SlotManager {
     // subtypes of VariableSlots).
     private int nextId = 1;
 
+    /** Initial capacity of the slot table and of the per-kind id tables. */
+    private static final int INITIAL_CAPACITY = 1024;
+
     /**
-     * A map for storing all the slots encountered by this slot manager. Key is an {@link Integer},
-     * representing a slot id. Value is a {@link Slot} that corresponds to this slot id. Note that
-     * ConstantSlots are also stored in this map, since ConstantSlot is subclass of Slot.
+     * A table storing all the slots encountered by this slot manager, indexed by slot id. Since
+     * slot ids are dense and start at 1, index 0 is never used. Note that ConstantSlots are also
+     * stored in this table, since ConstantSlot is subclass of Slot.
      */
-    private final Map<Integer, Slot> slots;
+    private Slot[] slots;
+
+    /**
+     * Ids of all VariableSlots in {@link #slots}, in increasing order. Only the first {@link
+     * #numVariableSlots} entries are used.
+     */
+    private int[] variableSlotIds;
+
+    private int numVariableSlots;
+
+    /**
+     * Ids of all ConstantSlots in {@link #slots}, in increasing order. Only the first {@link
+     * #numConstantSlots} entries are used.
+     */
+    private int[] constantSlotIds;
+
+    private int numConstantSlots;
+
+    /**
+     * The interned {@code @VarAnnot} of each slot, indexed by slot id. Entries are created on first
+     * request by {@link #getAnnotation(Slot)}, so that a slot always maps to the same mirror.
+     */
+    private AnnotationMirror[] varAnnots;
+
+    /**
+     * The slot id of every mirror in {@link #varAnnots}, keyed by identity, so that the slot of an
+     * interned mirror is found without reading its element value.
+     */
+    private final Map<AnnotationMirror, Integer> varAnnotIds;
 
     /**
      * A map of {@link AnnotationMirror} to {@link Integer} for caching ConstantSlot. Each {@link
@@ -152,7 +186,11 @@ public class DefaultSlotManager implements SlotManager {
         this.realTop = realTop;
         // sort the qualifiers so that they are always assigned the same varId
         this.realQualifiers = sortAnnotationClasses(realQualifiers);
-        slots = new LinkedHashMap<>();
+        slots = new Slot[INITIAL_CAPACITY];
+        variableSlotIds = new int[INITIAL_CAPACITY];
+        constantSlotIds = new int[INITIAL_CAPACITY];
+        varAnnots = new AnnotationMirror[INITIAL_CAPACITY];
+        varAnnotIds = new IdentityHashMap<>();
 
         AnnotationBuilder builder = new AnnotationBuilder(processingEnvironment, VarAnnot.class);
         builder.setValue("value", -1);
@@ -233,7 +271,30 @@ public class DefaultSlotManager implements SlotManager {
     }
 
     private void addToSlots(final Slot slot) {
-        slots.put(slot.getId(), slot);
+        int id = slot.getId();
+        if (id >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(id + 1, slots.length * 2));
+        }
+        slots[id] = slot;
+
+        if (slot instanceof VariableSlot) {
+            variableSlotIds = append(variableSlotIds, numVariableSlots++, id);
+        } else if (slot instanceof ConstantSlot) {
+            constantSlotIds = append(constantSlotIds, numConstantSlots++, id);
+        }
+    }
+
+    /**
+     * Stores the given id at the given index of the given id table, growing the table if needed.
+     *
+     * @return the given table, or a larger copy of it if it had to grow
+     */
+    private static int[] append(int[] ids, int index, int id) {
+        if (index >= ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[index] = id;
+        return ids;
     }
 
     /**
@@ -241,7 +302,10 @@ public class DefaultSlotManager implements SlotManager {
      */
     @Override
     public Slot getSlot(int id) {
-        return slots.get(id);
+        if (id <= 0 || id >= slots.length) {
+            return null;
+        }
+        return slots[id];
     }
 
     /**
@@ -249,9 +313,21 @@ public class DefaultSlotManager implements SlotManager {
      */
     @Override
     public AnnotationMirror getAnnotation(final Slot slot) {
-        // We need to build the AnnotationBuilder each time because AnnotationBuilders are only
-        // allowed to build their annotations once
-        return convertVariable(slot, new AnnotationBuilder(processingEnvironment, VarAnnot.class));
+        int id = slot.getId();
+        if (id >= varAnnots.length) {
+            varAnnots = Arrays.copyOf(varAnnots, Math.max(id + 1, varAnnots.length * 2));
+        }
+        AnnotationMirror annotation = varAnnots[id];
+        if (annotation == null) {
+            // We need to build the AnnotationBuilder each time because AnnotationBuilders are only
+            // allowed to build their annotations once
+            annotation =
+                    convertVariable(
+                            slot, new AnnotationBuilder(processingEnvironment, VarAnnot.class));
+            varAnnots[id] = annotation;
+            varAnnotIds.put(annotation, id);
+        }
+        return annotation;
     }
 
     /**
@@ -293,15 +369,24 @@ public class DefaultSlotManager implements SlotManager {
      */
     @Override
     public Slot getSlot(final AnnotationMirror annotationMirror) {
+        final Integer internedId = varAnnotIds.get(annotationMirror);
+        if (internedId != null) {
+            return getSlot(internedId);
+        }
 
         final int id;
         if (InferenceQualifierHierarchy.isVarAnnot(annotationMirror)) {
             if (annotationMirror.getElementValues().isEmpty()) {
                 return null; // TODO: should we instead throw an exception?
             } else {
+                // Not interned, e.g. copied by the framework or read from a class file.
                 final AnnotationValue annoValue =
                         annotationMirror.getElementValues().values().iterator().next();
-                id = Integer.valueOf(annoValue.toString());
+                final Object value = annoValue.getValue();
+                id =
+                        value instanceof Integer
+                                ? (Integer) value
+                                : Integer.parseInt(annoValue.toString());
             }
 
             return getSlot(id);
@@ -339,40 +424,74 @@ public class DefaultSlotManager implements SlotManager {
     }
 
     /**
-     * @inheritDoc
+     * {@inheritDoc}
+     *
+     * <p>The returned list is an unmodifiable view of the slot table that doesn't copy it. It
+     * contains the slots created up to this call; slots created afterwards are not visible in it.
      */
     @Override
     public List<Slot> getSlots() {
-        return new ArrayList<Slot>(this.slots.values());
+        return new SlotTableView<>(slots, null, getNumberOfSlots());
     }
 
-    // Sometimes, I miss scala.
     /**
-     * @inheritDoc
+     * {@inheritDoc}
+     *
+     * <p>The returned list is an unmodifiable view, see {@link #getSlots()}.
      */
     @Override
     public List<VariableSlot> getVariableSlots() {
-        List<VariableSlot> varSlots = new ArrayList<>();
-        for (Slot slot : slots.values()) {
-            if (slot instanceof VariableSlot) {
-                varSlots.add((VariableSlot) slot);
-            }
-        }
-        return varSlots;
+        return new SlotTableView<>(slots, variableSlotIds, numVariableSlots);
     }
 
     /**
-     * @inheritDoc
+     * {@inheritDoc}
+     *
+     * <p>The returned list is an unmodifiable view, see {@link #getSlots()}.
      */
     @Override
     public List<ConstantSlot> getConstantSlots() {
-        List<ConstantSlot> constants = new ArrayList<>();
-        for (Slot slot : slots.values()) {
-            if (slot instanceof ConstantSlot) {
-                constants.add((ConstantSlot) slot);
+        return new SlotTableView<>(slots, constantSlotIds, numConstantSlots);
+    }
+
+    /**
+     * An unmodifiable list of the slots in a prefix of the slot table. Because the slot table and
+     * the id tables are only ever appended to, and are copied rather than modified when they grow,
+     * the arrays captured by a view never change within its bounds.
+     *
+     * @param <T> the kind of slots in this view
+     */
+    private static final class SlotTableView<T extends Slot> extends AbstractList<T>
+            implements RandomAccess {
+
+        private final Slot[] slots;
+
+        /** Ids of the slots in this view, or null if the view contains all slots. */
+        private final int @Nullable [] ids;
+
+        private final int size;
+
+        private SlotTableView(Slot[] slots, int @Nullable [] ids, int size) {
+            this.slots = slots;
+            this.ids = ids;
+            this.size = size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked") // the id tables only hold ids of slots of kind T
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
             }
+            // Slot ids start at 1.
+            int id = ids == null ? index + 1 : ids[index];
+            return (T) slots[id];
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
-        return constants;
     }
 
     @Override
@@ -387,7 +506,14 @@ public class DefaultSlotManager implements SlotManager {
             // retrieve the default annotation when needed
             defaultAnnotation = getDefaultAnnotationForLocation(location, type);
         }
+        return createSourceVariableSlot(location, type, defaultAnnotation, insertable);
+    }
 
+    private SourceVariableSlot createSourceVariableSlot(
+            AnnotationLocation location,
+            @Nullable TypeMirror type,
+            @Nullable AnnotationMirror defaultAnnotation,
+            boolean insertable) {
         SourceVariableSlot sourceVarSlot;
         if (location.getKind() == AnnotationLocation.Kind.MISSING) {
             if (InferenceMain.isHackMode()) {
@@ -426,6 +552,15 @@ public class DefaultSlotManager implements SlotManager {
         return createSourceVariableSlot(location, type, false);
     }
 
+    @Override
+    public SourceVariableSlot replaySourceVariableSlot(
+            AnnotationLocation location,
+            @Nullable AnnotationMirror defaultAnnotation,
+            boolean insertable) {
+        // The type is only needed to find the default annotation of a class declaration.
+        return createSourceVariableSlot(location, null, defaultAnnotation, insertable);
+    }
+
     /**
      * Find the default annotation for this location by checking the real type factory.
      *
@@ -664,8 +799,17 @@ public class DefaultSlotManager implements SlotManager {
         }
 
         // create the arithmetic var slot if it doesn't exist for the given location
-        TypeKind kind = getArithmeticResultKind(lhsAtm, rhsAtm);
-        ArithmeticVariableSlot slot = new ArithmeticVariableSlot(nextId(), location, kind);
+        return replayArithmeticVariableSlot(location, getArithmeticResultKind(lhsAtm, rhsAtm));
+    }
+
+    @Override
+    public ArithmeticVariableSlot replayArithmeticVariableSlot(
+            AnnotationLocation location, TypeKind valueTypeKind) {
+        if (arithmeticSlotCache.containsKey(location)) {
+            return (ArithmeticVariableSlot) getSlot(arithmeticSlotCache.get(location));
+        }
+
+        ArithmeticVariableSlot slot = new ArithmeticVariableSlot(nextId(), location, valueTypeKind);
         addToSlots(slot);
         arithmeticSlotCache.put(location, slot.getId());
         return slot;
@@ -697,6 +841,18 @@ public class DefaultSlotManager implements SlotManager {
         return slot;
     }
 
+    @Override
+    public boolean isGlbMergeVariableSlot(LubVariableSlot slot) {
+        Integer id = glbSlotPairCache.get(new Pair<>(slot.getLeft(), slot.getRight()));
+        return id != null && id == slot.getId();
+    }
+
+    @Override
+    public boolean isThenComparisonVariableSlot(ComparisonVariableSlot slot) {
+        Integer id = comparisonThenSlotCache.get(slot.getLocation());
+        return id != null && id == slot.getId();
+    }
+
     @Override
     public AnnotationMirror createEquivalentVarAnno(AnnotationMirror realQualifier) {
         ConstantSlot varSlot = createConstantSlot(realQualifier);
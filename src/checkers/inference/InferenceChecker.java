@@ -1,10 +1,25 @@
 package checkers.inference;
 
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.TreePath;
+
 import org.checkerframework.common.basetype.BaseTypeChecker;
 import org.checkerframework.common.basetype.BaseTypeVisitor;
 
+import java.io.File;
+
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+
+import checkers.inference.util.ConstraintCache;
+import checkers.inference.util.Trace;
+
 public class InferenceChecker extends BaseTypeChecker {
 
+    /** The cache of the constraints of each class, null if no cache directory is given. */
+    private ConstraintCache constraintCache;
+
     @Override
     public void initChecker() {
         InferenceMain.getInstance().recordInferenceCheckerInstance(this);
@@ -12,6 +27,47 @@ public class InferenceChecker extends BaseTypeChecker {
         super.initChecker();
         // Overrides visitor created by initChecker
         this.visitor = InferenceMain.getInstance().getVisitor();
+        if (InferenceOptions.inferenceCacheDir != null) {
+            File cacheDir = new File(InferenceOptions.inferenceCacheDir);
+            constraintCache = new ConstraintCache(cacheDir, processingEnv);
+        }
+    }
+
+    /**
+     * Generates the constraints of one class, traced per compilation unit. With a constraint
+     * cache, the constraints of an unchanged class are replayed instead.
+     */
+    @Override
+    public void typeProcess(TypeElement e, TreePath p) {
+        try (Trace.Span span =
+                Trace.start(
+                        "constraint-generation",
+                        p.getCompilationUnit().getSourceFile().getName())) {
+            if (constraintCache == null) {
+                super.typeProcess(e, p);
+            } else if (constraintCache.replay(e, p)) {
+                span.count("replayed", 1);
+            } else {
+                constraintCache.record(e, p, () -> super.typeProcess(e, p));
+            }
+        }
+    }
+
+    @Override
+    public void typeProcessingOver() {
+        super.typeProcessingOver();
+        if (constraintCache != null) {
+            constraintCache.logStatistics();
+        }
+    }
+
+    @Override
+    protected void printOrStoreMessage(
+            Diagnostic.Kind kind, String message, Tree source, CompilationUnitTree root) {
+        if (constraintCache != null) {
+            constraintCache.recordMessage(kind, message, source, root);
+        }
+        super.printOrStoreMessage(kind, message, source, root);
     }
 
     /** Called during super.initChecker(). We want it to do nothing. */
@@ -218,6 +218,9 @@ public class InferenceLauncher {
         addIfNotNull("--solver", InferenceOptions.solver, argList);
         addIfNotNull("--solverArgs", InferenceOptions.solverArgs, argList);
         addIfNotNull("--cfArgs", InferenceOptions.cfArgs, argList);
+        addIfNotNull("--inferenceCacheDir", InferenceOptions.inferenceCacheDir, argList);
+        addIfNotNull("--targetclasspath", InferenceOptions.targetclasspath, argList);
+        addIfNotNull("--traceFile", InferenceOptions.traceFile, argList);
 
         addIfTrue("--hacks", InferenceOptions.hacks, argList);
 
@@ -6,7 +6,9 @@ import org.checkerframework.javacutil.AnnotationUtils;
 import org.checkerframework.javacutil.BugInCF;
 import org.checkerframework.javacutil.SystemUtil;
 
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.annotation.Annotation;
@@ -31,6 +33,7 @@ import checkers.inference.model.VariableSlot;
 import checkers.inference.qual.VarAnnot;
 import checkers.inference.util.InferenceUtil;
 import checkers.inference.util.JaifBuilder;
+import checkers.inference.util.Trace;
 
 /**
  * InferenceMain is the central coordinator to the inference system.
@@ -144,15 +147,35 @@ public class InferenceMain {
         logger.finer("Starting InferenceMain");
 
         // Start up javac
-        startCheckerFramework();
-        solve();
+        try (Trace.Span javac = Trace.start("javac")) {
+            startCheckerFramework();
+        }
+        try (Trace.Span solving = Trace.start("solve")) {
+            solve();
+        }
         // solverResult = null covers case when debug solver is used, but in this case
         // shouldn't exit
         if (solverResult != null && !solverResult.hasSolution()) {
             logger.info("No solution, exiting...");
+            writeTrace();
             System.exit(1);
         }
-        writeJaif();
+        try (Trace.Span jaifWriting = Trace.start("write-jaif")) {
+            writeJaif();
+        }
+        writeTrace();
+    }
+
+    /** Writes the timed phases of this run to the trace file, if one is given. */
+    private void writeTrace() {
+        if (InferenceOptions.traceFile == null) {
+            return;
+        }
+        try {
+            Trace.writeJson(new File(InferenceOptions.traceFile));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write trace file!", e);
+        }
     }
 
     /** Run the Checker-Framework using InferenceChecker */
@@ -271,8 +294,12 @@ public class InferenceMain {
         // TODO: PERHAPS ALLOW SOLVERS TO DECIDE IF/HOW THEY WANT CONSTRAINTS NORMALIZED
 
         final ConstraintNormalizer constraintNormalizer = new ConstraintNormalizer();
-        Set<Constraint> normalizedConstraints =
-                constraintNormalizer.normalize(constraintManager.getConstraints());
+        Set<Constraint> normalizedConstraints;
+        try (Trace.Span normalization = Trace.start("normalization")) {
+            normalizedConstraints =
+                    constraintNormalizer.normalize(constraintManager.getConstraints());
+            normalization.count("constraints", normalizedConstraints.size());
+        }
 
         // TODO: Support multiple solvers or serialize before or after solving
         // TODO: Prune out unneeded variables
@@ -84,6 +84,14 @@ public class InferenceOptions {
             "The JSON file to which constraints should be dumped.  This field is mutually exclusive with solver.")
     public static String jsonFile;
 
+    @Option(
+            "[path] directory in which the constraints of each class are cached; a later run with the same classpath and options replays the constraints of the classes whose source files, and the source files their constraints depend on, are unchanged, instead of visiting them again. Clear it after updating the inference framework or the checker.")
+    public static String inferenceCacheDir;
+
+    @Option(
+            "[path] file to which a JSON trace of the inference phases is written, with the nanoseconds each phase, compilation unit and component took.")
+    public static String traceFile;
+
     // ------------------------------------------------------
     @OptionGroup("Annotation File Utilities options")
     @Option(value = "Path to AFU scripts directory.")
@@ -106,6 +106,9 @@ public class InferenceVisitor<
         if (infer) {
             final SlotManager slotManager = InferenceMain.getInstance().getSlotManager();
             slotManager.setTopLevelClass((ClassTree) path.getLeaf());
+            InferenceMain.getInstance()
+                    .getConstraintManager()
+                    .setTopLevelClass((ClassTree) path.getLeaf());
         }
         super.visit(path);
     }
@@ -2,11 +2,13 @@ package checkers.inference;
 
 import com.sun.source.tree.ClassTree;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.framework.type.AnnotatedTypeMirror;
 
 import java.util.List;
 
 import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 
 import checkers.inference.model.AnnotationLocation;
@@ -165,6 +167,46 @@ public interface SlotManager {
     ComparisonVariableSlot createComparisonVariableSlot(
             AnnotationLocation location, Slot refined, boolean thenBranch);
 
+    /**
+     * Returns the SourceVariableSlot on the given location, creating it with the given default
+     * annotation if no slot exists on this location. Used to replay slots recorded in an earlier
+     * run, whose default annotation was computed then, without looking up the tree of the
+     * location.
+     *
+     * @param location used to locate this variable in code
+     * @param defaultAnnotation the default annotation of the location, null if none
+     * @param insertable whether the slot is created insertable, false for polymorphic instances
+     * @return SourceVariableSlot that corresponds to this location
+     */
+    SourceVariableSlot replaySourceVariableSlot(
+            AnnotationLocation location,
+            @Nullable AnnotationMirror defaultAnnotation,
+            boolean insertable);
+
+    /**
+     * Returns the ArithmeticVariableSlot on the given location, creating it with the given value
+     * type kind if no slot exists on this location. Used to replay slots recorded in an earlier
+     * run, whose operand types are not known.
+     *
+     * @param location an AnnotationLocation used to locate this variable in code
+     * @param valueTypeKind the type kind of the result of the arithmetic operation
+     * @return the ArithmeticVariableSlot for the given location
+     */
+    ArithmeticVariableSlot replayArithmeticVariableSlot(
+            AnnotationLocation location, TypeKind valueTypeKind);
+
+    /**
+     * Returns whether the given merge variable was created by {@link
+     * #createGlbMergeVariableSlot}, rather than by {@link #createLubMergeVariableSlot}.
+     */
+    boolean isGlbMergeVariableSlot(LubVariableSlot slot);
+
+    /**
+     * Returns whether the given comparison variable was created for the then store, see {@link
+     * #createComparisonVariableSlot}.
+     */
+    boolean isThenComparisonVariableSlot(ComparisonVariableSlot slot);
+
     /**
      * Create a VarAnnot equivalent to the given realQualifier.
      *
@@ -185,7 +185,6 @@ public class VariableAnnotator extends AnnotatedTypeScanner<Void, Tree> {
             return AnnotationLocation.MISSING_LOCATION;
         } // else
 
-        ASTPathUtil.getASTRecordForPath(typeFactory, path);
         if (tree.getKind() == Kind.CLASS
                 || tree.getKind() == Kind.INTERFACE
                 || tree.getKind() == Kind.ENUM
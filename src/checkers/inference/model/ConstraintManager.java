@@ -1,14 +1,20 @@
 package checkers.inference.model;
 
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.Tree;
 import com.sun.source.util.TreePath;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.framework.source.SourceChecker;
 import org.checkerframework.framework.type.QualifierHierarchy;
 import org.checkerframework.javacutil.BugInCF;
 
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import checkers.inference.InferenceAnnotatedTypeFactory;
 import checkers.inference.VariableAnnotator;
@@ -32,6 +38,16 @@ public class ConstraintManager {
 
     private QualifierHierarchy realQualHierarchy;
 
+    /**
+     * A cache of the {@link AnnotationLocation}s of the trees for which constraints were created
+     * in the current top-level class. Many constraints are created while visiting the same tree,
+     * and computing its location requires walking its AST path. Trees are compared by identity.
+     */
+    private final Map<Tree, AnnotationLocation> locationCache = new IdentityHashMap<>();
+
+    /** Receives every constraint added to the constraint set, see {@link #setAddListener}. */
+    private @Nullable Consumer<Constraint> addListener;
+
     public void init(InferenceAnnotatedTypeFactory inferenceTypeFactory) {
         this.inferenceTypeFactory = inferenceTypeFactory;
         this.realQualHierarchy = inferenceTypeFactory.getRealQualifierHierarchy();
@@ -56,6 +72,9 @@ public class ConstraintManager {
                 throw new BugInCF("An AlwaysFalseConstraint is being added to the constraint set.");
             } else if (!(constraint instanceof AlwaysTrueConstraint)) {
                 constraints.add(constraint);
+                if (addListener != null) {
+                    addListener.accept(constraint);
+                }
             }
         }
     }
@@ -72,6 +91,37 @@ public class ConstraintManager {
         }
     }
 
+    /**
+     * Informs this manager that a new top-level class is about to be visited. This clears the
+     * location cache, whose trees belong to the previous top-level class.
+     *
+     * @param classTree the top-level class that is about to be visited
+     */
+    public void setTopLevelClass(ClassTree classTree) {
+        locationCache.clear();
+    }
+
+    /**
+     * Sets the listener that is passed every constraint added to the constraint set from now on,
+     * including constraints that are already in it. The constraint cache uses this to record the
+     * constraints generated for one top-level class.
+     *
+     * @param addListener the listener, or null to remove the current one
+     */
+    public void setAddListener(@Nullable Consumer<Constraint> addListener) {
+        this.addListener = addListener;
+    }
+
+    /**
+     * Adds constraints that were generated in an earlier run and replayed from the constraint
+     * cache. They were checked when they were generated, so no errors are issued for them.
+     *
+     * @param constraints the replayed constraints
+     */
+    public void addReplayedConstraints(Iterable<Constraint> constraints) {
+        addAll(constraints);
+    }
+
     public void startIgnoringConstraints() {
         ignoreConstraints = true;
     }
@@ -88,8 +138,16 @@ public class ConstraintManager {
      * AlwaysTrueConstraint}, {@link AlwaysFalseConstraint}, or {@link EqualityConstraint}.
      */
     public Constraint createSubtypeConstraint(Slot subtype, Slot supertype) {
-        return SubtypeConstraint.create(
-                subtype, supertype, getCurrentLocation(), realQualHierarchy);
+        return createSubtypeConstraint(subtype, supertype, getCurrentLocation());
+    }
+
+    /**
+     * Same as {@link #createSubtypeConstraint(Slot, Slot)}, but at the given location, for
+     * constraints that are not created while visiting the tree they belong to.
+     */
+    public Constraint createSubtypeConstraint(
+            Slot subtype, Slot supertype, AnnotationLocation location) {
+        return SubtypeConstraint.create(subtype, supertype, location, realQualHierarchy);
     }
 
     /**
@@ -97,7 +155,13 @@ public class ConstraintManager {
      * {@link AlwaysTrueConstraint} or {@link AlwaysFalseConstraint}.
      */
     public Constraint createEqualityConstraint(Slot first, Slot second) {
-        return EqualityConstraint.create(first, second, getCurrentLocation());
+        return createEqualityConstraint(first, second, getCurrentLocation());
+    }
+
+    /** Same as {@link #createEqualityConstraint(Slot, Slot)}, but at the given location. */
+    public Constraint createEqualityConstraint(
+            Slot first, Slot second, AnnotationLocation location) {
+        return EqualityConstraint.create(first, second, location);
     }
 
     /**
@@ -105,7 +169,13 @@ public class ConstraintManager {
      * {@link AlwaysTrueConstraint} or {@link AlwaysFalseConstraint}.
      */
     public Constraint createInequalityConstraint(Slot first, Slot second) {
-        return InequalityConstraint.create(first, second, getCurrentLocation());
+        return createInequalityConstraint(first, second, getCurrentLocation());
+    }
+
+    /** Same as {@link #createInequalityConstraint(Slot, Slot)}, but at the given location. */
+    public Constraint createInequalityConstraint(
+            Slot first, Slot second, AnnotationLocation location) {
+        return InequalityConstraint.create(first, second, location);
     }
 
     /**
@@ -113,7 +183,13 @@ public class ConstraintManager {
      * {@link AlwaysTrueConstraint} or {@link AlwaysFalseConstraint}.
      */
     public Constraint createComparableConstraint(Slot first, Slot second) {
-        return ComparableConstraint.create(first, second, getCurrentLocation(), realQualHierarchy);
+        return createComparableConstraint(first, second, getCurrentLocation());
+    }
+
+    /** Same as {@link #createComparableConstraint(Slot, Slot)}, but at the given location. */
+    public Constraint createComparableConstraint(
+            Slot first, Slot second, AnnotationLocation location) {
+        return ComparableConstraint.create(first, second, location, realQualHierarchy);
     }
 
     /** Creates a {@link ComparisonConstraint} between the two slots. */
@@ -122,20 +198,52 @@ public class ConstraintManager {
             Slot first,
             Slot second,
             ComparisonVariableSlot result) {
+        return createComparisonConstraint(
+                operation, first, second, result, getCurrentLocation());
+    }
+
+    /**
+     * Creates a {@link ComparisonConstraint} between the two slots at the given location, for
+     * constraints that are not created while visiting the tree they belong to.
+     */
+    public Constraint createComparisonConstraint(
+            ComparisonOperationKind operation,
+            Slot first,
+            Slot second,
+            ComparisonVariableSlot result,
+            AnnotationLocation location) {
         return ComparisonConstraint.create(
-                operation, first, second, result, getCurrentLocation(), realQualHierarchy);
+                operation, first, second, result, location, realQualHierarchy);
     }
 
     /** Creates a {@link CombineConstraint} between the three slots. */
     public CombineConstraint createCombineConstraint(
             Slot target, Slot decl, CombVariableSlot result) {
-        return CombineConstraint.create(target, decl, result, getCurrentLocation());
+        return createCombineConstraint(target, decl, result, getCurrentLocation());
+    }
+
+    /**
+     * Same as {@link #createCombineConstraint(Slot, Slot, CombVariableSlot)}, but at the given
+     * location.
+     */
+    public CombineConstraint createCombineConstraint(
+            Slot target, Slot decl, CombVariableSlot result, AnnotationLocation location) {
+        return CombineConstraint.create(target, decl, result, location);
     }
 
     /** Creates a {@link PreferenceConstraint} for the given slots with the given weight. */
     public PreferenceConstraint createPreferenceConstraint(
             VariableSlot variable, ConstantSlot goal, int weight) {
-        return PreferenceConstraint.create(variable, goal, weight, getCurrentLocation());
+        return createPreferenceConstraint(variable, goal, weight, getCurrentLocation());
+    }
+
+    /**
+     * Same as {@link #createPreferenceConstraint(VariableSlot, ConstantSlot, int)}, but at the
+     * given location.
+     */
+    public PreferenceConstraint createPreferenceConstraint(
+            VariableSlot variable, ConstantSlot goal, int weight, AnnotationLocation location) {
+        return PreferenceConstraint.create(variable, goal, weight, location);
     }
 
     /** Creates an {@link ExistentialConstraint} for the given slot and lists of constraints. */
@@ -143,13 +251,31 @@ public class ConstraintManager {
             Slot slot,
             List<Constraint> ifExistsConstraints,
             List<Constraint> ifNotExistsConstraints) {
-        return ExistentialConstraint.create(
+        return createExistentialConstraint(
                 slot, ifExistsConstraints, ifNotExistsConstraints, getCurrentLocation());
     }
 
+    /**
+     * Same as {@link #createExistentialConstraint(Slot, List, List)}, but at the given location.
+     */
+    public ExistentialConstraint createExistentialConstraint(
+            Slot slot,
+            List<Constraint> ifExistsConstraints,
+            List<Constraint> ifNotExistsConstraints,
+            AnnotationLocation location) {
+        return ExistentialConstraint.create(
+                slot, ifExistsConstraints, ifNotExistsConstraints, location);
+    }
+
     public Constraint createImplicationConstraint(
             List<Constraint> assumptions, Constraint conclusion) {
-        return ImplicationConstraint.create(assumptions, conclusion, getCurrentLocation());
+        return createImplicationConstraint(assumptions, conclusion, getCurrentLocation());
+    }
+
+    /** Same as {@link #createImplicationConstraint(List, Constraint)}, but at the given location. */
+    public Constraint createImplicationConstraint(
+            List<Constraint> assumptions, Constraint conclusion, AnnotationLocation location) {
+        return ImplicationConstraint.create(assumptions, conclusion, location);
     }
 
     /** Create an {@link ArithmeticConstraint} for the given operation and slots. */
@@ -158,15 +284,34 @@ public class ConstraintManager {
             Slot leftOperand,
             Slot rightOperand,
             ArithmeticVariableSlot result) {
-        return ArithmeticConstraint.create(
+        return createArithmeticConstraint(
                 operation, leftOperand, rightOperand, result, getCurrentLocation());
     }
 
+    /**
+     * Create an {@link ArithmeticConstraint} for the given operation and slots at the given
+     * location, for constraints that are not created while visiting the tree they belong to.
+     */
+    public ArithmeticConstraint createArithmeticConstraint(
+            ArithmeticOperationKind operation,
+            Slot leftOperand,
+            Slot rightOperand,
+            ArithmeticVariableSlot result,
+            AnnotationLocation location) {
+        return ArithmeticConstraint.create(operation, leftOperand, rightOperand, result, location);
+    }
+
     // TODO: give location directly in Constraint.create() methods
     private AnnotationLocation getCurrentLocation() {
         TreePath path = inferenceTypeFactory.getVisitorTreePath();
         if (path != null) {
-            return VariableAnnotator.treeToLocation(inferenceTypeFactory, path.getLeaf());
+            Tree tree = path.getLeaf();
+            AnnotationLocation location = locationCache.get(tree);
+            if (location == null) {
+                location = VariableAnnotator.treeToLocation(inferenceTypeFactory, tree);
+                locationCache.put(tree, location);
+            }
+            return location;
         } else {
             return AnnotationLocation.MISSING_LOCATION;
         }
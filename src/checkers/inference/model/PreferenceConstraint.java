@@ -19,6 +19,13 @@ public class PreferenceConstraint extends Constraint {
         this.weight = weight;
     }
 
+    private PreferenceConstraint(VariableSlot variable, ConstantSlot goal, int weight) {
+        super(Arrays.<Slot>asList(variable, goal));
+        this.variable = variable;
+        this.goal = goal;
+        this.weight = weight;
+    }
+
     protected static PreferenceConstraint create(
             VariableSlot variable, ConstantSlot goal, int weight, AnnotationLocation location) {
         if (variable == null || goal == null) {
@@ -49,6 +56,14 @@ public class PreferenceConstraint extends Constraint {
         return weight;
     }
 
+    /**
+     * Make a preference with the goal and weight of this constraint for the given variable, e.g. to
+     * substitute out the variable.
+     */
+    public PreferenceConstraint make(VariableSlot variable) {
+        return new PreferenceConstraint(variable, goal, weight);
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
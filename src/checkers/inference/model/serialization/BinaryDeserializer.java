@@ -0,0 +1,364 @@
+package checkers.inference.model.serialization;
+
+import static checkers.inference.model.serialization.BinarySerializer.ANNOTATION_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.ARITHMETIC_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.COMBINE_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.COMPARABLE_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.COMPARISON_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.EQUALITY_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.EXISTENTIAL_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.IMPLICATION_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.INEQUALITY_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.MAGIC;
+import static checkers.inference.model.serialization.BinarySerializer.PREFERENCE_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.SUBTYPE_RECORD;
+import static checkers.inference.model.serialization.BinarySerializer.VERSION;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.InferenceMain;
+import checkers.inference.SlotManager;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.ArithmeticConstraint.ArithmeticOperationKind;
+import checkers.inference.model.ArithmeticVariableSlot;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.ComparisonConstraint.ComparisonOperationKind;
+import checkers.inference.model.ComparisonVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Reads constraints written by {@link BinarySerializer}. The file is memory-mapped and decoded
+ * record by record, so no intermediate representation of the whole document is built.
+ *
+ * <p>Variable ids are resolved through the current {@link SlotManager} when it knows them.
+ * Otherwise, as in {@link JsonDeserializer}, a {@link SourceVariableSlot} without location is
+ * created for them.
+ *
+ * <p>The format is documented in {@link BinarySerializer}.
+ */
+public class BinaryDeserializer {
+
+    protected final AnnotationMirrorSerializer annotationSerializer;
+
+    /** The mapped content of the file, positioned at the first record. */
+    private final ByteBuffer buffer;
+
+    /** Annotations defined so far, indexed in order of definition. */
+    private final List<AnnotationMirror> annotationTable = new ArrayList<>();
+
+    private final ConstraintManager constraintManager;
+
+    private final SlotManager slotManager;
+
+    /** The location of the top-level constraint being decoded, see {@link #getLocation}. */
+    private AnnotationLocation location;
+
+    public BinaryDeserializer(AnnotationMirrorSerializer annotationSerializer, File file)
+            throws IOException {
+        this(
+                annotationSerializer,
+                file,
+                InferenceMain.getInstance().getConstraintManager(),
+                InferenceMain.getInstance().getSlotManager());
+    }
+
+    /**
+     * Creates a deserializer that creates constraints with the given constraint manager and
+     * resolves variable ids through the given slot manager, rather than those of the current
+     * inference run.
+     */
+    public BinaryDeserializer(
+            AnnotationMirrorSerializer annotationSerializer,
+            File file,
+            ConstraintManager constraintManager,
+            SlotManager slotManager)
+            throws IOException {
+        this(annotationSerializer, map(file), constraintManager, slotManager);
+    }
+
+    /**
+     * Creates a deserializer that decodes the constraints in the remaining content of the given
+     * buffer, which starts with the header written by {@link BinarySerializer}.
+     */
+    public BinaryDeserializer(
+            AnnotationMirrorSerializer annotationSerializer,
+            ByteBuffer buffer,
+            ConstraintManager constraintManager,
+            SlotManager slotManager) {
+        this.annotationSerializer = annotationSerializer;
+        this.buffer = buffer;
+        this.constraintManager = constraintManager;
+        this.slotManager = slotManager;
+
+        if (buffer.remaining() < 5 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Parse error: not a constraint file.");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException(
+                    "Parse error: unsupported constraint file version: " + version);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "Constraint file " + file + " is too large to be mapped at once.");
+            }
+            // The mapping stays valid after the channel is closed.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** Decodes all remaining constraints of the file. */
+    public List<Constraint> parseConstraints() {
+        List<Constraint> results = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            location = getLocation(results.size());
+            Constraint constraint = readRecord();
+            if (constraint != null) {
+                results.add(constraint);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Reads the next record. Annotation records only extend the annotation table and yield null, as
+     * do records with an unknown tag, which are skipped.
+     */
+    private Constraint readRecord() {
+        byte tag = buffer.get();
+        int length = readVarInt();
+        int end = buffer.position() + length;
+
+        Constraint result;
+        switch (tag) {
+            case ANNOTATION_RECORD:
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                annotationTable.add(
+                        annotationSerializer.deserialize(
+                                new String(bytes, StandardCharsets.UTF_8)));
+                result = null;
+                break;
+            case SUBTYPE_RECORD:
+                {
+                    Slot sub = readSlot();
+                    Slot sup = readSlot();
+                    result = constraintManager.createSubtypeConstraint(sub, sup, location);
+                    break;
+                }
+            case EQUALITY_RECORD:
+                {
+                    Slot lhs = readSlot();
+                    Slot rhs = readSlot();
+                    result = constraintManager.createEqualityConstraint(lhs, rhs, location);
+                    break;
+                }
+            case INEQUALITY_RECORD:
+                {
+                    Slot lhs = readSlot();
+                    Slot rhs = readSlot();
+                    result = constraintManager.createInequalityConstraint(lhs, rhs, location);
+                    break;
+                }
+            case COMPARABLE_RECORD:
+                {
+                    Slot lhs = readSlot();
+                    Slot rhs = readSlot();
+                    result = constraintManager.createComparableConstraint(lhs, rhs, location);
+                    break;
+                }
+            case COMPARISON_RECORD:
+                {
+                    ComparisonOperationKind operation =
+                            ComparisonOperationKind.values()[readVarInt()];
+                    Slot lhs = readSlot();
+                    Slot rhs = readSlot();
+                    ComparisonVariableSlot comparisonResult =
+                            readSlot(ComparisonVariableSlot.class);
+                    result =
+                            constraintManager.createComparisonConstraint(
+                                    operation,
+                                    lhs,
+                                    rhs,
+                                    comparisonResult,
+                                    orLocationOf(comparisonResult));
+                    break;
+                }
+            case COMBINE_RECORD:
+                {
+                    Slot target = readSlot();
+                    Slot declared = readSlot();
+                    CombVariableSlot combResult = readSlot(CombVariableSlot.class);
+                    result =
+                            constraintManager.createCombineConstraint(
+                                    target, declared, combResult, location);
+                    break;
+                }
+            case PREFERENCE_RECORD:
+                {
+                    VariableSlot variable = readSlot(VariableSlot.class);
+                    ConstantSlot goal = readSlot(ConstantSlot.class);
+                    int zigzag = readVarInt();
+                    int weight = (zigzag >>> 1) ^ -(zigzag & 1);
+                    result =
+                            constraintManager.createPreferenceConstraint(
+                                    variable, goal, weight, location);
+                    break;
+                }
+            case EXISTENTIAL_RECORD:
+                {
+                    Slot potential = readSlot();
+                    List<Constraint> thenConstraints = readNested();
+                    List<Constraint> elseConstraints = readNested();
+                    result =
+                            constraintManager.createExistentialConstraint(
+                                    potential, thenConstraints, elseConstraints, location);
+                    break;
+                }
+            case IMPLICATION_RECORD:
+                {
+                    List<Constraint> assumptions = readNested();
+                    Constraint conclusion = readRecord();
+                    result =
+                            constraintManager.createImplicationConstraint(
+                                    assumptions, conclusion, location);
+                    break;
+                }
+            case ARITHMETIC_RECORD:
+                {
+                    ArithmeticOperationKind operation =
+                            ArithmeticOperationKind.values()[readVarInt()];
+                    Slot left = readSlot();
+                    Slot right = readSlot();
+                    ArithmeticVariableSlot arithmeticResult =
+                            readSlot(ArithmeticVariableSlot.class);
+                    result =
+                            constraintManager.createArithmeticConstraint(
+                                    operation,
+                                    left,
+                                    right,
+                                    arithmeticResult,
+                                    orLocationOf(arithmeticResult));
+                    break;
+                }
+            default:
+                result = null;
+        }
+
+        // Skip whatever is left of this record, e.g. because of an unknown tag.
+        buffer.position(end);
+        return result;
+    }
+
+    /**
+     * Returns the location of the current constraint, or if it is unknown, the location of the
+     * given result slot, which is unique to the constraint.
+     */
+    private AnnotationLocation orLocationOf(VariableSlot result) {
+        return location.getKind() == AnnotationLocation.Kind.MISSING
+                ? result.getLocation()
+                : location;
+    }
+
+    private List<Constraint> readNested() {
+        int count = readVarInt();
+        List<Constraint> constraints = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Constraint constraint = readRecord();
+            if (constraint != null) {
+                constraints.add(constraint);
+            }
+        }
+        return constraints;
+    }
+
+    private Slot readSlot() {
+        int encoded = readVarInt();
+        int value = encoded >>> 1;
+        if ((encoded & 1) != 0) {
+            if (value >= annotationTable.size()) {
+                throw new IllegalArgumentException(
+                        "Parse error: reference to undefined annotation " + value);
+            }
+            return getConstantSlot(annotationTable.get(value));
+        }
+
+        return getVariableSlot(value);
+    }
+
+    /**
+     * Returns the location of the constraint with the given index among the top-level constraints
+     * of the file, which is also given to the constraints nested in it. The format does not store
+     * locations, so this returns {@link AnnotationLocation#MISSING_LOCATION}; subclasses override
+     * this if they know the locations from elsewhere.
+     */
+    protected AnnotationLocation getLocation(int index) {
+        return AnnotationLocation.MISSING_LOCATION;
+    }
+
+    /**
+     * Returns the slot for the given constant of the file. Subclasses override this to decode
+     * constraints without creating slots in the slot manager.
+     */
+    protected Slot getConstantSlot(AnnotationMirror value) {
+        return slotManager.createConstantSlot(value);
+    }
+
+    /**
+     * Returns the slot for the given variable id of the file. Subclasses override this to map the
+     * ids of another run to the slots of the current one.
+     */
+    protected Slot getVariableSlot(int id) {
+        Slot slot = slotManager.getSlot(id);
+        if (slot == null) {
+            // TODO: Same as JsonDeserializer, the slot created here has no detailed information.
+            slot =
+                    new SourceVariableSlot(
+                            id, AnnotationLocation.MISSING_LOCATION, null, null, true);
+        }
+        return slot;
+    }
+
+    private <T extends Slot> T readSlot(Class<T> expected) {
+        Slot slot = readSlot();
+        if (!expected.isInstance(slot)) {
+            throw new IllegalArgumentException(
+                    "Parse error: expected a "
+                            + expected.getSimpleName()
+                            + " but found "
+                            + slot
+                            + ". The slot manager of this run doesn't know this slot.");
+        }
+        return expected.cast(slot);
+    }
+
+    private int readVarInt() {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+}
@@ -0,0 +1,367 @@
+package checkers.inference.model.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import checkers.inference.model.ArithmeticConstraint;
+import checkers.inference.model.ArithmeticVariableSlot;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.CombineConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ComparisonConstraint;
+import checkers.inference.model.ComparisonVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.ImplicationConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.LubVariableSlot;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.Serializer;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.model.SubtypeConstraint;
+
+/**
+ * Serializes constraints into a compact, streaming binary format. Unlike {@link JsonSerializer},
+ * no document tree is built: each top-level constraint is encoded and written to the output stream
+ * as soon as it is visited.
+ *
+ * <p>The format is:
+ *
+ * <pre>
+ * file       := MAGIC VERSION record*
+ * record     := tag:byte length:varint payload:byte[length]
+ * slot       := varint   // (id &lt;&lt; 1) for variables,
+ *                         // (annotationIndex &lt;&lt; 1) | 1 for constants
+ * </pre>
+ *
+ * <p>Annotations are interned: the first time a constant is referenced, an {@link
+ * #ANNOTATION_RECORD} holding the string produced by the {@link AnnotationMirrorSerializer} is
+ * written before the constraint that uses it, and the annotation is afterwards referred to by its
+ * index in order of definition. Constraint payloads are:
+ *
+ * <pre>
+ * SUBTYPE     := sub:slot sup:slot
+ * EQUALITY    := lhs:slot rhs:slot
+ * INEQUALITY  := lhs:slot rhs:slot
+ * COMPARABLE  := lhs:slot rhs:slot
+ * COMPARISON  := operation:varint lhs:slot rhs:slot result:slot
+ * COMBINE     := target:slot declared:slot result:slot
+ * PREFERENCE  := variable:slot goal:slot weight:zigzag-varint
+ * EXISTENTIAL := potential:slot count:varint record* count:varint record*
+ * IMPLICATION := count:varint record* conclusion:record
+ * ARITHMETIC  := operation:varint left:slot right:slot result:slot
+ * </pre>
+ *
+ * Operations are stored as the ordinal of the corresponding {@link
+ * ComparisonConstraint.ComparisonOperationKind} or {@link
+ * ArithmeticConstraint.ArithmeticOperationKind}. Every record is length-prefixed, so readers can
+ * skip records they do not understand.
+ *
+ * @see BinaryDeserializer
+ */
+public class BinarySerializer implements Serializer<Integer, byte[]> {
+
+    /** "CFIB" in ASCII: Checker Framework Inference Binary. */
+    protected static final int MAGIC = 0x43464942;
+
+    protected static final byte VERSION = 1;
+
+    protected static final byte ANNOTATION_RECORD = 0;
+    protected static final byte SUBTYPE_RECORD = 1;
+    protected static final byte EQUALITY_RECORD = 2;
+    protected static final byte INEQUALITY_RECORD = 3;
+    protected static final byte COMPARABLE_RECORD = 4;
+    protected static final byte COMPARISON_RECORD = 5;
+    protected static final byte COMBINE_RECORD = 6;
+    protected static final byte PREFERENCE_RECORD = 7;
+    protected static final byte EXISTENTIAL_RECORD = 8;
+    protected static final byte IMPLICATION_RECORD = 9;
+    protected static final byte ARITHMETIC_RECORD = 10;
+
+    private final OutputStream out;
+
+    private final AnnotationMirrorSerializer annotationSerializer;
+
+    /** Maps a serialized annotation to its index in the annotation table. */
+    private final Map<String, Integer> annotationTable = new HashMap<>();
+
+    /**
+     * Annotations that were interned while encoding the current constraint and still need their
+     * {@link #ANNOTATION_RECORD} written.
+     */
+    private final List<String> pendingAnnotations = new ArrayList<>();
+
+    private boolean headerWritten = false;
+
+    /**
+     * @param out the stream to write to. Callers should pass a buffered stream; it is neither
+     *     flushed nor closed by this class.
+     * @param annotationSerializer converts the values of constant slots to strings
+     */
+    public BinarySerializer(OutputStream out, AnnotationMirrorSerializer annotationSerializer) {
+        this.out = out;
+        this.annotationSerializer = annotationSerializer;
+    }
+
+    /** Writes the header, if needed, followed by one record per given constraint. */
+    public void writeConstraints(Collection<Constraint> constraints) throws IOException {
+        for (Constraint constraint : constraints) {
+            writeConstraint(constraint);
+        }
+    }
+
+    /**
+     * Writes the header, if needed, followed by the record of the given constraint.
+     *
+     * @return false if the constraint was skipped, because it refers to a missing slot
+     */
+    public boolean writeConstraint(Constraint constraint) throws IOException {
+        if (!headerWritten) {
+            writeInt(out, MAGIC);
+            out.write(VERSION);
+            headerWritten = true;
+        }
+
+        byte[] record = constraint.serialize(this);
+        // Annotations referenced by this constraint must be defined before it.
+        for (String annotation : pendingAnnotations) {
+            byte[] bytes = annotation.getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(bytes.length);
+            payload.write(bytes, 0, bytes.length);
+            out.write(toRecord(ANNOTATION_RECORD, payload));
+        }
+        pendingAnnotations.clear();
+        if (record == null) {
+            return false;
+        }
+        out.write(record);
+        return true;
+    }
+
+    // ================================================================================
+    // Slots
+    // ================================================================================
+
+    protected Integer serializeVariable(Slot slot) {
+        return slot.getId() << 1;
+    }
+
+    @Override
+    public Integer serialize(SourceVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    @Override
+    public Integer serialize(RefinementVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    @Override
+    public Integer serialize(ExistentialVariableSlot slot) {
+        throw new UnsupportedOperationException(
+                "Existential slots should be normalized away before serialization.");
+    }
+
+    @Override
+    public Integer serialize(ConstantSlot slot) {
+        String annotation = annotationSerializer.serialize(slot.getValue());
+        Integer index = annotationTable.get(annotation);
+        if (index == null) {
+            index = annotationTable.size();
+            annotationTable.put(annotation, index);
+            pendingAnnotations.add(annotation);
+        }
+        return (index << 1) | 1;
+    }
+
+    @Override
+    public Integer serialize(CombVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    @Override
+    public Integer serialize(LubVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    @Override
+    public Integer serialize(ComparisonVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    @Override
+    public Integer serialize(ArithmeticVariableSlot slot) {
+        return serializeVariable(slot);
+    }
+
+    // ================================================================================
+    // Constraints
+    // ================================================================================
+
+    @Override
+    public byte[] serialize(SubtypeConstraint constraint) {
+        return record(SUBTYPE_RECORD, constraint.getSubtype(), constraint.getSupertype());
+    }
+
+    @Override
+    public byte[] serialize(EqualityConstraint constraint) {
+        return record(EQUALITY_RECORD, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public byte[] serialize(InequalityConstraint constraint) {
+        return record(INEQUALITY_RECORD, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public byte[] serialize(ComparableConstraint constraint) {
+        return record(COMPARABLE_RECORD, constraint.getFirst(), constraint.getSecond());
+    }
+
+    @Override
+    public byte[] serialize(ComparisonConstraint constraint) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarInt(payload, constraint.getOperation().ordinal());
+        writeSlots(payload, constraint.getLeft(), constraint.getRight(), constraint.getResult());
+        return toRecord(COMPARISON_RECORD, payload);
+    }
+
+    @Override
+    public byte[] serialize(CombineConstraint constraint) {
+        return record(
+                COMBINE_RECORD,
+                constraint.getTarget(),
+                constraint.getDeclared(),
+                constraint.getResult());
+    }
+
+    @Override
+    public byte[] serialize(PreferenceConstraint constraint) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeSlots(payload, constraint.getVariable(), constraint.getGoal());
+        int weight = constraint.getWeight();
+        writeVarInt(payload, (weight << 1) ^ (weight >> 31));
+        return toRecord(PREFERENCE_RECORD, payload);
+    }
+
+    @Override
+    public byte[] serialize(ExistentialConstraint constraint) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeSlots(payload, constraint.getPotentialVariable());
+        writeNested(payload, constraint.potentialConstraints());
+        writeNested(payload, constraint.getAlternateConstraints());
+        return toRecord(EXISTENTIAL_RECORD, payload);
+    }
+
+    @Override
+    public byte[] serialize(ImplicationConstraint constraint) {
+        // Unlike the nested constraints of an existential constraint, an assumption cannot be
+        // dropped on its own: that would make the conclusion hold more often. So the implication is
+        // skipped as a whole if any part of it is skipped.
+        List<byte[]> assumptions = new ArrayList<>(constraint.getAssumptions().size());
+        for (Constraint assumption : constraint.getAssumptions()) {
+            byte[] record = assumption.serialize(this);
+            if (record == null) {
+                return null;
+            }
+            assumptions.add(record);
+        }
+        byte[] conclusion = constraint.getConclusion().serialize(this);
+        if (conclusion == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarInt(payload, assumptions.size());
+        for (byte[] assumption : assumptions) {
+            payload.write(assumption, 0, assumption.length);
+        }
+        payload.write(conclusion, 0, conclusion.length);
+        return toRecord(IMPLICATION_RECORD, payload);
+    }
+
+    @Override
+    public byte[] serialize(ArithmeticConstraint constraint) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeVarInt(payload, constraint.getOperation().ordinal());
+        writeSlots(
+                payload,
+                constraint.getLeftOperand(),
+                constraint.getRightOperand(),
+                constraint.getResult());
+        return toRecord(ARITHMETIC_RECORD, payload);
+    }
+
+    // ================================================================================
+    // Encoding helpers
+    // ================================================================================
+
+    private byte[] record(byte tag, Slot... slots) {
+        for (Slot slot : slots) {
+            if (slot == null) {
+                return null;
+            }
+        }
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        writeSlots(payload, slots);
+        return toRecord(tag, payload);
+    }
+
+    private void writeSlots(ByteArrayOutputStream payload, Slot... slots) {
+        for (Slot slot : slots) {
+            writeVarInt(payload, slot.serialize(this));
+        }
+    }
+
+    private void writeNested(
+            ByteArrayOutputStream payload, Collection<Constraint> nestedConstraints) {
+        List<byte[]> records = new ArrayList<>(nestedConstraints.size());
+        for (Constraint nested : nestedConstraints) {
+            byte[] record = nested.serialize(this);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        writeVarInt(payload, records.size());
+        for (byte[] record : records) {
+            payload.write(record, 0, record.length);
+        }
+    }
+
+    private static byte[] toRecord(byte tag, ByteArrayOutputStream payload) {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + 6);
+        record.write(tag);
+        writeVarInt(record, payload.size());
+        byte[] bytes = payload.toByteArray();
+        record.write(bytes, 0, bytes.length);
+        return record.toByteArray();
+    }
+
+    private static void writeInt(OutputStream stream, int value) throws IOException {
+        stream.write(value >>> 24);
+        stream.write(value >>> 16);
+        stream.write(value >>> 8);
+        stream.write(value);
+    }
+
+    /** Writes a non-negative int as an unsigned LEB128 varint. */
+    protected static void writeVarInt(ByteArrayOutputStream stream, int value) {
+        while ((value & ~0x7F) != 0) {
+            stream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        stream.write(value);
+    }
+}
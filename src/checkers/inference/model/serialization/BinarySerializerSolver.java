@@ -0,0 +1,57 @@
+package checkers.inference.model.serialization;
+
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.BugInCF;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.InferenceResult;
+import checkers.inference.InferenceSolver;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+
+/**
+ * InferenceSolver that serializes constraints to a file in the binary format of {@link
+ * BinarySerializer}. Constraints are streamed to the file one at a time, which keeps memory usage
+ * low for very large constraint sets.
+ */
+public class BinarySerializerSolver implements InferenceSolver {
+
+    private static final String FILE_KEY = "constraint-file";
+    private static final String DEFAULT_FILE = "./constraints.bin";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    @Override
+    public InferenceResult solve(
+            Map<String, String> configuration,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            QualifierHierarchy qualHierarchy,
+            ProcessingEnvironment processingEnvironment) {
+
+        AnnotationMirror top = qualHierarchy.getTopAnnotations().iterator().next();
+        AnnotationMirror bottom = qualHierarchy.getBottomAnnotations().iterator().next();
+        SimpleAnnotationMirrorSerializer annotationSerializer =
+                new SimpleAnnotationMirrorSerializer(top, bottom);
+
+        String outFile =
+                configuration.containsKey(FILE_KEY) ? configuration.get(FILE_KEY) : DEFAULT_FILE;
+        try (OutputStream out =
+                new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE)) {
+            BinarySerializer serializer = new BinarySerializer(out, annotationSerializer);
+            serializer.writeConstraints(constraints);
+        } catch (IOException e) {
+            throw new BugInCF("Failed to write constraints to " + outFile, e);
+        }
+
+        return null;
+    }
+}
@@ -3,11 +3,17 @@ package checkers.inference.solver;
 import org.checkerframework.framework.type.QualifierHierarchy;
 import org.checkerframework.javacutil.BugInCF;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
 
+import checkers.inference.DefaultInferenceResult;
 import checkers.inference.InferenceResult;
 import checkers.inference.InferenceSolver;
 import checkers.inference.model.Constraint;
@@ -16,6 +22,10 @@ import checkers.inference.solver.backend.SolverFactory;
 import checkers.inference.solver.backend.maxsat.MaxSatSolver;
 import checkers.inference.solver.frontend.Lattice;
 import checkers.inference.solver.frontend.LatticeBuilder;
+import checkers.inference.solver.presolve.ConstantPropagationPresolver;
+import checkers.inference.solver.presolve.PresolvedConstraints;
+import checkers.inference.solver.presolve.Presolver;
+import checkers.inference.solver.presolve.SubtypeCycleCollapsingPresolver;
 import checkers.inference.solver.strategy.PlainSolvingStrategy;
 import checkers.inference.solver.strategy.SolvingStrategy;
 import checkers.inference.solver.util.NameUtils;
@@ -23,6 +33,7 @@ import checkers.inference.solver.util.PrintUtils;
 import checkers.inference.solver.util.SolverArg;
 import checkers.inference.solver.util.SolverEnvironment;
 import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
 
 /**
  * SolverEngine is the entry point of general solver framework, and it is also the front end of
@@ -37,6 +48,7 @@ public class SolverEngine implements InferenceSolver {
     protected boolean collectStatistics;
     protected boolean writeSolutions;
     protected boolean noAppend;
+    protected boolean presolve;
     protected String strategyName;
     protected String solverName;
 
@@ -54,13 +66,30 @@ public class SolverEngine implements InferenceSolver {
         writeSolutions,
 
         /** whether to write statistics & solutions in append mode or not */
-        noAppend;
+        noAppend,
+
+        /**
+         * whether to simplify the constraints before solving, by fixing the slots they force and
+         * merging the slots they make equal, e.g. by a cycle of subtype constraints
+         */
+        presolve;
     }
 
-    private final String BACKEND_PACKAGE_PATH = SolverFactory.class.getPackage().getName();
+    private static final String BACKEND_PACKAGE_PATH = SolverFactory.class.getPackage().getName();
     private final String STRATEGY_PACKAGE_NAME = SolvingStrategy.class.getPackage().getName();
 
     protected SolverFactory createSolverFactory() {
+        return createSolverFactory(solverName);
+    }
+
+    /**
+     * Creates the factory of the solver with the given name, i.e. the class {@code
+     * <solverName>SolverFactory} in the backend package {@code <solvername>}.
+     *
+     * @param solverName the name of the solver, as given by the {@code solver} argument
+     * @return a new factory of the solver
+     */
+    public static SolverFactory createSolverFactory(String solverName) {
         final String solverPackageName = BACKEND_PACKAGE_PATH + "." + solverName.toLowerCase();
         final String solverFactoryClassName = solverName + "SolverFactory";
 
@@ -116,7 +145,7 @@ public class SolverEngine implements InferenceSolver {
         Lattice lattice = new LatticeBuilder().buildLattice(qualHierarchy, slots);
         SolvingStrategy solvingStrategy = createSolvingStrategy();
         InferenceResult inferenceResult =
-                solvingStrategy.solve(solverEnvironment, slots, constraints, lattice);
+                solveConstraints(solvingStrategy, solverEnvironment, slots, constraints, lattice);
 
         if (inferenceResult == null) {
             throw new BugInCF("InferenceResult should never be null, but null result detected!");
@@ -146,6 +175,81 @@ public class SolverEngine implements InferenceSolver {
         return inferenceResult;
     }
 
+    /** Solves the constraints with the given strategy, after presolving them if enabled. */
+    InferenceResult solveConstraints(
+            SolvingStrategy solvingStrategy,
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        return presolve
+                ? solveWithPresolving(
+                        solvingStrategy, solverEnvironment, slots, constraints, lattice)
+                : solvingStrategy.solve(solverEnvironment, slots, constraints, lattice);
+    }
+
+    /**
+     * Creates the presolvers that simplify the constraints before they are solved, in the order
+     * they run. Sub-classes may override this method to add presolvers specific to their type
+     * system.
+     */
+    protected List<Presolver> createPresolvers(Lattice lattice) {
+        return Arrays.asList(
+                new ConstantPropagationPresolver(lattice), new SubtypeCycleCollapsingPresolver());
+    }
+
+    /**
+     * Solves the constraints left by the presolvers, and completes the solution with the slots
+     * they fixed or merged. If a presolver or the strategy finds no solution, the original
+     * constraints are solved again, so that the unsatisfiable constraints are reported with their
+     * locations.
+     */
+    private InferenceResult solveWithPresolving(
+            SolvingStrategy solvingStrategy,
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        Deque<PresolvedConstraints> passes = new ArrayDeque<>();
+        Collection<Constraint> remaining = constraints;
+        try (Trace.Span span = Trace.start("presolve")) {
+            for (Presolver presolver : createPresolvers(lattice)) {
+                PresolvedConstraints presolved = presolver.presolve(remaining);
+                if (presolved == null) {
+                    remaining = null;
+                    break;
+                }
+                span.count("fixed_slots", presolved.getFixedSolutions().size());
+                span.count("merged_slots", presolved.getAliases().size());
+                Statistics.addOrIncrementEntry(
+                        "presolve_fixed_slots", presolved.getFixedSolutions().size());
+                Statistics.addOrIncrementEntry(
+                        "presolve_merged_slots", presolved.getAliases().size());
+                passes.push(presolved);
+                remaining = presolved.getConstraints();
+            }
+            if (remaining != null) {
+                int removed = constraints.size() - remaining.size();
+                span.count("removed_constraints", removed);
+                Statistics.addOrIncrementEntry("presolve_removed_constraints", removed);
+            }
+        }
+
+        if (remaining != null) {
+            InferenceResult result =
+                    solvingStrategy.solve(solverEnvironment, slots, remaining, lattice);
+            if (result != null && result.hasSolution()) {
+                Map<Integer, AnnotationMirror> solution = result.getSolutions();
+                // The last pass completes the solution first.
+                for (PresolvedConstraints presolved : passes) {
+                    solution = presolved.completeSolution(solution);
+                }
+                return new DefaultInferenceResult(solution);
+            }
+        }
+        return solvingStrategy.solve(solverEnvironment, slots, constraints, lattice);
+    }
+
     /**
      * This method configures following arguments: solving strategy, and collectStatistics.
      *
@@ -165,6 +269,7 @@ public class SolverEngine implements InferenceSolver {
         this.collectStatistics = solverEnvironment.getBoolArg(SolverEngineArg.collectStatistics);
         this.writeSolutions = solverEnvironment.getBoolArg(SolverEngineArg.writeSolutions);
         this.noAppend = solverEnvironment.getBoolArg(SolverEngineArg.noAppend);
+        this.presolve = solverEnvironment.getBoolArg(SolverEngineArg.presolve);
 
         // Sanitize the configuration if it needs.
         sanitizeSolverEngineArgs();
@@ -55,6 +55,9 @@ public abstract class Solver<T extends FormatTranslator<?, ?, ?>> {
     /** Target qualifier lattice */
     protected final Lattice lattice;
 
+    /** Whether {@link #cancel()} has been called. */
+    protected volatile boolean cancelled = false;
+
     public Solver(
             SolverEnvironment solverEnvironment,
             Collection<Slot> slots,
@@ -88,6 +91,30 @@ public abstract class Solver<T extends FormatTranslator<?, ?, ?>> {
     /** Returns a set of constraints that are not solvable together. */
     public abstract Collection<Constraint> explainUnsatisfiable();
 
+    /**
+     * Asks this solver to stop a running or upcoming {@link #solve()}, whose result is then no
+     * longer needed, e.g. because another solver already solved the same constraints. This method
+     * may be called from any thread. A cancelled {@link #solve()} may return any result or throw a
+     * {@link java.util.concurrent.CancellationException}.
+     *
+     * <p>Solvers that run in another process are stopped by interrupting the solving thread
+     * instead. Solvers that run in this process override this method to stop their underlying
+     * solver.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /** Returns the constraints solved by this solver. */
+    public Collection<Constraint> getConstraints() {
+        return constraints;
+    }
+
+    /** Returns the lattice this solver solves constraints against. */
+    public Lattice getLattice() {
+        return lattice;
+    }
+
     /**
      * Calls formatTranslator to convert constraints into the corresponding encoding form. See
      * {@link checkers.inference.solver.backend.maxsat.MaxSatSolver#encodeAllConstraints()}} for an
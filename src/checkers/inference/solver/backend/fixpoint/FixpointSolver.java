@@ -0,0 +1,317 @@
+package checkers.inference.solver.backend.fixpoint;
+
+import org.checkerframework.javacutil.BugInCF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.AlwaysFalseConstraint;
+import checkers.inference.model.AlwaysTrueConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.solver.backend.FormatTranslator;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.maxsat.MaxSatSolverFactory;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
+
+/**
+ * FixpointSolver computes the least solution of subtype and equality constraints over any finite
+ * lattice, without a SAT solver.
+ *
+ * <p>Every slot starts at bottom and is raised to the least upper bound of its lower bounds: the
+ * constants it must be a supertype of or equal to, and the slots it must be a supertype of. The
+ * slots are taken from a worklist ordered topologically along the subtype edges, so that a slot is
+ * usually raised only after all of its subtypes have settled. The least solution is then checked
+ * against the upper bounds, i.e. the constants the slots must be subtypes of or equal to. As every
+ * solution is above the least one, the constraints are unsatisfiable exactly when this check
+ * fails.
+ *
+ * <p>{@link FixpointSolverFactory} hands constraints of other kinds to a SAT solver, which also
+ * explains the unsatisfiable constraints.
+ */
+public class FixpointSolver extends Solver<FormatTranslator<?, ?, ?>> {
+
+    protected static final Statistics.Counter solvingTimeCounter =
+            Statistics.register("fixpoint_solving_time(ms)");
+
+    private final QualifierTable qualifiers;
+
+    /** The slots of the variables, by variable index. */
+    private final List<Slot> variables = new ArrayList<>();
+
+    private final Map<Integer, Integer> variableIndices = new HashMap<>();
+
+    /** The subtype edges between variables, as pairs of variable indices. */
+    private final List<int[]> edges = new ArrayList<>();
+
+    /** The qualifier each variable must be a supertype of, or -1 for none. */
+    private int[] lowerBounds = new int[0];
+
+    /** The constraints that bound variables from above, checked against the least solution. */
+    private final List<Constraint> upperBoundConstraints = new ArrayList<>();
+
+    private boolean hasFalseConstraint = false;
+
+    public FixpointSolver(
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice,
+            QualifierTable qualifiers) {
+        super(solverEnvironment, slots, constraints, null, lattice);
+        this.qualifiers = qualifiers;
+    }
+
+    /**
+     * Returns whether the given constraints can be solved by a FixpointSolver, i.e. whether they
+     * are subtype and equality constraints over qualifiers of a lattice.
+     */
+    public static boolean canSolve(Collection<Constraint> constraints, QualifierTable qualifiers) {
+        if (!qualifiers.isLattice()) {
+            return false;
+        }
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof AlwaysTrueConstraint
+                    || constraint instanceof AlwaysFalseConstraint) {
+                continue;
+            }
+            if (!(constraint instanceof SubtypeConstraint)
+                    && !(constraint instanceof EqualityConstraint)) {
+                return false;
+            }
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof ConstantSlot
+                        && qualifiers.indexOf(((ConstantSlot) slot).getValue()) == -1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Map<Integer, AnnotationMirror> solve() {
+        long solvingStart = System.currentTimeMillis();
+        try (Trace.Span encoding = Trace.start("encode")) {
+            encodeAllConstraints();
+            encoding.count("variables", variables.size());
+            encoding.count("edges", edges.size());
+        }
+
+        int[] values;
+        try (Trace.Span solving = Trace.start("fixpoint-solve")) {
+            values = hasFalseConstraint ? null : leastSolution();
+            if (values != null && !satisfiesUpperBounds(values)) {
+                values = null;
+            }
+        }
+        solvingTimeCounter.add(System.currentTimeMillis() - solvingStart);
+        if (values == null) {
+            return null;
+        }
+
+        Map<Integer, AnnotationMirror> solutions = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            solutions.put(variables.get(i).getId(), qualifiers.getQualifier(values[i]));
+        }
+        return solutions;
+    }
+
+    /**
+     * Explains the unsatisfiable constraints with a MaxSat solver, as the least solution only
+     * tells which upper bound it violates, not which constraints raised it there.
+     */
+    @Override
+    public Collection<Constraint> explainUnsatisfiable() {
+        Solver<?> explainer =
+                new MaxSatSolverFactory()
+                        .createSolver(solverEnvironment, slots, constraints, lattice);
+        if (explainer.solve() != null) {
+            throw new BugInCF(
+                    "The fixpoint solver found constraints unsatisfiable that MaxSat solved.");
+        }
+        return explainer.explainUnsatisfiable();
+    }
+
+    /** Collects the variables, the subtype edges between them, and their bounds. */
+    @Override
+    protected void encodeAllConstraints() {
+        List<int[]> lowerBoundList = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof AlwaysFalseConstraint) {
+                hasFalseConstraint = true;
+            }
+            if (!(constraint instanceof SubtypeConstraint)
+                    && !(constraint instanceof EqualityConstraint)) {
+                continue;
+            }
+            List<Slot> slots = constraint.getSlots();
+            Slot first = slots.get(0);
+            Slot second = slots.get(1);
+            boolean equality = constraint instanceof EqualityConstraint;
+            if (first instanceof ConstantSlot || second instanceof ConstantSlot) {
+                if (!(first instanceof ConstantSlot)) {
+                    // v <: C or v == C
+                    int variable = indexOf(first);
+                    upperBoundConstraints.add(constraint);
+                    if (equality) {
+                        lowerBoundList.add(new int[] {variable, constantOf(second)});
+                    }
+                } else if (!(second instanceof ConstantSlot)) {
+                    // C <: v or C == v
+                    lowerBoundList.add(new int[] {indexOf(second), constantOf(first)});
+                    if (equality) {
+                        upperBoundConstraints.add(constraint);
+                    }
+                } else {
+                    upperBoundConstraints.add(constraint);
+                }
+                continue;
+            }
+            edges.add(new int[] {indexOf(first), indexOf(second)});
+            if (equality) {
+                edges.add(new int[] {indexOf(second), indexOf(first)});
+            }
+        }
+
+        lowerBounds = new int[variables.size()];
+        Arrays.fill(lowerBounds, -1);
+        for (int[] bound : lowerBoundList) {
+            int current = lowerBounds[bound[0]];
+            lowerBounds[bound[0]] = current == -1 ? bound[1] : qualifiers.lub(current, bound[1]);
+        }
+    }
+
+    private int constantOf(Slot slot) {
+        return qualifiers.indexOf(((ConstantSlot) slot).getValue());
+    }
+
+    private int indexOf(Slot slot) {
+        Integer index = variableIndices.get(slot.getId());
+        if (index == null) {
+            index = variables.size();
+            variableIndices.put(slot.getId(), index);
+            variables.add(slot);
+        }
+        return index;
+    }
+
+    /** Raises the variables from bottom to the least upper bounds of their lower bounds. */
+    private int[] leastSolution() {
+        int n = variables.size();
+        int[] offsets = new int[n + 1];
+        for (int[] edge : edges) {
+            offsets[edge[0] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] supertypes = new int[edges.size()];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int[] edge : edges) {
+            supertypes[next[edge[0]]++] = edge[1];
+        }
+
+        int[] ranks = topologicalRanks(offsets, supertypes);
+        PriorityQueue<Integer> worklist =
+                new PriorityQueue<>(Math.max(1, n), (a, b) -> Integer.compare(ranks[a], ranks[b]));
+        boolean[] queued = new boolean[n];
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = lowerBounds[i] == -1 ? qualifiers.getBottom() : lowerBounds[i];
+            worklist.add(i);
+            queued[i] = true;
+        }
+
+        while (!worklist.isEmpty()) {
+            int variable = worklist.poll();
+            queued[variable] = false;
+            for (int e = offsets[variable]; e < offsets[variable + 1]; e++) {
+                int supertype = supertypes[e];
+                int raised = qualifiers.lub(values[supertype], values[variable]);
+                if (raised != values[supertype]) {
+                    values[supertype] = raised;
+                    if (!queued[supertype]) {
+                        queued[supertype] = true;
+                        worklist.add(supertype);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Ranks the variables in reverse postorder of a depth-first search along the subtype edges,
+     * which orders them topologically up to cycles.
+     */
+    private static int[] topologicalRanks(int[] offsets, int[] supertypes) {
+        int n = offsets.length - 1;
+        int[] ranks = new int[n];
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] positions = new int[n];
+        int rank = n;
+        for (int root = 0; root < n; root++) {
+            if (visited[root]) {
+                continue;
+            }
+            int depth = 0;
+            stack[depth] = root;
+            positions[depth] = offsets[root];
+            visited[root] = true;
+            while (depth >= 0) {
+                int variable = stack[depth];
+                if (positions[depth] < offsets[variable + 1]) {
+                    int supertype = supertypes[positions[depth]++];
+                    if (!visited[supertype]) {
+                        visited[supertype] = true;
+                        depth++;
+                        stack[depth] = supertype;
+                        positions[depth] = offsets[supertype];
+                    }
+                } else {
+                    ranks[variable] = --rank;
+                    depth--;
+                }
+            }
+        }
+        return ranks;
+    }
+
+    private boolean satisfiesUpperBounds(int[] values) {
+        for (Constraint constraint : upperBoundConstraints) {
+            List<Slot> slots = constraint.getSlots();
+            int first = valueOf(slots.get(0), values);
+            int second = valueOf(slots.get(1), values);
+            boolean holds =
+                    constraint instanceof EqualityConstraint
+                            ? first == second
+                            : qualifiers.isSubtype(first, second);
+            if (!holds) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int valueOf(Slot slot, int[] values) {
+        if (slot instanceof ConstantSlot) {
+            return constantOf(slot);
+        }
+        return values[variableIndices.get(slot.getId())];
+    }
+}
@@ -0,0 +1,59 @@
+package checkers.inference.solver.backend.fixpoint;
+
+import java.util.Collection;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.backend.maxsat.MaxSatSolverFactory;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+
+/**
+ * Creates a {@link FixpointSolver} for constraints it can solve, and a MaxSat solver for all
+ * others.
+ *
+ * <p>The choice is made for each set of constraints the solving strategy solves, so with the graph
+ * solving strategy, the components with subtype and equality constraints only are solved without
+ * SAT even if other components need it.
+ */
+public class FixpointSolverFactory implements SolverFactory {
+
+    protected static final Statistics.Counter fixpointSolverCounter =
+            Statistics.register("fixpoint_solved_components");
+    protected static final Statistics.Counter fallbackCounter =
+            Statistics.register("fixpoint_fallback_components");
+
+    private final SolverFactory fallbackFactory = new MaxSatSolverFactory();
+
+    /** The qualifier table of the lattice of the last created solver. */
+    private QualifierTable qualifiers;
+
+    private Lattice qualifiersLattice;
+
+    @Override
+    public Solver<?> createSolver(
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        QualifierTable qualifiers = getQualifierTable(lattice);
+        if (FixpointSolver.canSolve(constraints, qualifiers)) {
+            fixpointSolverCounter.add(1);
+            return new FixpointSolver(solverEnvironment, slots, constraints, lattice, qualifiers);
+        }
+        fallbackCounter.add(1);
+        return fallbackFactory.createSolver(solverEnvironment, slots, constraints, lattice);
+    }
+
+    /** Returns the qualifier table of the given lattice, which all components share. */
+    private synchronized QualifierTable getQualifierTable(Lattice lattice) {
+        if (qualifiersLattice != lattice) {
+            qualifiers = new QualifierTable(lattice);
+            qualifiersLattice = lattice;
+        }
+        return qualifiers;
+    }
+}
@@ -0,0 +1,111 @@
+package checkers.inference.solver.backend.fixpoint;
+
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.solver.frontend.Lattice;
+
+/**
+ * The qualifiers of a {@link Lattice} numbered from 0, with their subtype relation and least upper
+ * bounds as arrays, so that solvers can compare and join qualifiers by index.
+ */
+public class QualifierTable {
+
+    private final List<AnnotationMirror> qualifiers;
+
+    private final Map<AnnotationMirror, Integer> indices = new AnnotationMirrorMap<>();
+
+    /** Whether the qualifier with the first index is a subtype of the one with the second. */
+    private final boolean[][] subtype;
+
+    /** The least upper bound of two qualifiers, or -1 if they have none. */
+    private final int[][] lub;
+
+    private final boolean isLattice;
+
+    private final int bottom;
+
+    public QualifierTable(Lattice lattice) {
+        this.qualifiers = new ArrayList<>(lattice.allTypes);
+        int n = qualifiers.size();
+        for (int i = 0; i < n; i++) {
+            indices.put(qualifiers.get(i), i);
+        }
+
+        subtype = new boolean[n][n];
+        for (int i = 0; i < n; i++) {
+            for (AnnotationMirror supertype : lattice.superType.get(qualifiers.get(i))) {
+                Integer j = indices.get(supertype);
+                if (j != null) {
+                    subtype[i][j] = true;
+                }
+            }
+        }
+
+        boolean hasAllLubs = true;
+        lub = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                lub[i][j] = leastUpperBound(i, j);
+                hasAllLubs &= lub[i][j] != -1;
+            }
+        }
+        this.isLattice = hasAllLubs;
+        this.bottom = indexOf(lattice.bottom);
+    }
+
+    /** Returns the upper bound of both qualifiers that is a subtype of all others, or -1. */
+    private int leastUpperBound(int first, int second) {
+        int n = qualifiers.size();
+        for (int candidate = 0; candidate < n; candidate++) {
+            if (!subtype[first][candidate] || !subtype[second][candidate]) {
+                continue;
+            }
+            boolean least = true;
+            for (int other = 0; other < n && least; other++) {
+                least =
+                        !subtype[first][other]
+                                || !subtype[second][other]
+                                || subtype[candidate][other];
+            }
+            if (least) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns whether every two qualifiers have a least upper bound. */
+    public boolean isLattice() {
+        return isLattice;
+    }
+
+    /** Returns the index of the given qualifier, or -1 if it is not in the lattice. */
+    public int indexOf(AnnotationMirror qualifier) {
+        Integer index = indices.get(qualifier);
+        return index == null ? -1 : index;
+    }
+
+    /** Returns the index of the bottom qualifier. */
+    public int getBottom() {
+        return bottom;
+    }
+
+    public AnnotationMirror getQualifier(int index) {
+        return qualifiers.get(index);
+    }
+
+    public boolean isSubtype(int sub, int sup) {
+        return subtype[sub][sup];
+    }
+
+    /** Returns the least upper bound of the given qualifiers, see {@link #isLattice()}. */
+    public int lub(int first, int second) {
+        return lub[first][second];
+    }
+}
@@ -0,0 +1,359 @@
+package checkers.inference.solver.backend.horn;
+
+import org.checkerframework.framework.qual.PolymorphicQualifier;
+import org.checkerframework.javacutil.AnnotationUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+
+import checkers.inference.model.AlwaysFalseConstraint;
+import checkers.inference.model.AlwaysTrueConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.solver.backend.FormatTranslator;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverArg;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
+
+/**
+ * HornSolver solves the constraints of a type system with two qualifiers by propagation, in time
+ * linear in the size of the constraints.
+ *
+ * <p>With a variable per slot that is true when the slot is top, a subtype constraint a &lt;: b is
+ * the implication a &rArr; b, an equality is an implication in both directions, and an equality
+ * or inequality with a constant fixes a variable. Such Horn constraints are satisfiable exactly
+ * when propagating the slots fixed to top along the implications, and the slots fixed to bottom
+ * against them, never assigns a slot both. The remaining slots are then bottom in the least
+ * solution, or top in the greatest one, see {@link HornSolverArg#greatestSolution}.
+ *
+ * <p>Other constraints, such as preferences, cannot be solved this way; {@link HornSolverFactory}
+ * hands them to a SAT solver instead. When the constraints are unsatisfiable, the chain of
+ * constraints that assigns a slot both qualifiers explains why.
+ */
+public class HornSolver extends Solver<FormatTranslator<?, ?, ?>> {
+
+    public enum HornSolverArg implements SolverArg {
+        /**
+         * Whether the slots that the constraints do not force are top instead of bottom, i.e.
+         * whether to compute the greatest instead of the least solution.
+         */
+        greatestSolution;
+    }
+
+    private static final byte UNKNOWN = 0;
+    private static final byte TOP = 1;
+    private static final byte BOTTOM = 2;
+
+    protected static final Statistics.Counter solvingTimeCounter =
+            Statistics.register("horn_solving_time(ms)");
+
+    /** The constraints, indexed as the reasons of assignments refer to them. */
+    private final List<Constraint> constraintList;
+
+    /** The slots of the variables, by variable index. */
+    private final List<Slot> variables = new ArrayList<>();
+
+    private final Map<Integer, Integer> variableIndices = new HashMap<>();
+
+    /** The implications of the subtype and equality constraints between variables. */
+    private final List<int[]> implications = new ArrayList<>();
+
+    /** The variables fixed by a constraint, with the constraint and the qualifier. */
+    private final List<int[]> facts = new ArrayList<>();
+
+    /** The constraints that are unsatisfiable together, empty until solving fails. */
+    private final Set<Constraint> conflict = new LinkedHashSet<>();
+
+    public HornSolver(
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        super(solverEnvironment, slots, constraints, null, lattice);
+        this.constraintList = new ArrayList<>(constraints);
+    }
+
+    /**
+     * Returns whether the given constraints can be solved by a HornSolver, i.e. whether the lattice
+     * has two qualifiers and every constraint is a Horn constraint over them.
+     */
+    public static boolean canSolve(Collection<Constraint> constraints, Lattice lattice) {
+        if (!hasTwoQualifiers(lattice)) {
+            return false;
+        }
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof AlwaysTrueConstraint
+                    || constraint instanceof AlwaysFalseConstraint) {
+                continue;
+            }
+            if (!(constraint instanceof SubtypeConstraint)
+                    && !(constraint instanceof EqualityConstraint)
+                    && !(constraint instanceof InequalityConstraint)
+                    && !(constraint instanceof ComparableConstraint)) {
+                return false;
+            }
+            int constants = 0;
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof ConstantSlot) {
+                    if (qualifierOf((ConstantSlot) slot, lattice) == UNKNOWN) {
+                        return false;
+                    }
+                    constants++;
+                }
+            }
+            // a != b for variables a and b is not a Horn clause.
+            if (constraint instanceof InequalityConstraint && constants == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the lattice consists of a top and a distinct bottom below it. Polymorphic
+     * qualifiers are not counted: constants never are polymorphic, as the inference replaces them
+     * with variables, and a solution with top and bottom only is a solution in the whole lattice.
+     */
+    static boolean hasTwoQualifiers(Lattice lattice) {
+        if (AnnotationUtils.areSame(lattice.top, lattice.bottom)) {
+            return false;
+        }
+        Collection<AnnotationMirror> subtypesOfTop = lattice.subType.get(lattice.top);
+        if (subtypesOfTop == null || !AnnotationUtils.containsSame(subtypesOfTop, lattice.bottom)) {
+            return false;
+        }
+        int qualifiers = 0;
+        for (AnnotationMirror qualifier : lattice.allTypes) {
+            Element element = qualifier.getAnnotationType().asElement();
+            if (element.getAnnotation(PolymorphicQualifier.class) == null) {
+                qualifiers++;
+            }
+        }
+        return qualifiers == 2;
+    }
+
+    private static byte qualifierOf(ConstantSlot constant, Lattice lattice) {
+        if (AnnotationUtils.areSame(constant.getValue(), lattice.top)) {
+            return TOP;
+        }
+        if (AnnotationUtils.areSame(constant.getValue(), lattice.bottom)) {
+            return BOTTOM;
+        }
+        return UNKNOWN;
+    }
+
+    @Override
+    public Map<Integer, AnnotationMirror> solve() {
+        long solvingStart = System.currentTimeMillis();
+        try (Trace.Span encoding = Trace.start("encode")) {
+            encodeAllConstraints();
+            encoding.count("variables", variables.size());
+            encoding.count("implications", implications.size());
+        }
+
+        byte[] values;
+        try (Trace.Span solving = Trace.start("horn-solve")) {
+            values = propagate();
+        }
+        solvingTimeCounter.add(System.currentTimeMillis() - solvingStart);
+        if (values == null) {
+            return null;
+        }
+
+        boolean greatest = solverEnvironment.getBoolArg(HornSolverArg.greatestSolution);
+        Map<Integer, AnnotationMirror> solutions = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            boolean top = values[i] == UNKNOWN ? greatest : values[i] == TOP;
+            solutions.put(variables.get(i).getId(), top ? lattice.top : lattice.bottom);
+        }
+        return solutions;
+    }
+
+    @Override
+    public Collection<Constraint> explainUnsatisfiable() {
+        return conflict;
+    }
+
+    /**
+     * Collects the variables, the implications between them, and the facts that fix them. A
+     * constraint between two constants that does not hold is recorded as the conflict.
+     */
+    @Override
+    protected void encodeAllConstraints() {
+        for (int c = 0; c < constraintList.size(); c++) {
+            Constraint constraint = constraintList.get(c);
+            if (constraint instanceof AlwaysFalseConstraint) {
+                conflict.add(constraint);
+            }
+            if (!(constraint instanceof SubtypeConstraint)
+                    && !(constraint instanceof EqualityConstraint)
+                    && !(constraint instanceof InequalityConstraint)) {
+                // Always true, including comparability in a lattice with two qualifiers.
+                continue;
+            }
+            List<Slot> slots = constraint.getSlots();
+            Slot first = slots.get(0);
+            Slot second = slots.get(1);
+            if (first instanceof ConstantSlot && second instanceof ConstantSlot) {
+                if (!holds(constraint, (ConstantSlot) first, (ConstantSlot) second)) {
+                    conflict.add(constraint);
+                }
+            } else if (first instanceof ConstantSlot || second instanceof ConstantSlot) {
+                encodeWithConstant(c, first, second);
+            } else if (constraint instanceof SubtypeConstraint) {
+                implications.add(new int[] {indexOf(first), indexOf(second), c});
+            } else {
+                // equality
+                implications.add(new int[] {indexOf(first), indexOf(second), c});
+                implications.add(new int[] {indexOf(second), indexOf(first), c});
+            }
+        }
+    }
+
+    private void encodeWithConstant(int c, Slot first, Slot second) {
+        Constraint constraint = constraintList.get(c);
+        boolean constantFirst = first instanceof ConstantSlot;
+        byte constant = qualifierOf((ConstantSlot) (constantFirst ? first : second), lattice);
+        int variable = indexOf(constantFirst ? second : first);
+        if (constraint instanceof EqualityConstraint) {
+            facts.add(new int[] {variable, c, constant});
+        } else if (constraint instanceof InequalityConstraint) {
+            facts.add(new int[] {variable, c, constant == TOP ? BOTTOM : TOP});
+        } else if (constantFirst && constant == TOP) {
+            // top <: v
+            facts.add(new int[] {variable, c, TOP});
+        } else if (!constantFirst && constant == BOTTOM) {
+            // v <: bottom
+            facts.add(new int[] {variable, c, BOTTOM});
+        }
+    }
+
+    private boolean holds(Constraint constraint, ConstantSlot first, ConstantSlot second) {
+        byte firstValue = qualifierOf(first, lattice);
+        byte secondValue = qualifierOf(second, lattice);
+        if (constraint instanceof EqualityConstraint) {
+            return firstValue == secondValue;
+        }
+        if (constraint instanceof InequalityConstraint) {
+            return firstValue != secondValue;
+        }
+        return firstValue == BOTTOM || secondValue == TOP;
+    }
+
+    private int indexOf(Slot slot) {
+        Integer index = variableIndices.get(slot.getId());
+        if (index == null) {
+            index = variables.size();
+            variableIndices.put(slot.getId(), index);
+            variables.add(slot);
+        }
+        return index;
+    }
+
+    /**
+     * Propagates top forwards and bottom backwards along the implications, over adjacency arrays.
+     *
+     * @return the qualifier of each variable, or null if some variable is assigned both
+     */
+    private byte[] propagate() {
+        if (!conflict.isEmpty()) {
+            return null;
+        }
+        int n = variables.size();
+        byte[] values = new byte[n];
+        // The constraint that assigned each variable, and the variable it was propagated from.
+        int[] reasons = new int[n];
+        int[] predecessors = new int[n];
+        Arrays.fill(predecessors, -1);
+
+        int[][] successors = adjacency(n, 0, 1);
+        int[][] antecedents = adjacency(n, 1, 0);
+        int[] worklist = new int[n];
+
+        for (byte qualifier : new byte[] {TOP, BOTTOM}) {
+            int[][] edges = qualifier == TOP ? successors : antecedents;
+            int size = 0;
+            for (int[] fact : facts) {
+                if (fact[2] != qualifier) {
+                    continue;
+                }
+                int variable = fact[0];
+                if (values[variable] == UNKNOWN) {
+                    values[variable] = qualifier;
+                    reasons[variable] = fact[1];
+                    worklist[size++] = variable;
+                } else if (values[variable] != qualifier) {
+                    conflict.add(constraintList.get(fact[1]));
+                    explain(variable, reasons, predecessors);
+                    return null;
+                }
+            }
+            while (size > 0) {
+                int variable = worklist[--size];
+                int[] offsets = edges[0];
+                for (int e = offsets[variable]; e < offsets[variable + 1]; e++) {
+                    int next = edges[1][e];
+                    if (values[next] == UNKNOWN) {
+                        values[next] = qualifier;
+                        reasons[next] = edges[2][e];
+                        predecessors[next] = variable;
+                        worklist[size++] = next;
+                    } else if (values[next] != qualifier) {
+                        conflict.add(constraintList.get(edges[2][e]));
+                        explain(variable, reasons, predecessors);
+                        explain(next, reasons, predecessors);
+                        return null;
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Builds the adjacency of the implications in compressed rows: the offsets of the edges of
+     * each variable, the variables the edges lead to, and the constraints of the edges.
+     */
+    private int[][] adjacency(int n, int from, int to) {
+        int[] offsets = new int[n + 1];
+        for (int[] implication : implications) {
+            offsets[implication[from] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] += offsets[i];
+        }
+        int[] targets = new int[implications.size()];
+        int[] edgeConstraints = new int[implications.size()];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int[] implication : implications) {
+            int e = next[implication[from]]++;
+            targets[e] = implication[to];
+            edgeConstraints[e] = implication[2];
+        }
+        return new int[][] {offsets, targets, edgeConstraints};
+    }
+
+    /** Adds the constraints that assigned the given variable its qualifier to the conflict. */
+    private void explain(int variable, int[] reasons, int[] predecessors) {
+        for (int v = variable; v != -1; v = predecessors[v]) {
+            conflict.add(constraintList.get(reasons[v]));
+        }
+    }
+}
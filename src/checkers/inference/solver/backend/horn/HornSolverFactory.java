@@ -0,0 +1,43 @@
+package checkers.inference.solver.backend.horn;
+
+import java.util.Collection;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.backend.maxsat.MaxSatSolverFactory;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+
+/**
+ * Creates a {@link HornSolver} for constraints it can solve, and a MaxSat solver for all others.
+ *
+ * <p>The choice is made for each set of constraints the solving strategy solves, so with the graph
+ * solving strategy, the components with Horn constraints only are solved by propagation even if
+ * other components need the SAT solver.
+ */
+public class HornSolverFactory implements SolverFactory {
+
+    protected static final Statistics.Counter hornSolverCounter =
+            Statistics.register("horn_solved_components");
+    protected static final Statistics.Counter fallbackCounter =
+            Statistics.register("horn_fallback_components");
+
+    private final SolverFactory fallbackFactory = new MaxSatSolverFactory();
+
+    @Override
+    public Solver<?> createSolver(
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        if (HornSolver.canSolve(constraints, lattice)) {
+            hornSolverCounter.add(1);
+            return new HornSolver(solverEnvironment, slots, constraints, lattice);
+        }
+        fallbackCounter.add(1);
+        return fallbackFactory.createSolver(solverEnvironment, slots, constraints, lattice);
+    }
+}
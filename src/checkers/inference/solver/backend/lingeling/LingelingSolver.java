@@ -2,26 +2,26 @@ package checkers.inference.solver.backend.lingeling;
 
 import org.sat4j.core.VecInt;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.lang.model.element.AnnotationMirror;
 
 import checkers.inference.model.Constraint;
 import checkers.inference.model.Slot;
+import checkers.inference.solver.backend.maxsat.DimacsWriter;
 import checkers.inference.solver.backend.maxsat.MaxSatFormatTranslator;
 import checkers.inference.solver.backend.maxsat.MaxSatSolver;
 import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.DimacsModelParser;
+import checkers.inference.solver.util.ExternalSolverPool;
 import checkers.inference.solver.util.ExternalSolverUtils;
 import checkers.inference.solver.util.SolverEnvironment;
-import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
 
 /**
  * LingelingSolver is also a MaxSatSolver but it calls Lingeling SAT solver to solve the clauses. It
@@ -34,10 +34,6 @@ public class LingelingSolver extends MaxSatSolver {
     // Ensure the path to Lingeling binary executable file has been added into $PATH.
     private final String lingeling = "lingeling";
 
-    // record cnf integers in clauses. lingeling solver give the answer for all
-    // the integers from 1 to the largest one. Some of them may be not in the
-    // clauses.
-    private Set<Integer> variableSet = new HashSet<Integer>();
     private static AtomicInteger nth = new AtomicInteger(0);
     private long serializationStart;
     private long serializationEnd;
@@ -56,18 +52,28 @@ public class LingelingSolver extends MaxSatSolver {
         Map<Integer, AnnotationMirror> solutions = null;
 
         this.serializationStart = System.currentTimeMillis();
-        encodeAllConstraints();
-        encodeWellFormednessRestriction();
+        try (Trace.Span encoding = Trace.start("encode")) {
+            encodeAllConstraints();
+            encodeWellFormednessRestriction();
+            // Lingeling only gets the hard and well-formedness clauses, so variables that only
+            // occur in soft clauses are left out of the CNF.
+            variableRenumbering = renumberHardVariables();
+            encoding.count("clauses", hardClauses.size());
+            encoding.count("variables", variableRenumbering.getNumberOfVariables());
+        }
         this.serializationEnd = System.currentTimeMillis();
 
-        buildCNFInput();
-        collectVals();
         recordData();
-        int localNth = nth.incrementAndGet();
-        writeCNFInput("cnfdata" + localNth + ".txt");
+        if (shouldOutputCNF()) {
+            // Number the files, as several components may be solved at the same time.
+            writeCNFInput("cnfdata" + nth.incrementAndGet() + ".txt");
+        }
 
         this.solvingStart = System.currentTimeMillis();
-        int[] resultArray = getSolverOutput(localNth);
+        int[] resultArray;
+        try (Trace.Span solving = Trace.start("sat-solve")) {
+            resultArray = getSolverOutput();
+        }
         // TODO What's the value of resultArray if there is no solution? Need to adapt this to
         // changes in the PR: https://github.com/opprop/checker-framework-inference/pull/128
         // , i.e. set solutions to null if there is no solution
@@ -77,80 +83,59 @@ public class LingelingSolver extends MaxSatSolver {
         long solvingTime = solvingEnd - solvingStart;
         long serializationTime = serializationEnd - serializationStart;
 
-        Statistics.addOrIncrementEntry("sat_serialization_time(ms)", serializationTime);
-        Statistics.addOrIncrementEntry("sat_solving_time(ms)", solvingTime);
+        serializationTimeCounter.add(serializationTime);
+        solvingTimeCounter.add(solvingTime);
 
         return solutions;
     }
 
     /**
-     * Create Lingeling process, and read output and error.
+     * Create Lingeling process, pipe the CNF to it, and read output and error.
      *
-     * @param localNth
      * @return and int array, which stores truth assignment for CNF predicate.
      */
-    private int[] getSolverOutput(int localNth) {
-        String[] command = {lingeling, CNFData.getAbsolutePath() + "/cnfdata" + localNth + ".txt"};
-
-        final List<Integer> resultList = new ArrayList<Integer>();
-        ExternalSolverUtils.runExternalSolver(
-                command,
-                stdOut -> parseStdOut(stdOut, resultList),
-                stdErr -> ExternalSolverUtils.printStdStream(System.err, stdErr));
-
-        // Java 8 style of List<Integer> to int[] conversion
-        return resultList.stream().mapToInt(Integer::intValue).toArray();
+    private int[] getSolverOutput() {
+        // Without a file argument, Lingeling reads the CNF from stdIn.
+        String[] command = {lingeling};
+
+        final VecInt resultList = new VecInt();
+        ExternalSolverPool.getInstance(solverEnvironment)
+                .run(
+                        command,
+                        stdIn -> {
+                            try (DimacsWriter writer =
+                                    new DimacsWriter(Channels.newChannel(stdIn))) {
+                                writeCNF(writer);
+                            }
+                        },
+                        stdOut -> parseStdOut(stdOut, resultList),
+                        stdErr ->
+                                ExternalSolverUtils.printStdStream(
+                                        System.err, ExternalSolverUtils.toReader(stdErr)));
+
+        int[] result = new int[resultList.size()];
+        resultList.copyTo(result);
+        return result;
     }
 
-    private void parseStdOut(BufferedReader stdOut, List<Integer> resultList) {
-        String line;
-
+    private void parseStdOut(InputStream stdOut, VecInt resultList) {
         try {
-            while ((line = stdOut.readLine()) != null) {
-                if (line.charAt(0) == 'v') {
-                    for (String retval : line.split(" ")) {
-                        if (!retval.equals("")
-                                && !retval.equals(" ")
-                                && !retval.equals("\n")
-                                && !retval.equals("v")) {
-                            int val = Integer.parseInt(retval);
-                            if (variableSet.contains(Math.abs(val))) {
-                                resultList.add(val);
-                            }
-                        }
-                    }
-                }
-            }
-        } catch (NumberFormatException | IOException e) {
+            DimacsModelParser.parseModel(
+                    stdOut,
+                    // Lingeling solves the renumbered CNF, in which every variable occurs in a
+                    // hard or well-formedness clause, see renumberHardVariables.
+                    literal -> resultList.push(variableRenumbering.toGlobal(literal)));
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    /**
-     * For lingeling solve, it gives the solution from 1 to the largest variable. However, some
-     * numbers in this range may not has corresponding slot id. This method stores the variables
-     * that we really care about.
-     */
-    private void collectVals() {
-        for (VecInt clause : this.hardClauses) {
-            int[] clauseArray = clause.toArray();
-            for (int i = 0; i < clauseArray.length; i++) {
-                variableSet.add(Math.abs(clauseArray[i]));
-            }
-        }
-    }
-
-    @Override
-    protected boolean shouldOutputCNF() {
-        // We need the CNF output to pass to Lingeling
-        // and so we unconditionally signal we want CNF output.
-        return true;
-    }
-
     private void recordData() {
         int totalClauses = hardClauses.size() + softClauses.size();
-        int totalVariable = variableSet.size();
-        Statistics.addOrIncrementEntry("cnf_clause_size", totalClauses);
-        Statistics.addOrIncrementEntry("cnf_variable_size", totalVariable);
+        int totalVariable = variableRenumbering.getNumberOfVariables();
+        clauseCounter.add(totalClauses);
+        variableCounter.add(totalVariable);
+        clauseHistogram.record(totalClauses);
+        variableHistogram.record(totalVariable);
     }
 }
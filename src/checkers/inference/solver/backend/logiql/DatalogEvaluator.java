@@ -0,0 +1,526 @@
+package checkers.inference.solver.backend.logiql;
+
+import org.checkerframework.javacutil.BugInCF;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DatalogEvaluator evaluates the LogiQL programs generated by {@link LogiQLPredicateGenerator} and
+ * {@link LogiQLFormatTranslator} in process, as a replacement for LogicBlox.
+ *
+ * <p>It supports the subset of LogiQL used by these generators: one clause per line, declarations
+ * ({@code ->}) that are only used to find functional and refmode predicates, rules ({@code <-})
+ * whose bodies are conjunctions of positive atoms, and data lines of {@code +} atoms. A refmode
+ * predicate like {@code hasvariableName} identifies an entity with its name, so entities are
+ * represented by their names. Rules using LogiQL aggregations ({@code seq<<>>}) are skipped.
+ *
+ * <p>All values are interned to ints, and relations are sets of int tuples with a hash index on
+ * every column. Rules are evaluated semi-naively: in every round, each rule is only joined with
+ * the tuples derived in the previous round.
+ */
+public class DatalogEvaluator {
+
+    private static final Pattern FUNCTIONAL_ATOM =
+            Pattern.compile("^(\\w+)\\[(.*)\\]\\s*=\\s*(.+)$");
+    private static final Pattern RELATIONAL_ATOM = Pattern.compile("^(\\w+)\\((.*)\\)$");
+    private static final Pattern REFMODE_DECLARATION = Pattern.compile("(\\w+)\\(\\w+:\\w+\\)");
+    private static final Pattern VARIABLE = Pattern.compile("^[A-Za-z_]\\w*$");
+    private static final Pattern INTEGER = Pattern.compile("^-?\\d+$");
+
+    /** Interned values, indexed by their int encoding. */
+    private final List<Object> symbols = new ArrayList<>();
+
+    private final Map<Object, Integer> symbolIds = new HashMap<>();
+
+    private final Map<String, Relation> relations = new HashMap<>();
+
+    /** Predicates whose last column is a function of the other ones. */
+    private final Set<String> functionalPredicates = new HashSet<>();
+
+    /** Predicates that give an entity its name. */
+    private final Set<String> refmodePredicates = new HashSet<>();
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    /** Tuples added since the last evaluation, per relation. */
+    private Map<String, List<int[]>> delta = new LinkedHashMap<>();
+
+    /**
+     * Parses the declarations and rules of the given LogiQL program. This must be called before
+     * {@link #addData}, as the declarations tell which predicates are refmodes.
+     */
+    public void addProgram(String program) {
+        List<String> ruleClauses = new ArrayList<>();
+        for (String line : program.split("\r\n|\r|\n")) {
+            String clause = stripClause(line);
+            if (clause.isEmpty()) {
+                continue;
+            }
+            if (clause.contains("->")) {
+                addDeclaration(clause);
+            } else if (clause.contains("<-")) {
+                ruleClauses.add(clause);
+            } else {
+                throw new BugInCF("Unsupported LogiQL clause: " + line);
+            }
+        }
+        // Rules are parsed after all declarations, which tell how to read their atoms.
+        for (String clause : ruleClauses) {
+            if (!clause.contains("seq<<")) {
+                rules.add(parseRule(clause));
+            }
+        }
+    }
+
+    /** Adds the facts of the given LogiQL data, e.g. as generated by {@link LogiQLSolver}. */
+    public void addData(String data) {
+        for (String line : data.split("\r\n|\r|\n")) {
+            String clause = stripClause(line);
+            if (clause.isEmpty()) {
+                continue;
+            }
+            // Resolve entities to their names first, then add the remaining atoms as facts.
+            List<Atom> atoms = new ArrayList<>();
+            Map<String, Integer> variables = new HashMap<>();
+            for (String atomText : splitTopLevel(clause)) {
+                if (!atomText.startsWith("+")) {
+                    throw new BugInCF("Unsupported LogiQL data: " + line);
+                }
+                atoms.add(parseAtom(atomText.substring(1), variables));
+            }
+            int[] names = new int[variables.size()];
+            Arrays.fill(names, -1);
+            for (Atom atom : atoms) {
+                if (atom.isBinding()) {
+                    names[atom.terms[0].variable] = atom.terms[1].constant;
+                }
+            }
+            for (Atom atom : atoms) {
+                if (!atom.isBinding()) {
+                    int[] tuple = atom.instantiate(names);
+                    if (tuple == null) {
+                        throw new BugInCF("Unnamed entity in LogiQL data: " + line);
+                    }
+                    addTuple(atom.predicate, tuple);
+                }
+            }
+        }
+    }
+
+    /** Derives all facts implied by the rules. */
+    public void evaluate() {
+        while (!delta.isEmpty()) {
+            Map<String, List<int[]>> previousDelta = delta;
+            delta = new LinkedHashMap<>();
+            for (Rule rule : rules) {
+                for (int i = 0; i < rule.body.size(); i++) {
+                    Atom atom = rule.body.get(i);
+                    List<int[]> newTuples =
+                            atom.isBinding() ? null : previousDelta.get(atom.predicate);
+                    if (newTuples == null) {
+                        continue;
+                    }
+                    List<Atom> rest = new ArrayList<>(rule.body);
+                    rest.remove(i);
+                    for (int[] tuple : newTuples) {
+                        int[] bindings = new int[rule.numberOfVariables];
+                        Arrays.fill(bindings, -1);
+                        if (atom.match(tuple, bindings)) {
+                            join(rule, rest, bindings);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the tuples of the given relation, with their values decoded. */
+    public List<List<Object>> getTuples(String predicate) {
+        Relation relation = relations.get(predicate);
+        if (relation == null) {
+            return Collections.emptyList();
+        }
+        List<List<Object>> result = new ArrayList<>(relation.tuples.size());
+        for (Tuple tuple : relation.tuples) {
+            List<Object> values = new ArrayList<>(tuple.values.length);
+            for (int value : tuple.values) {
+                values.add(symbols.get(value));
+            }
+            result.add(values);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the name of a functional predicate that maps some key to more than one value, or null
+     * if there is none. LogicBlox rejects such a database, which means that the encoded
+     * constraints are unsatisfiable.
+     */
+    public String findFunctionalConflict() {
+        for (String predicate : functionalPredicates) {
+            Relation relation = relations.get(predicate);
+            if (relation == null) {
+                continue;
+            }
+            Set<Tuple> keys = new HashSet<>();
+            for (Tuple tuple : relation.tuples) {
+                int[] key = Arrays.copyOf(tuple.values, tuple.values.length - 1);
+                if (!keys.add(new Tuple(key))) {
+                    return predicate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Joins the remaining atoms of a rule body under the given bindings, and adds the instantiated
+     * head for every match.
+     */
+    private void join(Rule rule, List<Atom> remaining, int[] bindings) {
+        if (remaining.isEmpty()) {
+            int[] tuple = rule.head.instantiate(bindings);
+            if (tuple == null) {
+                throw new BugInCF("Unbound head variable in LogiQL rule: " + rule.text);
+            }
+            addTuple(rule.head.predicate, tuple);
+            return;
+        }
+
+        // Prefer bindings that can be checked or applied now, as they never enumerate tuples.
+        int next = -1;
+        for (int i = 0; i < remaining.size(); i++) {
+            Atom atom = remaining.get(i);
+            if (atom.isBinding()) {
+                if (atom.isBound(0, bindings) || atom.isBound(1, bindings)) {
+                    next = i;
+                    break;
+                }
+            } else if (next < 0) {
+                next = i;
+            }
+        }
+        if (next < 0) {
+            throw new BugInCF("Unsafe LogiQL rule: " + rule.text);
+        }
+
+        Atom atom = remaining.get(next);
+        List<Atom> rest = new ArrayList<>(remaining);
+        rest.remove(next);
+        // Tuples derived during this loop are in the delta of the next round, so only the ones
+        // present now are joined, which also keeps the index lists from being modified while
+        // they are iterated.
+        List<int[]> candidates = candidates(atom, bindings);
+        int size = candidates.size();
+        for (int i = 0; i < size; i++) {
+            int[] extended = bindings.clone();
+            if (atom.match(candidates.get(i), extended)) {
+                join(rule, rest, extended);
+            }
+        }
+    }
+
+    /** Returns the tuples that may match the given atom, using an index on a bound column. */
+    private List<int[]> candidates(Atom atom, int[] bindings) {
+        if (atom.isBinding()) {
+            int first = atom.terms[0].valueIn(bindings);
+            int second = atom.terms[1].valueIn(bindings);
+            int value = first >= 0 ? first : second;
+            return Collections.singletonList(new int[] {value, value});
+        }
+        Relation relation = relations.get(atom.predicate);
+        if (relation == null) {
+            return Collections.emptyList();
+        }
+        for (int column = 0; column < atom.terms.length; column++) {
+            int value = atom.terms[column].valueIn(bindings);
+            if (value >= 0) {
+                List<int[]> indexed = relation.indexes.get(column).get(value);
+                return indexed == null ? Collections.emptyList() : indexed;
+            }
+        }
+        return relation.list;
+    }
+
+    private void addTuple(String predicate, int[] values) {
+        Relation relation = relations.get(predicate);
+        if (relation == null) {
+            relation = new Relation(values.length);
+            relations.put(predicate, relation);
+        }
+        if (relation.add(values)) {
+            delta.computeIfAbsent(predicate, p -> new ArrayList<>()).add(values);
+        }
+    }
+
+    private void addDeclaration(String clause) {
+        String left = clause.substring(0, clause.indexOf("->"));
+        Matcher refmode = REFMODE_DECLARATION.matcher(left);
+        while (refmode.find()) {
+            refmodePredicates.add(refmode.group(1));
+        }
+        for (String atomText : splitTopLevel(left)) {
+            Matcher functional = FUNCTIONAL_ATOM.matcher(atomText);
+            if (functional.matches()) {
+                functionalPredicates.add(functional.group(1));
+            }
+        }
+    }
+
+    private Rule parseRule(String clause) {
+        int arrow = clause.indexOf("<-");
+        Map<String, Integer> variables = new HashMap<>();
+        Atom head = parseAtom(clause.substring(0, arrow).trim(), variables);
+        List<Atom> body = new ArrayList<>();
+        for (String atomText : splitTopLevel(clause.substring(arrow + 2))) {
+            body.add(parseAtom(atomText, variables));
+        }
+        return new Rule(clause, head, body, variables.size());
+    }
+
+    /**
+     * Parses an atom. Atoms of refmode predicates, like {@code hasconstantName(v:"name")} or
+     * {@code hasvariableName[v] = 1}, are parsed as bindings of the entity to its name.
+     */
+    private Atom parseAtom(String text, Map<String, Integer> variables) {
+        text = text.trim();
+        String predicate;
+        List<String> termTexts;
+        Matcher functional = FUNCTIONAL_ATOM.matcher(text);
+        Matcher relational = RELATIONAL_ATOM.matcher(text);
+        if (functional.matches()) {
+            predicate = functional.group(1);
+            termTexts = new ArrayList<>(splitTopLevel(functional.group(2)));
+            termTexts.add(functional.group(3));
+        } else if (relational.matches()) {
+            predicate = relational.group(1);
+            termTexts = new ArrayList<>();
+            for (String term : splitTopLevel(relational.group(2))) {
+                // The refmode syntax entity:name is the same as two arguments.
+                termTexts.addAll(Arrays.asList(term.split(":", 2)));
+            }
+        } else {
+            throw new BugInCF("Unsupported LogiQL atom: " + text);
+        }
+
+        Term[] terms = new Term[termTexts.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = parseTerm(termTexts.get(i).trim(), variables);
+        }
+        if (refmodePredicates.contains(predicate)) {
+            if (terms.length != 2) {
+                throw new BugInCF("Refmode atom must have two arguments: " + text);
+            }
+            return new Atom(null, terms);
+        }
+        return new Atom(predicate, terms);
+    }
+
+    private Term parseTerm(String text, Map<String, Integer> variables) {
+        if (text.equals("_")) {
+            // Every anonymous variable is distinct.
+            int variable = variables.size();
+            variables.put("_" + variable, variable);
+            return Term.variable(variable);
+        }
+        if (text.startsWith("\"") && text.endsWith("\"") && text.length() >= 2) {
+            return Term.constant(intern(text.substring(1, text.length() - 1)));
+        }
+        if (INTEGER.matcher(text).matches()) {
+            return Term.constant(intern(Integer.valueOf(text)));
+        }
+        if (text.equals("true") || text.equals("false")) {
+            return Term.constant(intern(Boolean.valueOf(text)));
+        }
+        if (VARIABLE.matcher(text).matches()) {
+            return Term.variable(variables.computeIfAbsent(text, v -> variables.size()));
+        }
+        throw new BugInCF("Unsupported LogiQL term: " + text);
+    }
+
+    private int intern(Object value) {
+        Integer id = symbolIds.get(value);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(value);
+            symbolIds.put(value, id);
+        }
+        return id;
+    }
+
+    /** Removes surrounding whitespace and the terminating period of a clause. */
+    private static String stripClause(String line) {
+        String clause = line.trim();
+        if (clause.endsWith(".")) {
+            clause = clause.substring(0, clause.length() - 1).trim();
+        }
+        return clause;
+    }
+
+    /** Splits the given text at commas that are not nested in brackets or quotes. */
+    private static List<String> splitTopLevel(String text) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        boolean inString = false;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                inString = !inString;
+            } else if (!inString && (c == '(' || c == '[')) {
+                depth++;
+            } else if (!inString && (c == ')' || c == ']')) {
+                depth--;
+            } else if (!inString && depth == 0 && c == ',') {
+                parts.add(text.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        String last = text.substring(start).trim();
+        if (!last.isEmpty()) {
+            parts.add(last);
+        }
+        return parts;
+    }
+
+    /** A variable, identified by its index in the rule, or an interned constant. */
+    private static final class Term {
+        final int variable;
+        final int constant;
+
+        private Term(int variable, int constant) {
+            this.variable = variable;
+            this.constant = constant;
+        }
+
+        static Term variable(int variable) {
+            return new Term(variable, -1);
+        }
+
+        static Term constant(int constant) {
+            return new Term(-1, constant);
+        }
+
+        /** Returns the value of this term under the given bindings, or -1 if it is unbound. */
+        int valueIn(int[] bindings) {
+            return constant >= 0 ? constant : bindings[variable];
+        }
+    }
+
+    /** An atom of a relation, or a binding of two terms if {@link #predicate} is null. */
+    private static final class Atom {
+        final String predicate;
+        final Term[] terms;
+
+        Atom(String predicate, Term[] terms) {
+            this.predicate = predicate;
+            this.terms = terms;
+        }
+
+        boolean isBinding() {
+            return predicate == null;
+        }
+
+        boolean isBound(int index, int[] bindings) {
+            return terms[index].valueIn(bindings) >= 0;
+        }
+
+        /** Matches the tuple against this atom, extending the bindings. */
+        boolean match(int[] tuple, int[] bindings) {
+            for (int i = 0; i < terms.length; i++) {
+                int value = terms[i].valueIn(bindings);
+                if (value < 0) {
+                    bindings[terms[i].variable] = tuple[i];
+                } else if (value != tuple[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the tuple of this atom under the bindings, or null if a term is unbound. */
+        int[] instantiate(int[] bindings) {
+            int[] tuple = new int[terms.length];
+            for (int i = 0; i < terms.length; i++) {
+                tuple[i] = terms[i].valueIn(bindings);
+                if (tuple[i] < 0) {
+                    return null;
+                }
+            }
+            return tuple;
+        }
+    }
+
+    private static final class Rule {
+        final String text;
+        final Atom head;
+        final List<Atom> body;
+        final int numberOfVariables;
+
+        Rule(String text, Atom head, List<Atom> body, int numberOfVariables) {
+            this.text = text;
+            this.head = head;
+            this.body = body;
+            this.numberOfVariables = numberOfVariables;
+        }
+    }
+
+    private static final class Tuple {
+        final int[] values;
+        final int hash;
+
+        Tuple(int[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Tuple && Arrays.equals(values, ((Tuple) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /** A set of tuples of the same arity, with a hash index on every column. */
+    private static final class Relation {
+        final Set<Tuple> tuples = new HashSet<>();
+        final List<int[]> list = new ArrayList<>();
+        final List<Map<Integer, List<int[]>>> indexes = new ArrayList<>();
+
+        Relation(int arity) {
+            for (int i = 0; i < arity; i++) {
+                indexes.add(new HashMap<>());
+            }
+        }
+
+        boolean add(int[] values) {
+            if (values.length != indexes.size()) {
+                throw new BugInCF(
+                        "Tuple of arity %d in relation of arity %d",
+                        values.length, indexes.size());
+            }
+            if (!tuples.add(new Tuple(values))) {
+                return false;
+            }
+            list.add(values);
+            for (int i = 0; i < values.length; i++) {
+                indexes.get(i).computeIfAbsent(values[i], v -> new ArrayList<>()).add(values);
+            }
+            return true;
+        }
+    }
+}
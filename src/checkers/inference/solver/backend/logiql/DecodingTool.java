@@ -36,6 +36,11 @@ public class DecodingTool {
         this.nth = nth;
     }
 
+    /** Creates a DecodingTool for results that are not read from a LogicBlox output file. */
+    public DecodingTool(Set<Integer> varSlotIds, Lattice lattice) {
+        this(varSlotIds, null, lattice, 0);
+    }
+
     public Map<Integer, AnnotationMirror> decodeResult() {
         setDefault();
         try {
@@ -46,6 +51,21 @@ public class DecodingTool {
         return result;
     }
 
+    /**
+     * Decodes the annotation names computed by {@link DatalogEvaluator}, and put them in HashMap
+     * result.
+     *
+     * @param annotationNames the simple name of the annotation of each variable slot id
+     */
+    public Map<Integer, AnnotationMirror> decodeResult(Map<Integer, String> annotationNames) {
+        setDefault();
+        Map<String, AnnotationMirror> nameMap = mapStringToAnnoMirror();
+        for (Map.Entry<Integer, String> entry : annotationNames.entrySet()) {
+            result.put(entry.getKey(), nameMap.get(entry.getValue()));
+        }
+        return result;
+    }
+
     /**
      * DecodeLogicBloxOutput decodes the LogicBloxOutput, and put it in HashMap result.
      *
@@ -19,7 +19,6 @@ import checkers.inference.solver.util.Statistics;
 public class LogiQLPredicateGenerator {
 
     private final String path;
-    private final StringBuilder allEncodings = new StringBuilder();
     private final Lattice lattice;
     private final int nth;
 
@@ -30,6 +29,12 @@ public class LogiQLPredicateGenerator {
     }
 
     public void GenerateLogiqlEncoding() {
+        writeFile(getLogiqlEncoding());
+    }
+
+    /** Returns the logiql encoding of all constraints, without writing it to a file. */
+    public String getLogiqlEncoding() {
+        StringBuilder allEncodings = new StringBuilder();
         allEncodings.append(getBasicEncoding());
         allEncodings.append(getEqualityConstraintEncoding());
         allEncodings.append(getInequalityConstraintEncoding());
@@ -38,7 +43,7 @@ public class LogiQLPredicateGenerator {
 
         // System.out.println(allEncodings.toString());
 
-        writeFile(allEncodings.toString());
+        return allEncodings.toString();
     }
 
     private String getEqualityConstraintEncoding() {
@@ -5,8 +5,10 @@ import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
 
 import javax.lang.model.element.AnnotationMirror;
 
@@ -15,6 +17,7 @@ import checkers.inference.model.Slot;
 import checkers.inference.solver.backend.Solver;
 import checkers.inference.solver.frontend.Lattice;
 import checkers.inference.solver.util.NameUtils;
+import checkers.inference.solver.util.SolverArg;
 import checkers.inference.solver.util.SolverEnvironment;
 import checkers.inference.solver.util.Statistics;
 
@@ -24,10 +27,20 @@ import checkers.inference.solver.util.Statistics;
  * runs logicblox to solve the LogiQL, and reads the output. Finally the output will be sent to
  * DecodingTool and get decoded.
  *
+ * <p>With the {@link LogiQLSolverArg#inProcess} option, the LogiQL is evaluated by {@link
+ * DatalogEvaluator} instead, without writing files or running LogicBlox.
+ *
  * @author jianchu
  */
 public class LogiQLSolver extends Solver<LogiQLFormatTranslator> {
 
+    public enum LogiQLSolverArg implements SolverArg {
+        /** Whether to evaluate the LogiQL with the embedded Datalog evaluator. */
+        inProcess
+    }
+
+    private static final Logger logger = Logger.getLogger(LogiQLSolver.class.getName());
+
     private final StringBuilder logiQLText = new StringBuilder();
     private final File logiqldata = new File(new File("").getAbsolutePath() + "/logiqldata");
     private static AtomicInteger nth = new AtomicInteger(0);
@@ -43,11 +56,17 @@ public class LogiQLSolver extends Solver<LogiQLFormatTranslator> {
             LogiQLFormatTranslator formatTranslator,
             Lattice lattice) {
         super(solverEnvironment, slots, constraints, formatTranslator, lattice);
-        logiqldata.mkdir();
+        if (!solverEnvironment.getBoolArg(LogiQLSolverArg.inProcess)) {
+            logiqldata.mkdir();
+        }
     }
 
     @Override
     public Map<Integer, AnnotationMirror> solve() {
+        if (solverEnvironment.getBoolArg(LogiQLSolverArg.inProcess)) {
+            return solveInProcess();
+        }
+
         int localNth = nth.incrementAndGet();
         String logiqldataPath = logiqldata.getAbsolutePath();
         Map<Integer, AnnotationMirror> result = new HashMap<>();
@@ -80,6 +99,42 @@ public class LogiQLSolver extends Solver<LogiQLFormatTranslator> {
         return result;
     }
 
+    private Map<Integer, AnnotationMirror> solveInProcess() {
+        LogiQLPredicateGenerator constraintGenerator =
+                new LogiQLPredicateGenerator(null, lattice, 0);
+        String logiQLEncoding = constraintGenerator.getLogiqlEncoding();
+        this.serializationStart = System.currentTimeMillis();
+        this.encodeAllConstraints();
+        this.serializationEnd = System.currentTimeMillis();
+        Statistics.addOrIncrementEntry(
+                "logiql_serialization_time(ms)", (serializationEnd - serializationStart));
+        addVariables();
+        addConstants();
+
+        this.solvingStart = System.currentTimeMillis();
+        DatalogEvaluator evaluator = new DatalogEvaluator();
+        evaluator.addProgram(logiQLEncoding);
+        evaluator.addData(logiQLText.toString());
+        evaluator.evaluate();
+
+        String conflict = evaluator.findFunctionalConflict();
+        Map<Integer, String> annotationNames = new HashMap<>();
+        if (conflict == null) {
+            for (List<Object> tuple : evaluator.getTuples("AnnotationOf")) {
+                annotationNames.put((Integer) tuple.get(0), (String) tuple.get(1));
+            }
+        }
+        this.solvingEnd = System.currentTimeMillis();
+
+        Statistics.addOrIncrementEntry("logiql_solving_time(ms)", (solvingEnd - solvingStart));
+
+        if (conflict != null) {
+            logger.fine("LogiQL constraints are unsatisfiable: conflicting " + conflict);
+            return null;
+        }
+        return new DecodingTool(varSlotIds, lattice).decodeResult(annotationNames);
+    }
+
     @Override
     public Collection<Constraint> explainUnsatisfiable() {
         return new HashSet<>(); // Doesn't support right now
@@ -0,0 +1,118 @@
+package checkers.inference.solver.backend.maxsat;
+
+import org.sat4j.core.VecInt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes CNF formulas in DIMACS format to a channel, such as a file or a pipe to a solver.
+ *
+ * <p>Literals are encoded as ASCII directly into a fixed-size byte buffer, which is written to the
+ * channel whenever it is full. The formula is therefore never held in memory as text, no matter
+ * how large it is.
+ */
+public class DimacsWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Enough room for the longest int, its sign and a separator. */
+    private static final int MAX_INT_LENGTH = 12;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** Scratch space for the digits of a number, in reverse order. */
+    private final byte[] digits = new byte[MAX_INT_LENGTH];
+
+    public DimacsWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Writes a comment line. */
+    public void writeComment(String comment) throws IOException {
+        writeAscii("c ");
+        writeAscii(comment);
+        writeByte('\n');
+    }
+
+    /** Writes the problem line, which must precede all clauses. */
+    public void writeHeader(int numberOfVariables, int numberOfClauses) throws IOException {
+        writeAscii("p cnf ");
+        writeInt(numberOfVariables);
+        writeByte(' ');
+        writeInt(numberOfClauses);
+        writeByte('\n');
+    }
+
+    /**
+     * Writes a clause terminated by 0.
+     *
+     * @param clause the clause, over global variables
+     * @param renumbering the renumbering that maps the variables of the clause to the variables
+     *     written
+     */
+    public void writeClause(VecInt clause, VariableRenumbering renumbering) throws IOException {
+        for (int i = 0; i < clause.size(); i++) {
+            writeInt(renumbering.toLocal(clause.get(i)));
+            writeByte(' ');
+        }
+        writeByte('0');
+        writeByte('\n');
+    }
+
+    /** Writes everything buffered so far to the channel. */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** Flushes this writer and closes the channel. */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        if (buffer.remaining() < MAX_INT_LENGTH) {
+            flush();
+        }
+        // Work on the negative value, which also covers Integer.MIN_VALUE.
+        if (value < 0) {
+            buffer.put((byte) '-');
+        } else {
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' - value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+    }
+
+    private void writeByte(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) c);
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            writeByte(text.charAt(i));
+        }
+    }
+}
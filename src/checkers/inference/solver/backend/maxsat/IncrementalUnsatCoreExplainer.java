@@ -0,0 +1,161 @@
+package checkers.inference.solver.backend.maxsat;
+
+import org.checkerframework.javacutil.BugInCF;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import checkers.inference.InferenceMain;
+import checkers.inference.model.Constraint;
+
+/**
+ * Explains unsatisfiable constraints with a single incremental SAT solver.
+ *
+ * <p>Every constraint gets a selector variable s, and each of its clauses is extended with -s.
+ * Solving under the assumption that all selectors are true is then equivalent to solving the
+ * original clauses, and when that fails the solver reports the assumptions used to derive the
+ * conflict, i.e. an unsatisfiable core. The core is shrunk to a minimal one by deletion: a
+ * selector is dropped whenever the remaining ones are still unsatisfiable. All these solves run
+ * on the same solver instance and keep the clauses it has learnt.
+ *
+ * <p>The clauses are the ones encoded for the original solve, so no constraint is serialized
+ * again. Well-formedness clauses are added without selectors and never appear in the explanation.
+ */
+public class IncrementalUnsatCoreExplainer {
+
+    /** The hard clauses, in encoding order. */
+    private final List<VecInt> hardClauses;
+
+    /** The constraint each hard clause was encoded from. */
+    private final Map<VecInt, Constraint> clauseConstraints;
+
+    private final List<VecInt> wellFormednessClauses;
+
+    private final VariableRenumbering renumbering;
+
+    /**
+     * @param hardClauses the hard clauses encoded from constraints
+     * @param clauseConstraints an identity map from each hard clause to its constraint
+     * @param wellFormednessClauses the well-formedness clauses
+     * @param renumbering the renumbering of the variables of all these clauses
+     */
+    public IncrementalUnsatCoreExplainer(
+            Collection<VecInt> hardClauses,
+            Map<VecInt, Constraint> clauseConstraints,
+            Collection<VecInt> wellFormednessClauses,
+            VariableRenumbering renumbering) {
+        // Copy the collections, as the solver clears its own after adding them to sat4j.
+        this.hardClauses = new ArrayList<>(hardClauses);
+        this.clauseConstraints = new IdentityHashMap<>(clauseConstraints);
+        this.wellFormednessClauses = new ArrayList<>(wellFormednessClauses);
+        this.renumbering = renumbering;
+    }
+
+    /** Returns a minimal set of constraints that is unsatisfiable together. */
+    public Collection<Constraint> minimumUnsatisfiableConstraints() {
+        final int numberOfVars = renumbering.getNumberOfVariables();
+        // Selector numberOfVars + i + 1 guards the clauses of selectedConstraints.get(i).
+        List<Constraint> selectedConstraints = new ArrayList<>();
+        Map<Constraint, Integer> selectors = new HashMap<>();
+        for (VecInt clause : hardClauses) {
+            selectors.computeIfAbsent(
+                    clauseConstraints.get(clause),
+                    constraint -> {
+                        selectedConstraints.add(constraint);
+                        return numberOfVars + selectedConstraints.size();
+                    });
+        }
+
+        ISolver solver = SolverFactory.newDefault();
+        solver.newVar(numberOfVars + selectedConstraints.size());
+        solver.setExpectedNumberOfClauses(hardClauses.size() + wellFormednessClauses.size());
+        try {
+            for (VecInt clause : wellFormednessClauses) {
+                solver.addClause(renumbering.renumber(clause));
+            }
+            for (VecInt clause : hardClauses) {
+                VecInt guarded = renumbering.renumber(clause);
+                guarded.push(-selectors.get(clauseConstraints.get(clause)));
+                solver.addClause(guarded);
+            }
+        } catch (ContradictionException e) {
+            // Guarded clauses can always be satisfied by their selector, so the contradiction
+            // comes from the well-formedness clauses alone.
+            InferenceMain.getInstance()
+                    .logger
+                    .warning("Explanation hits well-formedness restriction: " + e.getMessage());
+            return new HashSet<>();
+        }
+
+        List<Integer> core = new ArrayList<>();
+        for (int i = 1; i <= selectedConstraints.size(); i++) {
+            core.add(numberOfVars + i);
+        }
+        if (isSatisfiable(solver, core, -1)) {
+            throw new BugInCF("Unsatisfiable constraints are satisfiable when explaining them.");
+        }
+        core = restrictToExplanation(core, solver.unsatExplanation());
+
+        // Deletion: every selector before index i is necessary, as removing it from a superset
+        // of the current core made the selectors satisfiable.
+        int i = 0;
+        while (i < core.size()) {
+            if (isSatisfiable(solver, core, i)) {
+                i++;
+            } else {
+                // The selector at index i is not in the new core, and the necessary ones are.
+                core = restrictToExplanation(core, solver.unsatExplanation());
+            }
+        }
+
+        Set<Constraint> mus = new HashSet<>();
+        for (int selector : core) {
+            mus.add(selectedConstraints.get(selector - numberOfVars - 1));
+        }
+        return mus;
+    }
+
+    /** Solves assuming all selectors of the core, except the one at index {@code skip}. */
+    private static boolean isSatisfiable(ISolver solver, List<Integer> core, int skip) {
+        IVecInt assumptions = new VecInt(core.size());
+        for (int i = 0; i < core.size(); i++) {
+            if (i != skip) {
+                assumptions.push(core.get(i));
+            }
+        }
+        try {
+            return solver.isSatisfiable(assumptions);
+        } catch (TimeoutException e) {
+            throw new BugInCF("Explanation solver timed out.", e);
+        }
+    }
+
+    /** Returns the selectors of the core that are part of the given explanation, in order. */
+    private static List<Integer> restrictToExplanation(List<Integer> core, IVecInt explanation) {
+        Set<Integer> explained = new HashSet<>();
+        if (explanation != null) {
+            for (int i = 0; i < explanation.size(); i++) {
+                explained.add(Math.abs(explanation.get(i)));
+            }
+        }
+        List<Integer> result = new ArrayList<>();
+        for (int selector : core) {
+            if (explained.contains(selector)) {
+                result.add(selector);
+            }
+        }
+        return result;
+    }
+}
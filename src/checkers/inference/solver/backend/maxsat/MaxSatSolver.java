@@ -12,6 +12,10 @@ import org.sat4j.tools.xplain.DeletionStrategy;
 import org.sat4j.tools.xplain.Xplain;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,6 +24,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import javax.lang.model.element.AnnotationMirror;
 
@@ -30,10 +35,10 @@ import checkers.inference.model.PreferenceConstraint;
 import checkers.inference.model.Slot;
 import checkers.inference.solver.backend.Solver;
 import checkers.inference.solver.frontend.Lattice;
-import checkers.inference.solver.util.FileUtils;
 import checkers.inference.solver.util.SolverArg;
 import checkers.inference.solver.util.SolverEnvironment;
 import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
 
 /**
  * MaxSatSolver calls MaxSatFormatTranslator that converts constraint into a list of VecInt, then
@@ -43,24 +48,59 @@ import checkers.inference.solver.util.Statistics;
  */
 public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
 
-    protected enum MaxSatSolverArg implements SolverArg {
+    public enum MaxSatSolverArg implements SolverArg {
         /** Whether should print the CNF formulas. */
-        outputCNF;
+        outputCNF,
+
+        /**
+         * Whether to explain unsatisfiable constraints with the clauses encoded for solving, on an
+         * incremental solver with a selector literal per constraint, instead of encoding all
+         * constraints again for {@link Xplain}.
+         */
+        incrementalExplanation;
     }
 
     protected final SlotManager slotManager;
     protected final List<VecInt> hardClauses = new LinkedList<>();
     private List<VecInt> wellFormednessClauses = new LinkedList<>();
     protected final List<IPair<VecInt, Integer>> softClauses = new LinkedList<>();
-    private MaxSATUnsatisfiableConstraintExplainer unsatisfiableConstraintExplainer;
+    private UnsatisfiableConstraintExplainer unsatisfiableConstraintExplainer;
+
+    /** The Sat4j solver of the running {@link #solve()}, stopped by {@link #cancel()}. */
+    private volatile WeightedMaxSatDecorator runningSolver;
+
+    /**
+     * The constraint each hard clause is encoded from. It is only filled in incremental explanation
+     * mode.
+     */
+    private final Map<VecInt, Constraint> clauseConstraints = new IdentityHashMap<>();
+
     protected final File CNFData = new File(new File("").getAbsolutePath() + "/cnfData");
-    protected StringBuilder CNFInput = new StringBuilder();
+
+    /**
+     * Dense numbering of the variables of the encoded clauses, so that the size of the SAT problem
+     * depends on the constraints of this solver rather than on the number of slots in the program.
+     */
+    protected VariableRenumbering variableRenumbering;
 
     private long serializationStart;
     private long serializationEnd;
     protected long solvingStart;
     protected long solvingEnd;
 
+    protected static final Statistics.Counter serializationTimeCounter =
+            Statistics.register("sat_serialization_time(ms)");
+    protected static final Statistics.Counter solvingTimeCounter =
+            Statistics.register("sat_solving_time(ms)");
+    protected static final Statistics.Counter clauseCounter =
+            Statistics.register("cnf_clause_size");
+    protected static final Statistics.Counter variableCounter =
+            Statistics.register("cnf_variable_size");
+    protected static final Statistics.Histogram clauseHistogram =
+            Statistics.registerHistogram("component_clauses");
+    protected static final Statistics.Histogram variableHistogram =
+            Statistics.registerHistogram("component_variables");
+
     public MaxSatSolver(
             SolverEnvironment solverEnvironment,
             Collection<Slot> slots,
@@ -84,37 +124,62 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
 
         this.serializationStart = System.currentTimeMillis();
         // Serialization step:
-        encodeAllConstraints();
-        encodeWellFormednessRestriction();
+        try (Trace.Span encoding = Trace.start("encode")) {
+            encodeAllConstraints();
+            encodeWellFormednessRestriction();
+            variableRenumbering = renumberVariables();
+            encoding.count(
+                    "clauses",
+                    hardClauses.size() + wellFormednessClauses.size() + softClauses.size());
+            encoding.count("variables", variableRenumbering.getNumberOfVariables());
+        }
         this.serializationEnd = System.currentTimeMillis();
 
         if (shouldOutputCNF()) {
-            buildCNFInput();
             writeCNFInput();
         }
         // printClauses();
         configureSatSolver(solver);
 
+        // Keep the encoded clauses around in case the constraints turn out to be unsatisfiable.
+        final IncrementalUnsatCoreExplainer incrementalExplainer =
+                shouldExplainIncrementally()
+                        ? new IncrementalUnsatCoreExplainer(
+                                hardClauses,
+                                clauseConstraints,
+                                wellFormednessClauses,
+                                variableRenumbering)
+                        : null;
+
         try {
             addClausesToSolver(solver);
             cleanUpClauses();
 
             this.solvingStart = System.currentTimeMillis();
-            boolean isSatisfiable = solver.isSatisfiable();
+            boolean isSatisfiable;
+            try (Trace.Span solving = Trace.start("sat-solve")) {
+                runningSolver = solver;
+                if (cancelled) {
+                    throw new CancellationException("The MaxSat solver was cancelled.");
+                }
+                isSatisfiable = solver.isSatisfiable();
+            } finally {
+                runningSolver = null;
+            }
             this.solvingEnd = System.currentTimeMillis();
 
             long solvingTime = solvingEnd - solvingStart;
             long serializationTime = serializationEnd - serializationStart;
 
-            Statistics.addOrIncrementEntry("sat_serialization_time(ms)", serializationTime);
-            Statistics.addOrIncrementEntry("sat_solving_time(ms)", solvingTime);
+            serializationTimeCounter.add(serializationTime);
+            solvingTimeCounter.add(solvingTime);
 
             if (isSatisfiable) {
-                solutions = decode(solver.model());
+                solutions = decode(variableRenumbering.toGlobal(solver.model()));
             } else {
                 System.out.println("Not solvable!");
                 // Lazily initialize unsatisfiableConstraintExplainer when there is no solution
-                unsatisfiableConstraintExplainer = new MaxSATUnsatisfiableConstraintExplainer();
+                unsatisfiableConstraintExplainer = createExplainer(incrementalExplainer);
             }
 
         } catch (ContradictionException e) {
@@ -122,13 +187,29 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
             // This case indicates that constraints are not solvable, too. This is normal so
             // continue
             // execution and let solver strategy to explain why there is no solution
-            unsatisfiableConstraintExplainer = new MaxSATUnsatisfiableConstraintExplainer();
+            unsatisfiableConstraintExplainer = createExplainer(incrementalExplainer);
+        } catch (CancellationException e) {
+            throw e;
         } catch (Exception e) {
+            if (cancelled) {
+                // Sat4j reports the expired timeout of a cancelled solve as a TimeoutException.
+                throw new CancellationException("The MaxSat solver was cancelled.");
+            }
             throw new BugInCF("Unexpected error occurred!", e);
         }
         return solutions;
     }
 
+    /** Stops the Sat4j solver by expiring its timeout. */
+    @Override
+    public void cancel() {
+        super.cancel();
+        WeightedMaxSatDecorator solver = runningSolver;
+        if (solver != null) {
+            solver.expireTimeout();
+        }
+    }
+
     /** Convert constraints to list of VecInt. */
     @Override
     public void encodeAllConstraints() {
@@ -153,6 +234,9 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
                                 IPair.of(res, ((PreferenceConstraint) constraint).getWeight()));
                     } else {
                         hardClauses.add(res);
+                        if (shouldExplainIncrementally()) {
+                            clauseConstraints.put(res, constraint);
+                        }
                     }
                 }
             }
@@ -165,6 +249,36 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         }
     }
 
+    /**
+     * Creates a dense numbering of the variables of all clauses encoded so far.
+     *
+     * @return the renumbering to apply to clauses before passing them to a SAT solver
+     */
+    protected VariableRenumbering renumberVariables() {
+        VariableRenumbering renumbering = renumberHardVariables();
+        for (IPair<VecInt, Integer> softClause : softClauses) {
+            renumbering.addClause(softClause.first);
+        }
+        return renumbering;
+    }
+
+    /**
+     * Creates a dense numbering of the variables of the hard and well-formedness clauses encoded so
+     * far, for solvers that only get the clauses written by {@link #writeCNF(DimacsWriter)}.
+     *
+     * @return the renumbering to apply to clauses before passing them to a SAT solver
+     */
+    protected VariableRenumbering renumberHardVariables() {
+        VariableRenumbering renumbering = new VariableRenumbering();
+        for (VecInt hardClause : hardClauses) {
+            renumbering.addClause(hardClause);
+        }
+        for (VecInt wellFormednessClause : wellFormednessClauses) {
+            renumbering.addClause(wellFormednessClause);
+        }
+        return renumbering;
+    }
+
     /**
      * sat solver configuration Configure
      *
@@ -172,28 +286,31 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
      */
     private void configureSatSolver(WeightedMaxSatDecorator solver) {
 
-        final int totalVars = (slotManager.getNumberOfSlots() * lattice.numTypes);
+        final int totalVars = variableRenumbering.getNumberOfVariables();
         final int totalClauses =
                 hardClauses.size() + wellFormednessClauses.size() + softClauses.size();
 
         solver.newVar(totalVars);
         solver.setExpectedNumberOfClauses(totalClauses);
-        Statistics.addOrIncrementEntry("cnf_clause_size", totalClauses);
-        countVariables();
+        clauseCounter.add(totalClauses);
+        variableCounter.add(totalVars);
+        clauseHistogram.record(totalClauses);
+        variableHistogram.record(totalVars);
         solver.setTimeoutMs(1000000);
     }
 
     private void addClausesToSolver(WeightedMaxSatDecorator solver) throws ContradictionException {
         for (VecInt hardClause : hardClauses) {
-            solver.addHardClause(hardClause);
+            solver.addHardClause(variableRenumbering.renumber(hardClause));
         }
 
         for (VecInt wellFormednessClause : wellFormednessClauses) {
-            solver.addHardClause(wellFormednessClause);
+            solver.addHardClause(variableRenumbering.renumber(wellFormednessClause));
         }
 
         for (IPair<VecInt, Integer> softclause : softClauses) {
-            solver.addSoftClause(softclause.second, softclause.first);
+            solver.addSoftClause(
+                    softclause.second, variableRenumbering.renumber(softclause.first));
         }
     }
 
@@ -201,6 +318,7 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         hardClauses.clear();
         wellFormednessClauses.clear();
         softClauses.clear();
+        clauseConstraints.clear();
     }
 
     protected Map<Integer, AnnotationMirror> decode(int[] solution) {
@@ -218,58 +336,51 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         return result;
     }
 
-    protected void countVariables() {
-
-        Set<Integer> vars = new HashSet<Integer>();
-
-        for (VecInt vi : hardClauses) {
-            for (int i : vi.toArray()) {
-                vars.add(i);
-            }
-        }
-        Statistics.addOrIncrementEntry("cnf_variable_size", vars.size());
-    }
-
     protected boolean shouldOutputCNF() {
         return solverEnvironment.getBoolArg(MaxSatSolverArg.outputCNF);
     }
 
-    /** Write CNF clauses into a string. */
-    protected void buildCNFInput() {
-
-        final int totalClauses = hardClauses.size() + wellFormednessClauses.size();
-        final int totalVars = slotManager.getNumberOfSlots() * lattice.numTypes;
-
-        CNFInput.append("c This is the CNF input\n");
-        CNFInput.append("p cnf ");
-        CNFInput.append(totalVars);
-        CNFInput.append(" ");
-        CNFInput.append(totalClauses);
-        CNFInput.append("\n");
-
-        for (VecInt hardClause : hardClauses) {
-            buildCNFInputHelper(hardClause);
-        }
-        for (VecInt wellFormedNessClause : wellFormednessClauses) {
-            buildCNFInputHelper(wellFormedNessClause);
-        }
-    }
-
-    private void buildCNFInputHelper(VecInt clause) {
-        int[] literals = clause.toArray();
-        for (int i = 0; i < literals.length; i++) {
-            CNFInput.append(literals[i]);
-            CNFInput.append(" ");
-        }
-        CNFInput.append("0\n");
+    protected boolean shouldExplainIncrementally() {
+        return solverEnvironment.getBoolArg(MaxSatSolverArg.incrementalExplanation);
     }
 
     protected void writeCNFInput() {
         writeCNFInput("cnfdata.txt");
     }
 
+    /**
+     * Streams the hard and well-formedness clauses in DIMACS format to the given file in the CNF
+     * data directory.
+     */
     protected void writeCNFInput(String file) {
-        FileUtils.writeFile(new File(CNFData.getAbsolutePath() + "/" + file), CNFInput.toString());
+        final Path path = new File(CNFData, file).toPath();
+
+        try (DimacsWriter writer =
+                new DimacsWriter(
+                        FileChannel.open(
+                                path,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.TRUNCATE_EXISTING))) {
+            writeCNF(writer);
+        } catch (IOException e) {
+            throw new BugInCF("Failed to write CNF input to " + path, e);
+        }
+    }
+
+    /** Writes the hard and well-formedness clauses in DIMACS format with the given writer. */
+    protected void writeCNF(DimacsWriter writer) throws IOException {
+        final int totalClauses = hardClauses.size() + wellFormednessClauses.size();
+        final int totalVars = variableRenumbering.getNumberOfVariables();
+
+        writer.writeComment("This is the CNF input");
+        writer.writeHeader(totalVars, totalClauses);
+        for (VecInt hardClause : hardClauses) {
+            writer.writeClause(hardClause, variableRenumbering);
+        }
+        for (VecInt wellFormednessClause : wellFormednessClauses) {
+            writer.writeClause(wellFormednessClause, variableRenumbering);
+        }
     }
 
     /** print all soft and hard clauses for testing. */
@@ -295,7 +406,19 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         return unsatisfiableConstraintExplainer.minimumUnsatisfiableConstraints();
     }
 
-    class MaxSATUnsatisfiableConstraintExplainer {
+    private UnsatisfiableConstraintExplainer createExplainer(
+            IncrementalUnsatCoreExplainer incrementalExplainer) {
+        if (incrementalExplainer != null) {
+            return incrementalExplainer::minimumUnsatisfiableConstraints;
+        }
+        return new MaxSATUnsatisfiableConstraintExplainer();
+    }
+
+    interface UnsatisfiableConstraintExplainer {
+        Collection<Constraint> minimumUnsatisfiableConstraints();
+    }
+
+    class MaxSATUnsatisfiableConstraintExplainer implements UnsatisfiableConstraintExplainer {
 
         /** A mapping from VecInt to Constraint. */
         private final Map<VecInt, Constraint> vecIntConstraintMap;
@@ -303,6 +426,9 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         /** A mapping from IConstr to VecInt. IConstr is the result of adding VecInt to solver. */
         private final Map<IConstr, VecInt> iConstrVecIntMap;
 
+        /** The renumbering of the variables of the hard and well-formedness clauses. */
+        private final VariableRenumbering explanationRenumbering;
+
         private MaxSATUnsatisfiableConstraintExplainer() {
             // Using IdentityHashMap because different VecInts can share the same hash code,
             // one VecInt might be overriden by a different VecInt.But VecInt has one-to-one
@@ -314,6 +440,7 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
             // explanation solver
             fillHardClauses();
             encodeWellFormednessRestriction();
+            explanationRenumbering = renumberVariables();
         }
 
         // Compared to encodeAllConstrains(), this method doesn't format translate soft clauses,
@@ -338,6 +465,7 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
             }
         }
 
+        @Override
         public Collection<Constraint> minimumUnsatisfiableConstraints() {
             // It's ok to use HashSet for Constraint, because its hashCose() implementation
             // differentiates different
@@ -346,7 +474,10 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
             // Explainer solver that is used
             Xplain<IPBSolver> explanationSolver = new Xplain<>(SolverFactory.newDefault());
             configureExplanationSolver(
-                    hardClauses, wellFormednessClauses, slotManager, lattice, explanationSolver);
+                    hardClauses,
+                    wellFormednessClauses,
+                    explanationRenumbering.getNumberOfVariables(),
+                    explanationSolver);
             try {
                 addClausesToExplanationSolver(explanationSolver);
                 assert !explanationSolver.isSatisfiable();
@@ -375,10 +506,8 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
         private void configureExplanationSolver(
                 final List<VecInt> hardClauses,
                 final List<VecInt> wellformedness,
-                final SlotManager slotManager,
-                final Lattice lattice,
+                final int numberOfNewVars,
                 final Xplain<IPBSolver> explainer) {
-            int numberOfNewVars = slotManager.getNumberOfSlots() * lattice.numTypes;
             System.out.println("Number of variables: " + numberOfNewVars);
             int numberOfClauses = hardClauses.size() + wellformedness.size();
             System.out.println("Number of clauses: " + numberOfClauses);
@@ -389,12 +518,15 @@ public class MaxSatSolver extends Solver<MaxSatFormatTranslator> {
 
         private void addClausesToExplanationSolver(Xplain<IPBSolver> explanationSolver)
                 throws ContradictionException {
+            // Map IConstrs to the original clauses, which are the keys of vecIntConstraintMap.
             for (VecInt clause : hardClauses) {
-                IConstr iConstr = explanationSolver.addClause(clause);
+                IConstr iConstr =
+                        explanationSolver.addClause(explanationRenumbering.renumber(clause));
                 iConstrVecIntMap.put(iConstr, clause);
             }
             for (VecInt clause : wellFormednessClauses) {
-                IConstr iConstr = explanationSolver.addClause(clause);
+                IConstr iConstr =
+                        explanationSolver.addClause(explanationRenumbering.renumber(clause));
                 iConstrVecIntMap.put(iConstr, clause);
             }
         }
@@ -0,0 +1,117 @@
+package checkers.inference.solver.backend.maxsat;
+
+import org.checkerframework.javacutil.BugInCF;
+import org.sat4j.core.VecInt;
+
+import java.util.Arrays;
+
+/**
+ * Maps the boolean variables occurring in a set of clauses onto the dense range 1..k, where k is
+ * the number of distinct variables among them.
+ *
+ * <p>{@link MathUtils#mapIdToMatrixEntry} numbers boolean variables by global slot id, so even the
+ * clauses of a small subset of constraints refer to variables up to {@code numberOfSlots *
+ * numTypes}. SAT solvers allocate storage for every variable up to the declared maximum, which
+ * makes each sub-problem as expensive as the whole program. Clauses are therefore renumbered
+ * before being handed to a solver, and the solver's model is mapped back to the global numbering
+ * with {@link #toGlobal(int[])} before decoding.
+ *
+ * <p>Local variables are assigned in increasing order of their global variables. Variables are
+ * recorded with {@link #addClause(VecInt)} first; the first lookup freezes the mapping.
+ */
+public class VariableRenumbering {
+
+    /**
+     * The global variables, indexed by local variable - 1. Only the first {@link #size} entries are
+     * used, and they are sorted and distinct once the mapping is frozen.
+     */
+    private int[] globalVars = new int[64];
+
+    private int size = 0;
+
+    private boolean frozen = false;
+
+    /** Records the variables of the given clause. */
+    public void addClause(VecInt clause) {
+        if (frozen) {
+            throw new BugInCF("Cannot add variables to a renumbering that is already in use.");
+        }
+        for (int i = 0; i < clause.size(); i++) {
+            if (size == globalVars.length) {
+                globalVars = Arrays.copyOf(globalVars, size * 2);
+            }
+            globalVars[size++] = Math.abs(clause.get(i));
+        }
+    }
+
+    /** Returns the number of distinct variables, i.e. the largest local variable. */
+    public int getNumberOfVariables() {
+        freeze();
+        return size;
+    }
+
+    /** Returns a copy of the given clause in which every literal is renumbered. */
+    public VecInt renumber(VecInt clause) {
+        VecInt result = new VecInt(clause.size());
+        for (int i = 0; i < clause.size(); i++) {
+            result.push(toLocal(clause.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the local literal of the given global literal.
+     *
+     * @param literal a literal whose variable occurs in one of the recorded clauses
+     */
+    public int toLocal(int literal) {
+        freeze();
+        int index = Arrays.binarySearch(globalVars, 0, size, Math.abs(literal));
+        if (index < 0) {
+            throw new BugInCF("Variable " + Math.abs(literal) + " doesn't occur in any clause.");
+        }
+        return literal > 0 ? index + 1 : -(index + 1);
+    }
+
+    /**
+     * Returns the global literal of the given local literal. 0, which terminates clauses in DIMACS,
+     * is mapped to itself.
+     */
+    public int toGlobal(int literal) {
+        freeze();
+        int var = Math.abs(literal);
+        if (var == 0) {
+            return 0;
+        }
+        if (var > size) {
+            throw new BugInCF("Unknown local variable: " + var);
+        }
+        return literal > 0 ? globalVars[var - 1] : -globalVars[var - 1];
+    }
+
+    /** Maps a model over local variables, as returned by a solver, to global variables. */
+    public int[] toGlobal(int[] model) {
+        int[] result = new int[model.length];
+        for (int i = 0; i < model.length; i++) {
+            result[i] = toGlobal(model[i]);
+        }
+        return result;
+    }
+
+    /** Sorts the recorded variables and removes duplicates. */
+    private void freeze() {
+        if (frozen) {
+            return;
+        }
+        Arrays.sort(globalVars, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || globalVars[distinct - 1] != globalVars[i]) {
+                globalVars[distinct++] = globalVars[i];
+            }
+        }
+        size = distinct;
+        globalVars = Arrays.copyOf(globalVars, size);
+        frozen = true;
+    }
+}
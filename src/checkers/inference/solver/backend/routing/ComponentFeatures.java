@@ -0,0 +1,73 @@
+package checkers.inference.solver.backend.routing;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.solver.frontend.Lattice;
+
+/**
+ * The features of a set of constraints that decide which solver can, and should, solve it: its
+ * size, the kinds of its constraints, and the size of the lattice.
+ */
+public class ComponentFeatures {
+
+    private final int constraintCount;
+
+    private final int variableCount;
+
+    private final int qualifierCount;
+
+    private final Set<Class<? extends Constraint>> constraintKinds = new HashSet<>();
+
+    public ComponentFeatures(Collection<Constraint> constraints, Lattice lattice) {
+        Set<Integer> variables = new HashSet<>();
+        for (Constraint constraint : constraints) {
+            constraintKinds.add(constraint.getClass());
+            for (Slot slot : constraint.getSlots()) {
+                if (!(slot instanceof ConstantSlot)) {
+                    variables.add(slot.getId());
+                }
+            }
+        }
+        this.constraintCount = constraints.size();
+        this.variableCount = variables.size();
+        this.qualifierCount = lattice.numTypes;
+    }
+
+    public int getConstraintCount() {
+        return constraintCount;
+    }
+
+    public int getVariableCount() {
+        return variableCount;
+    }
+
+    public int getQualifierCount() {
+        return qualifierCount;
+    }
+
+    /** Returns whether some constraint is of the given kind. */
+    public boolean has(Class<? extends Constraint> kind) {
+        return constraintKinds.contains(kind);
+    }
+
+    /** Returns whether every constraint is of one of the given kinds. */
+    public boolean hasOnly(Collection<Class<? extends Constraint>> kinds) {
+        return kinds.containsAll(constraintKinds);
+    }
+
+    @Override
+    public String toString() {
+        return constraintCount
+                + " constraints, "
+                + variableCount
+                + " variables, "
+                + qualifierCount
+                + " qualifiers, kinds: "
+                + constraintKinds;
+    }
+}
@@ -0,0 +1,228 @@
+package checkers.inference.solver.backend.routing;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.javacutil.UserError;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import checkers.inference.model.AlwaysFalseConstraint;
+import checkers.inference.model.AlwaysTrueConstraint;
+import checkers.inference.model.ArithmeticConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ComparisonConstraint;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.ImplicationConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.backend.fixpoint.FixpointSolver;
+import checkers.inference.solver.backend.fixpoint.QualifierTable;
+import checkers.inference.solver.backend.horn.HornSolver;
+import checkers.inference.solver.backend.maxsat.MaxSatSolverFactory;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverArg;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
+
+/**
+ * Creates, for each set of constraints, a solver of the cheapest engine that can solve it.
+ *
+ * <p>The engines are tried in this order:
+ *
+ * <ol>
+ *   <li>propagation, i.e. {@link HornSolver} or {@link FixpointSolver}, for subtype and equality
+ *       constraints with constants;
+ *   <li>the Z3 bit-vector solver, if configured, for subtype, equality and preference constraints
+ *       over lattices or components larger than MaxSat should handle, see {@link
+ *       RoutingSolverArg};
+ *   <li>MaxSat, for the constraint kinds it encodes;
+ *   <li>the Z3 SMT solver, if configured, for all others, e.g. arithmetic constraints.
+ * </ol>
+ *
+ * With the graph solving strategy, every component is routed on its own, so a few arithmetic
+ * constraints only send their own component to the SMT solver. Selected with {@code
+ * solver=Routing}, only propagation and MaxSat are available, and components with arithmetic or
+ * comparison constraints are rejected with a {@link UserError}; the Z3 solvers depend on the type
+ * system, which can pass its factories to {@link #RoutingSolverFactory(SolverFactory,
+ * SolverFactory, SolverFactory)} in an override of {@link
+ * checkers.inference.solver.SolverEngine#createSolverFactory()}.
+ */
+public class RoutingSolverFactory implements SolverFactory {
+
+    public enum RoutingSolverArg implements SolverArg {
+        /**
+         * the largest number of qualifiers for which MaxSat is used when a bit-vector solver is
+         * available, 32 by default
+         */
+        maxSatMaxQualifiers,
+
+        /**
+         * the largest number of constraints in a component for which MaxSat is used when a
+         * bit-vector solver is available, 0 (the default) for no limit
+         */
+        maxSatMaxConstraints
+    }
+
+    /** The engines a set of constraints can be routed to. */
+    public enum Route {
+        PROPAGATION,
+        MAX_SAT,
+        BIT_VECTOR,
+        SMT
+    }
+
+    private static final Logger logger = Logger.getLogger(RoutingSolverFactory.class.getName());
+
+    private static final Map<Route, Statistics.Counter> routeCounters = new EnumMap<>(Route.class);
+
+    static {
+        for (Route route : Route.values()) {
+            routeCounters.put(
+                    route, Statistics.register("routed_to_" + route.name().toLowerCase()));
+        }
+    }
+
+    /** The constraint kinds the MaxSat encoders support. */
+    private static final List<Class<? extends Constraint>> maxSatKinds =
+            Arrays.asList(
+                    SubtypeConstraint.class,
+                    EqualityConstraint.class,
+                    InequalityConstraint.class,
+                    ComparableConstraint.class,
+                    PreferenceConstraint.class,
+                    ImplicationConstraint.class,
+                    AlwaysTrueConstraint.class,
+                    AlwaysFalseConstraint.class);
+
+    /** The constraint kinds the Z3 bit-vector encoders support. */
+    private static final List<Class<? extends Constraint>> bitVectorKinds =
+            Arrays.asList(
+                    SubtypeConstraint.class,
+                    EqualityConstraint.class,
+                    PreferenceConstraint.class,
+                    AlwaysTrueConstraint.class,
+                    AlwaysFalseConstraint.class);
+
+    private final SolverFactory maxSatFactory;
+
+    private final @Nullable SolverFactory bitVectorFactory;
+
+    private final @Nullable SolverFactory smtFactory;
+
+    /** The qualifier table of the lattice of the last routed constraints. */
+    private QualifierTable qualifiers;
+
+    private Lattice qualifiersLattice;
+
+    public RoutingSolverFactory() {
+        this(new MaxSatSolverFactory(), null, null);
+    }
+
+    /**
+     * @param maxSatFactory creates the MaxSat solvers
+     * @param bitVectorFactory creates the Z3 bit-vector solvers, or null if there are none
+     * @param smtFactory creates the Z3 SMT solvers, or null if there are none
+     */
+    public RoutingSolverFactory(
+            SolverFactory maxSatFactory,
+            @Nullable SolverFactory bitVectorFactory,
+            @Nullable SolverFactory smtFactory) {
+        this.maxSatFactory = maxSatFactory;
+        this.bitVectorFactory = bitVectorFactory;
+        this.smtFactory = smtFactory;
+    }
+
+    @Override
+    public Solver<?> createSolver(
+            SolverEnvironment solverEnvironment,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        ComponentFeatures features = new ComponentFeatures(constraints, lattice);
+        Route route = route(solverEnvironment, constraints, lattice, features);
+        routeCounters.get(route).add(1);
+        Trace.current().count("routed_to_" + route.name().toLowerCase(), 1);
+        logger.fine(() -> "Routing " + features + " to " + route);
+
+        switch (route) {
+            case PROPAGATION:
+                if (HornSolver.canSolve(constraints, lattice)) {
+                    return new HornSolver(solverEnvironment, slots, constraints, lattice);
+                }
+                return new FixpointSolver(
+                        solverEnvironment, slots, constraints, lattice, getQualifierTable(lattice));
+            case BIT_VECTOR:
+                return bitVectorFactory.createSolver(
+                        solverEnvironment, slots, constraints, lattice);
+            case SMT:
+                return smtFactory.createSolver(solverEnvironment, slots, constraints, lattice);
+            default:
+                return maxSatFactory.createSolver(solverEnvironment, slots, constraints, lattice);
+        }
+    }
+
+    /**
+     * Returns the cheapest engine that can solve the given constraints.
+     *
+     * @throws UserError if the constraints need an SMT solver, but none is configured
+     */
+    protected Route route(
+            SolverEnvironment solverEnvironment,
+            Collection<Constraint> constraints,
+            Lattice lattice,
+            ComponentFeatures features) {
+        if (HornSolver.canSolve(constraints, lattice)
+                || FixpointSolver.canSolve(constraints, getQualifierTable(lattice))) {
+            return Route.PROPAGATION;
+        }
+        if (bitVectorFactory != null
+                && features.hasOnly(bitVectorKinds)
+                && exceedsMaxSatLimits(solverEnvironment, features)) {
+            return Route.BIT_VECTOR;
+        }
+        if (features.hasOnly(maxSatKinds)) {
+            return Route.MAX_SAT;
+        }
+        if (smtFactory != null) {
+            return Route.SMT;
+        }
+        if (features.has(ArithmeticConstraint.class) || features.has(ComparisonConstraint.class)) {
+            // MaxSat cannot encode them, and would solve the component without them.
+            throw new UserError(
+                    "No SMT solver is configured for a component with arithmetic or comparison"
+                            + " constraints (%s). Pass the Z3 factories of the type system to"
+                            + " RoutingSolverFactory, or choose an SMT solver.",
+                    features);
+        }
+        return Route.MAX_SAT;
+    }
+
+    private static boolean exceedsMaxSatLimits(
+            SolverEnvironment solverEnvironment, ComponentFeatures features) {
+        int maxQualifiers =
+                solverEnvironment.getIntArg(RoutingSolverArg.maxSatMaxQualifiers, 32);
+        int maxConstraints =
+                solverEnvironment.getIntArg(RoutingSolverArg.maxSatMaxConstraints, 0);
+        return features.getQualifierCount() > maxQualifiers
+                || (maxConstraints > 0 && features.getConstraintCount() > maxConstraints);
+    }
+
+    /** Returns the qualifier table of the given lattice, which all components share. */
+    private synchronized QualifierTable getQualifierTable(Lattice lattice) {
+        if (qualifiersLattice != lattice) {
+            qualifiers = new QualifierTable(lattice);
+            qualifiersLattice = lattice;
+        }
+        return qualifiers;
+    }
+}
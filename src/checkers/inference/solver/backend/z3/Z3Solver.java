@@ -14,6 +14,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 
 import javax.lang.model.element.AnnotationMirror;
 
@@ -51,6 +52,9 @@ public class Z3Solver extends Solver<Z3BitVectorFormatTranslator> {
 
         encodeAllConstraints();
 
+        if (cancelled) {
+            throw new CancellationException("The z3 solver was cancelled.");
+        }
         switch (solver.Check()) {
             case SATISFIABLE:
                 {
@@ -79,6 +83,13 @@ public class Z3Solver extends Solver<Z3BitVectorFormatTranslator> {
         return new HashSet<>(); // Doesn't support right now
     }
 
+    /** Interrupts z3, which then reports the constraints as unknown. */
+    @Override
+    public void cancel() {
+        super.cancel();
+        context.interrupt();
+    }
+
     @Override
     protected void encodeAllConstraints() {
         for (Constraint constraint : constraints) {
@@ -1,19 +1,27 @@
 package checkers.inference.solver.backend.z3smt;
 
 import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.BoolSort;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
+import com.microsoft.z3.FuncDecl;
+import com.microsoft.z3.IntNum;
+import com.microsoft.z3.Model;
+import com.microsoft.z3.Status;
 
 import org.checkerframework.javacutil.BugInCF;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.lang.model.element.AnnotationMirror;
@@ -28,18 +36,38 @@ import checkers.inference.model.serialization.ToStringSerializer;
 import checkers.inference.solver.backend.Solver;
 import checkers.inference.solver.backend.z3smt.encoder.Z3SmtSoftConstraintEncoder;
 import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.ExternalSolverPool;
 import checkers.inference.solver.util.ExternalSolverUtils;
 import checkers.inference.solver.util.FileUtils;
 import checkers.inference.solver.util.SolverArg;
 import checkers.inference.solver.util.SolverEnvironment;
 import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
 
 public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
         extends Solver<Z3SmtFormatTranslator<SlotEncodingT, SlotSolutionT>> {
 
     public enum Z3SolverEngineArg implements SolverArg {
         /** option to use optimizing mode or not */
-        optimizingMode
+        optimizingMode,
+
+        /**
+         * option to solve with the z3 Java bindings in this process, instead of piping the
+         * constraints to the z3 executable
+         */
+        inProcess,
+
+        /**
+         * option to write the SMT-LIB encoding of every solve to a numbered file, and to append
+         * every encoding to the global statistics file
+         */
+        dumpConstraints,
+
+        /**
+         * option to track every constraint when solving in process, so that unsatisfiable
+         * constraints are explained by the unsat core of that solve instead of a second one
+         */
+        incrementalExplanation
     }
 
     private static final Logger logger = Logger.getLogger(Z3SmtSolver.class.getName());
@@ -53,9 +81,24 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
     protected static final String z3Program = "z3";
     protected boolean optimizingMode;
 
+    /** This field indicates that whether we solve with the z3 Java bindings in this process. */
+    protected boolean inProcess;
+
+    /** This field indicates that whether the SMT-LIB encoding is written to files. */
+    protected boolean dumpConstraints;
+
     /** This field indicates that whether we are going to explain unsatisfiable. */
     protected boolean explainUnsat;
 
+    /** This field indicates that whether constraints are asserted with names for unsat cores. */
+    protected boolean trackConstraints;
+
+    /**
+     * The identifiers of the unsatisfiable constraints found by {@link #solve()} when constraints
+     * are tracked, or null if they have to be computed by {@link #explainUnsatisfiable()}.
+     */
+    private List<String> unsatCoreIDs;
+
     /**
      * This fields store the mapping from the constraint string ID to the constraint. In
      * non-optimizing mode, all ID-constraint mappings are cached during encoding, so that we can
@@ -63,20 +106,28 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
      */
     protected final Map<String, Constraint> serializedConstraints = new HashMap<>();
 
-    // file is written at projectRootFolder/constraints.smt
+    // files are written at projectRootFolder/z3Constraints<n>.smt
     // TODO: Clean up the string concatenations in here as well as the whole project
     protected static final String pathToProject = new File("").getAbsolutePath();
-    protected static final String constraintsFile = pathToProject + "/z3Constraints.smt";
-    protected static final String constraintsUnsatCoreFile =
-            pathToProject + "/z3ConstraintsUnsatCore.smt";
+    protected static final String constraintsFilePrefix = pathToProject + "/z3Constraints";
+    protected static final String constraintsUnsatCoreFilePrefix =
+            pathToProject + "/z3ConstraintsUnsatCore";
     protected static final String constraintsStatsFile = pathToProject + "/z3ConstraintsGlob.smt";
 
+    /** Numbers the dumped files, as several components may be solved at the same time. */
+    private static final AtomicInteger nth = new AtomicInteger(0);
+
     // timing statistics variables
     protected long serializationStart;
     protected long serializationEnd;
     protected long solvingStart;
     protected long solvingEnd;
 
+    protected static final Statistics.Counter serializationTimeCounter =
+            Statistics.register("smt_serialization_time(millisec)");
+    protected static final Statistics.Counter solvingTimeCounter =
+            Statistics.register("smt_solving_time(millisec)");
+
     public Z3SmtSolver(
             SolverEnvironment solverEnvironment,
             Collection<Slot> slots,
@@ -101,7 +152,12 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
     public Map<Integer, AnnotationMirror> solve() {
         // serialize based on user choice of running in optimizing or non-optimizing mode
         optimizingMode = solverEnvironment.getBoolArg(Z3SolverEngineArg.optimizingMode);
+        inProcess = solverEnvironment.getBoolArg(Z3SolverEngineArg.inProcess);
+        dumpConstraints = solverEnvironment.getBoolArg(Z3SolverEngineArg.dumpConstraints);
         explainUnsat = false;
+        trackConstraints =
+                inProcess && solverEnvironment.getBoolArg(Z3SolverEngineArg.incrementalExplanation);
+        unsatCoreIDs = null;
 
         if (optimizingMode) {
             logger.fine("Encoding for optimizing mode");
@@ -109,21 +165,28 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
             logger.fine("Encoding for non-optimizing mode");
         }
 
-        serializeSMTFileContents();
+        try (Trace.Span encoding = Trace.start("encode")) {
+            serializeSMTFileContents();
+        }
 
         List<String> results = new ArrayList<>();
         solvingStart = System.currentTimeMillis();
-        boolean isSat = runZ3Solver(results);
+        boolean isSat;
+        try (Trace.Span solving = Trace.start("smt-solve")) {
+            isSat = inProcess ? runZ3InProcess(results) : runZ3Solver(results);
+        }
         solvingEnd = System.currentTimeMillis();
 
         // serializationEnd and serializationStart are set within serializeSMTFileContents() above
-        Statistics.addOrIncrementEntry(
-                "smt_serialization_time(millisec)", serializationEnd - serializationStart);
-        Statistics.addOrIncrementEntry("smt_solving_time(millisec)", solvingEnd - solvingStart);
+        serializationTimeCounter.add(serializationEnd - serializationStart);
+        solvingTimeCounter.add(solvingEnd - solvingStart);
 
         if (!isSat) {
             // The status is UNSAT when there's no output model
             logger.fine("!!! The set of constraints is unsatisfiable! !!!");
+            if (trackConstraints) {
+                unsatCoreIDs = results;
+            }
             return null;
         }
 
@@ -132,8 +195,16 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
 
     @Override
     public Collection<Constraint> explainUnsatisfiable() {
+        if (unsatCoreIDs != null) {
+            // The unsat core of the original solve already explains it.
+            return toConstraints(unsatCoreIDs);
+        }
+
         optimizingMode = false;
+        inProcess = solverEnvironment.getBoolArg(Z3SolverEngineArg.inProcess);
+        dumpConstraints = solverEnvironment.getBoolArg(Z3SolverEngineArg.dumpConstraints);
         explainUnsat = true;
+        trackConstraints = true;
 
         logger.fine("Now encoding for unsat core dump.");
         serializeSMTFileContents();
@@ -142,7 +213,11 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
         solvingStart = System.currentTimeMillis();
         // To explain unsat, run z3 solver a second time to get identifiers of the
         // unsatisfiable constraints
-        runZ3Solver(unsatConstraintIDs);
+        if (inProcess) {
+            runZ3InProcess(unsatConstraintIDs);
+        } else {
+            runZ3Solver(unsatConstraintIDs);
+        }
         solvingEnd = System.currentTimeMillis();
 
         // serializationEnd and serializationStart are set within serializeSMTFileContents() above
@@ -151,9 +226,23 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
         Statistics.addOrIncrementEntry(
                 "smt_unsat_solving_time(millisec)", solvingEnd - solvingStart);
 
+        return toConstraints(unsatConstraintIDs);
+    }
+
+    /**
+     * Interrupts z3 when solving in process. The external z3 process is killed when the solving
+     * thread is interrupted.
+     */
+    @Override
+    public void cancel() {
+        super.cancel();
+        ctx.interrupt();
+    }
+
+    private List<Constraint> toConstraints(List<String> constraintIDs) {
         List<Constraint> unsatConstraints = new ArrayList<>();
 
-        for (String constraintID : unsatConstraintIDs) {
+        for (String constraintID : constraintIDs) {
             Constraint c = serializedConstraints.get(constraintID);
             unsatConstraints.add(c);
         }
@@ -182,6 +271,10 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
 
         logger.fine("Encoding constraints done!");
 
+        if (!shouldWriteSMTFile()) {
+            return;
+        }
+
         smtFileContents.append("(check-sat)\n");
         if (!optimizingMode && explainUnsat) {
             smtFileContents.append("(get-unsat-core)\n");
@@ -189,23 +282,33 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
             smtFileContents.append("(get-model)\n");
         }
 
-        logger.fine("Writing constraints to file: " + constraintsFile);
-
-        writeConstraintsToSMTFile();
+        if (dumpConstraints) {
+            writeConstraintsToSMTFile();
+        }
     }
 
     private void writeConstraintsToSMTFile() {
         String fileContents = smtFileContents.toString();
+        String constraintsFile =
+                (explainUnsat ? constraintsUnsatCoreFilePrefix : constraintsFilePrefix)
+                        + nth.incrementAndGet()
+                        + ".smt";
+
+        logger.fine("Writing constraints to file: " + constraintsFile);
+        FileUtils.writeFile(new File(constraintsFile), fileContents);
 
-        if (!explainUnsat) {
-            // write the constraints to the file for external solver use
-            FileUtils.writeFile(new File(constraintsFile), fileContents);
-        } else {
-            // write the unsat core constraints to the file for external solver use
-            FileUtils.writeFile(new File(constraintsUnsatCoreFile), fileContents);
-        }
         // write a copy in append mode to stats file for later bulk analysis
-        FileUtils.appendFile(new File(constraintsStatsFile), fileContents);
+        synchronized (Z3SmtSolver.class) {
+            FileUtils.appendFile(new File(constraintsStatsFile), fileContents);
+        }
+    }
+
+    /**
+     * Returns whether the SMT-LIB encoding needs to be built: always for the external z3
+     * executable, which reads it from stdIn, and only on request when solving in process.
+     */
+    protected boolean shouldWriteSMTFile() {
+        return !inProcess || dumpConstraints;
     }
 
     protected void encodeAllSlots() {
@@ -227,6 +330,10 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
             }
         }
 
+        if (!shouldWriteSMTFile()) {
+            return;
+        }
+
         // solver.toString() also includes "(check-sat)" as the last line,
         // remove it
         String slotDefinitionsAndConstraints = solver.toString();
@@ -258,7 +365,7 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
                 continue;
             }
 
-            Expr simplifiedConstraint = serializedConstraint.simplify();
+            Expr<BoolSort> simplifiedConstraint = serializedConstraint.simplify();
 
             if (simplifiedConstraint.isTrue()) {
                 // This only works if the BoolExpr is directly the value Z3True.
@@ -278,23 +385,37 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
                                 + serializedConstraint);
             }
 
-            String clause = simplifiedConstraint.toString();
-
-            if (!optimizingMode && explainUnsat) {
+            String constraintName = null;
+            if (trackConstraints) {
                 // add assertions with names, for unsat core dump
-                String constraintName = constraint.getClass().getSimpleName() + current;
-
-                constraintSmtFileContents.append("(assert (! ");
-                constraintSmtFileContents.append(clause);
-                constraintSmtFileContents.append(" :named " + constraintName + "))\n");
+                constraintName = constraint.getClass().getSimpleName() + current;
 
                 // add constraint to serialized constraints map, so that we can
                 // retrieve later using the constraint name when outputting the unsat core
                 serializedConstraints.put(constraintName, constraint);
-            } else {
-                constraintSmtFileContents.append("(assert ");
-                constraintSmtFileContents.append(clause);
-                constraintSmtFileContents.append(")\n");
+            }
+
+            if (inProcess) {
+                if (constraintName != null) {
+                    // the tracking literal carries the name into the unsat core
+                    solver.AssertAndTrack(simplifiedConstraint, ctx.mkBoolConst(constraintName));
+                } else {
+                    solver.Assert(simplifiedConstraint);
+                }
+            }
+
+            if (shouldWriteSMTFile()) {
+                String clause = simplifiedConstraint.toString();
+
+                if (constraintName != null) {
+                    constraintSmtFileContents.append("(assert (! ");
+                    constraintSmtFileContents.append(clause);
+                    constraintSmtFileContents.append(" :named " + constraintName + "))\n");
+                } else {
+                    constraintSmtFileContents.append("(assert ");
+                    constraintSmtFileContents.append(clause);
+                    constraintSmtFileContents.append(")\n");
+                }
             }
 
             current++;
@@ -306,7 +427,12 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
     protected void encodeAllSoftConstraints() {
         final Z3SmtSoftConstraintEncoder<SlotEncodingT, SlotSolutionT> encoder =
                 formatTranslator.createSoftConstraintEncoder();
-        smtFileContents.append(encoder.encodeAndGetSoftConstraints(constraints));
+        if (inProcess) {
+            encoder.encodeAndAssertSoftConstraints(
+                    constraints, solver, shouldWriteSMTFile() ? smtFileContents : null);
+        } else {
+            smtFileContents.append(encoder.encodeAndGetSoftConstraints(constraints));
+        }
     }
 
     protected void encodeSlotPreferenceConstraint(VariableSlot varSlot) {
@@ -325,24 +451,71 @@ public class Z3SmtSolver<SlotEncodingT, SlotSolutionT>
     private boolean runZ3Solver(List<String> results) {
         assert results != null;
         // TODO: add z3 stats?
-        String[] command;
-        if (!explainUnsat) {
-            command = new String[] {z3Program, constraintsFile};
-        } else {
-            command = new String[] {z3Program, constraintsUnsatCoreFile};
-        }
+        // z3 reads the SMT-LIB encoding from stdIn
+        String[] command = {z3Program, "-in"};
+        byte[] input = smtFileContents.toString().getBytes(StandardCharsets.UTF_8);
 
         // Run command
         // TODO: check that stdErr has no errors
         int exitStatus =
-                ExternalSolverUtils.runExternalSolver(
-                        command,
-                        stdOut -> parseStdOut(stdOut, results),
-                        stdErr -> ExternalSolverUtils.printStdStream(System.err, stdErr));
+                ExternalSolverPool.getInstance(solverEnvironment)
+                        .run(
+                                command,
+                                stdIn -> stdIn.write(input),
+                                stdOut ->
+                                        parseStdOut(
+                                                ExternalSolverUtils.toReader(stdOut), results),
+                                stdErr ->
+                                        ExternalSolverUtils.printStdStream(
+                                                System.err, ExternalSolverUtils.toReader(stdErr)));
         // if exit status from z3 is not 0, then it is unsat
         return exitStatus == 0;
     }
 
+    /**
+     * Checks the assertions of {@link #solver} with the z3 Java bindings, and reports the results
+     * in the same format as {@link #parseStdOut}, so that they can be decoded the same way.
+     *
+     * @param results an output parameter that stores (1) the solution as "varName value" lines if
+     *     it's sat (2) the unsatisfiable constraint identifier strings otherwise
+     * @return true if sat and false otherwise
+     */
+    private boolean runZ3InProcess(List<String> results) {
+        assert results != null;
+        if (cancelled) {
+            throw new CancellationException("The z3 solver was cancelled.");
+        }
+        Status status = solver.Check();
+        if (status == Status.UNKNOWN && cancelled) {
+            throw new CancellationException("The z3 solver was cancelled.");
+        }
+
+        if (status != Status.SATISFIABLE) {
+            if (trackConstraints && status == Status.UNSATISFIABLE) {
+                for (BoolExpr trackingLiteral : solver.getUnsatCore()) {
+                    results.add(trackingLiteral.getFuncDecl().getName().toString());
+                }
+            }
+            return false;
+        }
+
+        Model model = solver.getModel();
+        for (FuncDecl<?> decl : model.getConstDecls()) {
+            if (trackConstraints && serializedConstraints.containsKey(decl.getName().toString())) {
+                // tracking literals are not slot variables
+                continue;
+            }
+            Expr<?> value = model.getConstInterp(decl);
+            // z3 prints negative numbers as "(- n)", which parseStdOut turns into "-n"
+            String valueString =
+                    value.isIntNum()
+                            ? ((IntNum) value).getBigInteger().toString()
+                            : value.toString();
+            results.add(decl.getName() + " " + valueString);
+        }
+        return true;
+    }
+
     /**
      * Parses the STD output from the z3 process and handles SAT and UNSAT outputs
      *
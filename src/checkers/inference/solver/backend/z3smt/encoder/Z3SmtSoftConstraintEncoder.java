@@ -1,11 +1,17 @@
 package checkers.inference.solver.backend.z3smt.encoder;
 
+import com.microsoft.z3.BoolSort;
 import com.microsoft.z3.Context;
 import com.microsoft.z3.Expr;
+import com.microsoft.z3.Optimize;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.javacutil.BugInCF;
+import org.plumelib.util.IPair;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import checkers.inference.model.Constraint;
 import checkers.inference.model.EqualityConstraint;
@@ -17,19 +23,23 @@ import checkers.inference.solver.frontend.Lattice;
 public abstract class Z3SmtSoftConstraintEncoder<SlotEncodingT, SlotSolutionT>
         extends Z3SmtAbstractConstraintEncoder<SlotEncodingT, SlotSolutionT> {
 
-    protected final StringBuilder softConstraints;
+    /**
+     * The soft constraints encoded so far, with their weights. They are only rendered as SMT-LIB
+     * text when that encoding is needed.
+     */
+    private final List<IPair<Expr<BoolSort>, Integer>> softConstraintExprs;
 
     public Z3SmtSoftConstraintEncoder(
             Lattice lattice,
             Context ctx,
             Z3SmtFormatTranslator<SlotEncodingT, SlotSolutionT> z3SmtFormatTranslator) {
         super(lattice, ctx, z3SmtFormatTranslator);
-        this.softConstraints = new StringBuilder();
+        this.softConstraintExprs = new ArrayList<>();
     }
 
+    @SuppressWarnings("unchecked") // soft constraints are boolean expressions
     protected void addSoftConstraint(Expr serializedConstraint, int weight) {
-        softConstraints.append(
-                "(assert-soft " + serializedConstraint + " :weight " + weight + ")\n");
+        softConstraintExprs.add(IPair.of((Expr<BoolSort>) serializedConstraint, weight));
     }
 
     protected abstract void encodeSoftSubtypeConstraint(SubtypeConstraint constraint);
@@ -45,6 +55,49 @@ public abstract class Z3SmtSoftConstraintEncoder<SlotEncodingT, SlotSolutionT>
      * @return a string representation of the encoding of soft constraints
      */
     public String encodeAndGetSoftConstraints(Collection<Constraint> constraints) {
+        encodeSoftConstraints(constraints);
+        StringBuilder res = new StringBuilder();
+        appendSoftConstraints(res);
+        // clear fields for next usage
+        softConstraintExprs.clear();
+        return res.toString();
+    }
+
+    /**
+     * Encode a set of constraints as soft constraints, and assert them on the given solver.
+     *
+     * @param constraints constraints to be encoded as soft constraints
+     * @param solver the solver to assert the soft constraints on
+     * @param smtFileContents the SMT-LIB encoding to append the soft constraints to, or null if
+     *     it is not written
+     */
+    public void encodeAndAssertSoftConstraints(
+            Collection<Constraint> constraints,
+            Optimize solver,
+            @Nullable StringBuilder smtFileContents) {
+        encodeSoftConstraints(constraints);
+        for (IPair<Expr<BoolSort>, Integer> softConstraint : softConstraintExprs) {
+            // empty string means no optimization group
+            solver.AssertSoft(softConstraint.first, softConstraint.second, "");
+        }
+        if (smtFileContents != null) {
+            appendSoftConstraints(smtFileContents);
+        }
+        // clear fields for next usage
+        softConstraintExprs.clear();
+    }
+
+    private void appendSoftConstraints(StringBuilder out) {
+        for (IPair<Expr<BoolSort>, Integer> softConstraint : softConstraintExprs) {
+            out.append("(assert-soft ")
+                    .append(softConstraint.first)
+                    .append(" :weight ")
+                    .append(softConstraint.second)
+                    .append(")\n");
+        }
+    }
+
+    private void encodeSoftConstraints(Collection<Constraint> constraints) {
         for (Constraint constraint : constraints) {
             if (constraint instanceof SubtypeConstraint) {
                 encodeSoftSubtypeConstraint((SubtypeConstraint) constraint);
@@ -62,9 +115,5 @@ public abstract class Z3SmtSoftConstraintEncoder<SlotEncodingT, SlotSolutionT>
                                 + " is not supported");
             }
         }
-        String res = softConstraints.toString();
-        // clear field for next usage
-        softConstraints.setLength(0);
-        return res;
     }
 }
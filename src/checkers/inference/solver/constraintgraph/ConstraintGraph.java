@@ -29,6 +29,12 @@ public class ConstraintGraph {
     private final Map<Integer, Vertex> verticies;
     private final List<Set<Constraint>> independentPath;
 
+    /**
+     * Creates the edges, constant vertices and constant paths of this graph when they are first
+     * needed, or null if they have already been created.
+     */
+    private Runnable edgeBuilder;
+
     protected ConstraintGraph() {
         this.edges = new HashSet<Edge>();
         this.constantVerticies = new HashSet<Vertex>();
@@ -37,6 +43,19 @@ public class ConstraintGraph {
         this.independentPath = new LinkedList<Set<Constraint>>();
     }
 
+    protected void setEdgeBuilder(Runnable edgeBuilder) {
+        this.edgeBuilder = edgeBuilder;
+    }
+
+    private void ensureEdgesBuilt() {
+        if (edgeBuilder != null) {
+            // Reset first: the builder itself queries the vertices of this graph.
+            Runnable builder = edgeBuilder;
+            edgeBuilder = null;
+            builder.run();
+        }
+    }
+
     protected void addEdge(Edge edge) {
         if (!this.edges.contains(edge)) {
             this.edges.add(edge);
@@ -44,18 +63,22 @@ public class ConstraintGraph {
     }
 
     protected List<Vertex> getVerticies() {
+        ensureEdgesBuilt();
         return new ArrayList<Vertex>(this.verticies.values());
     }
 
     protected Set<Edge> getEdges() {
+        ensureEdgesBuilt();
         return Collections.unmodifiableSet(edges);
     }
 
     protected Set<Vertex> getConstantVerticies() {
+        ensureEdgesBuilt();
         return Collections.unmodifiableSet(constantVerticies);
     }
 
     public Map<Vertex, Set<Constraint>> getConstantPath() {
+        ensureEdgesBuilt();
         Map<Vertex, Set<Constraint>> tempMap = new HashMap<>();
         for (Map.Entry<Vertex, Set<Constraint>> entry : constantPath.entrySet()) {
             tempMap.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
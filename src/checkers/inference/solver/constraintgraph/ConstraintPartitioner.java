@@ -0,0 +1,135 @@
+package checkers.inference.solver.constraintgraph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.Slot;
+
+/**
+ * ConstraintPartitioner separates constraints into independent components with a union-find
+ * structure over slot ids.
+ *
+ * <p>The components are the same as the connected components of the {@link ConstraintGraph},
+ * where every slot is a vertex and every constraint connects all of its slots, but no vertex or
+ * edge is materialized. Partitioning runs in time nearly linear in the total number of slot
+ * occurrences, whereas the graph needs a clique of edges for every n-ary constraint.
+ *
+ * <p>As in {@link GraphBuilder}, existential constraints and constraints between constants only
+ * are not part of any component.
+ */
+public class ConstraintPartitioner {
+
+    /** Parent of each slot id in the union-find forest. A root is its own parent. */
+    private int[] parent;
+
+    /** Number of slots in the tree of each root, used to keep the trees shallow. */
+    private int[] size;
+
+    /**
+     * Partitions the given constraints.
+     *
+     * @param constraints the constraints to partition
+     * @return the independent components, ordered by the smallest slot id they contain
+     */
+    public List<Set<Constraint>> partition(Collection<Constraint> constraints) {
+        List<Constraint> connecting = new ArrayList<>();
+        int maxId = 0;
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof ExistentialConstraint || !connectsSlots(constraint)) {
+                continue;
+            }
+            connecting.add(constraint);
+            for (Slot slot : constraint.getSlots()) {
+                maxId = Math.max(maxId, slot.getId());
+            }
+        }
+
+        parent = new int[maxId + 1];
+        size = new int[maxId + 1];
+        boolean[] used = new boolean[maxId + 1];
+        for (int id = 0; id <= maxId; id++) {
+            parent[id] = id;
+            size[id] = 1;
+        }
+
+        for (Constraint constraint : connecting) {
+            List<Slot> slots = constraint.getSlots();
+            int first = slots.get(0).getId();
+            used[first] = true;
+            for (int i = 1; i < slots.size(); i++) {
+                int id = slots.get(i).getId();
+                used[id] = true;
+                union(first, id);
+            }
+        }
+
+        // Number components in increasing order of their smallest slot id.
+        int[] componentOfRoot = new int[maxId + 1];
+        int numComponents = 0;
+        for (int id = 0; id <= maxId; id++) {
+            if (used[id]) {
+                int root = find(id);
+                if (componentOfRoot[root] == 0) {
+                    componentOfRoot[root] = ++numComponents;
+                }
+            }
+        }
+
+        List<Set<Constraint>> components = new ArrayList<>(numComponents);
+        for (int i = 0; i < numComponents; i++) {
+            components.add(new HashSet<>());
+        }
+        for (Constraint constraint : connecting) {
+            int root = find(constraint.getSlots().get(0).getId());
+            components.get(componentOfRoot[root] - 1).add(constraint);
+        }
+        return components;
+    }
+
+    /**
+     * Returns whether the given constraint relates at least two slots, one of which is not a
+     * constant. Only such constraints create edges in the {@link ConstraintGraph}.
+     */
+    private static boolean connectsSlots(Constraint constraint) {
+        List<Slot> slots = constraint.getSlots();
+        if (slots.size() < 2) {
+            return false;
+        }
+        for (Slot slot : slots) {
+            if (!(slot instanceof ConstantSlot)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int find(int id) {
+        while (parent[id] != id) {
+            // Path halving: point every other node on the path to its grandparent.
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (size[rootA] < size[rootB]) {
+            int tmp = rootA;
+            rootA = rootB;
+            rootB = tmp;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+    }
+}
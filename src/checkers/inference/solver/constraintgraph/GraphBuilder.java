@@ -29,6 +29,10 @@ import dataflow.DataflowVisitor;
  * GraphBuilder builds the constraint graph and runs graph traversal algorithms to separate the
  * graph in different components.
  *
+ * <p>Independent components are computed by a {@link ConstraintPartitioner} without building any
+ * edge. Edges and constant paths are only built the first time they are requested from the
+ * returned {@link ConstraintGraph}, since most clients only need the independent components.
+ *
  * @author jianchu
  */
 public class GraphBuilder {
@@ -44,6 +48,13 @@ public class GraphBuilder {
     }
 
     public ConstraintGraph buildGraph() {
+        calculateIndependentPath();
+        graph.setEdgeBuilder(this::buildEdges);
+        return getGraph();
+    }
+
+    /** Creates the edges of the graph, and calculates the constant paths based on them. */
+    private void buildEdges() {
         for (Constraint constraint : constraints) {
             if (constraint instanceof SubtypeConstraint) {
                 addSubtypeEdge((SubtypeConstraint) constraint);
@@ -56,11 +67,9 @@ public class GraphBuilder {
             }
         }
         addConstant();
-        calculateIndependentPath();
         calculateConstantPath();
         // printEdges();
         // printGraph();
-        return getGraph();
     }
 
     /** Find all constant vertices. */
@@ -72,30 +81,10 @@ public class GraphBuilder {
         }
     }
 
-    /** This method runs BFS based algorithm, and calculates all independent components. */
+    /** Calculates all independent components with a union-find based algorithm. */
     private void calculateIndependentPath() {
-        Set<Vertex> visited = new HashSet<Vertex>();
-        for (Vertex vertex : this.graph.getVerticies()) {
-            if (!visited.contains(vertex)) {
-                Set<Constraint> independentPath = new HashSet<Constraint>();
-                Queue<Vertex> queue = new LinkedList<Vertex>();
-                queue.add(vertex);
-                while (!queue.isEmpty()) {
-                    Vertex current = queue.remove();
-                    visited.add(current);
-                    for (Edge edge : current.getEdges()) {
-                        independentPath.add(edge.getConstraint());
-                        Vertex next =
-                                edge.getFromVertex().equals(current)
-                                        ? edge.getToVertex()
-                                        : edge.getFromVertex();
-                        if (!visited.contains(next)) {
-                            queue.add(next);
-                        }
-                    }
-                }
-                this.graph.addIndependentPath(independentPath);
-            }
+        for (Set<Constraint> independentPath : new ConstraintPartitioner().partition(constraints)) {
+            this.graph.addIndependentPath(independentPath);
         }
     }
 
@@ -0,0 +1,254 @@
+package checkers.inference.solver.presolve;
+
+import org.checkerframework.javacutil.AnnotationUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.solver.frontend.Lattice;
+
+/**
+ * Fixes the slots whose solution is forced by the constraints, before the constraints are encoded.
+ *
+ * <p>A slot is forced to a qualifier when it is equal to a constant or to a forced slot, a subtype
+ * of a slot forced to bottom, or a supertype of a slot forced to top. These facts are propagated
+ * with a worklist, like unit propagation in a SAT solver. As every solution of the constraints
+ * assigns the forced qualifiers, forced variables are replaced by their constants, and the
+ * constraints that only relate constants afterwards are checked and dropped.
+ *
+ * <p>Only source and refinement variables are replaced, and only if all their constraints are
+ * subtype, equality, inequality, comparable or preference constraints. Other slots and
+ * constraints may have encodings that depend on the variable itself, so they are left to the
+ * solver, together with the constraints that force them.
+ */
+public class ConstantPropagationPresolver implements Presolver {
+
+    private final Lattice lattice;
+
+    /** The subtype and equality constraints of each slot, by slot id. */
+    private final Map<Integer, List<Constraint>> propagatingConstraints = new HashMap<>();
+
+    /** The constant each forced slot is equal to, by slot id. */
+    private final Map<Integer, ConstantSlot> forced = new HashMap<>();
+
+    private final Deque<Slot> worklist = new ArrayDeque<>();
+
+    public ConstantPropagationPresolver(Lattice lattice) {
+        this.lattice = lattice;
+    }
+
+    @Override
+    public PresolvedConstraints presolve(Collection<Constraint> constraints) {
+        propagatingConstraints.clear();
+        forced.clear();
+        worklist.clear();
+
+        // Ids of the slots that must stay in the constraints.
+        Set<Integer> pinned = new HashSet<>();
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof EqualityConstraint
+                    || constraint instanceof SubtypeConstraint) {
+                for (Slot slot : constraint.getSlots()) {
+                    propagatingConstraints
+                            .computeIfAbsent(slot.getId(), id -> new ArrayList<>())
+                            .add(constraint);
+                    if (slot.getKind() != Slot.Kind.VARIABLE
+                            && slot.getKind() != Slot.Kind.REFINEMENT_VARIABLE) {
+                        pinned.add(slot.getId());
+                    }
+                }
+                if (!propagateFrom(constraint)) {
+                    return null;
+                }
+            } else if (!isRewritable(constraint) && !(constraint instanceof PreferenceConstraint)) {
+                for (Slot slot : constraint.getSlots()) {
+                    pinned.add(slot.getId());
+                }
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            Slot slot = worklist.pop();
+            for (Constraint constraint : propagatingConstraints.get(slot.getId())) {
+                if (!propagateFrom(constraint)) {
+                    return null;
+                }
+            }
+        }
+
+        Map<Integer, AnnotationMirror> fixedSolutions = new HashMap<>();
+        for (Map.Entry<Integer, ConstantSlot> entry : forced.entrySet()) {
+            if (!pinned.contains(entry.getKey())) {
+                fixedSolutions.put(entry.getKey(), entry.getValue().getValue());
+            }
+        }
+        if (fixedSolutions.isEmpty()) {
+            return new PresolvedConstraints(constraints, fixedSolutions);
+        }
+
+        List<Constraint> remaining = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof PreferenceConstraint) {
+                // The preference of a fixed variable can no longer be influenced.
+                int id = ((PreferenceConstraint) constraint).getVariable().getId();
+                if (!fixedSolutions.containsKey(id)) {
+                    remaining.add(constraint);
+                }
+            } else if (isRewritable(constraint)) {
+                BinaryConstraint binary = (BinaryConstraint) constraint;
+                Slot first = substitute(binary.getFirst(), fixedSolutions);
+                Slot second = substitute(binary.getSecond(), fixedSolutions);
+                if (first == binary.getFirst() && second == binary.getSecond()) {
+                    remaining.add(constraint);
+                    continue;
+                }
+                Boolean holds = evaluate(constraint, first, second);
+                if (holds == null) {
+                    remaining.add(binary.make(first, second));
+                } else if (!holds) {
+                    return null;
+                }
+            } else {
+                remaining.add(constraint);
+            }
+        }
+        return new PresolvedConstraints(remaining, fixedSolutions);
+    }
+
+    private static boolean isRewritable(Constraint constraint) {
+        return constraint instanceof SubtypeConstraint
+                || constraint instanceof EqualityConstraint
+                || constraint instanceof InequalityConstraint
+                || constraint instanceof ComparableConstraint;
+    }
+
+    /**
+     * Forces the slots of the given subtype or equality constraint that follow from the slots
+     * forced so far.
+     *
+     * @return false if a slot is forced to two different qualifiers
+     */
+    private boolean propagateFrom(Constraint constraint) {
+        BinaryConstraint binary = (BinaryConstraint) constraint;
+        Slot first = binary.getFirst();
+        Slot second = binary.getSecond();
+        ConstantSlot firstValue = valueOf(first);
+        ConstantSlot secondValue = valueOf(second);
+
+        if (constraint instanceof EqualityConstraint) {
+            if (firstValue != null && !force(second, firstValue)) {
+                return false;
+            }
+            return secondValue == null || force(first, secondValue);
+        }
+        // first <: second
+        if (secondValue != null
+                && AnnotationUtils.areSame(secondValue.getValue(), lattice.bottom)
+                && !force(first, secondValue)) {
+            return false;
+        }
+        return firstValue == null
+                || !AnnotationUtils.areSame(firstValue.getValue(), lattice.top)
+                || force(second, firstValue);
+    }
+
+    /** Returns the constant the given slot is equal to, or null if it is not forced. */
+    private ConstantSlot valueOf(Slot slot) {
+        if (slot instanceof ConstantSlot) {
+            return (ConstantSlot) slot;
+        }
+        return forced.get(slot.getId());
+    }
+
+    /**
+     * Forces the given slot to the given constant.
+     *
+     * @return false if the slot is a different constant or already forced to one
+     */
+    private boolean force(Slot slot, ConstantSlot value) {
+        ConstantSlot current = valueOf(slot);
+        if (current != null) {
+            return AnnotationUtils.areSame(current.getValue(), value.getValue());
+        }
+        forced.put(slot.getId(), value);
+        worklist.push(slot);
+        return true;
+    }
+
+    private Slot substitute(Slot slot, Map<Integer, AnnotationMirror> fixedSolutions) {
+        return fixedSolutions.containsKey(slot.getId()) ? forced.get(slot.getId()) : slot;
+    }
+
+    /**
+     * Evaluates the given constraint on the given slots.
+     *
+     * @return whether it holds, or null if a slot is not a constant or the lattice does not relate
+     *     the constants
+     */
+    private Boolean evaluate(Constraint constraint, Slot first, Slot second) {
+        if (constraint instanceof SubtypeConstraint) {
+            // Bottom is below and top above every variable.
+            if (isConstant(first, lattice.bottom) || isConstant(second, lattice.top)) {
+                return true;
+            }
+        }
+        if (!(first instanceof ConstantSlot) || !(second instanceof ConstantSlot)) {
+            return null;
+        }
+        AnnotationMirror firstValue = ((ConstantSlot) first).getValue();
+        AnnotationMirror secondValue = ((ConstantSlot) second).getValue();
+        boolean same = AnnotationUtils.areSame(firstValue, secondValue);
+        if (constraint instanceof EqualityConstraint) {
+            return same;
+        }
+        if (constraint instanceof InequalityConstraint) {
+            return !same;
+        }
+        if (same) {
+            return true;
+        }
+        Boolean subtype = isSubtype(firstValue, secondValue);
+        if (constraint instanceof SubtypeConstraint || subtype == null || subtype) {
+            return subtype;
+        }
+        // comparable
+        return isSubtype(secondValue, firstValue);
+    }
+
+    private static boolean isConstant(Slot slot, AnnotationMirror value) {
+        return slot instanceof ConstantSlot
+                && AnnotationUtils.areSame(((ConstantSlot) slot).getValue(), value);
+    }
+
+    /** Returns whether sub is a subtype of sup, or null if sup is not in the lattice. */
+    private Boolean isSubtype(AnnotationMirror sub, AnnotationMirror sup) {
+        Collection<AnnotationMirror> subtypes = lattice.subType.get(sup);
+        if (subtypes == null) {
+            return null;
+        }
+        for (AnnotationMirror subtype : subtypes) {
+            if (AnnotationUtils.areSame(subtype, sub)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
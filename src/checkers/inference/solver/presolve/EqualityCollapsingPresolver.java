@@ -0,0 +1,167 @@
+package checkers.inference.solver.presolve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import checkers.inference.model.BinaryConstraint;
+import checkers.inference.model.ComparableConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+import checkers.inference.model.VariableSlot;
+
+/**
+ * Merges the variables that are equal to each other into one representative variable.
+ *
+ * <p>The equality constraints between variables are collected with union-find, and the other
+ * constraints are rewritten onto the representatives of their variables. Constraints that become
+ * duplicates are kept once, and equalities within a class are dropped, so the solver gets one
+ * variable, and one set of clauses, per class. The solution of a representative is copied to all
+ * other variables of its class by {@link PresolvedConstraints#completeSolution}.
+ *
+ * <p>Only subtype, equality, inequality, comparable and preference constraints are rewritten.
+ * The variables of other constraints stay as they are, so they can only be representatives, and
+ * two such variables are never merged.
+ */
+public class EqualityCollapsingPresolver implements Presolver {
+
+    /** The union-find forest over slot ids; roots are absent. */
+    private final Map<Integer, Integer> parents = new HashMap<>();
+
+    private final Map<Integer, Slot> slotsById = new HashMap<>();
+
+    /** The roots of the classes that contain a variable that cannot be replaced. */
+    private final Set<Integer> pinnedRoots = new HashSet<>();
+
+    @Override
+    public PresolvedConstraints presolve(Collection<Constraint> constraints) {
+        parents.clear();
+        slotsById.clear();
+        pinnedRoots.clear();
+
+        for (Constraint constraint : constraints) {
+            if (!isRewritable(constraint) && !(constraint instanceof PreferenceConstraint)) {
+                for (Slot slot : constraint.getSlots()) {
+                    pinnedRoots.add(slot.getId());
+                }
+            }
+        }
+        mergeEqualSlots(constraints);
+
+        Map<Integer, Integer> aliases = new HashMap<>();
+        for (Integer id : parents.keySet()) {
+            aliases.put(id, find(id));
+        }
+        if (aliases.isEmpty()) {
+            return new PresolvedConstraints(constraints, new HashMap<>());
+        }
+
+        List<Constraint> remaining = new ArrayList<>();
+        Set<Constraint> rewritten = new HashSet<>();
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof PreferenceConstraint) {
+                // Preferences are soft, so duplicates add up and are all kept.
+                PreferenceConstraint preference = (PreferenceConstraint) constraint;
+                Slot representative = representative(preference.getVariable());
+                if (representative != preference.getVariable()) {
+                    constraint = preference.make((VariableSlot) representative);
+                }
+                remaining.add(constraint);
+            } else if (isRewritable(constraint)) {
+                BinaryConstraint binary = (BinaryConstraint) constraint;
+                Slot first = representative(binary.getFirst());
+                Slot second = representative(binary.getSecond());
+                if (first == second) {
+                    if (constraint instanceof InequalityConstraint) {
+                        return null;
+                    }
+                    // Reflexive subtype, equality and comparable constraints always hold.
+                    continue;
+                }
+                if (first != binary.getFirst() || second != binary.getSecond()) {
+                    constraint = binary.make(first, second);
+                }
+                if (rewritten.add(constraint)) {
+                    remaining.add(constraint);
+                }
+            } else {
+                remaining.add(constraint);
+            }
+        }
+        return new PresolvedConstraints(remaining, new HashMap<>(), aliases);
+    }
+
+    /**
+     * Merges the slots that the given constraints make equal, with {@link #union}. Sub-classes may
+     * override this method to merge the slots of further equalities the constraints imply.
+     */
+    protected void mergeEqualSlots(Collection<Constraint> constraints) {
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof EqualityConstraint) {
+                EqualityConstraint equality = (EqualityConstraint) constraint;
+                if (!(equality.getFirst() instanceof ConstantSlot)
+                        && !(equality.getSecond() instanceof ConstantSlot)) {
+                    union(equality.getFirst(), equality.getSecond());
+                }
+            }
+        }
+    }
+
+    private static boolean isRewritable(Constraint constraint) {
+        return constraint instanceof SubtypeConstraint
+                || constraint instanceof EqualityConstraint
+                || constraint instanceof InequalityConstraint
+                || constraint instanceof ComparableConstraint;
+    }
+
+    private int find(int id) {
+        int root = id;
+        for (Integer parent = parents.get(root); parent != null; parent = parents.get(root)) {
+            root = parent;
+        }
+        // path compression
+        while (id != root) {
+            id = parents.put(id, root);
+        }
+        return root;
+    }
+
+    /** Merges the classes of the given variables, unless both contain a pinned variable. */
+    protected void union(Slot first, Slot second) {
+        slotsById.putIfAbsent(first.getId(), first);
+        slotsById.putIfAbsent(second.getId(), second);
+        int firstRoot = find(first.getId());
+        int secondRoot = find(second.getId());
+        if (firstRoot == secondRoot) {
+            return;
+        }
+        boolean firstPinned = pinnedRoots.contains(firstRoot);
+        boolean secondPinned = pinnedRoots.contains(secondRoot);
+        if (firstPinned && secondPinned) {
+            // The equality stays for the solver.
+            return;
+        }
+        // A pinned variable has to stay the representative of its class.
+        if (secondPinned || (!firstPinned && secondRoot < firstRoot)) {
+            parents.put(firstRoot, secondRoot);
+        } else {
+            parents.put(secondRoot, firstRoot);
+        }
+    }
+
+    private Slot representative(Slot slot) {
+        if (!parents.containsKey(slot.getId())) {
+            return slot;
+        }
+        return slotsById.get(find(slot.getId()));
+    }
+}
@@ -0,0 +1,74 @@
+package checkers.inference.solver.presolve;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.Constraint;
+
+/**
+ * The result of a {@link Presolver}: the remaining constraints, the slots it solved, and the slots
+ * it merged into others.
+ */
+public class PresolvedConstraints {
+
+    private final Collection<Constraint> constraints;
+
+    /** The solutions of the slots that no longer occur in the remaining constraints. */
+    private final Map<Integer, AnnotationMirror> fixedSolutions;
+
+    /**
+     * The slots that no longer occur in the remaining constraints because they are equal to
+     * another slot, mapped to the id of that slot.
+     */
+    private final Map<Integer, Integer> aliases;
+
+    public PresolvedConstraints(
+            Collection<Constraint> constraints, Map<Integer, AnnotationMirror> fixedSolutions) {
+        this(constraints, fixedSolutions, Collections.emptyMap());
+    }
+
+    public PresolvedConstraints(
+            Collection<Constraint> constraints,
+            Map<Integer, AnnotationMirror> fixedSolutions,
+            Map<Integer, Integer> aliases) {
+        this.constraints = constraints;
+        this.fixedSolutions = Collections.unmodifiableMap(fixedSolutions);
+        this.aliases = Collections.unmodifiableMap(aliases);
+    }
+
+    /** Returns the remaining constraints, which are to be solved by the solving strategy. */
+    public Collection<Constraint> getConstraints() {
+        return constraints;
+    }
+
+    /** Returns the solutions the presolver has determined, by slot id. */
+    public Map<Integer, AnnotationMirror> getFixedSolutions() {
+        return fixedSolutions;
+    }
+
+    /** Returns the ids of the merged slots, mapped to the ids of the slots they are merged into. */
+    public Map<Integer, Integer> getAliases() {
+        return aliases;
+    }
+
+    /**
+     * Returns the solution of the original constraints for the given solution of the remaining
+     * ones.
+     */
+    public Map<Integer, AnnotationMirror> completeSolution(
+            Map<Integer, AnnotationMirror> solution) {
+        Map<Integer, AnnotationMirror> completed = new HashMap<>(solution);
+        for (Map.Entry<Integer, Integer> alias : aliases.entrySet()) {
+            AnnotationMirror value = solution.get(alias.getValue());
+            if (value != null) {
+                completed.put(alias.getKey(), value);
+            }
+        }
+        completed.putAll(fixedSolutions);
+        return completed;
+    }
+}
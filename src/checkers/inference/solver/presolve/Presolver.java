@@ -0,0 +1,25 @@
+package checkers.inference.solver.presolve;
+
+import java.util.Collection;
+
+import checkers.inference.model.Constraint;
+
+/**
+ * A pass that simplifies the constraints before they are handed to a solving strategy.
+ *
+ * <p>The simplified constraints must be satisfiable exactly when the original ones are, and every
+ * solution of the simplified constraints must be completed by {@link
+ * PresolvedConstraints#completeSolution} to a solution of the original ones.
+ *
+ * @see checkers.inference.solver.SolverEngine
+ */
+public interface Presolver {
+
+    /**
+     * Simplifies the given constraints.
+     *
+     * @param constraints the normalized constraints
+     * @return the simplified constraints, or null if the presolver found them unsatisfiable
+     */
+    PresolvedConstraints presolve(Collection<Constraint> constraints);
+}
@@ -0,0 +1,131 @@
+package checkers.inference.solver.presolve;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
+
+/**
+ * Merges the variables that are equal to each other, including the variables on a cycle of
+ * subtype constraints.
+ *
+ * <p>As subtyping is a partial order, a cycle a &lt;: b &lt;: c &lt;: a forces all of its variables
+ * to be equal. The strongly connected components of the subtype graph between variables are found
+ * with Tarjan's algorithm, and each of them is merged like a class of equal variables, see {@link
+ * EqualityCollapsingPresolver}.
+ */
+public class SubtypeCycleCollapsingPresolver extends EqualityCollapsingPresolver {
+
+    @Override
+    protected void mergeEqualSlots(Collection<Constraint> constraints) {
+        super.mergeEqualSlots(constraints);
+
+        Map<Slot, List<Slot>> supertypes = new HashMap<>();
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof SubtypeConstraint) {
+                SubtypeConstraint subtype = (SubtypeConstraint) constraint;
+                if (!(subtype.getSubtype() instanceof ConstantSlot)
+                        && !(subtype.getSupertype() instanceof ConstantSlot)) {
+                    supertypes
+                            .computeIfAbsent(subtype.getSubtype(), slot -> new ArrayList<>())
+                            .add(subtype.getSupertype());
+                }
+            }
+        }
+
+        for (List<Slot> component : stronglyConnectedComponents(supertypes)) {
+            for (int i = 1; i < component.size(); i++) {
+                union(component.get(0), component.get(i));
+            }
+        }
+    }
+
+    /**
+     * Returns the strongly connected components of the given graph with more than one node. The
+     * recursion of Tarjan's algorithm is unrolled onto an explicit stack, as the chains of subtype
+     * constraints can be longer than the call stack allows.
+     */
+    private static List<List<Slot>> stronglyConnectedComponents(Map<Slot, List<Slot>> successors) {
+        List<List<Slot>> components = new ArrayList<>();
+        Map<Slot, Integer> indices = new HashMap<>();
+        Map<Slot, Integer> lowLinks = new HashMap<>();
+        Deque<Slot> componentStack = new ArrayDeque<>();
+        Set<Slot> onComponentStack = new HashSet<>();
+        Deque<Slot> callStack = new ArrayDeque<>();
+        Deque<Iterator<Slot>> pendingSuccessors = new ArrayDeque<>();
+
+        for (Slot start : successors.keySet()) {
+            if (indices.containsKey(start)) {
+                continue;
+            }
+            visit(start, indices, lowLinks, componentStack, onComponentStack);
+            callStack.push(start);
+            pendingSuccessors.push(successorsOf(start, successors));
+
+            while (!callStack.isEmpty()) {
+                Slot node = callStack.peek();
+                Iterator<Slot> pending = pendingSuccessors.peek();
+                if (pending.hasNext()) {
+                    Slot successor = pending.next();
+                    if (!indices.containsKey(successor)) {
+                        visit(successor, indices, lowLinks, componentStack, onComponentStack);
+                        callStack.push(successor);
+                        pendingSuccessors.push(successorsOf(successor, successors));
+                    } else if (onComponentStack.contains(successor)) {
+                        lowLinks.put(node, Math.min(lowLinks.get(node), indices.get(successor)));
+                    }
+                    continue;
+                }
+
+                callStack.pop();
+                pendingSuccessors.pop();
+                Slot caller = callStack.peek();
+                if (caller != null) {
+                    lowLinks.put(caller, Math.min(lowLinks.get(caller), lowLinks.get(node)));
+                }
+                if (lowLinks.get(node).equals(indices.get(node))) {
+                    List<Slot> component = new ArrayList<>();
+                    Slot member;
+                    do {
+                        member = componentStack.pop();
+                        onComponentStack.remove(member);
+                        component.add(member);
+                    } while (member != node);
+                    if (component.size() > 1) {
+                        components.add(component);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    private static void visit(
+            Slot node,
+            Map<Slot, Integer> indices,
+            Map<Slot, Integer> lowLinks,
+            Deque<Slot> componentStack,
+            Set<Slot> onComponentStack) {
+        int index = indices.size();
+        indices.put(node, index);
+        lowLinks.put(node, index);
+        componentStack.push(node);
+        onComponentStack.add(node);
+    }
+
+    private static Iterator<Slot> successorsOf(Slot node, Map<Slot, List<Slot>> successors) {
+        return successors.getOrDefault(node, Collections.emptyList()).iterator();
+    }
+}
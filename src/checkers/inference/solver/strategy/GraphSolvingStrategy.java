@@ -4,8 +4,11 @@ import com.sun.tools.javac.util.Pair;
 
 import org.checkerframework.framework.type.QualifierHierarchy;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -14,9 +17,10 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
@@ -26,15 +30,17 @@ import checkers.inference.InferenceMain;
 import checkers.inference.InferenceResult;
 import checkers.inference.model.Constraint;
 import checkers.inference.model.Slot;
-import checkers.inference.solver.SolverEngine.SolverEngineArg;
 import checkers.inference.solver.backend.Solver;
 import checkers.inference.solver.backend.SolverFactory;
 import checkers.inference.solver.constraintgraph.ConstraintGraph;
 import checkers.inference.solver.constraintgraph.GraphBuilder;
 import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.ComponentSolutionCache;
+import checkers.inference.solver.util.ComponentSolutionCache.CanonicalComponent;
 import checkers.inference.solver.util.SolverArg;
 import checkers.inference.solver.util.SolverEnvironment;
 import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
 
 /**
  * GraphSolvingStrategy solves a given set of constraints by a divide-and-conquer way:
@@ -49,10 +55,51 @@ import checkers.inference.solver.util.Statistics;
  */
 public class GraphSolvingStrategy extends AbstractSolvingStrategy {
 
-    enum GraphSolveStrategyArg implements SolverArg {
-        solveInParallel;
+    public enum GraphSolveStrategyArg implements SolverArg {
+        solveInParallel,
+
+        /**
+         * Number of threads used to solve sub-graphs in parallel. Defaults to the number of
+         * available processors.
+         */
+        parallelism,
+
+        /**
+         * Sub-graphs with fewer constraints than this are batched into a single task, until the
+         * batch reaches this many constraints. Defaults to {@link #DEFAULT_MIN_TASK_SIZE}.
+         */
+        minTaskSize,
+
+        /**
+         * Upper bound on the total number of constraints of the sub-graphs being solved at the same
+         * time, which bounds the memory held by the underlying solvers. 0, the default, means no
+         * bound.
+         */
+        maxInFlightConstraints,
+
+        /**
+         * Directory of an on-disk cache of sub-graph solutions, shared across runs. Sub-graphs that
+         * are identical up to the numbering of their slots to a cached one, and are solved by the
+         * same solver with the same arguments, are not solved again. Disabled if not set.
+         */
+        solutionCacheDir;
     }
 
+    /** Default value of {@link GraphSolveStrategyArg#minTaskSize}. */
+    private static final int DEFAULT_MIN_TASK_SIZE = 64;
+
+    private static final Statistics.Counter cacheHitCounter =
+            Statistics.register("component_cache_hits");
+    private static final Statistics.Counter cacheMissCounter =
+            Statistics.register("component_cache_misses");
+    private static final Statistics.Histogram componentSizeHistogram =
+            Statistics.registerHistogram("component_constraints");
+    private static final Statistics.Histogram componentTimeHistogram =
+            Statistics.registerHistogram("component_solving_time(us)");
+
+    /** Cache of sub-graph solutions, or null if caching is disabled. */
+    private ComponentSolutionCache solutionCache;
+
     public GraphSolvingStrategy(SolverFactory solverFactory) {
         super(solverFactory);
     }
@@ -64,15 +111,27 @@ public class GraphSolvingStrategy extends AbstractSolvingStrategy {
             Collection<Constraint> constraints,
             Lattice lattice) {
 
-        // TODO: Remove the coupling of using SolverEngineArg.
         final boolean solveInParallel =
-                !"lingeling".equals(solverEnvironment.getArg(SolverEngineArg.solver))
-                        && solverEnvironment.getBoolArg(GraphSolveStrategyArg.solveInParallel);
+                solverEnvironment.getBoolArg(GraphSolveStrategyArg.solveInParallel);
+
+        String solutionCacheDir = solverEnvironment.getArg(GraphSolveStrategyArg.solutionCacheDir);
+        solutionCache =
+                solutionCacheDir == null
+                        ? null
+                        : new ComponentSolutionCache(
+                                new File(solutionCacheDir),
+                                ComponentSolutionCache.solverIdentity(
+                                        solverFactory.getClass().getName(),
+                                        solverEnvironment.getArgs()));
 
         // Build graph
         final long graphBuildingStart = System.currentTimeMillis();
-        ConstraintGraph constraintGraph =
-                generateGraph(slots, constraints, solverEnvironment.processingEnvironment);
+        ConstraintGraph constraintGraph;
+        try (Trace.Span graphBuilding = Trace.start("graph-build")) {
+            constraintGraph =
+                    generateGraph(slots, constraints, solverEnvironment.processingEnvironment);
+            graphBuilding.count("components", constraintGraph.getIndependentPath().size());
+        }
         final long graphBuildingEnd = System.currentTimeMillis();
 
         // Separate constraint graph, and assign each separated sub-graph to a underlying solver to
@@ -85,14 +144,17 @@ public class GraphSolvingStrategy extends AbstractSolvingStrategy {
                 new LinkedList<>();
 
         if (separatedGraphSolvers.size() > 0) {
-            if (solveInParallel) {
-                try {
-                    inferenceResults = solveInparallel(separatedGraphSolvers);
-                } catch (InterruptedException | ExecutionException e) {
-                    e.printStackTrace();
+            try (Trace.Span solving = Trace.start("solve-components")) {
+                if (solveInParallel) {
+                    try {
+                        inferenceResults =
+                                solveInparallel(solverEnvironment, separatedGraphSolvers);
+                    } catch (InterruptedException | ExecutionException e) {
+                        e.printStackTrace();
+                    }
+                } else {
+                    inferenceResults = solveInSequential(separatedGraphSolvers);
                 }
-            } else {
-                inferenceResults = solveInSequential(separatedGraphSolvers);
             }
         }
 
@@ -160,45 +222,185 @@ public class GraphSolvingStrategy extends AbstractSolvingStrategy {
     /**
      * This method is called if user wants to call all underlying solvers in parallel.
      *
-     * @param underlyingSolvers
-     * @return A list of Map that contains solutions from all underlying solvers.
+     * <p>Underlying solvers are run on a {@link ForkJoinPool} sized by {@link
+     * GraphSolveStrategyArg#parallelism}. The largest sub-graphs are scheduled first, so that they
+     * don't end up running alone at the end, and small sub-graphs are batched into a single task
+     * to amortize the scheduling overhead. See {@link GraphSolveStrategyArg} for the options.
+     *
+     * @param solverEnvironment the environment providing the options of this strategy
+     * @param underlyingSolvers the solvers of the separated sub-graphs
+     * @return A list of Map that contains solutions from all underlying solvers, in the order of
+     *     the given solvers.
      * @throws InterruptedException
      * @throws ExecutionException
      */
     protected List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> solveInparallel(
-            List<Solver<?>> underlyingSolvers) throws InterruptedException, ExecutionException {
+            SolverEnvironment solverEnvironment, List<Solver<?>> underlyingSolvers)
+            throws InterruptedException, ExecutionException {
+
+        final int parallelism =
+                solverEnvironment.getIntArg(
+                        GraphSolveStrategyArg.parallelism,
+                        Runtime.getRuntime().availableProcessors());
+        final int minTaskSize =
+                solverEnvironment.getIntArg(
+                        GraphSolveStrategyArg.minTaskSize, DEFAULT_MIN_TASK_SIZE);
+        final int maxInFlightConstraints =
+                solverEnvironment.getIntArg(GraphSolveStrategyArg.maxInFlightConstraints, 0);
+
+        // Indexes of the underlying solvers, from the largest sub-graph to the smallest.
+        List<Integer> order = new ArrayList<>(underlyingSolvers.size());
+        for (int i = 0; i < underlyingSolvers.size(); i++) {
+            order.add(i);
+        }
+        order.sort(
+                Comparator.comparingInt(
+                                (Integer i) -> underlyingSolvers.get(i).getConstraints().size())
+                        .reversed());
+
+        List<List<Integer>> tasks = new ArrayList<>();
+        List<Integer> batch = new ArrayList<>();
+        int batchSize = 0;
+        for (int i : order) {
+            int size = underlyingSolvers.get(i).getConstraints().size();
+            if (size >= minTaskSize) {
+                tasks.add(Collections.singletonList(i));
+                continue;
+            }
+            batch.add(i);
+            batchSize += size;
+            if (batchSize >= minTaskSize) {
+                tasks.add(batch);
+                batch = new ArrayList<>();
+                batchSize = 0;
+            }
+        }
+        if (!batch.isEmpty()) {
+            tasks.add(batch);
+        }
+
+        // A fair semaphore keeps the largest-first order among tasks waiting for permits.
+        final Semaphore inFlightConstraints =
+                maxInFlightConstraints > 0 ? new Semaphore(maxInFlightConstraints, true) : null;
 
-        ExecutorService service = Executors.newFixedThreadPool(30);
-        List<Future<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>>> futures =
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+        List<Future<List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>>>> futures =
                 new ArrayList<>();
 
+        // The components solved by the pool are traced as children of the current span.
+        final Trace.Span solvingSpan = Trace.current();
         long solvingStart = System.currentTimeMillis();
-        for (final Solver<?> underlyingSolver : underlyingSolvers) {
-            Callable<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> callable =
-                    () -> {
-                        Map<Integer, AnnotationMirror> solution = underlyingSolver.solve();
-                        if (solution != null) {
-                            return new Pair<>(solution, new HashSet<>());
-                        } else {
-                            return new Pair<>(solution, underlyingSolver.explainUnsatisfiable());
-                        }
-                    };
-            futures.add(service.submit(callable));
+        try {
+            for (final List<Integer> task : tasks) {
+                Callable<List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>>>
+                        callable = () -> {
+                            List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>>
+                                    taskResults = new ArrayList<>(task.size());
+                            for (int i : task) {
+                                taskResults.add(
+                                        solveThrottled(
+                                                solvingSpan,
+                                                underlyingSolvers.get(i),
+                                                inFlightConstraints,
+                                                maxInFlightConstraints));
+                            }
+                            return taskResults;
+                        };
+                futures.add(pool.submit(callable));
+            }
+
+            List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> results =
+                    new ArrayList<>(Collections.nCopies(underlyingSolvers.size(), null));
+            for (int t = 0; t < tasks.size(); t++) {
+                List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> taskResults =
+                        futures.get(t).get();
+                List<Integer> task = tasks.get(t);
+                for (int j = 0; j < task.size(); j++) {
+                    results.set(task.get(j), taskResults.get(j));
+                }
+            }
+            long solvingEnd = System.currentTimeMillis();
+
+            Statistics.addOrIncrementEntry(
+                    "overall_parallel_solving_time(ms)", (solvingEnd - solvingStart));
+            return results;
+        } finally {
+            pool.shutdownNow();
         }
-        service.shutdown();
+    }
 
-        List<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> results =
-                new ArrayList<>();
+    /**
+     * Solves the given sub-graph once the constraints being solved concurrently leave enough room
+     * for it. A sub-graph larger than the bound only waits for all permits, so that it still runs.
+     */
+    private Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>> solveThrottled(
+            Trace.Span solvingSpan,
+            Solver<?> underlyingSolver,
+            Semaphore inFlightConstraints,
+            int maxInFlightConstraints)
+            throws InterruptedException {
+        if (inFlightConstraints == null) {
+            return solveSubGraph(solvingSpan, underlyingSolver);
+        }
+        int size = underlyingSolver.getConstraints().size();
+        int permits = Math.max(1, Math.min(size, maxInFlightConstraints));
+        inFlightConstraints.acquire(permits);
+        try {
+            return solveSubGraph(solvingSpan, underlyingSolver);
+        } finally {
+            inFlightConstraints.release(permits);
+        }
+    }
 
-        for (Future<Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>>> future :
-                futures) {
-            results.add(future.get());
+    /**
+     * Solves a sub-graph in a "component" span, which is a child of the given span, and records
+     * its size and solving time in the component histograms.
+     */
+    private Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>> solveSubGraph(
+            Trace.Span solvingSpan, Solver<?> underlyingSolver) {
+        final int size = underlyingSolver.getConstraints().size();
+        final long start = System.nanoTime();
+        try (Trace.Span component = Trace.start(solvingSpan, "component")) {
+            component.count("constraints", size);
+            return solveSubGraph(underlyingSolver);
+        } finally {
+            componentSizeHistogram.record(size);
+            componentTimeHistogram.record(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
         }
-        long solvingEnd = System.currentTimeMillis();
+    }
 
-        Statistics.addOrIncrementEntry(
-                "overall_parallel_solving_time(ms)", (solvingEnd - solvingStart));
-        return results;
+    /**
+     * Solves a sub-graph, and explains why it is unsatisfiable if there is no solution. If the
+     * solution cache is enabled, a cached solution is reused when there is one, and new solutions
+     * are stored.
+     */
+    private Pair<Map<Integer, AnnotationMirror>, Collection<Constraint>> solveSubGraph(
+            Solver<?> underlyingSolver) {
+        CanonicalComponent component = null;
+        if (solutionCache != null) {
+            component =
+                    solutionCache.canonicalize(
+                            underlyingSolver.getConstraints(), underlyingSolver.getLattice());
+            if (component != null) {
+                Map<Integer, AnnotationMirror> cached = solutionCache.lookup(component);
+                if (cached != null) {
+                    cacheHitCounter.add(1);
+                    return new Pair<>(cached, new HashSet<>());
+                }
+                cacheMissCounter.add(1);
+            }
+        }
+
+        Map<Integer, AnnotationMirror> solution = underlyingSolver.solve();
+        if (solution != null) {
+            if (component != null) {
+                solutionCache.store(component, solution);
+            }
+            return new Pair<>(solution, new HashSet<>());
+        } else {
+            return new Pair<>(solution, underlyingSolver.explainUnsatisfiable());
+        }
     }
 
     /**
@@ -215,12 +417,7 @@ public class GraphSolvingStrategy extends AbstractSolvingStrategy {
 
         long solvingStart = System.currentTimeMillis();
         for (final Solver<?> underlyingSolver : underlyingSolvers) {
-            Map<Integer, AnnotationMirror> solution = underlyingSolver.solve();
-            if (solution != null) {
-                results.add(new Pair<>(solution, new HashSet<>()));
-            } else {
-                results.add(new Pair<>(solution, underlyingSolver.explainUnsatisfiable()));
-            }
+            results.add(solveSubGraph(Trace.current(), underlyingSolver));
         }
         long solvingEnd = System.currentTimeMillis();
 
@@ -0,0 +1,365 @@
+package checkers.inference.solver.strategy;
+
+import com.sun.tools.javac.util.Pair;
+
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.checkerframework.javacutil.BugInCF;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.Constraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.solver.SolverEngine;
+import checkers.inference.solver.backend.FormatTranslator;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.constraintgraph.ConstraintGraph;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverArg;
+import checkers.inference.solver.util.SolverEnvironment;
+import checkers.inference.solver.util.Statistics;
+import checkers.inference.util.Trace;
+
+/**
+ * PortfolioSolvingStrategy solves the sub-graphs of the constraint graph like {@link
+ * GraphSolvingStrategy}, but races several solver backends on each large sub-graph and takes the
+ * first result.
+ *
+ * <p>The backends are the solver selected with the {@code solver} argument, followed by the
+ * solvers listed in {@link PortfolioSolvingStrategyArg#portfolioSolvers} and those a type system
+ * passes to {@link #PortfolioSolvingStrategy(SolverFactory, List)}. At most {@link
+ * PortfolioSolvingStrategyArg#portfolioThreads} of them run on a sub-graph at the same time; the
+ * others are not used. Once a backend finds a solution, or finds the constraints unsatisfiable,
+ * the other backends are cancelled: external solvers are killed, and in-process solvers are stopped
+ * through {@link Solver#cancel()}.
+ */
+public class PortfolioSolvingStrategy extends GraphSolvingStrategy {
+
+    public enum PortfolioSolvingStrategyArg implements SolverArg {
+        /**
+         * Further backends to race, as solver names separated by ":", e.g. "Lingeling:Fixpoint".
+         */
+        portfolioSolvers,
+
+        /**
+         * The number of backends racing on one sub-graph. Defaults to the available processors,
+         * divided by {@link GraphSolveStrategyArg#parallelism} when solving in parallel, so that
+         * the portfolio does not oversubscribe the machine. With 1, every sub-graph is solved by
+         * the first backend only.
+         */
+        portfolioThreads,
+
+        /**
+         * Sub-graphs with fewer constraints than this are only solved by the first backend.
+         * Defaults to {@link #DEFAULT_MIN_CONSTRAINTS}.
+         */
+        portfolioMinConstraints,
+
+        /**
+         * Whether to wait for all racing backends, and take the solution that satisfies the
+         * largest weight of preference constraints, instead of the first solution.
+         */
+        portfolioOptimize;
+    }
+
+    /** Default value of {@link PortfolioSolvingStrategyArg#portfolioMinConstraints}. */
+    private static final int DEFAULT_MIN_CONSTRAINTS = 1000;
+
+    private static final Logger logger =
+            Logger.getLogger(PortfolioSolvingStrategy.class.getName());
+
+    /**
+     * Threads running the racing backends, shared by all sub-graphs. There is one per processor, so
+     * that sub-graphs solved in parallel queue their backends rather than oversubscribe the machine.
+     */
+    private static final ExecutorService racers =
+            Executors.newFixedThreadPool(
+                    Runtime.getRuntime().availableProcessors(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "portfolio-solver");
+                        // Do not keep the JVM alive for a cancelled backend.
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    private final List<SolverFactory> additionalFactories;
+
+    public PortfolioSolvingStrategy(SolverFactory solverFactory) {
+        this(solverFactory, Collections.emptyList());
+    }
+
+    /**
+     * @param solverFactory the factory of the first backend, which also solves small sub-graphs
+     * @param additionalFactories the factories of further backends, raced after those named by
+     *     {@link PortfolioSolvingStrategyArg#portfolioSolvers}
+     */
+    public PortfolioSolvingStrategy(
+            SolverFactory solverFactory, List<SolverFactory> additionalFactories) {
+        super(solverFactory);
+        this.additionalFactories = additionalFactories;
+    }
+
+    @Override
+    protected List<Solver<?>> separateGraph(
+            SolverEnvironment solverEnvironment,
+            ConstraintGraph constraintGraph,
+            Collection<Slot> slots,
+            Collection<Constraint> constraints,
+            Lattice lattice) {
+        List<SolverFactory> factories = createPortfolio(solverEnvironment);
+        final int threads = Math.min(factories.size(), getThreadBudget(solverEnvironment));
+        if (threads < 2 && factories.size() > 1) {
+            logger.warning(
+                    "The portfolio is disabled, as only one thread is allowed to solve a sub-graph."
+                            + " Set "
+                            + PortfolioSolvingStrategyArg.portfolioThreads
+                            + " to race the solvers.");
+        }
+        final int minConstraints =
+                solverEnvironment.getIntArg(
+                        PortfolioSolvingStrategyArg.portfolioMinConstraints,
+                        DEFAULT_MIN_CONSTRAINTS);
+        final boolean optimize =
+                solverEnvironment.getBoolArg(PortfolioSolvingStrategyArg.portfolioOptimize);
+
+        List<Solver<?>> separatedGraphSolvers = new ArrayList<>();
+        for (Set<Constraint> independentConstraints : constraintGraph.getIndependentPath()) {
+            if (threads < 2 || independentConstraints.size() < minConstraints) {
+                separatedGraphSolvers.add(
+                        solverFactory.createSolver(
+                                solverEnvironment, slots, independentConstraints, lattice));
+                continue;
+            }
+            List<Solver<?>> backends = new ArrayList<>(threads);
+            for (SolverFactory factory : factories.subList(0, threads)) {
+                backends.add(
+                        factory.createSolver(
+                                solverEnvironment, slots, independentConstraints, lattice));
+            }
+            separatedGraphSolvers.add(
+                    new PortfolioSolver(
+                            solverEnvironment,
+                            slots,
+                            independentConstraints,
+                            lattice,
+                            backends,
+                            optimize));
+        }
+        return separatedGraphSolvers;
+    }
+
+    /** Returns the factories of all backends, starting with the factory of this strategy. */
+    private List<SolverFactory> createPortfolio(SolverEnvironment solverEnvironment) {
+        List<SolverFactory> factories = new ArrayList<>();
+        factories.add(solverFactory);
+        String solverNames = solverEnvironment.getArg(PortfolioSolvingStrategyArg.portfolioSolvers);
+        if (solverNames != null && !solverNames.isEmpty()) {
+            for (String solverName : solverNames.split(":")) {
+                factories.add(SolverEngine.createSolverFactory(solverName.trim()));
+            }
+        }
+        factories.addAll(additionalFactories);
+        return factories;
+    }
+
+    private static int getThreadBudget(SolverEnvironment solverEnvironment) {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int defaultThreads = processors;
+        if (solverEnvironment.getBoolArg(GraphSolveStrategyArg.solveInParallel)) {
+            int parallelism =
+                    solverEnvironment.getIntArg(GraphSolveStrategyArg.parallelism, processors);
+            defaultThreads = Math.max(1, processors / Math.max(1, parallelism));
+        }
+        return solverEnvironment.getIntArg(
+                PortfolioSolvingStrategyArg.portfolioThreads, defaultThreads);
+    }
+
+    /**
+     * Races backends on the same constraints. Unsatisfiable constraints are explained by the
+     * backend that found them unsatisfiable.
+     */
+    private static class PortfolioSolver extends Solver<FormatTranslator<?, ?, ?>> {
+
+        private final List<Solver<?>> backends;
+
+        private final boolean optimize;
+
+        /** The backend whose result was taken. */
+        private Solver<?> winner;
+
+        PortfolioSolver(
+                SolverEnvironment solverEnvironment,
+                Collection<Slot> slots,
+                Collection<Constraint> constraints,
+                Lattice lattice,
+                List<Solver<?>> backends,
+                boolean optimize) {
+            super(solverEnvironment, slots, constraints, null, lattice);
+            this.backends = backends;
+            this.optimize = optimize;
+        }
+
+        @Override
+        public Map<Integer, AnnotationMirror> solve() {
+            // The backends are traced as children of the span of this sub-graph.
+            final Trace.Span componentSpan = Trace.current();
+            CompletionService<Pair<Solver<?>, Map<Integer, AnnotationMirror>>> completion =
+                    new ExecutorCompletionService<>(racers);
+            List<Future<Pair<Solver<?>, Map<Integer, AnnotationMirror>>>> futures =
+                    new ArrayList<>();
+            for (Solver<?> backend : backends) {
+                futures.add(completion.submit(() -> solveWith(componentSpan, backend)));
+            }
+
+            Pair<Solver<?>, Map<Integer, AnnotationMirror>> best = null;
+            long bestWeight = -1;
+            Throwable failure = null;
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    Pair<Solver<?>, Map<Integer, AnnotationMirror>> result;
+                    try {
+                        result = take(completion).get();
+                    } catch (ExecutionException e) {
+                        // Another backend may still succeed, e.g. if this one is not installed.
+                        if (failure == null) {
+                            failure = e.getCause();
+                        }
+                        continue;
+                    }
+                    if (result.snd == null || !optimize) {
+                        best = result;
+                        break;
+                    }
+                    long weight = satisfiedPreferenceWeight(result.snd);
+                    if (weight > bestWeight) {
+                        best = result;
+                        bestWeight = weight;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Cancelled the portfolio of a sub-graph.");
+            } finally {
+                // Interrupting the threads kills external solvers, in-process ones need to be
+                // cancelled.
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+                for (Solver<?> backend : backends) {
+                    if (best == null || backend != best.fst) {
+                        backend.cancel();
+                    }
+                }
+            }
+
+            if (best == null) {
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                throw new BugInCF("All backends of the portfolio failed.", failure);
+            }
+            winner = best.fst;
+            Statistics.addOrIncrementEntry(
+                    "portfolio_wins_" + winner.getClass().getSimpleName(), 1);
+            return best.snd;
+        }
+
+        /**
+         * Waits for the next backend to finish. On a worker of {@link
+         * GraphSolvingStrategy#solveInparallel}, the pool may meanwhile start another worker, so
+         * that small sub-graphs are still solved while this one waits for its backends.
+         */
+        private static <T> Future<T> take(CompletionService<T> completion)
+                throws InterruptedException {
+            CompletionBlocker<T> blocker = new CompletionBlocker<>(completion);
+            ForkJoinPool.managedBlock(blocker);
+            return blocker.next;
+        }
+
+        private static class CompletionBlocker<T> implements ForkJoinPool.ManagedBlocker {
+
+            private final CompletionService<T> completion;
+
+            private Future<T> next;
+
+            CompletionBlocker(CompletionService<T> completion) {
+                this.completion = completion;
+            }
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (next == null) {
+                    next = completion.take();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                if (next == null) {
+                    next = completion.poll();
+                }
+                return next != null;
+            }
+        }
+
+        private static Pair<Solver<?>, Map<Integer, AnnotationMirror>> solveWith(
+                Trace.Span componentSpan, Solver<?> backend) {
+            try (Trace.Span span =
+                    Trace.start(componentSpan, "portfolio-" + backend.getClass().getSimpleName())) {
+                return new Pair<>(backend, backend.solve());
+            }
+        }
+
+        /** Returns the total weight of the preference constraints the given solution satisfies. */
+        private long satisfiedPreferenceWeight(Map<Integer, AnnotationMirror> solution) {
+            long weight = 0;
+            for (Constraint constraint : constraints) {
+                if (constraint instanceof PreferenceConstraint) {
+                    PreferenceConstraint preference = (PreferenceConstraint) constraint;
+                    AnnotationMirror value = solution.get(preference.getVariable().getId());
+                    if (value != null
+                            && AnnotationUtils.areSame(value, preference.getGoal().getValue())) {
+                        weight += preference.getWeight();
+                    }
+                }
+            }
+            return weight;
+        }
+
+        @Override
+        public Collection<Constraint> explainUnsatisfiable() {
+            return winner.explainUnsatisfiable();
+        }
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            for (Solver<?> backend : backends) {
+                backend.cancel();
+            }
+        }
+
+        @Override
+        protected void encodeAllConstraints() {
+            // Each backend encodes the constraints itself.
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package checkers.inference.solver.util;
+
+import org.checkerframework.javacutil.BugInCF;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.model.ArithmeticConstraint;
+import checkers.inference.model.ComparisonConstraint;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ExistentialConstraint;
+import checkers.inference.model.ImplicationConstraint;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.Slot;
+import checkers.inference.solver.SolverEngine.SolverEngineArg;
+import checkers.inference.solver.backend.logiql.LogiQLSolver.LogiQLSolverArg;
+import checkers.inference.solver.backend.maxsat.MaxSatSolver.MaxSatSolverArg;
+import checkers.inference.solver.backend.z3smt.Z3SmtSolver.Z3SolverEngineArg;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.strategy.GraphSolvingStrategy.GraphSolveStrategyArg;
+import checkers.inference.solver.strategy.PortfolioSolvingStrategy.PortfolioSolvingStrategyArg;
+import checkers.inference.solver.util.ExternalSolverPool.ExternalSolverArg;
+
+/**
+ * An on-disk cache of the solutions of independent components of constraints, shared across
+ * inference runs.
+ *
+ * <p>Slot ids are assigned globally, so an unchanged component usually gets different ids when
+ * other code changes. A component is therefore identified by a canonical form: its constraints in
+ * an order that doesn't depend on slot ids, with variables renumbered by first occurrence, plus the
+ * lattice and the solver it is solved with. Two components with the same canonical form only
+ * differ by the numbering of their variables, so a cached solution can be mapped back onto the
+ * current slot ids.
+ *
+ * <p>Only satisfiable components are cached; unsatisfiable ones are solved again so that the solver
+ * can explain them.
+ */
+public class ComponentSolutionCache {
+
+    private static final Logger logger = Logger.getLogger(ComponentSolutionCache.class.getName());
+
+    private static final String SOLUTION_SUFFIX = ".sol";
+
+    /**
+     * Names of the solver arguments that only change how the constraints are solved, e.g. how many
+     * threads solve them, in which process or what is logged, but not their solutions. All other
+     * arguments are part of the {@link #solverIdentity solver identity}.
+     */
+    private static final Set<String> OPERATIONAL_ARGS =
+            names(
+                    SolverEngineArg.collectStatistics,
+                    SolverEngineArg.writeSolutions,
+                    SolverEngineArg.noAppend,
+                    GraphSolveStrategyArg.solveInParallel,
+                    GraphSolveStrategyArg.parallelism,
+                    GraphSolveStrategyArg.minTaskSize,
+                    GraphSolveStrategyArg.maxInFlightConstraints,
+                    GraphSolveStrategyArg.solutionCacheDir,
+                    PortfolioSolvingStrategyArg.portfolioThreads,
+                    ExternalSolverArg.externalSolverProcesses,
+                    ExternalSolverArg.externalSolverTimeout,
+                    MaxSatSolverArg.outputCNF,
+                    MaxSatSolverArg.incrementalExplanation,
+                    Z3SolverEngineArg.inProcess,
+                    Z3SolverEngineArg.dumpConstraints,
+                    Z3SolverEngineArg.incrementalExplanation,
+                    LogiQLSolverArg.inProcess);
+
+    private static Set<String> names(SolverArg... args) {
+        Set<String> names = new HashSet<>();
+        for (SolverArg arg : args) {
+            names.add(arg.name());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /** Directory in which cached solutions are stored. */
+    private final File cacheDir;
+
+    /** Identifies the solver that solves the components. It is part of every key. */
+    private final String solverIdentity;
+
+    /**
+     * @param cacheDir directory in which cached solutions are stored
+     * @param solverIdentity a string identifying the solver and its configuration, since different
+     *     solvers may find different solutions
+     */
+    public ComponentSolutionCache(File cacheDir, String solverIdentity) {
+        this.cacheDir = cacheDir;
+        this.solverIdentity = solverIdentity;
+    }
+
+    /**
+     * Returns a string identifying the given solver and the arguments it is run with, to be passed
+     * to {@link #ComponentSolutionCache(File, String)}. Arguments that cannot change the solutions,
+     * such as thread counts, are left out, so that changing them keeps the cached solutions.
+     *
+     * @param solverName the name of the solver, e.g. the class name of its factory
+     * @param solverArgs the solver arguments, by name
+     */
+    public static String solverIdentity(String solverName, Map<String, String> solverArgs) {
+        Map<String, String> sortedArgs = new TreeMap<>();
+        for (Map.Entry<String, String> arg : solverArgs.entrySet()) {
+            if (!OPERATIONAL_ARGS.contains(arg.getKey())) {
+                sortedArgs.put(arg.getKey(), arg.getValue());
+            }
+        }
+        return solverName + " " + sortedArgs;
+    }
+
+    /**
+     * Computes the canonical form of a component.
+     *
+     * @param constraints the constraints of the component
+     * @param lattice the lattice the component is solved against
+     * @return the canonical form of the component, or null if the component cannot be cached
+     */
+    public CanonicalComponent canonicalize(Collection<Constraint> constraints, Lattice lattice) {
+        for (Constraint constraint : constraints) {
+            if (constraint instanceof ExistentialConstraint) {
+                // Existential constraints are not supported by the canonical form.
+                return null;
+            }
+        }
+
+        // Order constraints by their shape, i.e. their description without variable ids, so that
+        // the order doesn't depend on slot ids. Ties only make cache misses more likely.
+        Map<Constraint, String> shapes = new IdentityHashMap<>();
+        for (Constraint constraint : constraints) {
+            StringBuilder shape = new StringBuilder();
+            describe(constraint, null, null, shape);
+            shape.append(" @ ").append(constraint.getLocation());
+            shapes.put(constraint, shape.toString());
+        }
+        List<Constraint> ordered = new ArrayList<>(constraints);
+        ordered.sort(Comparator.comparing(shapes::get));
+
+        StringBuilder text = new StringBuilder();
+        text.append(solverIdentity).append('\n');
+        describe(lattice, text);
+        Map<Integer, Integer> canonicalIds = new HashMap<>();
+        List<Integer> slotIds = new ArrayList<>();
+        for (Constraint constraint : ordered) {
+            describe(constraint, canonicalIds, slotIds, text);
+            text.append('\n');
+        }
+
+        return new CanonicalComponent(sha256(text.toString()), slotIds, lattice);
+    }
+
+    /**
+     * Looks up the solution of a component with the same canonical form as the given one.
+     *
+     * @return the cached solution, keyed by the slot ids of the given component, or null if there
+     *     is none
+     */
+    public Map<Integer, AnnotationMirror> lookup(CanonicalComponent component) {
+        File cached = getCachedSolution(component);
+        if (!cached.isFile()) {
+            return null;
+        }
+
+        Map<String, AnnotationMirror> types = new HashMap<>();
+        for (AnnotationMirror type : component.lattice.allTypes) {
+            types.put(type.toString(), type);
+        }
+
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(cached.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warning("Failed to read cached solution " + cached + ": " + e.getMessage());
+            return null;
+        }
+
+        Map<Integer, AnnotationMirror> solution = new HashMap<>();
+        for (String line : lines) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            int index;
+            try {
+                index = Integer.parseInt(line.substring(0, tab));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            AnnotationMirror type = types.get(line.substring(tab + 1));
+            if (index < 0 || index >= component.slotIds.size() || type == null) {
+                // Not written by this version, or for another lattice: treat it as a miss.
+                return null;
+            }
+            solution.put(component.slotIds.get(index), type);
+        }
+        return solution;
+    }
+
+    /** Stores the solution of the given component. */
+    public void store(CanonicalComponent component, Map<Integer, AnnotationMirror> solution) {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            logger.warning("Cannot create solution cache directory " + cacheDir);
+            return;
+        }
+
+        StringBuilder content = new StringBuilder();
+        for (int index = 0; index < component.slotIds.size(); index++) {
+            AnnotationMirror type = solution.get(component.slotIds.get(index));
+            if (type != null) {
+                content.append(index).append('\t').append(type).append('\n');
+            }
+        }
+
+        try {
+            // Write to a temporary file first, so that concurrent runs never observe a partially
+            // written solution.
+            Path tmp = Files.createTempFile(cacheDir.toPath(), component.key, ".tmp");
+            Files.write(tmp, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(
+                    tmp,
+                    getCachedSolution(component).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("Failed to store component solution in cache: " + e.getMessage());
+        }
+    }
+
+    private File getCachedSolution(CanonicalComponent component) {
+        return new File(cacheDir, component.key + SOLUTION_SUFFIX);
+    }
+
+    /**
+     * Appends a description of the given constraint. If {@code canonicalIds} is null, variables are
+     * described without their ids. Otherwise they are renumbered by first occurrence, and their
+     * slot ids are appended to {@code slotIds} in that order.
+     */
+    private static void describe(
+            Constraint constraint,
+            Map<Integer, Integer> canonicalIds,
+            List<Integer> slotIds,
+            StringBuilder out) {
+        out.append(constraint.getClass().getSimpleName());
+        if (constraint instanceof ImplicationConstraint) {
+            ImplicationConstraint implication = (ImplicationConstraint) constraint;
+            out.append(" [");
+            for (Constraint assumption : implication.getAssumptions()) {
+                describe(assumption, canonicalIds, slotIds, out);
+                out.append("; ");
+            }
+            out.append("] => ");
+            describe(implication.getConclusion(), canonicalIds, slotIds, out);
+            return;
+        }
+
+        if (constraint instanceof PreferenceConstraint) {
+            out.append(" weight=").append(((PreferenceConstraint) constraint).getWeight());
+        } else if (constraint instanceof ArithmeticConstraint) {
+            out.append(' ').append(((ArithmeticConstraint) constraint).getOperation());
+        } else if (constraint instanceof ComparisonConstraint) {
+            out.append(' ').append(((ComparisonConstraint) constraint).getOperation());
+        }
+        for (Slot slot : constraint.getSlots()) {
+            out.append(' ');
+            if (slot instanceof ConstantSlot) {
+                out.append(((ConstantSlot) slot).getValue());
+                continue;
+            }
+            out.append(slot.getClass().getSimpleName()).append('#');
+            if (canonicalIds == null) {
+                out.append('?');
+            } else {
+                Integer canonicalId = canonicalIds.get(slot.getId());
+                if (canonicalId == null) {
+                    canonicalId = canonicalIds.size();
+                    canonicalIds.put(slot.getId(), canonicalId);
+                    slotIds.add(slot.getId());
+                }
+                out.append(canonicalId);
+            }
+        }
+    }
+
+    /** Appends a description of the types of the given lattice and their supertypes. */
+    private static void describe(Lattice lattice, StringBuilder out) {
+        List<String> types = new ArrayList<>();
+        for (AnnotationMirror type : lattice.allTypes) {
+            List<String> supertypes = new ArrayList<>();
+            Collection<AnnotationMirror> superTypes = lattice.superType.get(type);
+            if (superTypes != null) {
+                for (AnnotationMirror supertype : superTypes) {
+                    supertypes.add(supertype.toString());
+                }
+            }
+            Collections.sort(supertypes);
+            types.add(type + " <: " + supertypes);
+        }
+        Collections.sort(types);
+        for (String type : types) {
+            out.append(type).append('\n');
+        }
+    }
+
+    private static String sha256(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new BugInCF("SHA-256 is not supported by this JVM.", e);
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(text.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** The canonical form of a component, as computed by {@link #canonicalize}. */
+    public static final class CanonicalComponent {
+
+        /** Hex-encoded hash of the canonical form, used as file name. */
+        private final String key;
+
+        /** Slot ids of the variables of the component, indexed by canonical id. */
+        private final List<Integer> slotIds;
+
+        private final Lattice lattice;
+
+        private CanonicalComponent(String key, List<Integer> slotIds, Lattice lattice) {
+            this.key = key;
+            this.slotIds = slotIds;
+            this.lattice = lattice;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package checkers.inference.solver.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.IntConsumer;
+
+/**
+ * Parses the model printed by a SAT solver in the DIMACS output format, i.e. the literals on the
+ * lines starting with "v".
+ *
+ * <p>The output is parsed directly from the bytes of the stream, without decoding it to characters
+ * or splitting it into strings, so that the cost of reading a model is independent of the number
+ * of objects a line would otherwise create.
+ */
+public class DimacsModelParser {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Reads the given stream to its end, and passes every non-zero literal of the "v" lines to the
+     * given handler in order. All other lines are ignored.
+     */
+    public static void parseModel(InputStream stream, IntConsumer literalHandler)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        boolean atLineStart = true;
+        boolean inModelLine = false;
+        boolean inNumber = false;
+        boolean negative = false;
+        int value = 0;
+
+        int read;
+        while ((read = stream.read(buffer)) >= 0) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                if (atLineStart) {
+                    atLineStart = false;
+                    inModelLine = b == 'v';
+                    if (inModelLine) {
+                        continue;
+                    }
+                }
+                if (b == '\n') {
+                    atLineStart = true;
+                }
+                if (!inModelLine) {
+                    continue;
+                }
+
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    inNumber = true;
+                } else if (b == '-' && !inNumber) {
+                    negative = true;
+                } else {
+                    // Any other byte ends the current literal.
+                    if (inNumber && value != 0) {
+                        literalHandler.accept(negative ? -value : value);
+                    }
+                    inNumber = false;
+                    negative = false;
+                    value = 0;
+                }
+            }
+        }
+        if (inModelLine && inNumber && value != 0) {
+            literalHandler.accept(negative ? -value : value);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package checkers.inference.solver.util;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.javacutil.BugInCF;
+import org.checkerframework.javacutil.UserError;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Runs external solver programs, such as z3 and Lingeling, as child processes.
+ *
+ * <p>The problem is piped to the standard input of the solver, so that solvers running at the same
+ * time never share a file. At most a configured number of solver processes run at the same time,
+ * further requests wait for one of them to finish. The streams of the processes are handled by
+ * threads that are reused across invocations.
+ *
+ * <p>A process is killed when it runs longer than the configured timeout, or when the thread
+ * waiting for it is interrupted, e.g. because the future of its solving task was cancelled.
+ *
+ * @see ExternalSolverUtils
+ */
+public class ExternalSolverPool {
+
+    public enum ExternalSolverArg implements SolverArg {
+        /**
+         * the maximum number of external solver processes running at the same time, which
+         * defaults to the number of available processors
+         */
+        externalSolverProcesses,
+
+        /**
+         * the time in milliseconds after which an external solver process is killed, 0 (the
+         * default) for no timeout
+         */
+        externalSolverTimeout
+    }
+
+    /** Writes the input of an external solver to its standard input. */
+    @FunctionalInterface
+    public interface InputWriter {
+        void write(OutputStream stdIn) throws IOException;
+    }
+
+    private static final Logger logger = Logger.getLogger(ExternalSolverPool.class.getName());
+
+    /** The pool shared by all solvers, created on first use. */
+    private static ExternalSolverPool instance;
+
+    /** The permits for running processes. */
+    private final ResizableSemaphore processes;
+
+    /** The maximum number of processes running at the same time. */
+    private int maxProcesses;
+
+    /** Timeout of a single process in milliseconds, or 0 for none. */
+    private volatile long timeoutMillis;
+
+    /** Threads that feed the standard input and drain the outputs of the processes. */
+    private final ExecutorService streamHandlers =
+            Executors.newCachedThreadPool(
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "external-solver-stream");
+                        // Do not keep the JVM alive for a solver that is being killed.
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    public ExternalSolverPool(int maxProcesses, long timeoutMillis) {
+        validate(maxProcesses, timeoutMillis);
+        this.processes = new ResizableSemaphore(maxProcesses);
+        this.maxProcesses = maxProcesses;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the shared pool, configured as given by the solver environment. If the pool was
+     * created with a different configuration, it is reconfigured: processes that are already
+     * running keep their timeout, but count against the new maximum number of processes.
+     */
+    public static synchronized ExternalSolverPool getInstance(
+            SolverEnvironment solverEnvironment) {
+        int maxProcesses =
+                solverEnvironment.getIntArg(
+                        ExternalSolverArg.externalSolverProcesses,
+                        Runtime.getRuntime().availableProcessors());
+        int timeoutMillis = solverEnvironment.getIntArg(ExternalSolverArg.externalSolverTimeout, 0);
+        if (instance == null) {
+            instance = new ExternalSolverPool(maxProcesses, timeoutMillis);
+        } else {
+            instance.reconfigure(maxProcesses, timeoutMillis);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the shared pool, creating it with the default configuration if no solver has
+     * configured it.
+     */
+    public static synchronized ExternalSolverPool getInstance() {
+        if (instance == null) {
+            instance = new ExternalSolverPool(Runtime.getRuntime().availableProcessors(), 0);
+        }
+        return instance;
+    }
+
+    /**
+     * Changes the maximum number of processes running at the same time and the timeout of the
+     * processes started from now on.
+     */
+    public synchronized void reconfigure(int maxProcesses, long timeoutMillis) {
+        validate(maxProcesses, timeoutMillis);
+        if (maxProcesses == this.maxProcesses && timeoutMillis == this.timeoutMillis) {
+            return;
+        }
+        logger.info(
+                String.format(
+                        "Reconfiguring external solvers from %d processes and a timeout of %d ms"
+                                + " to %d processes and a timeout of %d ms.",
+                        this.maxProcesses, this.timeoutMillis, maxProcesses, timeoutMillis));
+        if (maxProcesses > this.maxProcesses) {
+            processes.release(maxProcesses - this.maxProcesses);
+        } else {
+            // Running processes keep their permits, the excess ones are not handed out again.
+            processes.reducePermits(this.maxProcesses - maxProcesses);
+        }
+        this.maxProcesses = maxProcesses;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private static void validate(int maxProcesses, long timeoutMillis) {
+        if (maxProcesses < 1) {
+            throw new UserError(
+                    "%s must be at least 1, but got %d.",
+                    ExternalSolverArg.externalSolverProcesses.name(), maxProcesses);
+        }
+        if (timeoutMillis < 0) {
+            throw new UserError(
+                    "%s must not be negative, but got %d.",
+                    ExternalSolverArg.externalSolverTimeout.name(), timeoutMillis);
+        }
+    }
+
+    /**
+     * Runs the given command once a process permit is available, and waits for it to finish.
+     *
+     * @param command an external solver command, each string in the array is one argument
+     * @param stdInWriter writes the problem to the standard input of the process, which is closed
+     *     afterwards; null to close it right away
+     * @param stdOutHandler handles the standard output of the process
+     * @param stdErrHandler handles the standard error of the process
+     * @return the exit status of the process
+     * @throws UserError if the process cannot be started or exceeds the timeout
+     * @throws CancellationException if the calling thread is interrupted, in which case the
+     *     process is killed and the interrupt status of the thread is restored
+     */
+    public int run(
+            String[] command,
+            @Nullable InputWriter stdInWriter,
+            Consumer<InputStream> stdOutHandler,
+            Consumer<InputStream> stdErrHandler) {
+        try {
+            processes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Cancelled while waiting to run an external solver.");
+        }
+        try {
+            return runProcess(command, stdInWriter, stdOutHandler, stdErrHandler);
+        } finally {
+            processes.release();
+        }
+    }
+
+    private int runProcess(
+            String[] command,
+            @Nullable InputWriter stdInWriter,
+            Consumer<InputStream> stdOutHandler,
+            Consumer<InputStream> stdErrHandler) {
+        final String commandLine = String.join(" ", command);
+        final long timeoutMillis = this.timeoutMillis;
+        logger.info("Running external solver command \"" + commandLine + "\".");
+
+        final Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException e) {
+            throw new UserError("Could not run external solver \"%s\".", commandLine);
+        }
+
+        // Feed the input on its own thread, so that a solver which starts writing before it has
+        // read everything cannot block on a full output pipe.
+        Future<?> stdIn = streamHandlers.submit(() -> writeStdIn(process, stdInWriter));
+        Future<?> stdOut =
+                streamHandlers.submit(() -> stdOutHandler.accept(process.getInputStream()));
+        Future<?> stdErr =
+                streamHandlers.submit(() -> stdErrHandler.accept(process.getErrorStream()));
+
+        try {
+            if (timeoutMillis == 0) {
+                process.waitFor();
+            } else if (!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                kill(process, stdIn, stdOut, stdErr);
+                throw new UserError(
+                        "External solver \"%s\" timed out after %d ms.",
+                        commandLine, timeoutMillis);
+            }
+            // The handlers see the end of the streams once the process has exited.
+            await(stdIn, "stdIn");
+            await(stdOut, "stdOut");
+            await(stdErr, "stdErr");
+        } catch (InterruptedException e) {
+            kill(process, stdIn, stdOut, stdErr);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Cancelled external solver \"" + commandLine + "\".");
+        }
+
+        logger.info("External solver process finished");
+        return process.exitValue();
+    }
+
+    private static void writeStdIn(Process process, @Nullable InputWriter stdInWriter) {
+        try (OutputStream stdIn = process.getOutputStream()) {
+            if (stdInWriter != null) {
+                stdInWriter.write(stdIn);
+            }
+        } catch (IOException e) {
+            // The solver exited without reading all of its input, its exit status tells why.
+            logger.fine("Could not write the input of an external solver: " + e.getMessage());
+        }
+    }
+
+    private static void await(Future<?> handler, String streamName) throws InterruptedException {
+        try {
+            handler.get();
+        } catch (ExecutionException e) {
+            throw new BugInCF(
+                    "The handler of the " + streamName + " of the external solver failed.",
+                    e.getCause());
+        }
+    }
+
+    /** A fair semaphore whose number of permits can be reduced. */
+    private static class ResizableSemaphore extends Semaphore {
+
+        ResizableSemaphore(int permits) {
+            super(permits, true);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    /** Kills the process, which ends its streams, and stops waiting for their handlers. */
+    private static void kill(Process process, Future<?>... handlers) {
+        process.destroyForcibly();
+        for (Future<?> handler : handlers) {
+            handler.cancel(true);
+        }
+    }
+}
@@ -1,25 +1,22 @@
 package checkers.inference.solver.util;
 
-import org.checkerframework.javacutil.BugInCF;
-import org.checkerframework.javacutil.UserError;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.function.Consumer;
-import java.util.logging.Logger;
 
 /**
  * Utility class with methods to run an external solver program.
  *
+ * <p>The solvers run in the shared {@link ExternalSolverPool}, which also offers piping the input
+ * to the solver.
+ *
  * @see FileUtils
  */
 public class ExternalSolverUtils {
 
-    public static final Logger logger = Logger.getLogger(ExternalSolverUtils.class.getName());
-
     /**
      * Runs the external solver as given by command and uses the given stdOutHandler and
      * stdErrHandler lambdas to process stdOut and stdErr.
@@ -36,69 +33,35 @@ public class ExternalSolverUtils {
             String[] command,
             Consumer<BufferedReader> stdOutHandler,
             Consumer<BufferedReader> stdErrHandler) {
-
-        logger.info("Running external solver command \"" + String.join(" ", command) + "\".");
-
-        // Start the external solver process
-        Process process;
-        try {
-            process = Runtime.getRuntime().exec(command);
-        } catch (IOException e) {
-            throw new UserError("Could not run external solver.");
-        }
-
-        // Create threads to handle stdOut and stdErr
-        StdHandlerThread stdOutHandlerThread =
-                new StdHandlerThread(process.getInputStream(), stdOutHandler);
-        StdHandlerThread stdErrHandlerThread =
-                new StdHandlerThread(process.getErrorStream(), stdErrHandler);
-        stdOutHandlerThread.start();
-        stdErrHandlerThread.start();
-
-        // Wait for external solver threads to finish
-        try {
-            stdOutHandlerThread.join();
-        } catch (InterruptedException e) {
-            throw new BugInCF(
-                    "The threads for handling stdOut of the external solver was interrupted.");
-        }
-
-        try {
-            stdErrHandlerThread.join();
-        } catch (InterruptedException e) {
-            throw new BugInCF(
-                    "The threads for handling stdErr of the external solver was interrupted.");
-        }
-
-        int exitStatus;
-        try {
-            exitStatus = process.waitFor();
-        } catch (InterruptedException e) {
-            throw new BugInCF("The threads for the external solver was interrupted.");
-        }
-
-        logger.info("External solver process finished");
-
-        return exitStatus;
+        return runExternalSolverWithStreams(
+                command,
+                stdOut -> stdOutHandler.accept(toReader(stdOut)),
+                stdErr -> stdErrHandler.accept(toReader(stdErr)));
     }
 
     /**
-     * A thread which wraps an InputStream in a BufferedReader and tasks the lambda function to
-     * handle the outputs.
+     * Same as {@link #runExternalSolver(String[], Consumer, Consumer)}, but gives the handlers the
+     * raw byte streams of the external solver, so that large outputs can be parsed without
+     * decoding them to characters first.
+     *
+     * @param command an external solver command to be executed, each string in the array is
+     *     space-concatenated to form the final command.
+     * @param stdOutHandler a lambda which takes the stdOut stream of the external solver and
+     *     handles it.
+     * @param stdErrHandler a lambda which takes the stdErr stream of the external solver and
+     *     handles it.
+     * @return the exit status code of the external command.
      */
-    private static class StdHandlerThread extends Thread {
-        private InputStream stream;
-        private Consumer<BufferedReader> handler;
-
-        public StdHandlerThread(final InputStream stream, final Consumer<BufferedReader> handler) {
-            this.stream = stream;
-            this.handler = handler;
-        }
+    public static int runExternalSolverWithStreams(
+            String[] command,
+            Consumer<InputStream> stdOutHandler,
+            Consumer<InputStream> stdErrHandler) {
+        return ExternalSolverPool.getInstance().run(command, null, stdOutHandler, stdErrHandler);
+    }
 
-        @Override
-        public void run() {
-            handler.accept(new BufferedReader(new InputStreamReader(stream)));
-        }
+    /** Wraps the given stream of an external solver in a reader. */
+    public static BufferedReader toReader(InputStream stream) {
+        return new BufferedReader(new InputStreamReader(stream));
     }
 
     /**
@@ -1,5 +1,7 @@
 package checkers.inference.solver.util;
 
+import org.checkerframework.javacutil.UserError;
+
 import java.util.Collections;
 import java.util.Map;
 
@@ -35,6 +37,15 @@ public class SolverEnvironment {
         return options.get(arg.name());
     }
 
+    /**
+     * Get all arguments.
+     *
+     * @return an unmodifiable map from argument names to their values
+     */
+    public Map<String, String> getArgs() {
+        return options;
+    }
+
     /**
      * Get the boolean value for a given argument name.
      *
@@ -46,4 +57,25 @@ public class SolverEnvironment {
         String argValue = options.get(arg.name());
         return argValue != null && argValue.toLowerCase().equals("true");
     }
+
+    /**
+     * Get the integer value for a given argument name.
+     *
+     * @param arg the given argument
+     * @param defaultValue the value to return if the argument is not set
+     * @return the integer value of this argument, or {@code defaultValue} if it is not set
+     * @throws UserError if the value of this argument is not an integer
+     */
+    public int getIntArg(SolverArg arg, int defaultValue) {
+        String argValue = options.get(arg.name());
+        if (argValue == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(argValue.trim());
+        } catch (NumberFormatException e) {
+            throw new UserError(
+                    "Solver argument %s expects an integer, but got \"%s\".", arg.name(), argValue);
+        }
+    }
 }
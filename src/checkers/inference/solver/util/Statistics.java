@@ -5,15 +5,73 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 import checkers.inference.model.Constraint;
 import checkers.inference.model.Slot;
 import checkers.inference.model.VariableSlot;
 
-/** Recorder for statistics. */
+/**
+ * Recorder for statistics.
+ *
+ * <p>Statistics are either counters, which sum the values added to them, or histograms, which
+ * record the distribution of their values, e.g. the number of clauses per component. Both are
+ * lock-free, so that solvers running in parallel do not contend on them. Frequently updated
+ * statistics should be registered once with {@link #register(String)} or {@link
+ * #registerHistogram(String)}, and updated through the returned handle.
+ */
 public class Statistics {
-    // statistics are sorted by insertion order
-    private static final Map<String, Long> statistics = new LinkedHashMap<>();
+    /** Counters by lower-case key. */
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /** Counters by the key given to {@link #addOrIncrementEntry}, to skip lower-casing it. */
+    private static final ConcurrentMap<String, Counter> countersByGivenKey =
+            new ConcurrentHashMap<>();
+
+    /** Histograms by lower-case key. */
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    // statistics are sorted by registration order
+    private static final Queue<Object> registered = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Returns the counter for the given key, creating it if needed.
+     *
+     * @param key a statistic key. The key is treated case-insensitive: it will always be considered
+     *     in terms of its lower-case equivalent.
+     * @return the counter, which is only reported once a value is added to it
+     */
+    public static Counter register(String key) {
+        return counters.computeIfAbsent(
+                key.toLowerCase(),
+                k -> {
+                    Counter counter = new Counter(k);
+                    registered.add(counter);
+                    return counter;
+                });
+    }
+
+    /**
+     * Returns the histogram for the given key, creating it if needed.
+     *
+     * @param key a statistic key, which is treated case-insensitive
+     * @return the histogram, which is only reported once a value is recorded in it
+     */
+    public static Histogram registerHistogram(String key) {
+        return histograms.computeIfAbsent(
+                key.toLowerCase(),
+                k -> {
+                    Histogram histogram = new Histogram(k);
+                    registered.add(histogram);
+                    return histogram;
+                });
+    }
 
     /**
      * Adds or increments the given value to the statistics for the given key.
@@ -23,16 +81,12 @@ public class Statistics {
      * @param value a value
      */
     public static void addOrIncrementEntry(String key, long value) {
-        synchronized (statistics) {
-            // always use the lower-case version of the given key
-            key = key.toLowerCase();
-
-            if (statistics.get(key) == null) {
-                statistics.put(key, value);
-            } else {
-                statistics.put(key, statistics.get(key) + value);
-            }
+        Counter counter = countersByGivenKey.get(key);
+        if (counter == null) {
+            counter = register(key);
+            countersByGivenKey.putIfAbsent(key, counter);
         }
+        counter.add(value);
     }
 
     /**
@@ -98,16 +152,175 @@ public class Statistics {
     }
 
     /**
-     * Returns an immutable map of the collected statistics.
+     * Returns an immutable map of the collected statistics. Each histogram is reported as the
+     * entries "key_count", "key_min", "key_p50", "key_p90", "key_p99" and "key_max".
      *
      * @return the immutable map.
      */
     public static Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        for (Object statistic : registered) {
+            if (statistic instanceof Counter) {
+                Counter counter = (Counter) statistic;
+                if (counter.recorded) {
+                    statistics.put(counter.key, counter.get());
+                }
+            } else {
+                Histogram histogram = (Histogram) statistic;
+                long count = histogram.getCount();
+                if (count > 0) {
+                    statistics.put(histogram.key + "_count", count);
+                    statistics.put(histogram.key + "_min", histogram.getMin());
+                    statistics.put(histogram.key + "_p50", histogram.getPercentile(0.5));
+                    statistics.put(histogram.key + "_p90", histogram.getPercentile(0.9));
+                    statistics.put(histogram.key + "_p99", histogram.getPercentile(0.99));
+                    statistics.put(histogram.key + "_max", histogram.getMax());
+                }
+            }
+        }
         return Collections.unmodifiableMap(statistics);
     }
 
-    /** Erases all collected statistics. */
+    /** Erases all collected statistics. Registered counters and histograms stay valid. */
     public static void clearStatistics() {
-        statistics.clear();
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /** A statistic which sums the values added to it. */
+    public static final class Counter {
+        private final String key;
+        private final LongAdder value = new LongAdder();
+
+        /** Whether a value was added since the statistics were last cleared. */
+        private volatile boolean recorded;
+
+        private Counter(String key) {
+            this.key = key;
+        }
+
+        /** Adds the given value to this counter. */
+        public void add(long value) {
+            this.value.add(value);
+            if (!recorded) {
+                recorded = true;
+            }
+        }
+
+        /** Returns the sum of the values added to this counter. */
+        public long get() {
+            return value.sum();
+        }
+
+        private void reset() {
+            recorded = false;
+            value.reset();
+        }
+    }
+
+    /**
+     * A statistic which records the distribution of the non-negative values recorded in it.
+     *
+     * <p>Values are counted in buckets: each power of two is split into four buckets of equal
+     * width, and the values below four have a bucket each. Percentiles are reported as the largest
+     * value of their bucket, which is at most 25% larger than the exact percentile. The minimum
+     * and maximum are exact.
+     */
+    public static final class Histogram {
+        /** The number of bits after the leading one bit that select the bucket of a value. */
+        private static final int SUB_BUCKET_BITS = 2;
+
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+
+        private final String key;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String key) {
+            this.key = key;
+        }
+
+        /** Records the given value, negative values are recorded as 0. */
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            min.accumulate(value);
+            max.accumulate(value);
+        }
+
+        /** Returns the number of recorded values. */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /** Returns the smallest recorded value, or 0 if there is none. */
+        public long getMin() {
+            return getCount() == 0 ? 0 : min.get();
+        }
+
+        /** Returns the largest recorded value, or 0 if there is none. */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns an upper bound of the given percentile of the recorded values.
+         *
+         * @param fraction the percentile as a fraction between 0 and 1
+         * @return the largest value of the bucket containing the percentile, or 0 if there are no
+         *     values
+         */
+        public long getPercentile(double fraction) {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += buckets.get(i);
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(largestValueOf(i), getMax());
+                }
+            }
+            return 0;
+        }
+
+        private void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            min.reset();
+            max.reset();
+        }
+
+        private static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+        }
+
+        private static long largestValueOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+            long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+            long smallest = (SUB_BUCKETS + subBucket) << shift;
+            return smallest + ((1L << shift) - 1);
+        }
     }
 }
@@ -0,0 +1,897 @@
+package checkers.inference.util;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.Tree;
+
+import org.checkerframework.afu.scenelib.io.ASTPath;
+import org.checkerframework.afu.scenelib.io.ASTRecord;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.javacutil.BugInCF;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.type.TypeKind;
+import javax.tools.Diagnostic;
+
+import checkers.inference.SlotManager;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.AstPathLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.ArithmeticVariableSlot;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.ComparisonVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.ExistentialVariableSlot;
+import checkers.inference.model.LubVariableSlot;
+import checkers.inference.model.RefinementVariableSlot;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.model.serialization.AnnotationMirrorSerializer;
+import checkers.inference.model.serialization.BinaryDeserializer;
+import checkers.inference.model.serialization.BinarySerializer;
+
+/**
+ * The slots, constraints and diagnostics generated for one top-level class, as stored by {@link
+ * ConstraintCache}.
+ *
+ * <p>Slot ids are assigned in visiting order, so the ids that the constraints of a class referred
+ * to when they were recorded mean nothing in a later run. Besides the constraints, in the format
+ * of {@link BinarySerializer}, a cached unit therefore describes every slot they refer to and
+ * every slot created while visiting the class: its kind, its location and the slots it is made
+ * of. Replaying the unit recreates these slots through the {@link SlotManager}, which returns the
+ * existing slot of a location or of a pair of slots that is already known and gives new slots
+ * fresh ids. The constraints are then decoded with the recorded ids mapped to the replayed slots,
+ * at their recorded locations.
+ * Since the slot manager is shared with the rest of the run, the whole unit is decoded against
+ * detached copies of its slots first, and the slot manager is only touched once that succeeded.
+ *
+ * <p>The format is:
+ *
+ * <pre>
+ * unit        := MAGIC VERSION count:int dependency* count:int message* count:int slot*
+ *                count:int location* constraints
+ * dependency  := uri:utf hash:utf
+ * message     := kind:utf text:utf position:long tree-kind:nullable-utf
+ * slot        := tag:byte id:int payload   // in increasing order of id
+ * constraints := the records of BinarySerializer, or nothing if there are none
+ * </pre>
+ *
+ * <p>Slot payloads are:
+ *
+ * <pre>
+ * SOURCE          := location default:nullable-annotation insertable:boolean
+ * REFINEMENT      := location refined:id
+ * CONSTANT        := value:annotation
+ * COMB            := receiver:id declared:id
+ * LUB, GLB        := left:id right:id
+ * EXISTENTIAL     := potential:id alternative:id
+ * ARITHMETIC      := location value-type-kind:utf
+ * COMPARISON_THEN := location refined:id
+ * COMPARISON_ELSE := location refined:id
+ * location        := MISSING
+ *                  | CLASS_DECL class:utf
+ *                  | AST_PATH unit:utf class:nullable-utf method:nullable-utf
+ *                             variable:nullable-utf count:int (tree-kind:utf selector:utf
+ *                             argument:nullable-int)*
+ * </pre>
+ *
+ * The locations before the constraints are those of the top-level constraints, in order; the
+ * constraints nested in one are given its location. Annotations are stored as the strings of an
+ * {@link AnnotationMirrorSerializer}. An AST path location names its compilation unit as given by
+ * {@link Units}.
+ */
+final class CachedUnit {
+
+    /** "CFIU" in ASCII: Checker Framework Inference Unit. */
+    private static final int MAGIC = 0x43464955;
+
+    private static final byte VERSION = 2;
+
+    private static final byte SOURCE = 0;
+    private static final byte REFINEMENT = 1;
+    private static final byte CONSTANT = 2;
+    private static final byte COMB = 3;
+    private static final byte LUB = 4;
+    private static final byte GLB = 5;
+    private static final byte EXISTENTIAL = 6;
+    private static final byte ARITHMETIC = 7;
+    private static final byte COMPARISON_THEN = 8;
+    private static final byte COMPARISON_ELSE = 9;
+
+    private static final byte MISSING_LOCATION = 0;
+    private static final byte CLASS_DECL_LOCATION = 1;
+    private static final byte AST_PATH_LOCATION = 2;
+
+    /** Maps the compilation units of locations to names that identify them in a later run. */
+    interface Units {
+
+        /**
+         * Returns the name under which locations in the given compilation unit are recorded, or
+         * null if they cannot be found again in a later run.
+         */
+        @Nullable String nameOf(CompilationUnitTree unit);
+
+        /**
+         * Notes that the declaration of the class with the given flat name is the location of a
+         * recorded slot.
+         *
+         * @return false if the class cannot be found again in a later run
+         */
+        boolean noteClassDeclaration(String flatName);
+
+        /** Returns the compilation unit of the current run with the given name, or null. */
+        @Nullable CompilationUnitTree find(String name);
+    }
+
+    /** A diagnostic reported while generating the constraints of the unit. */
+    static final class Message {
+
+        final Diagnostic.Kind kind;
+
+        final String text;
+
+        /** The start position of the tree the message was reported on, or -1 if there is none. */
+        final long position;
+
+        final Tree.@Nullable Kind treeKind;
+
+        Message(Diagnostic.Kind kind, String text, long position, Tree.@Nullable Kind treeKind) {
+            this.kind = kind;
+            this.text = text;
+            this.position = position;
+            this.treeKind = treeKind;
+        }
+    }
+
+    /**
+     * The source files whose content the constraints depend on, by URI, mapped to the hash of their
+     * content when the unit was recorded.
+     */
+    final Map<String, String> dependencies;
+
+    final List<Message> messages;
+
+    private final byte[] bytes;
+
+    /** Offset of the slot table in {@link #bytes}. */
+    private final int slotsOffset;
+
+    private CachedUnit(
+            Map<String, String> dependencies,
+            List<Message> messages,
+            byte[] bytes,
+            int slotsOffset) {
+        this.dependencies = dependencies;
+        this.messages = messages;
+        this.bytes = bytes;
+        this.slotsOffset = slotsOffset;
+    }
+
+    /**
+     * Encodes a unit.
+     *
+     * @param createdSlots the slots created while generating the constraints of the unit
+     * @param constraints the constraints added while generating the constraints of the unit
+     * @param messages the diagnostics reported meanwhile
+     * @param dependencies the source files the constraints depend on, see {@link #dependencies}.
+     *     They are encoded after the slots, so that the given units can add the compilation units
+     *     of the recorded locations to them.
+     * @throws IOException if the unit cannot be encoded, e.g. because a location cannot be found
+     *     again in a later run
+     */
+    static byte[] write(
+            Collection<Slot> createdSlots,
+            Collection<Constraint> constraints,
+            List<Message> messages,
+            Map<String, String> dependencies,
+            SlotManager slotManager,
+            AnnotationMirrorSerializer annotationSerializer,
+            Units units)
+            throws IOException {
+        // Encode the constraints first, to learn which slots they refer to.
+        ByteArrayOutputStream constraintBytes = new ByteArrayOutputStream();
+        Set<Slot> referencedSlots = new HashSet<>(createdSlots);
+        BinarySerializer serializer =
+                new BinarySerializer(constraintBytes, annotationSerializer) {
+                    @Override
+                    protected Integer serializeVariable(Slot slot) {
+                        referencedSlots.add(slot);
+                        return super.serializeVariable(slot);
+                    }
+
+                    @Override
+                    public Integer serialize(ExistentialVariableSlot slot) {
+                        // Existential slots are only normalized away before solving.
+                        return serializeVariable(slot);
+                    }
+                };
+        List<AnnotationLocation> locations = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            if (serializer.writeConstraint(constraint)) {
+                locations.add(constraint.getLocation());
+            }
+        }
+
+        ByteArrayOutputStream slotBytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(slotBytes);
+        Collection<Slot> slots = closeOverComponents(referencedSlots);
+        out.writeInt(slots.size());
+        for (Slot slot : slots) {
+            writeSlot(out, slot, slotManager, annotationSerializer, units);
+        }
+        out.writeInt(locations.size());
+        for (AnnotationLocation location : locations) {
+            writeLocation(out, location, units);
+        }
+        out.flush();
+
+        ByteArrayOutputStream unit = new ByteArrayOutputStream();
+        out = new DataOutputStream(unit);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(dependencies.size());
+        for (Map.Entry<String, String> dependency : dependencies.entrySet()) {
+            out.writeUTF(dependency.getKey());
+            out.writeUTF(dependency.getValue());
+        }
+        out.writeInt(messages.size());
+        for (Message message : messages) {
+            out.writeUTF(message.kind.name());
+            out.writeUTF(message.text);
+            out.writeLong(message.position);
+            writeNullableUTF(out, message.treeKind == null ? null : message.treeKind.name());
+        }
+        slotBytes.writeTo(out);
+        constraintBytes.writeTo(out);
+        out.flush();
+        return unit.toByteArray();
+    }
+
+    /** Decodes the dependencies and messages of a unit; its slots are decoded by replay. */
+    static CachedUnit read(byte[] bytes) throws IOException {
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(stream);
+        if (bytes.length < 5 || in.readInt() != MAGIC) {
+            throw new IOException("Not a cached unit.");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cached unit version: " + version);
+        }
+
+        Map<String, String> dependencies = new LinkedHashMap<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            String uri = in.readUTF();
+            try {
+                new URI(uri);
+            } catch (URISyntaxException e) {
+                throw new IOException("Corrupt dependency " + uri, e);
+            }
+            dependencies.put(uri, in.readUTF());
+        }
+        List<Message> messages = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Diagnostic.Kind kind = readEnum(in.readUTF(), Diagnostic.Kind.class);
+            String text = in.readUTF();
+            long position = in.readLong();
+            String treeKind = readNullableUTF(in);
+            messages.add(
+                    new Message(
+                            kind,
+                            text,
+                            position,
+                            treeKind == null ? null : readEnum(treeKind, Tree.Kind.class)));
+        }
+        return new CachedUnit(
+                dependencies,
+                Collections.unmodifiableList(messages),
+                bytes,
+                bytes.length - stream.available());
+    }
+
+    /**
+     * Recreates the slots of this unit with the given slot manager and decodes its constraints.
+     * The constraints are returned rather than added to the constraint manager, so that nothing
+     * is added if the unit turns out to be corrupt or stale.
+     *
+     * <p>The unit is first decoded completely without touching the slot manager: its slot table is
+     * read, and its constraints are decoded against slots created outside of the slot manager.
+     * Only then are the slots recreated with the slot manager, which changes shared state, e.g.
+     * the merged-to slots of the components of merge variables.
+     *
+     * @throws IOException if the unit is corrupt, or a location cannot be found in this run. The
+     *     slot manager is unchanged then.
+     * @throws BugInCF if the unit cannot be replayed although it was decoded
+     */
+    List<Constraint> replay(
+            SlotManager slotManager,
+            ConstraintManager constraintManager,
+            AnnotationMirrorSerializer annotationSerializer,
+            Units units)
+            throws IOException {
+        ByteArrayInputStream stream =
+                new ByteArrayInputStream(bytes, slotsOffset, bytes.length - slotsOffset);
+        DataInputStream in = new DataInputStream(stream);
+        List<SlotRecord> records;
+        List<AnnotationLocation> locations = new ArrayList<>();
+        int constraintsOffset;
+        Map<Integer, Slot> detached = new HashMap<>();
+        try {
+            records = readSlotRecords(in, annotationSerializer, units);
+            for (int i = in.readInt(); i > 0; i--) {
+                locations.add(readLocation(in, units));
+            }
+            constraintsOffset = bytes.length - stream.available();
+            for (SlotRecord record : records) {
+                detached.put(record.id, record.detach(detached));
+            }
+            decodeConstraints(
+                    constraintsOffset,
+                    detached,
+                    locations,
+                    annotationSerializer,
+                    constraintManager,
+                    slotManager,
+                    true);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt cached unit: " + e.getMessage(), e);
+        }
+
+        // The recorded ids, mapped to the slots of this run.
+        Map<Integer, Slot> replayed = new HashMap<>();
+        try {
+            for (SlotRecord record : records) {
+                replayed.put(record.id, record.replay(slotManager, replayed));
+            }
+            return decodeConstraints(
+                    constraintsOffset,
+                    replayed,
+                    locations,
+                    annotationSerializer,
+                    constraintManager,
+                    slotManager,
+                    false);
+        } catch (RuntimeException e) {
+            throw new BugInCF("Cannot replay a decoded cached unit", e);
+        }
+    }
+
+    /**
+     * Decodes the constraints of this unit, which start at the given offset, with the recorded
+     * ids mapped to the given slots.
+     *
+     * @param locations the locations of the top-level constraints
+     * @param detached whether the given slots are detached, in which case constants are not
+     *     created with the slot manager either
+     */
+    private List<Constraint> decodeConstraints(
+            int offset,
+            Map<Integer, Slot> slots,
+            List<AnnotationLocation> locations,
+            AnnotationMirrorSerializer annotationSerializer,
+            ConstraintManager constraintManager,
+            SlotManager slotManager,
+            boolean detached) {
+        if (offset == bytes.length) {
+            if (!locations.isEmpty()) {
+                throw new IllegalArgumentException("Parse error: locations of missing constraints");
+            }
+            return Collections.emptyList();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset).slice();
+        List<Constraint> constraints =
+                new BinaryDeserializer(annotationSerializer, buffer, constraintManager, slotManager) {
+                    @Override
+                    protected AnnotationLocation getLocation(int index) {
+                        if (index >= locations.size()) {
+                            throw new IllegalArgumentException(
+                                    "Parse error: constraint " + index + " has no location");
+                        }
+                        return locations.get(index);
+                    }
+
+
+                    @Override
+                    protected Slot getVariableSlot(int id) {
+                        Slot slot = slots.get(id);
+                        if (slot == null) {
+                            throw new IllegalArgumentException(
+                                    "Parse error: reference to unrecorded slot " + id);
+                        }
+                        return slot;
+                    }
+
+                    @Override
+                    protected Slot getConstantSlot(AnnotationMirror value) {
+                        return detached
+                                ? new ConstantSlot(0, value)
+                                : super.getConstantSlot(value);
+                    }
+                }.parseConstraints();
+        if (constraints.size() != locations.size()) {
+            throw new IllegalArgumentException("Parse error: locations of missing constraints");
+        }
+        return constraints;
+    }
+
+    /**
+     * Returns the given slots together with the slots they are made of, transitively, in
+     * increasing order of id. A slot is always created after the slots it is made of, so replaying
+     * slots in this order creates each slot after its components.
+     */
+    private static Collection<Slot> closeOverComponents(Collection<Slot> slots) throws IOException {
+        Map<Integer, Slot> closed = new TreeMap<>();
+        Deque<Slot> worklist = new ArrayDeque<>(slots);
+        while (!worklist.isEmpty()) {
+            Slot slot = worklist.pop();
+            if (closed.put(slot.getId(), slot) != null) {
+                continue;
+            }
+            for (Slot component : getComponents(slot)) {
+                if (component == null) {
+                    throw new IOException("Slot " + slot + " has a missing component.");
+                }
+                worklist.push(component);
+            }
+        }
+        return closed.values();
+    }
+
+    private static List<Slot> getComponents(Slot slot) {
+        switch (slot.getKind()) {
+            case REFINEMENT_VARIABLE:
+                return Collections.singletonList(((RefinementVariableSlot) slot).getRefined());
+            case COMB_VARIABLE:
+                CombVariableSlot comb = (CombVariableSlot) slot;
+                return Arrays.asList(comb.getFirst(), comb.getSecond());
+            case LUB_VARIABLE:
+                LubVariableSlot merge = (LubVariableSlot) slot;
+                return Arrays.asList(merge.getLeft(), merge.getRight());
+            case EXISTENTIAL_VARIABLE:
+                ExistentialVariableSlot existential = (ExistentialVariableSlot) slot;
+                return Arrays.asList(
+                        existential.getPotentialSlot(), existential.getAlternativeSlot());
+            case COMPARISON_VARIABLE:
+                return Collections.singletonList(((ComparisonVariableSlot) slot).getRefined());
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    private static void writeSlot(
+            DataOutputStream out,
+            Slot slot,
+            SlotManager slotManager,
+            AnnotationMirrorSerializer annotationSerializer,
+            Units units)
+            throws IOException {
+        switch (slot.getKind()) {
+            case VARIABLE:
+                {
+                    SourceVariableSlot source = (SourceVariableSlot) slot;
+                    writeTag(out, SOURCE, slot);
+                    writeLocation(out, source.getLocation(), units);
+                    AnnotationMirror defaultAnnotation = source.getDefaultAnnotation();
+                    writeNullableUTF(
+                            out,
+                            defaultAnnotation == null
+                                    ? null
+                                    : annotationSerializer.serialize(defaultAnnotation));
+                    out.writeBoolean(source.isInsertable());
+                    break;
+                }
+            case REFINEMENT_VARIABLE:
+                {
+                    RefinementVariableSlot refinement = (RefinementVariableSlot) slot;
+                    writeTag(out, REFINEMENT, slot);
+                    writeLocation(out, refinement.getLocation(), units);
+                    out.writeInt(refinement.getRefined().getId());
+                    break;
+                }
+            case CONSTANT:
+                writeTag(out, CONSTANT, slot);
+                out.writeUTF(annotationSerializer.serialize(((ConstantSlot) slot).getValue()));
+                break;
+            case COMB_VARIABLE:
+                {
+                    CombVariableSlot comb = (CombVariableSlot) slot;
+                    writeTag(out, COMB, slot);
+                    out.writeInt(comb.getFirst().getId());
+                    out.writeInt(comb.getSecond().getId());
+                    break;
+                }
+            case LUB_VARIABLE:
+                {
+                    LubVariableSlot merge = (LubVariableSlot) slot;
+                    writeTag(out, slotManager.isGlbMergeVariableSlot(merge) ? GLB : LUB, slot);
+                    out.writeInt(merge.getLeft().getId());
+                    out.writeInt(merge.getRight().getId());
+                    break;
+                }
+            case EXISTENTIAL_VARIABLE:
+                {
+                    ExistentialVariableSlot existential = (ExistentialVariableSlot) slot;
+                    writeTag(out, EXISTENTIAL, slot);
+                    out.writeInt(existential.getPotentialSlot().getId());
+                    out.writeInt(existential.getAlternativeSlot().getId());
+                    break;
+                }
+            case ARITHMETIC_VARIABLE:
+                {
+                    ArithmeticVariableSlot arithmetic = (ArithmeticVariableSlot) slot;
+                    writeTag(out, ARITHMETIC, slot);
+                    writeLocation(out, arithmetic.getLocation(), units);
+                    out.writeUTF(arithmetic.getValueTypeKind().name());
+                    break;
+                }
+            case COMPARISON_VARIABLE:
+                {
+                    ComparisonVariableSlot comparison = (ComparisonVariableSlot) slot;
+                    writeTag(
+                            out,
+                            slotManager.isThenComparisonVariableSlot(comparison)
+                                    ? COMPARISON_THEN
+                                    : COMPARISON_ELSE,
+                            slot);
+                    writeLocation(out, comparison.getLocation(), units);
+                    out.writeInt(comparison.getRefined().getId());
+                    break;
+                }
+            default:
+                throw new IOException("Cannot record slot " + slot);
+        }
+    }
+
+    private static void writeTag(DataOutputStream out, byte tag, Slot slot) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(slot.getId());
+    }
+
+    /**
+     * Reads the slot table. Components must be recorded before the slots made of them, as {@link
+     * #write} does.
+     */
+    private static List<SlotRecord> readSlotRecords(
+            DataInputStream in, AnnotationMirrorSerializer annotationSerializer, Units units)
+            throws IOException {
+        List<SlotRecord> records = new ArrayList<>();
+        Set<Integer> ids = new HashSet<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            byte tag = in.readByte();
+            int id = in.readInt();
+            SlotRecord record = readSlotRecord(in, tag, id, ids, annotationSerializer, units);
+            if (!ids.add(id)) {
+                throw new IOException("Slot " + id + " is recorded twice.");
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private static SlotRecord readSlotRecord(
+            DataInputStream in,
+            byte tag,
+            int id,
+            Set<Integer> ids,
+            AnnotationMirrorSerializer annotationSerializer,
+            Units units)
+            throws IOException {
+        switch (tag) {
+            case SOURCE:
+                {
+                    AnnotationLocation location = readLocation(in, units);
+                    String defaultAnnotation = readNullableUTF(in);
+                    return new SlotRecord(
+                            tag,
+                            id,
+                            location,
+                            defaultAnnotation == null
+                                    ? null
+                                    : annotationSerializer.deserialize(defaultAnnotation),
+                            in.readBoolean(),
+                            null);
+                }
+            case REFINEMENT:
+            case COMPARISON_THEN:
+            case COMPARISON_ELSE:
+                {
+                    AnnotationLocation location = readLocation(in, units);
+                    return new SlotRecord(
+                            tag, id, location, null, false, null, readRecorded(in, ids));
+                }
+            case CONSTANT:
+                return new SlotRecord(
+                        tag,
+                        id,
+                        null,
+                        annotationSerializer.deserialize(in.readUTF()),
+                        false,
+                        null);
+            case COMB:
+            case LUB:
+            case GLB:
+            case EXISTENTIAL:
+                return new SlotRecord(
+                        tag,
+                        id,
+                        null,
+                        null,
+                        false,
+                        null,
+                        readRecorded(in, ids),
+                        readRecorded(in, ids));
+            case ARITHMETIC:
+                {
+                    AnnotationLocation location = readLocation(in, units);
+                    return new SlotRecord(
+                            tag, id, location, null, false, TypeKind.valueOf(in.readUTF()));
+                }
+            default:
+                throw new IOException("Unknown slot tag " + tag);
+        }
+    }
+
+    private static int readRecorded(DataInputStream in, Set<Integer> ids) throws IOException {
+        int id = in.readInt();
+        if (!ids.contains(id)) {
+            throw new IOException("Reference to unrecorded slot " + id);
+        }
+        return id;
+    }
+
+    /** A slot of the slot table of a unit, decoded without creating the slot. */
+    private static final class SlotRecord {
+
+        final byte tag;
+
+        /** The id of the slot when the unit was recorded. */
+        final int id;
+
+        final @Nullable AnnotationLocation location;
+
+        /** The default annotation of a source slot, or the value of a constant slot. */
+        final @Nullable AnnotationMirror annotation;
+
+        /** Whether a source slot is insertable. */
+        final boolean insertable;
+
+        /** The value type kind of an arithmetic slot. */
+        final @Nullable TypeKind valueTypeKind;
+
+        /** The recorded ids of the slots this slot is made of. */
+        final int[] components;
+
+        SlotRecord(
+                byte tag,
+                int id,
+                @Nullable AnnotationLocation location,
+                @Nullable AnnotationMirror annotation,
+                boolean insertable,
+                @Nullable TypeKind valueTypeKind,
+                int... components) {
+            this.tag = tag;
+            this.id = id;
+            this.location = location;
+            this.annotation = annotation;
+            this.insertable = insertable;
+            this.valueTypeKind = valueTypeKind;
+            this.components = components;
+        }
+
+        /**
+         * Creates this slot outside of any slot manager, with its recorded id, to check that the
+         * constraints of the unit can be decoded.
+         *
+         * @param detached the detached slots created so far, by recorded id
+         */
+        Slot detach(Map<Integer, Slot> detached) {
+            AnnotationLocation location =
+                    this.location == null ? AnnotationLocation.MISSING_LOCATION : this.location;
+            switch (tag) {
+                case SOURCE:
+                    return new SourceVariableSlot(id, location, null, annotation, insertable);
+                case REFINEMENT:
+                    return new RefinementVariableSlot(id, location, detached.get(components[0]));
+                case CONSTANT:
+                    return new ConstantSlot(id, annotation);
+                case COMB:
+                    return new CombVariableSlot(
+                            id,
+                            location,
+                            detached.get(components[0]),
+                            detached.get(components[1]));
+                case LUB:
+                case GLB:
+                    return new LubVariableSlot(
+                            id,
+                            location,
+                            detached.get(components[0]),
+                            detached.get(components[1]));
+                case EXISTENTIAL:
+                    return new ExistentialVariableSlot(
+                            id, detached.get(components[0]), detached.get(components[1]));
+                case ARITHMETIC:
+                    return new ArithmeticVariableSlot(id, location, valueTypeKind);
+                case COMPARISON_THEN:
+                case COMPARISON_ELSE:
+                    return new ComparisonVariableSlot(
+                            id, location, detached.get(components[0]));
+                default:
+                    throw new IllegalStateException("Unknown slot tag " + tag);
+            }
+        }
+
+        /**
+         * Creates this slot with the given slot manager, or returns the existing slot of its
+         * location or components.
+         *
+         * @param replayed the slots replayed so far, by recorded id
+         */
+        Slot replay(SlotManager slotManager, Map<Integer, Slot> replayed) {
+            switch (tag) {
+                case SOURCE:
+                    {
+                        SourceVariableSlot slot =
+                                slotManager.replaySourceVariableSlot(
+                                        location, annotation, insertable);
+                        if (!insertable) {
+                            // The slot may already have existed, or been made non-insertable
+                            // later.
+                            slot.setInsertable(false);
+                        }
+                        return slot;
+                    }
+                case REFINEMENT:
+                    // The constraint to the refined value is one of the recorded constraints.
+                    return slotManager.createRefinementVariableSlot(
+                            location, replayed.get(components[0]), null);
+                case CONSTANT:
+                    return slotManager.createConstantSlot(annotation);
+                case COMB:
+                    return slotManager.createCombVariableSlot(
+                            replayed.get(components[0]), replayed.get(components[1]));
+                case LUB:
+                case GLB:
+                    {
+                        Slot left = replayed.get(components[0]);
+                        Slot right = replayed.get(components[1]);
+                        LubVariableSlot merge =
+                                tag == LUB
+                                        ? slotManager.createLubMergeVariableSlot(left, right)
+                                        : slotManager.createGlbMergeVariableSlot(left, right);
+                        // As InferenceQualifierHierarchy does when it creates a merge variable.
+                        left.addMergedToSlot(merge);
+                        right.addMergedToSlot(merge);
+                        return merge;
+                    }
+                case EXISTENTIAL:
+                    return slotManager.createExistentialVariableSlot(
+                            replayed.get(components[0]), replayed.get(components[1]));
+                case ARITHMETIC:
+                    return slotManager.replayArithmeticVariableSlot(location, valueTypeKind);
+                case COMPARISON_THEN:
+                case COMPARISON_ELSE:
+                    return slotManager.createComparisonVariableSlot(
+                            location, replayed.get(components[0]), tag == COMPARISON_THEN);
+                default:
+                    throw new IllegalStateException("Unknown slot tag " + tag);
+            }
+        }
+    }
+
+    private static void writeLocation(
+            DataOutputStream out, @Nullable AnnotationLocation location, Units units)
+            throws IOException {
+        if (location == null || location.getKind() == AnnotationLocation.Kind.MISSING) {
+            out.writeByte(MISSING_LOCATION);
+        } else if (location instanceof ClassDeclLocation) {
+            String className = ((ClassDeclLocation) location).getFullyQualifiedClassName();
+            if (!units.noteClassDeclaration(className)) {
+                throw new IOException("Cannot record the location of class " + className);
+            }
+            out.writeByte(CLASS_DECL_LOCATION);
+            out.writeUTF(className);
+        } else if (location instanceof AstPathLocation) {
+            ASTRecord astRecord = ((AstPathLocation) location).getAstRecord();
+            String unit = units.nameOf(astRecord.ast);
+            if (unit == null) {
+                throw new IOException("Cannot record location " + location);
+            }
+            out.writeByte(AST_PATH_LOCATION);
+            out.writeUTF(unit);
+            writeNullableUTF(out, astRecord.className);
+            writeNullableUTF(out, astRecord.methodName);
+            writeNullableUTF(out, astRecord.varName);
+            out.writeInt(astRecord.astPath.size());
+            for (ASTPath.ASTEntry entry : astRecord.astPath) {
+                out.writeUTF(entry.getTreeKind().name());
+                out.writeUTF(entry.getChildSelector());
+                Integer argument = entry.getArgument();
+                out.writeBoolean(argument != null);
+                if (argument != null) {
+                    out.writeInt(argument);
+                }
+            }
+        } else {
+            throw new IOException("Cannot record location " + location);
+        }
+    }
+
+    private static AnnotationLocation readLocation(DataInputStream in, Units units)
+            throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+            case MISSING_LOCATION:
+                return AnnotationLocation.MISSING_LOCATION;
+            case CLASS_DECL_LOCATION:
+                return new ClassDeclLocation(in.readUTF());
+            case AST_PATH_LOCATION:
+                {
+                    String unit = in.readUTF();
+                    CompilationUnitTree ast = units.find(unit);
+                    if (ast == null) {
+                        throw new IOException("Cannot find compilation unit " + unit);
+                    }
+                    String className = readNullableUTF(in);
+                    String methodName = readNullableUTF(in);
+                    String varName = readNullableUTF(in);
+                    ASTRecord astRecord =
+                            new ASTRecord(ast, className, methodName, varName, ASTPath.empty());
+                    for (int i = in.readInt(); i > 0; i--) {
+                        Tree.Kind treeKind = Tree.Kind.valueOf(in.readUTF());
+                        String childSelector = in.readUTF();
+                        astRecord =
+                                in.readBoolean()
+                                        ? astRecord.extend(treeKind, childSelector, in.readInt())
+                                        : astRecord.extend(treeKind, childSelector);
+                    }
+                    return new AstPathLocation(astRecord);
+                }
+            default:
+                throw new IOException("Unknown location kind " + kind);
+        }
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, @Nullable String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static @Nullable String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static <E extends Enum<E>> E readEnum(String name, Class<E> type) throws IOException {
+        try {
+            return Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown " + type.getSimpleName() + " " + name, e);
+        }
+    }
+}
@@ -0,0 +1,695 @@
+package checkers.inference.util;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberReferenceTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.NewClassTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.SourcePositions;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.TreeScanner;
+import com.sun.source.util.Trees;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.checkerframework.javacutil.BugInCF;
+import org.checkerframework.javacutil.TreeUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+
+import checkers.inference.InferenceMain;
+import checkers.inference.InferenceOptions;
+import checkers.inference.SlotManager;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.serialization.AnnotationMirrorSerializer;
+
+/**
+ * An on-disk cache of the constraints generated for each top-level class, so that a run after an
+ * edit only visits the classes affected by it.
+ *
+ * <p>The constraints of a class are recorded while it is visited, together with the slots they
+ * refer to and the diagnostics reported meanwhile, see {@link CachedUnit}. They are stored under a
+ * key made of the name of the class, the content of its compilation unit and a fingerprint of the
+ * target classpath and of the options of the run. A later run with the same key replays the
+ * recorded slots and constraints instead of visiting the class, as long as the source files the
+ * constraints depend on are unchanged too. These are the compilation units of the locations of the
+ * recorded slots, of the classes, methods and fields the class refers to by name, and of the
+ * supertypes of the class and of the referenced classes, transitively. Javac, solving, statistics
+ * and the JAIF run as usual either way.
+ *
+ * <p>Constraints on qualifiers with arguments are not cached, since their annotations cannot be
+ * recreated from their names; classes with such constraints are visited in every run.
+ */
+public class ConstraintCache {
+
+    private static final Logger logger = Logger.getLogger(ConstraintCache.class.getName());
+
+    private static final String UNIT_SUFFIX = ".unit";
+
+    /** Directory in which cached units are stored. */
+    private final File cacheDir;
+
+    /** Hex-encoded fingerprint of the classpath and options of the current run. */
+    private final String fingerprint;
+
+    private final Trees trees;
+
+    private final Elements elements;
+
+    private final ProcessingEnvironment processingEnv;
+
+    private final AnnotationMirrorSerializer annotationSerializer;
+
+    /** Hashes of the content of the source files read in this run, by URI. */
+    private final Map<String, String> sourceHashes = new HashMap<>();
+
+    /** The source file of each top-level type looked up in this run, null if it has none. */
+    private final Map<TypeElement, @Nullable URI> sourceFiles = new HashMap<>();
+
+    /** The compilation unit being recorded, null if none is. */
+    private @Nullable CompilationUnitTree recordedRoot;
+
+    /** The diagnostics reported while recording {@link #recordedRoot}. */
+    private final List<CachedUnit.Message> recordedMessages = new ArrayList<>();
+
+    private int replayed = 0;
+
+    private int recorded = 0;
+
+    /** Creates a cache for the classpath and options of the current run, see InferenceOptions. */
+    public ConstraintCache(File cacheDir, ProcessingEnvironment processingEnv) {
+        this(
+                cacheDir,
+                computeFingerprint(
+                        Arrays.asList(
+                                InferenceOptions.VERSION,
+                                InferenceOptions.checker,
+                                InferenceOptions.solver,
+                                InferenceOptions.solverArgs,
+                                InferenceOptions.cfArgs,
+                                String.valueOf(InferenceOptions.hacks),
+                                String.valueOf(InferenceOptions.makeDefaultsExplicit)),
+                        InferenceOptions.javacOptions != null
+                                ? InferenceOptions.javacOptions
+                                : Collections.emptyList(),
+                        InferenceOptions.targetclasspath),
+                processingEnv);
+    }
+
+    private ConstraintCache(
+            File cacheDir, String fingerprint, ProcessingEnvironment processingEnv) {
+        this.cacheDir = cacheDir;
+        this.fingerprint = fingerprint;
+        this.processingEnv = processingEnv;
+        this.trees = Trees.instance(processingEnv);
+        this.elements = processingEnv.getElementUtils();
+        this.annotationSerializer = new QualifierNameSerializer(elements);
+    }
+
+    /**
+     * Replays the cached constraints of the given top-level class, if the class and the source
+     * files its constraints depend on are unchanged since they were recorded.
+     *
+     * @param element the top-level class
+     * @param path the path to the class
+     * @return true if the constraints were replayed, false if the class needs to be visited
+     */
+    public boolean replay(TypeElement element, TreePath path) {
+        CompilationUnitTree root = path.getCompilationUnit();
+        File file = getUnitFile(element, root);
+        if (file == null || !file.isFile()) {
+            return false;
+        }
+
+        try {
+            CachedUnit unit = CachedUnit.read(Files.readAllBytes(file.toPath()));
+            for (Map.Entry<String, String> dependency : unit.dependencies.entrySet()) {
+                if (!dependency.getValue().equals(hashOf(URI.create(dependency.getKey())))) {
+                    logger.fine(
+                            "Cached constraints of "
+                                    + element
+                                    + " are stale, "
+                                    + dependency.getKey()
+                                    + " changed.");
+                    return false;
+                }
+            }
+
+            InferenceMain inferenceMain = InferenceMain.getInstance();
+            ConstraintManager constraintManager = inferenceMain.getConstraintManager();
+            // A corrupt unit is rejected before any of its slots is replayed.
+            List<Constraint> constraints =
+                    unit.replay(
+                            inferenceMain.getSlotManager(),
+                            constraintManager,
+                            annotationSerializer,
+                            new CompilationUnits());
+            constraintManager.addReplayedConstraints(constraints);
+            for (CachedUnit.Message message : unit.messages) {
+                printMessage(message, root);
+            }
+        } catch (IOException e) {
+            logger.log(
+                    Level.WARNING,
+                    "Cannot replay cached constraints of " + element + ", visiting it instead.",
+                    e);
+            return false;
+        }
+        replayed++;
+        return true;
+    }
+
+    /**
+     * Runs the constraint generation of the given top-level class and stores the slots,
+     * constraints and diagnostics it produced in the cache.
+     *
+     * @param element the top-level class
+     * @param path the path to the class
+     * @param generation generates the constraints of the class
+     */
+    public void record(TypeElement element, TreePath path, Runnable generation) {
+        CompilationUnitTree root = path.getCompilationUnit();
+        InferenceMain inferenceMain = InferenceMain.getInstance();
+        SlotManager slotManager = inferenceMain.getSlotManager();
+        ConstraintManager constraintManager = inferenceMain.getConstraintManager();
+
+        int firstSlotId = slotManager.getNumberOfSlots() + 1;
+        // Constraints that are already in the constraint set are recorded too, since the class
+        // that added them first may be replayed, or no longer exist, next time.
+        List<Constraint> constraints = new ArrayList<>();
+        constraintManager.setAddListener(constraints::add);
+        recordedRoot = root;
+        recordedMessages.clear();
+        try {
+            generation.run();
+        } finally {
+            constraintManager.setAddListener(null);
+            recordedRoot = null;
+        }
+
+        File file = getUnitFile(element, root);
+        if (file == null) {
+            return;
+        }
+        List<Slot> createdSlots = new ArrayList<>();
+        for (int id = firstSlotId; id <= slotManager.getNumberOfSlots(); id++) {
+            createdSlots.add(slotManager.getSlot(id));
+        }
+        Map<String, String> dependencies = new TreeMap<>();
+        byte[] unit;
+        try {
+            addReferencedSources(element, path, dependencies);
+            unit =
+                    CachedUnit.write(
+                            createdSlots,
+                            constraints,
+                            new ArrayList<>(recordedMessages),
+                            dependencies,
+                            slotManager,
+                            annotationSerializer,
+                            new CompilationUnits(dependencies));
+        } catch (IOException | IllegalArgumentException e) {
+            logger.fine("Not caching the constraints of " + element + ": " + e.getMessage());
+            return;
+        }
+        store(file, unit);
+        recorded++;
+    }
+
+    /**
+     * Records a diagnostic that is reported while the constraints of a class are recorded, so that
+     * it is reported again when they are replayed.
+     */
+    public void recordMessage(
+            Diagnostic.Kind kind,
+            CharSequence message,
+            @Nullable Tree source,
+            @Nullable CompilationUnitTree root) {
+        if (root == null || root != recordedRoot) {
+            return;
+        }
+        long position =
+                source == null ? -1 : trees.getSourcePositions().getStartPosition(root, source);
+        recordedMessages.add(
+                new CachedUnit.Message(
+                        kind,
+                        message.toString(),
+                        position,
+                        position == -1 ? null : source.getKind()));
+    }
+
+    /** Logs how many classes were replayed and recorded in this run. */
+    public void logStatistics() {
+        logger.info(
+                "Constraint cache: replayed "
+                        + replayed
+                        + " classes, visited and recorded "
+                        + recorded
+                        + ".");
+    }
+
+    /** Reports a replayed diagnostic on the tree it was originally reported on. */
+    private void printMessage(CachedUnit.Message message, CompilationUnitTree root) {
+        if (message.position == -1) {
+            processingEnv.getMessager().printMessage(message.kind, message.text);
+            return;
+        }
+        SourcePositions positions = trees.getSourcePositions();
+        Tree[] found = new Tree[1];
+        new TreeScanner<Void, Void>() {
+            @Override
+            public Void scan(Tree tree, Void p) {
+                if (found[0] != null || tree == null) {
+                    return null;
+                }
+                if (tree.getKind() == message.treeKind
+                        && positions.getStartPosition(root, tree) == message.position) {
+                    found[0] = tree;
+                    return null;
+                }
+                return super.scan(tree, p);
+            }
+        }.scan(root, null);
+        if (found[0] != null) {
+            trees.printMessage(message.kind, message.text, found[0], root);
+        } else {
+            processingEnv.getMessager().printMessage(message.kind, message.text);
+        }
+    }
+
+    /**
+     * Adds the source files of the classes, methods and fields the given class refers to by name
+     * to the given dependencies, together with the source files of the supertypes of the class and
+     * of the referenced types, transitively. A change to a supertype can change the members a
+     * class inherits and how its uses are resolved. Classes without source file are covered by the
+     * fingerprint.
+     *
+     * @throws IOException if one of the source files cannot be read
+     */
+    private void addReferencedSources(
+            TypeElement element, TreePath path, Map<String, String> dependencies)
+            throws IOException {
+        List<Element> referenced = new ArrayList<>();
+        new TreePathScanner<Void, Void>() {
+            @Override
+            public Void visitIdentifier(IdentifierTree node, Void p) {
+                referenced.add(trees.getElement(getCurrentPath()));
+                return super.visitIdentifier(node, p);
+            }
+
+            @Override
+            public Void visitMemberSelect(MemberSelectTree node, Void p) {
+                referenced.add(trees.getElement(getCurrentPath()));
+                return super.visitMemberSelect(node, p);
+            }
+
+            @Override
+            public Void visitNewClass(NewClassTree node, Void p) {
+                referenced.add(trees.getElement(getCurrentPath()));
+                return super.visitNewClass(node, p);
+            }
+
+            @Override
+            public Void visitMemberReference(MemberReferenceTree node, Void p) {
+                referenced.add(trees.getElement(getCurrentPath()));
+                return super.visitMemberReference(node, p);
+            }
+        }.scan(path, null);
+
+        Set<TypeElement> types = new LinkedHashSet<>();
+        addSupertypeClosure(element, types);
+        for (Element e : referenced) {
+            TypeElement type = getEnclosingType(e);
+            if (type != null) {
+                addSupertypeClosure(type, types);
+            }
+        }
+        for (TypeElement type : types) {
+            TypeElement topLevel = getTopLevelType(type);
+            if (topLevel != null) {
+                addSourceOf(topLevel, dependencies);
+            }
+        }
+    }
+
+    /** Adds the given type and its supertypes, transitively, to the given types. */
+    private static void addSupertypeClosure(TypeElement type, Set<TypeElement> types) {
+        Deque<TypeElement> worklist = new ArrayDeque<>();
+        worklist.push(type);
+        while (!worklist.isEmpty()) {
+            TypeElement current = worklist.pop();
+            if (!types.add(current)) {
+                continue;
+            }
+            List<TypeMirror> supertypes = new ArrayList<>(current.getInterfaces());
+            supertypes.add(current.getSuperclass());
+            for (TypeMirror supertype : supertypes) {
+                if (supertype.getKind() == TypeKind.DECLARED) {
+                    worklist.push((TypeElement) ((DeclaredType) supertype).asElement());
+                }
+            }
+        }
+    }
+
+    /** Returns the innermost type that is or encloses the given element, or null if none. */
+    private static @Nullable TypeElement getEnclosingType(@Nullable Element element) {
+        for (Element e = element; e != null; e = e.getEnclosingElement()) {
+            if (e instanceof PackageElement) {
+                break;
+            }
+            if (e instanceof TypeElement) {
+                return (TypeElement) e;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the top-level type that encloses the given element, or null if there is none. */
+    private static @Nullable TypeElement getTopLevelType(@Nullable Element element) {
+        TypeElement topLevel = null;
+        for (Element e = element; e != null; e = e.getEnclosingElement()) {
+            if (e instanceof PackageElement) {
+                break;
+            }
+            if (e instanceof TypeElement) {
+                topLevel = (TypeElement) e;
+            }
+        }
+        return topLevel;
+    }
+
+    /**
+     * Adds the source file of the given top-level type to the given dependencies, if it has one.
+     *
+     * @throws IOException if the source file cannot be read
+     */
+    private void addSourceOf(TypeElement topLevel, Map<String, String> dependencies)
+            throws IOException {
+        URI source =
+                sourceFiles.computeIfAbsent(
+                        topLevel,
+                        type -> {
+                            TreePath path = trees.getPath(type);
+                            return path == null
+                                    ? null
+                                    : path.getCompilationUnit().getSourceFile().toUri();
+                        });
+        if (source != null && !dependencies.containsKey(source.toString())) {
+            String hash = hashOf(source);
+            if (hash == null) {
+                throw new IOException("Cannot read " + source);
+            }
+            dependencies.put(source.toString(), hash);
+        }
+    }
+
+    /**
+     * Names compilation units by the qualified name of their first top-level type. When recording,
+     * the source files of the named compilation units are added to the dependencies.
+     */
+    private class CompilationUnits implements CachedUnit.Units {
+
+        /** The dependencies of the recorded unit, null when replaying. */
+        private final @Nullable Map<String, String> dependencies;
+
+        CompilationUnits() {
+            this.dependencies = null;
+        }
+
+        CompilationUnits(Map<String, String> dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public @Nullable String nameOf(CompilationUnitTree unit) {
+            for (Tree typeDecl : unit.getTypeDecls()) {
+                if (typeDecl instanceof ClassTree) {
+                    TypeElement type = TreeUtils.elementFromDeclaration((ClassTree) typeDecl);
+                    return type != null && note(type) ? type.getQualifiedName().toString() : null;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean noteClassDeclaration(String flatName) {
+            // The top-level class is the part of the flat name before the first '$'.
+            int nested = flatName.indexOf('$');
+            String topLevelName = nested == -1 ? flatName : flatName.substring(0, nested);
+            TypeElement type = elements.getTypeElement(topLevelName);
+            return type != null && note(type);
+        }
+
+        private boolean note(TypeElement topLevel) {
+            try {
+                if (dependencies != null) {
+                    addSourceOf(topLevel, dependencies);
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public @Nullable CompilationUnitTree find(String name) {
+            TypeElement type = elements.getTypeElement(name);
+            TreePath path = type == null ? null : trees.getPath(type);
+            return path == null ? null : path.getCompilationUnit();
+        }
+    }
+
+    /**
+     * Returns the file of the given top-level class in the cache, or null if the content of its
+     * compilation unit cannot be read.
+     */
+    private @Nullable File getUnitFile(TypeElement element, CompilationUnitTree root) {
+        String sourceHash = hashOf(root.getSourceFile().toUri());
+        if (sourceHash == null) {
+            return null;
+        }
+        MessageDigest digest = newDigest();
+        update(digest, fingerprint);
+        update(digest, element.getQualifiedName().toString());
+        update(digest, sourceHash);
+        return new File(cacheDir, toHex(digest.digest()) + UNIT_SUFFIX);
+    }
+
+    /** Returns the hash of the content of the given source file, or null if it cannot be read. */
+    private @Nullable String hashOf(URI source) {
+        return sourceHashes.computeIfAbsent(
+                source.toString(),
+                uri -> {
+                    if (!"file".equals(source.getScheme())) {
+                        return null;
+                    }
+                    MessageDigest digest = newDigest();
+                    try {
+                        updateContent(digest, Paths.get(source));
+                    } catch (IOException | IllegalArgumentException e) {
+                        return null;
+                    }
+                    return toHex(digest.digest());
+                });
+    }
+
+    private void store(File file, byte[] unit) {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            logger.warning("Cannot create constraint cache directory " + cacheDir);
+            return;
+        }
+        try {
+            // Write to a temporary file first, so that concurrent runs never observe a partially
+            // written unit.
+            Path tmp = Files.createTempFile(cacheDir.toPath(), "unit", ".tmp");
+            Files.write(tmp, unit);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("Failed to store constraints in cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stores qualifiers by their fully-qualified name. Qualifiers with arguments are rejected with
+     * an IllegalArgumentException, which makes the class that uses them uncacheable.
+     */
+    private static class QualifierNameSerializer implements AnnotationMirrorSerializer {
+
+        private final Elements elements;
+
+        QualifierNameSerializer(Elements elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        public String serialize(AnnotationMirror annotation) {
+            if (!annotation.getElementValues().isEmpty()) {
+                throw new IllegalArgumentException("Cannot cache qualifier " + annotation);
+            }
+            return AnnotationUtils.annotationName(annotation);
+        }
+
+        @Override
+        public AnnotationMirror deserialize(String name) {
+            return AnnotationBuilder.fromName(elements, name);
+        }
+    }
+
+    /**
+     * Computes the fingerprint of everything besides the source files that influences constraint
+     * generation: the options of the run and the classpath of the target program. The classpath
+     * of the inference framework and the checker is left out, see {@link
+     * InferenceOptions#inferenceCacheDir}.
+     *
+     * @param options the inference options that affect the result
+     * @param javacOptions the options passed to javac, including -classpath
+     * @param classpath the classpath of the target program, may be null
+     */
+    static String computeFingerprint(
+            List<String> options, List<String> javacOptions, @Nullable String classpath) {
+        MessageDigest digest = newDigest();
+        for (String option : options) {
+            update(digest, option);
+        }
+        for (String option : javacOptions) {
+            update(digest, option);
+        }
+
+        List<String> classpathEntries =
+                getPathOption(javacOptions, "-classpath", "-cp", "--class-path");
+        if (classpath != null) {
+            classpathEntries.addAll(Arrays.asList(classpath.split(File.pathSeparator)));
+        }
+        for (String entry : classpathEntries) {
+            updatePathEntry(digest, new File(entry), ConstraintCache::isClassOrJar);
+        }
+        return toHex(digest.digest());
+    }
+
+    /** Returns the entries of all occurrences of the given path option, e.g. -classpath. */
+    private static List<String> getPathOption(List<String> javacOptions, String... names) {
+        List<String> entries = new ArrayList<>();
+        for (int i = 0; i < javacOptions.size() - 1; i++) {
+            if (Arrays.asList(names).contains(javacOptions.get(i))) {
+                entries.addAll(Arrays.asList(javacOptions.get(i + 1).split(File.pathSeparator)));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Adds an entry of the classpath to the fingerprint. Files are identified by their size and
+     * modification time rather than their content, so that large jars are not read in every run.
+     *
+     * @param entry a jar or a directory
+     * @param filter selects the files of a directory that can affect the compilation
+     */
+    private static void updatePathEntry(MessageDigest digest, File entry, Predicate<Path> filter) {
+        update(digest, entry.getAbsolutePath());
+        try {
+            if (entry.isFile()) {
+                updateStamp(digest, entry.toPath());
+            } else if (entry.isDirectory()) {
+                try (Stream<Path> paths = Files.walk(entry.toPath())) {
+                    List<Path> files =
+                            paths.filter(Files::isRegularFile)
+                                    .filter(filter)
+                                    .sorted()
+                                    .collect(Collectors.toList());
+                    for (Path file : files) {
+                        update(digest, entry.toPath().relativize(file).toString());
+                        updateStamp(digest, file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new BugInCF("Cannot read path entry " + entry, e);
+        }
+    }
+
+    private static void updateStamp(MessageDigest digest, Path file) throws IOException {
+        update(digest, String.valueOf(Files.size(file)));
+        update(digest, String.valueOf(Files.getLastModifiedTime(file).toMillis()));
+    }
+
+    private static void updateContent(MessageDigest digest, Path file) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        digest.update((byte) 0);
+    }
+
+    private static boolean isClassOrJar(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(".class") || name.endsWith(".jar");
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new BugInCF("SHA-256 is not supported by this JVM.", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        // Include a separator so that adjacent values cannot be confused with each other.
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package checkers.inference.util;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long the phases of inference take, as a tree of nested spans.
+ *
+ * <p>A span is started with {@link #start(String)} and ended by closing it, typically in a
+ * try-with-resources statement. It becomes a child of the innermost open span of the current
+ * thread, or of the root span if there is none. Work handed to other threads can be attached to a
+ * span of the submitting thread with {@link #start(Span, String)}. Spans measure time with {@link
+ * System#nanoTime()} and may also carry counters, e.g. the number of clauses of a component.
+ *
+ * <p>The tree can be written as JSON with {@link #writeJson(File)}, see {@link
+ * checkers.inference.InferenceOptions#traceFile}.
+ */
+public class Trace {
+
+    private static final Span root = new Span("inference", null);
+
+    /** The open spans of each thread, innermost first. */
+    private static final ThreadLocal<Deque<Span>> openSpans =
+            ThreadLocal.withInitial(ArrayDeque::new);
+
+    /** Returns the innermost open span of the current thread, or the root span. */
+    public static Span current() {
+        Span span = openSpans.get().peek();
+        return span == null ? root : span;
+    }
+
+    /** Starts a span as a child of the innermost open span of the current thread. */
+    public static Span start(String name) {
+        return start(current(), name, null);
+    }
+
+    /**
+     * Starts a span as a child of the innermost open span of the current thread.
+     *
+     * @param name the name of the phase
+     * @param detail what the phase works on, e.g. the compilation unit, or null
+     */
+    public static Span start(String name, @Nullable String detail) {
+        return start(current(), name, detail);
+    }
+
+    /**
+     * Starts a span as a child of the given span, which may have been started by another thread.
+     */
+    public static Span start(Span parent, String name) {
+        return start(parent, name, null);
+    }
+
+    private static Span start(Span parent, String name, @Nullable String detail) {
+        Span span = new Span(name, detail);
+        parent.children.add(span);
+        openSpans.get().push(span);
+        return span;
+    }
+
+    /** Writes all spans recorded so far to the given file as JSON. */
+    public static void writeJson(File file) throws IOException {
+        try (Writer writer =
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            toJson(root, root.startNanos).writeJSONString(writer);
+        }
+    }
+
+    @SuppressWarnings("unchecked") // json-simple uses raw collections
+    private static JSONObject toJson(Span span, long originNanos) {
+        JSONObject json = new JSONObject();
+        json.put("name", span.name);
+        if (span.detail != null) {
+            json.put("detail", span.detail);
+        }
+        json.put("thread", span.thread);
+        json.put("startNs", span.startNanos - originNanos);
+        long durationNanos = span.durationNanos;
+        if (durationNanos < 0) {
+            // still open, e.g. the root span
+            durationNanos = System.nanoTime() - span.startNanos;
+        }
+        json.put("durationNs", durationNanos);
+        if (!span.counters.isEmpty()) {
+            JSONObject counters = new JSONObject();
+            for (Map.Entry<String, LongAdder> counter : span.counters.entrySet()) {
+                counters.put(counter.getKey(), counter.getValue().sum());
+            }
+            json.put("counters", counters);
+        }
+        if (!span.children.isEmpty()) {
+            JSONArray children = new JSONArray();
+            for (Span child : span.children) {
+                children.add(toJson(child, originNanos));
+            }
+            json.put("children", children);
+        }
+        return json;
+    }
+
+    /** A timed phase of inference. */
+    public static class Span implements AutoCloseable {
+        private final String name;
+        private final @Nullable String detail;
+        private final String thread = Thread.currentThread().getName();
+        private final long startNanos = System.nanoTime();
+
+        /** The duration of this span, or -1 while it is open. */
+        private volatile long durationNanos = -1;
+
+        private final Queue<Span> children = new ConcurrentLinkedQueue<>();
+        private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+        private Span(String name, @Nullable String detail) {
+            this.name = name;
+            this.detail = detail;
+        }
+
+        /** Adds the given value to the counter of this span with the given key. */
+        public void count(String key, long value) {
+            counters.computeIfAbsent(key, k -> new LongAdder()).add(value);
+        }
+
+        /** Ends this span, and removes it from the open spans of the current thread. */
+        @Override
+        public void close() {
+            durationNanos = System.nanoTime() - startNanos;
+            openSpans.get().remove(this);
+        }
+    }
+}
@@ -4,10 +4,13 @@ import org.checkerframework.framework.type.QualifierHierarchy;
 import org.checkerframework.javacutil.AnnotationBuilder;
 
 import java.lang.annotation.Annotation;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -29,6 +32,7 @@ import checkers.inference.model.Slot;
 import checkers.inference.model.Slot.Kind;
 import checkers.inference.model.SubtypeConstraint;
 import checkers.inference.model.VariableSlot;
+import sparta.checkers.qual.FlowPermission;
 import sparta.checkers.qual.Sink;
 import sparta.checkers.qual.Source;
 
@@ -49,9 +53,10 @@ import sparta.checkers.qual.Source;
  * <p>For both modes, an equality constraint causes the Sets for both involved Slots to be equal and
  * include all Strings from either set.
  *
- * <p>The algorithm processes list of constraints, adding the Strings to the inferredValues map as
- * needed. The entire list of constraints is processed repeatedly until the inferredValues map no
- * longer changes.
+ * <p>The algorithm processes a worklist of constraints, adding the Strings to the inferredValues map
+ * as needed. When the Strings of a slot change, the constraints on that slot are added to the
+ * worklist again, until it is empty. Sets of Strings are represented as bit sets over a table of
+ * interned permission names.
  *
  * @author mcarthur
  */
@@ -65,8 +70,17 @@ public abstract class IFlowSolver implements InferenceSolver {
     private ProcessingEnvironment processingEnvironment;
     private Map<String, String> configuration;
 
-    /** Map of inferred Strings for an VariableSlot's id. */
-    private final Map<Integer, Set<String>> inferredValues = new HashMap<>();
+    /** Map of inferred permissions for an VariableSlot's id, as a set of permission indexes. */
+    private final Map<Integer, BitSet> inferredValues = new HashMap<>();
+
+    /** Cache of the permissions of each ConstantSlot's id, as a set of permission indexes. */
+    private final Map<Integer, BitSet> constantValues = new HashMap<>();
+
+    /** Interned permission names. Bit i of a permission set stands for {@code permissions[i]}. */
+    private final List<String> permissions = new ArrayList<>();
+
+    /** Index of each name in {@link #permissions}. */
+    private final Map<String, Integer> permissionIndexes = new HashMap<>();
 
     // private final Map<String, Set<String>> flowPolicy = new HashMap<>();
 
@@ -81,44 +95,82 @@ public abstract class IFlowSolver implements InferenceSolver {
         this.processingEnvironment = processingEnvironment;
         this.configuration = configuration;
 
-        // Fixed point
-        boolean changed = true;
-        while (changed) {
-            changed = false;
-
-            for (Constraint constraint : constraints) {
-                if (constraint instanceof SubtypeConstraint) {
-                    Slot subtype = ((SubtypeConstraint) constraint).getSubtype();
-                    Slot supertype = ((SubtypeConstraint) constraint).getSupertype();
-
-                    Set<String> subtypePerms = getInferredSlotPermissions(subtype);
-                    Set<String> supertypePerms = getInferredSlotPermissions(supertype);
-
-                    if (isSinkSolver()) {
-                        if (subtype instanceof VariableSlot) {
-                            changed |= subtypePerms.addAll(supertypePerms);
-                        }
-                    } else {
-                        if (supertype instanceof VariableSlot) {
-                            changed |= supertypePerms.addAll(subtypePerms);
-                        }
-                    }
-                } else if (constraint instanceof EqualityConstraint) {
-                    Slot first = ((EqualityConstraint) constraint).getFirst();
-                    Slot second = ((EqualityConstraint) constraint).getSecond();
+        // Give the known permissions the lowest indexes, so that their sets stay small.
+        for (FlowPermission permission : FlowPermission.values()) {
+            internPermission(permission.name());
+        }
 
-                    Set<String> firstPerms = getInferredSlotPermissions(first);
-                    Set<String> secondPerms = getInferredSlotPermissions(second);
+        // Index the constraints by the variable slots they contain, so that only the constraints
+        // of a slot whose permissions changed are processed again.
+        List<Constraint> flowConstraints = new ArrayList<>();
+        Map<Integer, List<Integer>> dependents = new HashMap<>();
+        for (Constraint constraint : constraints) {
+            if (!(constraint instanceof SubtypeConstraint
+                    || constraint instanceof EqualityConstraint)) {
+                logger.info("Ignoring constraint type: " + constraint.getClass());
+                continue;
+            }
+            int index = flowConstraints.size();
+            flowConstraints.add(constraint);
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof VariableSlot) {
+                    dependents.computeIfAbsent(slot.getId(), id -> new ArrayList<>()).add(index);
+                }
+            }
+        }
 
-                    if (first instanceof VariableSlot) {
-                        changed |= firstPerms.addAll(secondPerms);
-                    }
+        // Worklist fixed point
+        Deque<Integer> worklist = new ArrayDeque<>();
+        boolean[] queued = new boolean[flowConstraints.size()];
+        for (int index = 0; index < flowConstraints.size(); index++) {
+            worklist.add(index);
+            queued[index] = true;
+        }
+
+        while (!worklist.isEmpty()) {
+            int index = worklist.poll();
+            queued[index] = false;
+            Constraint constraint = flowConstraints.get(index);
+
+            List<Slot> changed = new ArrayList<>(2);
+            if (constraint instanceof SubtypeConstraint) {
+                Slot subtype = ((SubtypeConstraint) constraint).getSubtype();
+                Slot supertype = ((SubtypeConstraint) constraint).getSupertype();
 
-                    if (second instanceof VariableSlot) {
-                        changed |= secondPerms.addAll(firstPerms);
+                BitSet subtypePerms = getInferredSlotPermissions(subtype);
+                BitSet supertypePerms = getInferredSlotPermissions(supertype);
+
+                if (isSinkSolver()) {
+                    if (subtype instanceof VariableSlot && addAll(subtypePerms, supertypePerms)) {
+                        changed.add(subtype);
                     }
                 } else {
-                    logger.info("Ignoring constraint type: " + constraint.getClass());
+                    if (supertype instanceof VariableSlot && addAll(supertypePerms, subtypePerms)) {
+                        changed.add(supertype);
+                    }
+                }
+            } else {
+                Slot first = ((EqualityConstraint) constraint).getFirst();
+                Slot second = ((EqualityConstraint) constraint).getSecond();
+
+                BitSet firstPerms = getInferredSlotPermissions(first);
+                BitSet secondPerms = getInferredSlotPermissions(second);
+
+                if (first instanceof VariableSlot && addAll(firstPerms, secondPerms)) {
+                    changed.add(first);
+                }
+
+                if (second instanceof VariableSlot && addAll(secondPerms, firstPerms)) {
+                    changed.add(second);
+                }
+            }
+
+            for (Slot slot : changed) {
+                for (int dependent : dependents.get(slot.getId())) {
+                    if (!queued[dependent]) {
+                        worklist.add(dependent);
+                        queued[dependent] = true;
+                    }
                 }
             }
         }
@@ -131,8 +183,8 @@ public abstract class IFlowSolver implements InferenceSolver {
     private Map<Integer, AnnotationMirror> createAnnotations() {
         // Create annotations of the inferred sets.
         Map<Integer, AnnotationMirror> solutions = new HashMap<>();
-        for (Entry<Integer, Set<String>> inferredEntry : inferredValues.entrySet()) {
-            Set<String> strings = inferredEntry.getValue();
+        for (Entry<Integer, BitSet> inferredEntry : inferredValues.entrySet()) {
+            Set<String> strings = toPermissionNames(inferredEntry.getValue());
             if (!(strings.size() == 1 && strings.contains("ANY"))) {
                 strings.remove("ANY");
                 AnnotationMirror atm;
@@ -157,17 +209,17 @@ public abstract class IFlowSolver implements InferenceSolver {
     }
 
     /**
-     * Look up the set of inferred Strings for a Slot.
+     * Look up the set of inferred permissions for a Slot.
      *
      * <p>If the Slot is a VariableSlot, return its entry in inferredValues.
      *
-     * <p>If the Slot is a ConstantSlot, return an unmodifiable set based on the Strings used in the
-     * constant slots value.
+     * <p>If the Slot is a ConstantSlot, return the set of permissions used in the constant slots
+     * value, which must not be modified.
      *
      * @param slot The slot to lookup
-     * @return The slots current Set of Strings.
+     * @return The slots current set of permission indexes.
      */
-    private Set<String> getInferredSlotPermissions(Slot slot) {
+    private BitSet getInferredSlotPermissions(Slot slot) {
         if (slot instanceof VariableSlot) {
             if (slot.getKind() == Kind.EXISTENTIAL_VARIABLE) {
                 throw new IllegalArgumentException("Unexpected variable type:" + slot);
@@ -175,7 +227,11 @@ public abstract class IFlowSolver implements InferenceSolver {
             return getFlowSet(slot.getId());
 
         } else if (slot instanceof ConstantSlot) {
-            Set<String> constantSet = new HashSet<>();
+            BitSet constantSet = constantValues.get(slot.getId());
+            if (constantSet != null) {
+                return constantSet;
+            }
+            constantSet = new BitSet();
             for (Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
                     ((ConstantSlot) slot).getValue().getElementValues().entrySet()) {
                 if (entry.getKey().getSimpleName().toString().equals("value")) {
@@ -185,19 +241,54 @@ public abstract class IFlowSolver implements InferenceSolver {
                         flowPermString =
                                 flowPermString.substring(flowPermString.lastIndexOf(".") + 1);
                         flowPermString = flowPermString.replace("\"", "");
-                        constantSet.add(String.valueOf(flowPermString).intern());
+                        constantSet.set(internPermission(flowPermString));
                     }
                 }
             }
-            // The set of constants should not be modified
-            return Collections.unmodifiableSet(constantSet);
+            constantValues.put(slot.getId(), constantSet);
+            return constantSet;
         } else {
-            return new HashSet<>();
+            return new BitSet();
             //            throw new BugInCF("Found slot that was neither a variable or a constant: "
             // + slot);
         }
     }
 
+    /**
+     * Adds all permissions of {@code source} to {@code target}.
+     *
+     * @return true if {@code target} changed
+     */
+    private static boolean addAll(BitSet target, BitSet source) {
+        boolean changed = false;
+        for (int i = source.nextSetBit(0); i >= 0; i = source.nextSetBit(i + 1)) {
+            if (!target.get(i)) {
+                target.set(i);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /** Returns the index of the given permission name, assigning the next one if it is new. */
+    private int internPermission(String permission) {
+        Integer index = permissionIndexes.get(permission);
+        if (index == null) {
+            index = permissions.size();
+            permissions.add(permission);
+            permissionIndexes.put(permission, index);
+        }
+        return index;
+    }
+
+    private Set<String> toPermissionNames(BitSet permissionSet) {
+        Set<String> strings = new LinkedHashSet<>();
+        for (int i = permissionSet.nextSetBit(0); i >= 0; i = permissionSet.nextSetBit(i + 1)) {
+            strings.add(permissions.get(i));
+        }
+        return strings;
+    }
+
     private AnnotationMirror createAnnotationMirror(
             Set<String> strings, Class<? extends Annotation> clazz) {
         AnnotationBuilder builder = new AnnotationBuilder(processingEnvironment, clazz);
@@ -206,20 +297,19 @@ public abstract class IFlowSolver implements InferenceSolver {
     }
 
     /**
-     * Get the Set of Strings in aggregatedValues map for the given id. Create the Set and add it to
-     * the map if it does not already exist.
+     * Get the set of permissions in inferredValues map for the given id. Create the set and add it
+     * to the map if it does not already exist.
      *
      * @param id The id of the VariableSlot
-     * @return The set of Strings for the id
+     * @return The set of permission indexes for the id
      */
-    private Set<String> getFlowSet(int id) {
-        if (inferredValues.containsKey(id)) {
-            return inferredValues.get(id);
-        } else {
-            Set<String> newSet = new HashSet<>();
-            inferredValues.put(id, newSet);
-            return newSet;
+    private BitSet getFlowSet(int id) {
+        BitSet flowSet = inferredValues.get(id);
+        if (flowSet == null) {
+            flowSet = new BitSet();
+            inferredValues.put(id, flowSet);
         }
+        return flowSet;
     }
 
     /**
@@ -1,6 +1,7 @@
 package sparta.checkers.sat;
 
 import checkers.inference.InferenceMain;
+import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.serialization.CnfVecIntSerializer;
 import sparta.checkers.iflow.util.PFPermission;
 
@@ -12,4 +13,8 @@ public abstract class IFlowSerializer extends CnfVecIntSerializer {
         super(InferenceMain.getInstance().getSlotManager());
         this.permission = permission;
     }
+
+    /** Returns whether the given constant is top for the permission of this serializer. */
+    @Override
+    public abstract boolean isTop(ConstantSlot constantSlot);
 }
@@ -1,8 +1,16 @@
 package sparta.checkers.sat;
 
 import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.BugInCF;
+import org.checkerframework.javacutil.UserError;
+import org.sat4j.core.VecInt;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.lang.model.element.AnnotationMirror;
@@ -11,12 +19,21 @@ import checkers.inference.InferenceResult;
 import checkers.inference.InferenceSolver;
 import checkers.inference.model.ConstantSlot;
 import checkers.inference.model.Constraint;
+import checkers.inference.model.EqualityConstraint;
+import checkers.inference.model.InequalityConstraint;
 import checkers.inference.model.Slot;
+import checkers.inference.model.SubtypeConstraint;
 import sparta.checkers.iflow.util.PFPermission;
 
 /** Created by smillst on 9/17/15. */
 public abstract class IFlowSolver implements InferenceSolver {
 
+    /**
+     * Number of permissions that are solved concurrently. By default they are solved one after
+     * another.
+     */
+    private static final String THREADS_KEY = "permission-threads";
+
     public InferenceResult solve(
             Map<String, String> configuration,
             Collection<Slot> slots,
@@ -26,22 +43,226 @@ public abstract class IFlowSolver implements InferenceSolver {
         Collection<PFPermission> permissionsUsed = getPermissionsUsed(slots);
         List<PermissionSolver> permissionSolvers = new ArrayList<>();
 
-        // Configure permission solvers
+        // Constraints between variables only are encoded the same way for every permission, so
+        // they are encoded once per component and shared.
+        List<Constraint> permissionConstraints = new ArrayList<>();
+        List<Constraint> variableConstraints = new ArrayList<>();
+        splitConstraints(constraints, permissionConstraints, variableConstraints);
+        List<Component> components = partition(permissionConstraints, variableConstraints);
+        IFlowSerializer sharedSerializer = getSerializer(PFPermission.ANY);
+        for (Component component : components) {
+            component.sharedClauses = sharedSerializer.convertAll(component.variableConstraints);
+        }
+
+        // Configure permission solvers with the components relevant to their permission.
+        // Encoding reads annotations through javac, so it stays on this thread.
         for (PFPermission permission : permissionsUsed) {
+            IFlowSerializer serializer = getSerializer(permission);
+            List<Constraint> relevantConstraints = new ArrayList<>();
+            List<VecInt> relevantClauses = new ArrayList<>();
+            for (Component component : components) {
+                if (component.isRelevant(serializer)) {
+                    relevantConstraints.addAll(component.permissionConstraints);
+                    relevantClauses.addAll(component.sharedClauses);
+                }
+            }
             PermissionSolver solver = new PermissionSolver(permission);
-            solver.configure(constraints, getSerializer(permission));
+            solver.configure(relevantConstraints, relevantClauses, serializer);
             permissionSolvers.add(solver);
         }
 
         // Solve
-        List<PermissionSolution> solutions = new ArrayList<>();
-        for (PermissionSolver solver : permissionSolvers) {
-            solutions.add(solver.solve());
+        int threads = getNumberOfThreads(configuration);
+        List<PermissionSolution> solutions;
+        if (threads > 1 && permissionSolvers.size() > 1) {
+            solutions = solveInParallel(permissionSolvers, threads);
+        } else {
+            solutions = new ArrayList<>();
+            for (PermissionSolver solver : permissionSolvers) {
+                solutions.add(solver.solve());
+            }
         }
 
         return getMergedResultFromSolutions(processingEnvironment, solutions);
     }
 
+    /**
+     * Separates the constraints whose encoding depends on the permission from those that only
+     * relate variables. Subtype, equality and inequality constraints between constants are dropped,
+     * as they are encoded to no clauses for any permission.
+     */
+    private static void splitConstraints(
+            Collection<Constraint> constraints,
+            List<Constraint> permissionConstraints,
+            List<Constraint> variableConstraints) {
+        for (Constraint constraint : constraints) {
+            if (!(constraint instanceof SubtypeConstraint
+                    || constraint instanceof EqualityConstraint
+                    || constraint instanceof InequalityConstraint)) {
+                permissionConstraints.add(constraint);
+                continue;
+            }
+
+            boolean hasConstant = false;
+            boolean hasVariable = false;
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof ConstantSlot) {
+                    hasConstant = true;
+                } else {
+                    hasVariable = true;
+                }
+            }
+
+            if (!hasVariable) {
+                continue;
+            }
+            if (hasConstant) {
+                permissionConstraints.add(constraint);
+            } else {
+                variableConstraints.add(constraint);
+            }
+        }
+    }
+
+    /**
+     * Groups the given constraints into components, such that no two components share a variable.
+     * Constants do not connect components, as their encoding only depends on the permission.
+     *
+     * @param permissionConstraints the constraints to encode for each permission
+     * @param variableConstraints the constraints to encode once for all permissions
+     * @return the components, in the order of their first constraint
+     */
+    private static List<Component> partition(
+            List<Constraint> permissionConstraints, List<Constraint> variableConstraints) {
+        Map<Integer, Integer> parents = new HashMap<>();
+        for (Constraint constraint : permissionConstraints) {
+            union(constraint, parents);
+        }
+        for (Constraint constraint : variableConstraints) {
+            union(constraint, parents);
+        }
+
+        Map<Integer, Component> componentOfRoot = new LinkedHashMap<>();
+        // Constraints without variables are relevant to every permission.
+        Component constantsOnly = new Component();
+        constantsOnly.hasOtherConstraints = true;
+        for (Constraint constraint : permissionConstraints) {
+            Component component = componentOf(constraint, parents, componentOfRoot, constantsOnly);
+            component.permissionConstraints.add(constraint);
+            if (!(constraint instanceof SubtypeConstraint
+                    || constraint instanceof EqualityConstraint)) {
+                component.hasOtherConstraints = true;
+            }
+            for (Slot slot : constraint.getSlots()) {
+                if (slot instanceof ConstantSlot) {
+                    component.constants.add((ConstantSlot) slot);
+                }
+            }
+        }
+        for (Constraint constraint : variableConstraints) {
+            Component component = componentOf(constraint, parents, componentOfRoot, constantsOnly);
+            component.variableConstraints.add(constraint);
+            if (constraint instanceof InequalityConstraint) {
+                component.hasOtherConstraints = true;
+            }
+        }
+
+        List<Component> components = new ArrayList<>(componentOfRoot.values());
+        if (!constantsOnly.permissionConstraints.isEmpty()) {
+            components.add(constantsOnly);
+        }
+        return components;
+    }
+
+    /** Merges the trees of the variables of the given constraint in the union-find forest. */
+    private static void union(Constraint constraint, Map<Integer, Integer> parents) {
+        Integer first = null;
+        for (Slot slot : constraint.getSlots()) {
+            if (slot instanceof ConstantSlot) {
+                continue;
+            }
+            int root = find(slot.getId(), parents);
+            if (first == null) {
+                first = root;
+            } else if (root != first) {
+                parents.put(root, first);
+            }
+        }
+    }
+
+    /** Returns the root of the tree of the given variable. Roots have no parent in the map. */
+    private static int find(int id, Map<Integer, Integer> parents) {
+        Integer parent;
+        while ((parent = parents.get(id)) != null) {
+            Integer grandparent = parents.get(parent);
+            if (grandparent == null) {
+                return parent;
+            }
+            // Path halving: point every other node on the path to its grandparent.
+            parents.put(id, grandparent);
+            id = grandparent;
+        }
+        return id;
+    }
+
+    private static Component componentOf(
+            Constraint constraint,
+            Map<Integer, Integer> parents,
+            Map<Integer, Component> componentOfRoot,
+            Component constantsOnly) {
+        for (Slot slot : constraint.getSlots()) {
+            if (!(slot instanceof ConstantSlot)) {
+                return componentOfRoot.computeIfAbsent(
+                        find(slot.getId(), parents), root -> new Component());
+            }
+        }
+        return constantsOnly;
+    }
+
+    private static int getNumberOfThreads(Map<String, String> configuration) {
+        String value = configuration.get(THREADS_KEY);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new UserError(THREADS_KEY + " must be an integer, but was: " + value);
+        }
+    }
+
+    /**
+     * Solves the given permission solvers on a pool of at most {@code threads} threads.
+     *
+     * @return the solutions, in the order of the given solvers
+     */
+    private static List<PermissionSolution> solveInParallel(
+            List<PermissionSolver> permissionSolvers, int threads) {
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(threads, permissionSolvers.size()));
+        try {
+            List<Callable<PermissionSolution>> tasks = new ArrayList<>();
+            for (PermissionSolver solver : permissionSolvers) {
+                tasks.add(solver::solve);
+            }
+            List<PermissionSolution> solutions = new ArrayList<>();
+            for (Future<PermissionSolution> future : executor.invokeAll(tasks)) {
+                solutions.add(future.get());
+            }
+            return solutions;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BugInCF("Interrupted while solving permissions.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new BugInCF("Error while solving permissions.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private Collection<PFPermission> getPermissionsUsed(Collection<Slot> solts) {
         Set<PFPermission> permissions = new TreeSet<>();
         for (Slot slot : solts) {
@@ -56,6 +277,39 @@ public abstract class IFlowSolver implements InferenceSolver {
         return permissions;
     }
 
+    /** Constraints whose variables occur in no other component. */
+    private static class Component {
+        final List<Constraint> permissionConstraints = new ArrayList<>();
+        final List<Constraint> variableConstraints = new ArrayList<>();
+
+        /** The clauses of {@link #variableConstraints}, shared by all permissions. */
+        List<VecInt> sharedClauses;
+
+        /** The constants of {@link #permissionConstraints}. */
+        final Set<ConstantSlot> constants = new HashSet<>();
+
+        /** Whether a constraint of this component is neither a subtype nor equality constraint. */
+        boolean hasOtherConstraints;
+
+        /**
+         * Returns whether this component has to be solved for the permission of the given
+         * serializer. Otherwise, no constant of the component is top for the permission, and
+         * setting all its variables to bottom satisfies all its subtype and equality constraints.
+         * {@link PermissionSolver} reports variables without clauses as bottom.
+         */
+        boolean isRelevant(IFlowSerializer serializer) {
+            if (hasOtherConstraints) {
+                return true;
+            }
+            for (ConstantSlot constant : constants) {
+                if (serializer.isTop(constant)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
     protected abstract IFlowSerializer getSerializer(PFPermission permission);
 
     protected abstract InferenceResult getMergedResultFromSolutions(
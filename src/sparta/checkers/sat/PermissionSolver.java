@@ -3,13 +3,16 @@ package sparta.checkers.sat;
 import org.sat4j.core.VecInt;
 import org.sat4j.maxsat.WeightedMaxSatDecorator;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import checkers.inference.*;
 import checkers.inference.model.Constraint;
+import checkers.inference.solver.backend.maxsat.VariableRenumbering;
 import sparta.checkers.iflow.util.PFPermission;
 
 public class PermissionSolver {
@@ -17,6 +20,7 @@ public class PermissionSolver {
     private SlotManager slotManager;
     private PFPermission permission;
     private IFlowSerializer serializer;
+    private int totalVars;
     List<VecInt> clauses;
 
     public PermissionSolver(PFPermission permission) {
@@ -24,13 +28,33 @@ public class PermissionSolver {
     }
 
     public void configure(Collection<Constraint> constraints, IFlowSerializer serializer) {
+        configure(constraints, Collections.emptyList(), serializer);
+    }
+
+    /**
+     * Configures this solver with clauses that are already encoded, and constraints that still have
+     * to be encoded for this permission.
+     *
+     * @param constraints the constraints to encode with the given serializer
+     * @param sharedClauses clauses shared with the solvers of other permissions, which are not
+     *     modified
+     * @param serializer the serializer for this permission
+     */
+    public void configure(
+            Collection<Constraint> constraints,
+            List<VecInt> sharedClauses,
+            IFlowSerializer serializer) {
         this.serializer = serializer;
         this.slotManager = InferenceMain.getInstance().getSlotManager();
-        this.clauses = convertToCNF(constraints);
+        this.totalVars = slotManager.getNumberOfSlots();
+        // Adding a soft clause to sat4j pushes a blocking variable onto it, but the solver is only
+        // given renumbered copies, so the shared clauses are not modified.
+        this.clauses = new ArrayList<>(sharedClauses);
+        convertToCNF(constraints);
     }
 
     private List<VecInt> convertToCNF(Collection<Constraint> constraints) {
-        return serializer.convertAll(constraints);
+        return serializer.convertAll(constraints, clauses);
     }
 
     public PermissionSolution solve() {
@@ -38,7 +62,6 @@ public class PermissionSolver {
         Map<Integer, Boolean> idToExistence = new HashMap<>();
         Map<Integer, Boolean> result = new HashMap<>();
 
-        final int totalVars = slotManager.getNumberOfSlots();
         final int totalClauses = clauses.size();
 
         try {
@@ -48,12 +71,17 @@ public class PermissionSolver {
             final WeightedMaxSatDecorator solver =
                     new WeightedMaxSatDecorator(org.sat4j.pb.SolverFactory.newBoth());
 
-            solver.newVar(totalVars);
+            // Declare only the variables that occur in the clauses of this permission.
+            VariableRenumbering renumbering = new VariableRenumbering();
+            for (VecInt clause : clauses) {
+                renumbering.addClause(clause);
+            }
+            solver.newVar(renumbering.getNumberOfVariables());
             solver.setExpectedNumberOfClauses(totalClauses);
             // Arbitrary timeout
             solver.setTimeoutMs(1000000);
             for (VecInt clause : clauses) {
-                solver.addSoftClause(clause);
+                solver.addSoftClause(renumbering.renumber(clause));
             }
 
             // **** Solve ****
@@ -64,7 +92,7 @@ public class PermissionSolver {
                 // **** Remove exatential vars from solution
                 final Map<Integer, Integer> existentialToPotentialIds =
                         serializer.getExistentialToPotentialVar();
-                int[] solution = solver.model();
+                int[] solution = renumbering.toGlobal(solver.model());
 
                 for (Integer var : solution) {
                     boolean varIsTrue = !(var < 0);
@@ -78,6 +106,11 @@ public class PermissionSolver {
                         result.put(var, varIsTrue);
                     }
                 }
+                // The other variables are bottom, which satisfies the constraints that are
+                // irrelevant to this permission, see IFlowSolver.
+                for (int var = 1; var <= totalVars; var++) {
+                    result.putIfAbsent(var, true);
+                }
                 return new PermissionSolution(result, idToExistence, permission);
             }
 
@@ -0,0 +1,41 @@
+package checkers.inference;
+
+import org.checkerframework.framework.test.TestUtilities;
+import org.junit.runners.Parameterized.Parameters;
+import org.plumelib.util.IPair;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import checkers.inference.solver.SolverEngine;
+import checkers.inference.test.CFInferenceTest;
+
+public class OsTrustedPresolveTest extends CFInferenceTest {
+
+    public OsTrustedPresolveTest(File testFile) {
+        super(
+                testFile,
+                ostrusted.OsTrustedChecker.class,
+                "ostrusted",
+                "-Anomsgtext",
+                "-Astubs=src/ostrusted/jdk.astub",
+                "-d",
+                "tests/build/outputdir");
+    }
+
+    @Override
+    public IPair<String, List<String>> getSolverNameAndOptions() {
+        return IPair.<String, List<String>>of(
+                SolverEngine.class.getCanonicalName(), Arrays.asList("presolve=true"));
+    }
+
+    @Parameters
+    public static List<File> getTestFiles() {
+        List<File> testfiles = new ArrayList<>();
+        testfiles.addAll(
+                TestUtilities.findRelativeNestedJavaFiles("testdata", "ostrusted-inferrable-test"));
+        return testfiles;
+    }
+}
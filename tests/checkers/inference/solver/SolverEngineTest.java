@@ -0,0 +1,204 @@
+package checkers.inference.solver;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+import org.checkerframework.javacutil.AnnotationMirrorSet;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.ToolProvider;
+
+import checkers.inference.DefaultInferenceResult;
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.InferenceResult;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.strategy.SolvingStrategy;
+import checkers.inference.solver.util.SolverEnvironment;
+
+public class SolverEngineTest {
+
+    @interface Top {}
+
+    @interface Bottom {}
+
+    private AnnotationMirror top;
+    private AnnotationMirror bottom;
+
+    private Lattice lattice;
+
+    private SourceVariableSlot a;
+    private SourceVariableSlot b;
+    private SourceVariableSlot c;
+    private List<Slot> slots;
+
+    private Constraint aIsTop;
+    private Constraint aBelowB;
+    private Constraint bUnequalC;
+    private Constraint aUnequalB;
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        Elements elements = task.getElements();
+        top = AnnotationBuilder.fromClass(elements, Top.class);
+        bottom = AnnotationBuilder.fromClass(elements, Bottom.class);
+
+        Map<AnnotationMirror, Collection<AnnotationMirror>> subTypes = new AnnotationMirrorMap<>();
+        subTypes.put(top, new AnnotationMirrorSet(Arrays.asList(top, bottom)));
+        subTypes.put(bottom, new AnnotationMirrorSet(Collections.singleton(bottom)));
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        superTypes.put(top, new AnnotationMirrorSet(Collections.singleton(top)));
+        superTypes.put(bottom, new AnnotationMirrorSet(Arrays.asList(top, bottom)));
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(Arrays.asList(top, bottom));
+        lattice =
+                new Lattice(
+                        subTypes,
+                        superTypes,
+                        new AnnotationMirrorMap<>(),
+                        allTypes,
+                        top,
+                        bottom,
+                        2,
+                        allTypes,
+                        null);
+
+        ConstraintManager constraintManager = new ConstraintManager();
+        constraintManager.init(Mockito.mock(InferenceAnnotatedTypeFactory.class));
+        ConstantSlot topSlot = new ConstantSlot(1, top);
+        a = new SourceVariableSlot(2, AnnotationLocation.MISSING_LOCATION, null, null, true);
+        b = new SourceVariableSlot(3, AnnotationLocation.MISSING_LOCATION, null, null, true);
+        c = new SourceVariableSlot(4, AnnotationLocation.MISSING_LOCATION, null, null, true);
+        slots = Arrays.asList(topSlot, a, b, c);
+        aIsTop = constraintManager.createEqualityConstraint(a, topSlot);
+        aBelowB = constraintManager.createSubtypeConstraint(a, b);
+        bUnequalC = constraintManager.createInequalityConstraint(b, c);
+        aUnequalB = constraintManager.createInequalityConstraint(a, b);
+    }
+
+    private InferenceResult solve(
+            boolean presolve, SolvingStrategy strategy, List<Constraint> constraints) {
+        SolverEngine engine = new SolverEngine();
+        engine.presolve = presolve;
+        SolverEnvironment environment = new SolverEnvironment(new HashMap<>(), null);
+        return engine.solveConstraints(strategy, environment, slots, constraints, lattice);
+    }
+
+    @Test
+    public void testPresolvedSolutionIsCompleted() {
+        RecordingStrategy strategy = new RecordingStrategy(true);
+        List<Constraint> constraints = Arrays.asList(aIsTop, aBelowB, bUnequalC);
+        InferenceResult result = solve(true, strategy, constraints);
+
+        // a and b are forced to top, so only b != c is left, rewritten to top != c.
+        Assert.assertEquals(1, strategy.calls.size());
+        Assert.assertEquals(1, strategy.calls.get(0).size());
+        Assert.assertTrue(AnnotationUtils.areSame(top, result.getSolutionForVariable(2)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, result.getSolutionForVariable(3)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, result.getSolutionForVariable(4)));
+    }
+
+    @Test
+    public void testUnsatisfiablePresolveFallsBackToOriginalConstraints() {
+        RecordingStrategy strategy = new RecordingStrategy(false);
+        // b is forced to top, so it cannot be unequal to a.
+        List<Constraint> constraints = Arrays.asList(aIsTop, aBelowB, aUnequalB);
+        InferenceResult result = solve(true, strategy, constraints);
+
+        // The presolver found no solution, so only the original constraints are solved, and
+        // their unsatisfiable core is reported.
+        Assert.assertEquals(Collections.singletonList(constraints), strategy.calls);
+        Assert.assertFalse(result.hasSolution());
+        Assert.assertEquals(constraints, result.getUnsatisfiableConstraints());
+    }
+
+    @Test
+    public void testUnsolvedRemainderFallsBackToOriginalConstraints() {
+        RecordingStrategy strategy = new RecordingStrategy(false);
+        List<Constraint> constraints = Arrays.asList(aIsTop, aBelowB, bUnequalC);
+        InferenceResult result = solve(true, strategy, constraints);
+
+        Assert.assertEquals(2, strategy.calls.size());
+        Assert.assertNotEquals(constraints, strategy.calls.get(0));
+        Assert.assertEquals(constraints, strategy.calls.get(1));
+        Assert.assertEquals(constraints, result.getUnsatisfiableConstraints());
+    }
+
+    @Test
+    public void testDisabledPresolveSolvesOriginalConstraints() {
+        RecordingStrategy strategy = new RecordingStrategy(true);
+        List<Constraint> constraints = Arrays.asList(aIsTop, aBelowB, bUnequalC);
+        InferenceResult result = solve(false, strategy, constraints);
+
+        Assert.assertEquals(Collections.singletonList(constraints), strategy.calls);
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, result.getSolutionForVariable(2)));
+    }
+
+    /**
+     * Records the constraints it is asked to solve. It solves every variable to bottom, or reports
+     * all constraints as unsatisfiable.
+     */
+    private class RecordingStrategy implements SolvingStrategy {
+
+        private final boolean solvable;
+
+        private final List<Collection<Constraint>> calls = new ArrayList<>();
+
+        RecordingStrategy(boolean solvable) {
+            this.solvable = solvable;
+        }
+
+        @Override
+        public InferenceResult solve(
+                SolverEnvironment solverEnvironment,
+                Collection<Slot> slots,
+                Collection<Constraint> constraints,
+                Lattice lattice) {
+            calls.add(constraints);
+            if (!solvable) {
+                return new DefaultInferenceResult(constraints);
+            }
+            Map<Integer, AnnotationMirror> solution = new HashMap<>();
+            for (Constraint constraint : constraints) {
+                for (Slot slot : constraint.getSlots()) {
+                    if (!(slot instanceof ConstantSlot)) {
+                        solution.put(slot.getId(), bottom);
+                    }
+                }
+            }
+            return new DefaultInferenceResult(solution);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package checkers.inference.solver.backend.fixpoint;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+import org.checkerframework.javacutil.AnnotationMirrorSet;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.ToolProvider;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+
+public class FixpointSolverTest {
+
+    @interface Top {}
+
+    @interface Left {}
+
+    @interface Right {}
+
+    @interface Bottom {}
+
+    private AnnotationMirror top;
+    private AnnotationMirror left;
+    private AnnotationMirror right;
+    private AnnotationMirror bottom;
+
+    /** The diamond lattice, in which {@link Left} and {@link Right} are incomparable. */
+    private Lattice lattice;
+
+    private QualifierTable qualifiers;
+
+    private ConstraintManager constraintManager;
+
+    private ConstantSlot leftSlot;
+    private ConstantSlot rightSlot;
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        Elements elements = task.getElements();
+        top = AnnotationBuilder.fromClass(elements, Top.class);
+        left = AnnotationBuilder.fromClass(elements, Left.class);
+        right = AnnotationBuilder.fromClass(elements, Right.class);
+        bottom = AnnotationBuilder.fromClass(elements, Bottom.class);
+
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        superTypes.put(top, Arrays.asList(top));
+        superTypes.put(left, Arrays.asList(left, top));
+        superTypes.put(right, Arrays.asList(right, top));
+        superTypes.put(bottom, Arrays.asList(bottom, left, right, top));
+        lattice = lattice(superTypes, top, bottom);
+        qualifiers = new QualifierTable(lattice);
+
+        QualifierHierarchy qualifierHierarchy = Mockito.mock(QualifierHierarchy.class);
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(top)))
+                .when(qualifierHierarchy)
+                .getTopAnnotations();
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(bottom)))
+                .when(qualifierHierarchy)
+                .getBottomAnnotations();
+        InferenceAnnotatedTypeFactory typeFactory =
+                Mockito.mock(InferenceAnnotatedTypeFactory.class);
+        Mockito.doReturn(qualifierHierarchy).when(typeFactory).getRealQualifierHierarchy();
+        constraintManager = new ConstraintManager();
+        constraintManager.init(typeFactory);
+
+        leftSlot = new ConstantSlot(1, left);
+        rightSlot = new ConstantSlot(2, right);
+    }
+
+    /** Returns the lattice of the given qualifiers, each mapped to all of its supertypes. */
+    private static Lattice lattice(
+            Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes,
+            AnnotationMirror top,
+            AnnotationMirror bottom) {
+        Map<AnnotationMirror, Collection<AnnotationMirror>> subTypes = new AnnotationMirrorMap<>();
+        for (Map.Entry<AnnotationMirror, Collection<AnnotationMirror>> entry :
+                superTypes.entrySet()) {
+            for (AnnotationMirror supertype : entry.getValue()) {
+                subTypes.computeIfAbsent(supertype, s -> new AnnotationMirrorSet())
+                        .add(entry.getKey());
+            }
+        }
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(superTypes.keySet());
+        return new Lattice(
+                subTypes,
+                superTypes,
+                new AnnotationMirrorMap<>(),
+                allTypes,
+                top,
+                bottom,
+                allTypes.size(),
+                allTypes,
+                null);
+    }
+
+    private static SourceVariableSlot variable(int id) {
+        return new SourceVariableSlot(id, AnnotationLocation.MISSING_LOCATION, null, null, true);
+    }
+
+    private Map<Integer, AnnotationMirror> solve(List<Constraint> constraints) {
+        Assert.assertTrue(FixpointSolver.canSolve(constraints, qualifiers));
+        List<Slot> slots = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            slots.addAll(constraint.getSlots());
+        }
+        return new FixpointSolver(
+                        new SolverEnvironment(new HashMap<>(), null),
+                        slots,
+                        constraints,
+                        lattice,
+                        qualifiers)
+                .solve();
+    }
+
+    @Test
+    public void testQualifierTable() {
+        Assert.assertTrue(qualifiers.isLattice());
+        int leftIndex = qualifiers.indexOf(left);
+        int rightIndex = qualifiers.indexOf(right);
+        AnnotationMirror lub = qualifiers.getQualifier(qualifiers.lub(leftIndex, rightIndex));
+        Assert.assertTrue(AnnotationUtils.areSame(top, lub));
+        lub = qualifiers.getQualifier(qualifiers.lub(qualifiers.getBottom(), leftIndex));
+        Assert.assertTrue(AnnotationUtils.areSame(left, lub));
+        Assert.assertTrue(qualifiers.isSubtype(qualifiers.getBottom(), rightIndex));
+        Assert.assertFalse(qualifiers.isSubtype(leftIndex, rightIndex));
+    }
+
+    @Test
+    public void testLeastSolution() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        SourceVariableSlot c = variable(5);
+        SourceVariableSlot d = variable(6);
+        SourceVariableSlot e = variable(7);
+        SourceVariableSlot f = variable(8);
+        SourceVariableSlot g = variable(9);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(leftSlot, a),
+                        constraintManager.createSubtypeConstraint(rightSlot, b),
+                        constraintManager.createSubtypeConstraint(a, c),
+                        constraintManager.createSubtypeConstraint(b, c),
+                        constraintManager.createSubtypeConstraint(d, c),
+                        // A cycle settles at the lub of the lower bounds of its members.
+                        constraintManager.createSubtypeConstraint(e, f),
+                        constraintManager.createSubtypeConstraint(f, e),
+                        constraintManager.createEqualityConstraint(f, leftSlot),
+                        constraintManager.createSubtypeConstraint(g, leftSlot));
+
+        Map<Integer, AnnotationMirror> solution = solve(constraints);
+
+        Assert.assertTrue(AnnotationUtils.areSame(left, solution.get(3)));
+        Assert.assertTrue(AnnotationUtils.areSame(right, solution.get(4)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, solution.get(5)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, solution.get(6)));
+        Assert.assertTrue(AnnotationUtils.areSame(left, solution.get(7)));
+        Assert.assertTrue(AnnotationUtils.areSame(left, solution.get(8)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, solution.get(9)));
+    }
+
+    @Test
+    public void testViolatedUpperBoundIsUnsatisfiable() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(leftSlot, a),
+                        constraintManager.createSubtypeConstraint(a, b),
+                        // The least solution raises b to left, which is not below right.
+                        constraintManager.createSubtypeConstraint(b, rightSlot));
+
+        Assert.assertNull(solve(constraints));
+    }
+
+    @Test
+    public void testConflictingEqualitiesAreUnsatisfiable() {
+        SourceVariableSlot a = variable(3);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, leftSlot),
+                        constraintManager.createEqualityConstraint(a, rightSlot));
+
+        Assert.assertNull(solve(constraints));
+    }
+
+    @Test
+    public void testCanSolve() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        Assert.assertFalse(
+                FixpointSolver.canSolve(
+                        Arrays.asList(constraintManager.createInequalityConstraint(a, b)),
+                        qualifiers));
+
+        // Two maximal qualifiers have no least upper bound.
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        superTypes.put(left, Arrays.asList(left));
+        superTypes.put(right, Arrays.asList(right));
+        superTypes.put(bottom, Arrays.asList(bottom, left, right));
+        QualifierTable noLattice = new QualifierTable(lattice(superTypes, left, bottom));
+        Assert.assertFalse(noLattice.isLattice());
+        Assert.assertFalse(
+                FixpointSolver.canSolve(
+                        Arrays.asList(constraintManager.createSubtypeConstraint(a, b)),
+                        noLattice));
+    }
+}
@@ -0,0 +1,235 @@
+package checkers.inference.solver.backend.horn;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.framework.qual.PolymorphicQualifier;
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+import org.checkerframework.javacutil.AnnotationMirrorSet;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.ToolProvider;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+
+public class HornSolverTest {
+
+    @interface Top {}
+
+    @interface Bottom {}
+
+    @PolymorphicQualifier(Top.class)
+    @interface Poly {}
+
+    @interface Other {}
+
+    private AnnotationMirror top;
+    private AnnotationMirror bottom;
+    private AnnotationMirror poly;
+    private AnnotationMirror other;
+
+    /** A lattice of {@link Top} and {@link Bottom}, built as {@code SolverEngine} builds it. */
+    private Lattice lattice;
+
+    private ConstraintManager constraintManager;
+
+    private ConstantSlot topSlot;
+    private ConstantSlot bottomSlot;
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        Elements elements = task.getElements();
+        top = AnnotationBuilder.fromClass(elements, Top.class);
+        bottom = AnnotationBuilder.fromClass(elements, Bottom.class);
+        poly = AnnotationBuilder.fromClass(elements, Poly.class);
+        other = AnnotationBuilder.fromClass(elements, Other.class);
+        lattice = chain(top, bottom);
+
+        QualifierHierarchy qualifierHierarchy = Mockito.mock(QualifierHierarchy.class);
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(top)))
+                .when(qualifierHierarchy)
+                .getTopAnnotations();
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(bottom)))
+                .when(qualifierHierarchy)
+                .getBottomAnnotations();
+        InferenceAnnotatedTypeFactory typeFactory =
+                Mockito.mock(InferenceAnnotatedTypeFactory.class);
+        Mockito.doReturn(qualifierHierarchy).when(typeFactory).getRealQualifierHierarchy();
+        constraintManager = new ConstraintManager();
+        constraintManager.init(typeFactory);
+
+        topSlot = new ConstantSlot(1, top);
+        bottomSlot = new ConstantSlot(2, bottom);
+    }
+
+    /** Returns the lattice in which each given qualifier is a subtype of the ones before it. */
+    private static Lattice chain(AnnotationMirror... qualifiers) {
+        Map<AnnotationMirror, Collection<AnnotationMirror>> subTypes = new AnnotationMirrorMap<>();
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        List<AnnotationMirror> list = Arrays.asList(qualifiers);
+        for (int i = 0; i < qualifiers.length; i++) {
+            subTypes.put(qualifiers[i], new AnnotationMirrorSet(list.subList(i, list.size())));
+            superTypes.put(qualifiers[i], new AnnotationMirrorSet(list.subList(0, i + 1)));
+        }
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(list);
+        return new Lattice(
+                subTypes,
+                superTypes,
+                new AnnotationMirrorMap<>(),
+                allTypes,
+                qualifiers[0],
+                qualifiers[qualifiers.length - 1],
+                qualifiers.length,
+                allTypes,
+                null);
+    }
+
+    private static SourceVariableSlot variable(int id) {
+        return new SourceVariableSlot(id, AnnotationLocation.MISSING_LOCATION, null, null, true);
+    }
+
+    private static SolverEnvironment environment(Map<String, String> args) {
+        return new SolverEnvironment(args, null);
+    }
+
+    private Map<Integer, AnnotationMirror> solve(
+            Map<String, String> args, Collection<Slot> slots, List<Constraint> constraints) {
+        Solver<?> solver =
+                new HornSolverFactory()
+                        .createSolver(environment(args), slots, constraints, lattice);
+        Assert.assertTrue(solver instanceof HornSolver);
+        return solver.solve();
+    }
+
+    @Test
+    public void testFactorySolvesWithHornSolver() {
+        SourceVariableSlot v = variable(3);
+        long solved = HornSolverFactory.hornSolverCounter.get();
+        Map<Integer, AnnotationMirror> solution =
+                solve(
+                        new HashMap<>(),
+                        Arrays.asList(topSlot, v),
+                        Arrays.asList(constraintManager.createEqualityConstraint(v, topSlot)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, solution.get(3)));
+        Assert.assertEquals(solved + 1, HornSolverFactory.hornSolverCounter.get());
+    }
+
+    @Test
+    public void testLeastAndGreatestSolution() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        SourceVariableSlot c = variable(5);
+        SourceVariableSlot d = variable(6);
+        List<Slot> slots = Arrays.asList(topSlot, bottomSlot, a, b, c, d);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        // Normalized to a == top.
+                        constraintManager.createSubtypeConstraint(topSlot, a),
+                        constraintManager.createSubtypeConstraint(a, b),
+                        constraintManager.createSubtypeConstraint(c, d),
+                        constraintManager.createInequalityConstraint(d, topSlot));
+
+        Map<Integer, AnnotationMirror> least = solve(new HashMap<>(), slots, constraints);
+        Assert.assertTrue(AnnotationUtils.areSame(top, least.get(3)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, least.get(4)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, least.get(5)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, least.get(6)));
+
+        Map<String, String> args = new HashMap<>();
+        args.put(HornSolver.HornSolverArg.greatestSolution.name(), "true");
+        Map<Integer, AnnotationMirror> greatest = solve(args, slots, constraints);
+        Assert.assertTrue(AnnotationUtils.areSame(top, greatest.get(3)));
+        // d is bottom, so c must be bottom as well.
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, greatest.get(5)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, greatest.get(6)));
+    }
+
+    @Test
+    public void testUnsatisfiableConstraintsAreExplained() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        SourceVariableSlot c = variable(5);
+        Constraint aIsTop = constraintManager.createEqualityConstraint(a, topSlot);
+        Constraint aBelowB = constraintManager.createSubtypeConstraint(a, b);
+        Constraint bBelowC = constraintManager.createSubtypeConstraint(b, c);
+        Constraint cIsBottom = constraintManager.createEqualityConstraint(c, bottomSlot);
+        List<Constraint> constraints = Arrays.asList(aIsTop, aBelowB, bBelowC, cIsBottom);
+
+        Solver<?> solver =
+                new HornSolverFactory()
+                        .createSolver(
+                                environment(new HashMap<>()),
+                                Arrays.asList(topSlot, bottomSlot, a, b, c),
+                                constraints,
+                                lattice);
+        Assert.assertNull(solver.solve());
+        Assert.assertTrue(solver.explainUnsatisfiable().containsAll(constraints));
+    }
+
+    @Test
+    public void testLatticeShape() {
+        List<Constraint> none = Collections.emptyList();
+        Assert.assertTrue(HornSolver.canSolve(none, lattice));
+        // Polymorphic qualifiers are never the value of a constant.
+        Assert.assertTrue(HornSolver.canSolve(none, chain(top, poly, bottom)));
+        Assert.assertFalse(HornSolver.canSolve(none, chain(top, other, bottom)));
+        Assert.assertFalse(HornSolver.canSolve(none, chain(top)));
+        Assert.assertFalse(HornSolver.canSolve(none, flat()));
+    }
+
+    /** Returns a lattice of two incomparable qualifiers. */
+    private Lattice flat() {
+        Map<AnnotationMirror, Collection<AnnotationMirror>> self = new AnnotationMirrorMap<>();
+        self.put(top, new AnnotationMirrorSet(Collections.singleton(top)));
+        self.put(bottom, new AnnotationMirrorSet(Collections.singleton(bottom)));
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(Arrays.asList(top, bottom));
+        return new Lattice(
+                self, self, new AnnotationMirrorMap<>(), allTypes, top, bottom, 2, allTypes, null);
+    }
+
+    @Test
+    public void testConstantOutsideTheLattice() {
+        SourceVariableSlot v = variable(3);
+        ConstantSlot otherSlot = new ConstantSlot(7, other);
+        Assert.assertFalse(
+                HornSolver.canSolve(
+                        Arrays.asList(constraintManager.createEqualityConstraint(v, otherSlot)),
+                        lattice));
+    }
+}
@@ -0,0 +1,132 @@
+package checkers.inference.solver.backend.logiql;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DatalogEvaluatorTest {
+
+    private static final String ENTITIES =
+            "variable(v), hasvariableName(v:i) -> int(i).\n"
+                    + "constant(m), hasconstantName(m:i) -> string(i).\n";
+
+    private static DatalogEvaluator evaluate(String program, String data) {
+        DatalogEvaluator evaluator = new DatalogEvaluator();
+        evaluator.addProgram(program);
+        evaluator.addData(data);
+        evaluator.evaluate();
+        return evaluator;
+    }
+
+    private static Set<List<Object>> tuples(DatalogEvaluator evaluator, String predicate) {
+        return new HashSet<>(evaluator.getTuples(predicate));
+    }
+
+    private static Set<List<Object>> expected(List<?>... tuples) {
+        Set<List<Object>> expected = new HashSet<>();
+        for (List<?> tuple : tuples) {
+            expected.add(Arrays.asList(tuple.toArray()));
+        }
+        return expected;
+    }
+
+    @Test
+    public void testRefmodeBindings() {
+        DatalogEvaluator evaluator =
+                evaluate(
+                        ENTITIES
+                                + "named(i, n) <- link(v, c), hasvariableName(v:i),"
+                                + " hasconstantName(c:n).\n",
+                        "+link(v, c), +variable(v), +hasvariableName[v] = 7,"
+                                + " +constant(c), +hasconstantName[c] = \"Top\".\n");
+
+        // Entities are represented by their names.
+        Assert.assertEquals(expected(Arrays.asList(7)), tuples(evaluator, "variable"));
+        Assert.assertEquals(expected(Arrays.asList("Top")), tuples(evaluator, "constant"));
+        Assert.assertEquals(expected(Arrays.asList(7, "Top")), tuples(evaluator, "link"));
+        Assert.assertEquals(expected(Arrays.asList(7, "Top")), tuples(evaluator, "named"));
+        // Refmode predicates only bind names, they are not relations.
+        Assert.assertTrue(evaluator.getTuples("hasvariableName").isEmpty());
+    }
+
+    @Test
+    public void testFunctionalAtoms() {
+        DatalogEvaluator evaluator =
+                evaluate(
+                        ENTITIES
+                                + "isTop[v] = i -> variable(v), boolean(i).\n"
+                                + "isTop[v2] = true <- sub(v1, v2), isTop[v1] = true.\n"
+                                + "AnnotationOf[v] = \"Top\" <- isTop[v] = true.\n",
+                        "+isTop[v] = true, +variable(v), +hasvariableName[v] = 1.\n"
+                                + "+sub(v1, v2), +variable(v1), +hasvariableName[v1] = 1,"
+                                + " +variable(v2), +hasvariableName[v2] = 2.\n");
+
+        Assert.assertEquals(
+                expected(Arrays.asList(1, true), Arrays.asList(2, true)),
+                tuples(evaluator, "isTop"));
+        Assert.assertEquals(
+                expected(Arrays.asList(1, "Top"), Arrays.asList(2, "Top")),
+                tuples(evaluator, "AnnotationOf"));
+        Assert.assertNull(evaluator.findFunctionalConflict());
+    }
+
+    @Test
+    public void testSkipsAggregationRules() {
+        DatalogEvaluator evaluator =
+                evaluate(
+                        ENTITIES
+                                + "variableOrder(v) -> int(v).\n"
+                                + "variableOrder(i) <- variable(v), hasvariableName(v:i).\n"
+                                + "orderVariable[o] = v -> int(o), int(v).\n"
+                                + "orderVariable[o] = v <- seq<<o=v>> variableOrder(v).\n",
+                        "+variable(v), +hasvariableName[v] = 3.\n");
+
+        Assert.assertEquals(expected(Arrays.asList(3)), tuples(evaluator, "variableOrder"));
+        Assert.assertTrue(evaluator.getTuples("orderVariable").isEmpty());
+    }
+
+    @Test
+    public void testRecursionToFixpoint() {
+        int length = 200;
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            data.append("+edge(").append(i).append(", ").append(i + 1).append(").\n");
+        }
+        // A cycle back to the start must not keep the evaluation from terminating.
+        data.append("+edge(").append(length).append(", 0).\n");
+        DatalogEvaluator evaluator =
+                evaluate(
+                        "path(x, y) <- edge(x, y).\npath(x, z) <- path(x, y), edge(y, z).\n",
+                        data.toString());
+
+        int nodes = length + 1;
+        Assert.assertEquals(nodes * nodes, evaluator.getTuples("path").size());
+        Assert.assertTrue(tuples(evaluator, "path").contains(Arrays.asList(length, length)));
+    }
+
+    @Test
+    public void testFunctionalConflict() {
+        String program =
+                ENTITIES
+                        + "isTop[v] = i -> variable(v), boolean(i).\n"
+                        + "isBottom[v] = i -> variable(v), boolean(i).\n"
+                        + "isTop[v] = true <- top(v).\n"
+                        + "isBottom[v] = true <- bottom(v).\n"
+                        + "isTop[v] = false <- isBottom[v] = true.\n";
+
+        DatalogEvaluator consistent =
+                evaluate(program, "+top(v), +variable(v), +hasvariableName[v] = 1.\n");
+        Assert.assertNull(consistent.findFunctionalConflict());
+
+        DatalogEvaluator conflicting =
+                evaluate(
+                        program,
+                        "+top(v), +variable(v), +hasvariableName[v] = 1.\n"
+                                + "+bottom(v), +variable(v), +hasvariableName[v] = 1.\n");
+        Assert.assertEquals("isTop", conflicting.findFunctionalConflict());
+    }
+}
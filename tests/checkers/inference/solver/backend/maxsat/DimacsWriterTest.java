@@ -0,0 +1,102 @@
+package checkers.inference.solver.backend.maxsat;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.sat4j.core.VecInt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import checkers.inference.solver.util.DimacsModelParser;
+
+public class DimacsWriterTest {
+
+    /** Writes the given clauses, renumbered over their variables, and returns the text. */
+    private static String write(List<VecInt> clauses, VariableRenumbering renumbering)
+            throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (DimacsWriter writer = new DimacsWriter(Channels.newChannel(output))) {
+            writer.writeComment("test");
+            writer.writeHeader(renumbering.getNumberOfVariables(), clauses.size());
+            for (VecInt clause : clauses) {
+                writer.writeClause(clause, renumbering);
+            }
+        }
+        return new String(output.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    private static VariableRenumbering renumbering(List<VecInt> clauses) {
+        VariableRenumbering renumbering = new VariableRenumbering();
+        for (VecInt clause : clauses) {
+            renumbering.addClause(clause);
+        }
+        return renumbering;
+    }
+
+    /** Returns the literals of the "v" lines of the given solver output. */
+    private static List<Integer> parse(String output) throws IOException {
+        List<Integer> literals = new ArrayList<>();
+        DimacsModelParser.parseModel(
+                new ByteArrayInputStream(output.getBytes(StandardCharsets.US_ASCII)),
+                literals::add);
+        return literals;
+    }
+
+    @Test
+    public void testHeaderAndNegativeLiterals() throws IOException {
+        List<VecInt> clauses =
+                Arrays.asList(
+                        new VecInt(new int[] {40, -10}),
+                        new VecInt(new int[] {-25}),
+                        new VecInt(new int[] {10, 25, -40}));
+
+        // The global variables 10, 25 and 40 are written as 1, 2 and 3.
+        Assert.assertEquals(
+                "c test\np cnf 3 3\n3 -1 0\n-2 0\n1 2 -3 0\n",
+                write(clauses, renumbering(clauses)));
+    }
+
+    @Test
+    public void testEmptyFormula() throws IOException {
+        List<VecInt> clauses = new ArrayList<>();
+        Assert.assertEquals("c test\np cnf 0 0\n", write(clauses, renumbering(clauses)));
+    }
+
+    @Test
+    public void testRoundTripThroughSolverOutput() throws IOException {
+        // Enough literals that both the writer and the parser fill their buffers several times.
+        int numberOfVariables = 200_000;
+        List<VecInt> clauses = new ArrayList<>();
+        for (int var = 1; var <= numberOfVariables; var++) {
+            int global = 7 * var;
+            clauses.add(new VecInt(new int[] {var % 3 == 0 ? -global : global}));
+        }
+        VariableRenumbering renumbering = renumbering(clauses);
+        String cnf = write(clauses, renumbering);
+        Assert.assertTrue(cnf.startsWith("c test\np cnf 200000 200000\n"));
+
+        // Answer with the unit clauses as the model, as a solver would, over several "v" lines.
+        StringBuilder output = new StringBuilder("s SATISFIABLE\n");
+        String[] lines = cnf.split("\n");
+        for (int i = 2; i < lines.length; i++) {
+            if ((i - 2) % 10 == 0) {
+                output.append(i == 2 ? "v" : "\nv");
+            }
+            output.append(' ').append(lines[i], 0, lines[i].length() - " 0".length());
+        }
+        output.append("\nv 0\n");
+
+        List<Integer> model = parse(output.toString());
+        Assert.assertEquals(numberOfVariables, model.size());
+        for (int i = 0; i < numberOfVariables; i++) {
+            Assert.assertEquals(
+                    clauses.get(i).get(0), renumbering.toGlobal(model.get(i).intValue()));
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package checkers.inference.solver.backend.routing;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.framework.type.QualifierHierarchy;
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+import org.checkerframework.javacutil.AnnotationMirrorSet;
+import org.checkerframework.javacutil.UserError;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.Elements;
+import javax.tools.ToolProvider;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.ArithmeticConstraint.ArithmeticOperationKind;
+import checkers.inference.model.ArithmeticVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.backend.fixpoint.FixpointSolver;
+import checkers.inference.solver.backend.horn.HornSolver;
+import checkers.inference.solver.backend.routing.RoutingSolverFactory.Route;
+import checkers.inference.solver.backend.routing.RoutingSolverFactory.RoutingSolverArg;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.util.SolverEnvironment;
+
+public class RoutingSolverFactoryTest {
+
+    @interface Top {}
+
+    @interface Left {}
+
+    @interface Right {}
+
+    @interface Bottom {}
+
+    private AnnotationMirror top;
+    private AnnotationMirror left;
+
+    /** The lattice of {@link Top} and {@link Bottom}. */
+    private Lattice twoQualifiers;
+
+    /** The diamond lattice, in which {@link Left} and {@link Right} are incomparable. */
+    private Lattice diamond;
+
+    private ConstraintManager constraintManager;
+
+    private SourceVariableSlot a;
+    private SourceVariableSlot b;
+
+    private final SolverFactory maxSatFactory = Mockito.mock(SolverFactory.class);
+    private final SolverFactory bitVectorFactory = Mockito.mock(SolverFactory.class);
+    private final SolverFactory smtFactory = Mockito.mock(SolverFactory.class);
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        Elements elements = task.getElements();
+        top = AnnotationBuilder.fromClass(elements, Top.class);
+        left = AnnotationBuilder.fromClass(elements, Left.class);
+        AnnotationMirror right = AnnotationBuilder.fromClass(elements, Right.class);
+        AnnotationMirror bottom = AnnotationBuilder.fromClass(elements, Bottom.class);
+
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        superTypes.put(top, Arrays.asList(top));
+        superTypes.put(bottom, Arrays.asList(bottom, top));
+        twoQualifiers = lattice(superTypes, top, bottom);
+        superTypes.put(left, Arrays.asList(left, top));
+        superTypes.put(right, Arrays.asList(right, top));
+        superTypes.put(bottom, Arrays.asList(bottom, left, right, top));
+        diamond = lattice(superTypes, top, bottom);
+
+        QualifierHierarchy qualifierHierarchy = Mockito.mock(QualifierHierarchy.class);
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(top)))
+                .when(qualifierHierarchy)
+                .getTopAnnotations();
+        Mockito.doReturn(new AnnotationMirrorSet(Collections.singleton(bottom)))
+                .when(qualifierHierarchy)
+                .getBottomAnnotations();
+        InferenceAnnotatedTypeFactory typeFactory =
+                Mockito.mock(InferenceAnnotatedTypeFactory.class);
+        Mockito.doReturn(qualifierHierarchy).when(typeFactory).getRealQualifierHierarchy();
+        constraintManager = new ConstraintManager();
+        constraintManager.init(typeFactory);
+
+        a = new SourceVariableSlot(3, AnnotationLocation.MISSING_LOCATION, null, null, true);
+        b = new SourceVariableSlot(4, AnnotationLocation.MISSING_LOCATION, null, null, true);
+    }
+
+    /** Returns the lattice of the given qualifiers, each mapped to all of its supertypes. */
+    private static Lattice lattice(
+            Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes,
+            AnnotationMirror top,
+            AnnotationMirror bottom) {
+        Map<AnnotationMirror, Collection<AnnotationMirror>> subTypes = new AnnotationMirrorMap<>();
+        for (Map.Entry<AnnotationMirror, Collection<AnnotationMirror>> entry :
+                superTypes.entrySet()) {
+            for (AnnotationMirror supertype : entry.getValue()) {
+                subTypes.computeIfAbsent(supertype, s -> new AnnotationMirrorSet())
+                        .add(entry.getKey());
+            }
+        }
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(superTypes.keySet());
+        return new Lattice(
+                subTypes,
+                superTypes,
+                new AnnotationMirrorMap<>(),
+                allTypes,
+                top,
+                bottom,
+                allTypes.size(),
+                allTypes,
+                null);
+    }
+
+    private static SolverEnvironment environment(Map<String, String> args) {
+        return new SolverEnvironment(args, null);
+    }
+
+    private static Route route(
+            RoutingSolverFactory factory,
+            Map<String, String> args,
+            List<Constraint> constraints,
+            Lattice lattice) {
+        return factory.route(
+                environment(args),
+                constraints,
+                lattice,
+                new ComponentFeatures(constraints, lattice));
+    }
+
+    @Test
+    public void testHornShapedComponentIsPropagated() {
+        RoutingSolverFactory factory =
+                new RoutingSolverFactory(maxSatFactory, bitVectorFactory, smtFactory);
+        // An inequality with a constant is a Horn clause, but not a fixpoint constraint.
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(a, b),
+                        constraintManager.createInequalityConstraint(b, new ConstantSlot(1, top)));
+
+        Assert.assertEquals(
+                Route.PROPAGATION, route(factory, new HashMap<>(), constraints, twoQualifiers));
+        Assert.assertTrue(
+                factory.createSolver(
+                                environment(new HashMap<>()),
+                                Arrays.asList(a, b),
+                                constraints,
+                                twoQualifiers)
+                        instanceof HornSolver);
+    }
+
+    @Test
+    public void testSubtypeComponentOverLatticeIsPropagated() {
+        RoutingSolverFactory factory =
+                new RoutingSolverFactory(maxSatFactory, bitVectorFactory, smtFactory);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(a, b),
+                        constraintManager.createEqualityConstraint(a, new ConstantSlot(1, left)));
+
+        Assert.assertEquals(
+                Route.PROPAGATION, route(factory, new HashMap<>(), constraints, diamond));
+        Assert.assertTrue(
+                factory.createSolver(
+                                environment(new HashMap<>()),
+                                Arrays.asList(a, b),
+                                constraints,
+                                diamond)
+                        instanceof FixpointSolver);
+    }
+
+    @Test
+    public void testLargeComponentIsRoutedToBitVector() {
+        // Preferences need an optimizing solver.
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(a, b),
+                        constraintManager.createPreferenceConstraint(
+                                a, new ConstantSlot(1, left), 1));
+        Map<String, String> args = new HashMap<>();
+        args.put(RoutingSolverArg.maxSatMaxQualifiers.name(), "3");
+
+        RoutingSolverFactory factory =
+                new RoutingSolverFactory(maxSatFactory, bitVectorFactory, smtFactory);
+        Assert.assertEquals(Route.BIT_VECTOR, route(factory, args, constraints, diamond));
+        // The diamond lattice is within the default limits.
+        Assert.assertEquals(Route.MAX_SAT, route(factory, new HashMap<>(), constraints, diamond));
+
+        RoutingSolverFactory withoutBitVector =
+                new RoutingSolverFactory(maxSatFactory, null, smtFactory);
+        Assert.assertEquals(Route.MAX_SAT, route(withoutBitVector, args, constraints, diamond));
+    }
+
+    @Test
+    public void testArithmeticNeedsSmt() {
+        // Arithmetic constraints need a location.
+        ClassDeclLocation location = new ClassDeclLocation("p.Sum");
+        ArithmeticVariableSlot sum = new ArithmeticVariableSlot(5, location, TypeKind.INT);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createArithmeticConstraint(
+                                ArithmeticOperationKind.PLUS, a, b, sum, location));
+
+        RoutingSolverFactory withSmt =
+                new RoutingSolverFactory(maxSatFactory, bitVectorFactory, smtFactory);
+        Assert.assertEquals(Route.SMT, route(withSmt, new HashMap<>(), constraints, diamond));
+
+        RoutingSolverFactory withoutSmt = new RoutingSolverFactory(maxSatFactory, null, null);
+        try {
+            route(withoutSmt, new HashMap<>(), constraints, diamond);
+            Assert.fail("An arithmetic component was routed to MaxSat.");
+        } catch (UserError e) {
+            // expected
+        }
+    }
+}
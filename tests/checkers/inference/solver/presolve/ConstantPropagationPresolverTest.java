@@ -0,0 +1,184 @@
+package checkers.inference.solver.presolve;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationMirrorMap;
+import org.checkerframework.javacutil.AnnotationMirrorSet;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.ToolProvider;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.frontend.Lattice;
+
+public class ConstantPropagationPresolverTest {
+
+    @interface Top {}
+
+    @interface Bottom {}
+
+    private AnnotationMirror top;
+    private AnnotationMirror bottom;
+
+    private Lattice lattice;
+
+    private ConstraintManager constraintManager;
+
+    private ConstantSlot topSlot;
+    private ConstantSlot bottomSlot;
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        Elements elements = task.getElements();
+        top = AnnotationBuilder.fromClass(elements, Top.class);
+        bottom = AnnotationBuilder.fromClass(elements, Bottom.class);
+
+        Map<AnnotationMirror, Collection<AnnotationMirror>> subTypes = new AnnotationMirrorMap<>();
+        subTypes.put(top, new AnnotationMirrorSet(Arrays.asList(top, bottom)));
+        subTypes.put(bottom, new AnnotationMirrorSet(Collections.singleton(bottom)));
+        Map<AnnotationMirror, Collection<AnnotationMirror>> superTypes =
+                new AnnotationMirrorMap<>();
+        superTypes.put(top, new AnnotationMirrorSet(Collections.singleton(top)));
+        superTypes.put(bottom, new AnnotationMirrorSet(Arrays.asList(top, bottom)));
+        Set<AnnotationMirror> allTypes = new AnnotationMirrorSet(Arrays.asList(top, bottom));
+        lattice =
+                new Lattice(
+                        subTypes,
+                        superTypes,
+                        new AnnotationMirrorMap<>(),
+                        allTypes,
+                        top,
+                        bottom,
+                        2,
+                        allTypes,
+                        null);
+
+        constraintManager = new ConstraintManager();
+        constraintManager.init(Mockito.mock(InferenceAnnotatedTypeFactory.class));
+
+        topSlot = new ConstantSlot(1, top);
+        bottomSlot = new ConstantSlot(2, bottom);
+    }
+
+    private static SourceVariableSlot variable(int id) {
+        return new SourceVariableSlot(id, AnnotationLocation.MISSING_LOCATION, null, null, true);
+    }
+
+    @Test
+    public void testForcedSlotsAreFixed() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        SourceVariableSlot c = variable(5);
+        SourceVariableSlot d = variable(6);
+        SourceVariableSlot e = variable(7);
+        SourceVariableSlot f = variable(8);
+        Constraint aBelowB = constraintManager.createSubtypeConstraint(a, b);
+        Constraint eBelowF = constraintManager.createSubtypeConstraint(e, f);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, topSlot),
+                        // A supertype of top is top.
+                        aBelowB,
+                        constraintManager.createSubtypeConstraint(c, d),
+                        // A subtype of bottom is bottom.
+                        constraintManager.createEqualityConstraint(d, bottomSlot),
+                        eBelowF,
+                        constraintManager.createPreferenceConstraint(b, bottomSlot, 1));
+
+        PresolvedConstraints presolved =
+                new ConstantPropagationPresolver(lattice).presolve(constraints);
+
+        Map<Integer, AnnotationMirror> fixed = presolved.getFixedSolutions();
+        Assert.assertEquals(4, fixed.size());
+        Assert.assertTrue(AnnotationUtils.areSame(top, fixed.get(3)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, fixed.get(4)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, fixed.get(5)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, fixed.get(6)));
+        // Only the constraint between unforced variables is left, and the preference of a fixed
+        // variable is dropped.
+        Assert.assertEquals(Collections.singletonList(eBelowF), presolved.getConstraints());
+
+        Map<Integer, AnnotationMirror> solution = new HashMap<>();
+        solution.put(7, bottom);
+        solution.put(8, top);
+        Map<Integer, AnnotationMirror> completed = presolved.completeSolution(solution);
+        Assert.assertEquals(6, completed.size());
+        Assert.assertTrue(AnnotationUtils.areSame(top, completed.get(4)));
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, completed.get(7)));
+    }
+
+    @Test
+    public void testConflictingConstantsAreUnsatisfiable() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, topSlot),
+                        constraintManager.createEqualityConstraint(a, b),
+                        constraintManager.createEqualityConstraint(b, bottomSlot));
+
+        Assert.assertNull(new ConstantPropagationPresolver(lattice).presolve(constraints));
+    }
+
+    @Test
+    public void testViolatedConstraintBetweenFixedSlotsIsUnsatisfiable() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, topSlot),
+                        constraintManager.createEqualityConstraint(b, topSlot),
+                        constraintManager.createInequalityConstraint(a, b));
+
+        Assert.assertNull(new ConstantPropagationPresolver(lattice).presolve(constraints));
+    }
+
+    @Test
+    public void testSlotsOfOtherConstraintsStayForTheSolver() {
+        SourceVariableSlot a = variable(3);
+        SourceVariableSlot b = variable(4);
+        CombVariableSlot combined =
+                new CombVariableSlot(5, AnnotationLocation.MISSING_LOCATION, a, b);
+        Constraint aIsTop = constraintManager.createEqualityConstraint(a, topSlot);
+        Constraint combine = constraintManager.createCombineConstraint(a, b, combined);
+        List<Constraint> constraints = Arrays.asList(aIsTop, combine);
+
+        PresolvedConstraints presolved =
+                new ConstantPropagationPresolver(lattice).presolve(constraints);
+
+        Assert.assertTrue(presolved.getFixedSolutions().isEmpty());
+        Assert.assertEquals(constraints, presolved.getConstraints());
+    }
+}
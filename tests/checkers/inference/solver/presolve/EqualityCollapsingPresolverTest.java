@@ -0,0 +1,171 @@
+package checkers.inference.solver.presolve;
+
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.tools.ToolProvider;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.CombVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.PreferenceConstraint;
+import checkers.inference.model.SourceVariableSlot;
+
+public class EqualityCollapsingPresolverTest {
+
+    @interface Top {}
+
+    private AnnotationMirror top;
+
+    private ConstraintManager constraintManager;
+
+    private ConstantSlot topSlot;
+
+    private SourceVariableSlot a;
+    private SourceVariableSlot b;
+    private SourceVariableSlot c;
+    private SourceVariableSlot d;
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        top = AnnotationBuilder.fromClass(task.getElements(), Top.class);
+
+        constraintManager = new ConstraintManager();
+        constraintManager.init(Mockito.mock(InferenceAnnotatedTypeFactory.class));
+
+        topSlot = new ConstantSlot(1, top);
+        a = variable(3);
+        b = variable(4);
+        c = variable(5);
+        d = variable(6);
+    }
+
+    private static SourceVariableSlot variable(int id) {
+        return new SourceVariableSlot(id, AnnotationLocation.MISSING_LOCATION, null, null, true);
+    }
+
+    private static PresolvedConstraints presolve(List<Constraint> constraints) {
+        return new EqualityCollapsingPresolver().presolve(constraints);
+    }
+
+    @Test
+    public void testEqualVariablesAreMerged() {
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, b),
+                        constraintManager.createEqualityConstraint(c, b),
+                        constraintManager.createEqualityConstraint(c, topSlot),
+                        constraintManager.createSubtypeConstraint(d, c));
+
+        PresolvedConstraints presolved = presolve(constraints);
+
+        // The variable with the smallest id represents its class.
+        Map<Integer, Integer> expectedAliases = new HashMap<>();
+        expectedAliases.put(4, 3);
+        expectedAliases.put(5, 3);
+        Assert.assertEquals(expectedAliases, presolved.getAliases());
+        // The equalities within the class are dropped, the others are moved onto a.
+        Assert.assertEquals(
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, topSlot),
+                        constraintManager.createSubtypeConstraint(d, a)),
+                presolved.getConstraints());
+
+        Map<Integer, AnnotationMirror> solution = new HashMap<>();
+        solution.put(3, top);
+        solution.put(6, top);
+        Map<Integer, AnnotationMirror> completed = presolved.completeSolution(solution);
+        Assert.assertEquals(4, completed.size());
+        Assert.assertTrue(AnnotationUtils.areSame(top, completed.get(4)));
+        Assert.assertTrue(AnnotationUtils.areSame(top, completed.get(5)));
+    }
+
+    @Test
+    public void testPinnedVariableRepresentsItsClass() {
+        // The combine constraint is not rewritten, so d has to stay.
+        CombVariableSlot combined =
+                new CombVariableSlot(7, AnnotationLocation.MISSING_LOCATION, d, c);
+        Constraint combine = constraintManager.createCombineConstraint(d, c, combined);
+        Constraint cIsTop = constraintManager.createEqualityConstraint(c, topSlot);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, d),
+                        constraintManager.createEqualityConstraint(b, a),
+                        // c is pinned too, so the classes of c and d are not merged.
+                        constraintManager.createEqualityConstraint(c, d),
+                        cIsTop,
+                        combine);
+
+        PresolvedConstraints presolved = presolve(constraints);
+
+        Map<Integer, Integer> expectedAliases = new HashMap<>();
+        expectedAliases.put(3, 6);
+        expectedAliases.put(4, 6);
+        Assert.assertEquals(expectedAliases, presolved.getAliases());
+        Assert.assertEquals(
+                Arrays.asList(constraintManager.createEqualityConstraint(c, d), cIsTop, combine),
+                presolved.getConstraints());
+    }
+
+    @Test
+    public void testInequalityWithinClassIsUnsatisfiable() {
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, b),
+                        constraintManager.createEqualityConstraint(b, c),
+                        constraintManager.createInequalityConstraint(c, a));
+
+        Assert.assertNull(presolve(constraints));
+    }
+
+    @Test
+    public void testDuplicatesAreKeptOnce() {
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(a, b),
+                        constraintManager.createSubtypeConstraint(d, a),
+                        constraintManager.createSubtypeConstraint(d, b),
+                        constraintManager.createPreferenceConstraint(a, topSlot, 1),
+                        constraintManager.createPreferenceConstraint(b, topSlot, 1));
+
+        Collection<Constraint> remaining = presolve(constraints).getConstraints();
+
+        // Preferences are soft, so both count.
+        Assert.assertEquals(3, remaining.size());
+        int preferences = 0;
+        for (Constraint constraint : remaining) {
+            if (constraint instanceof PreferenceConstraint) {
+                Assert.assertEquals(a, ((PreferenceConstraint) constraint).getVariable());
+                preferences++;
+            }
+        }
+        Assert.assertEquals(2, preferences);
+    }
+}
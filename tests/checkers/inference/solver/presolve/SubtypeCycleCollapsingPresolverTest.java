@@ -0,0 +1,102 @@
+package checkers.inference.solver.presolve;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.SourceVariableSlot;
+
+public class SubtypeCycleCollapsingPresolverTest {
+
+    private ConstraintManager constraintManager;
+
+    @Before
+    public void setUp() {
+        constraintManager = new ConstraintManager();
+        constraintManager.init(Mockito.mock(InferenceAnnotatedTypeFactory.class));
+    }
+
+    private static List<SourceVariableSlot> variables(int count) {
+        List<SourceVariableSlot> variables = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            variables.add(
+                    new SourceVariableSlot(
+                            id, AnnotationLocation.MISSING_LOCATION, null, null, true));
+        }
+        return variables;
+    }
+
+    private static PresolvedConstraints presolve(List<Constraint> constraints) {
+        return new SubtypeCycleCollapsingPresolver().presolve(constraints);
+    }
+
+    @Test
+    public void testCyclesAreMerged() {
+        List<SourceVariableSlot> v = variables(7);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(v.get(0), v.get(1)),
+                        constraintManager.createSubtypeConstraint(v.get(1), v.get(2)),
+                        constraintManager.createSubtypeConstraint(v.get(2), v.get(0)),
+                        // Below and above the cycle, but not on it.
+                        constraintManager.createSubtypeConstraint(v.get(3), v.get(1)),
+                        constraintManager.createSubtypeConstraint(v.get(2), v.get(4)),
+                        // A second cycle, which is not merged with the first.
+                        constraintManager.createSubtypeConstraint(v.get(5), v.get(6)),
+                        constraintManager.createSubtypeConstraint(v.get(6), v.get(5)));
+
+        PresolvedConstraints presolved = presolve(constraints);
+
+        Map<Integer, Integer> expectedAliases = new HashMap<>();
+        expectedAliases.put(2, 1);
+        expectedAliases.put(3, 1);
+        expectedAliases.put(7, 6);
+        Assert.assertEquals(expectedAliases, presolved.getAliases());
+        Assert.assertEquals(
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(v.get(3), v.get(0)),
+                        constraintManager.createSubtypeConstraint(v.get(0), v.get(4))),
+                presolved.getConstraints());
+    }
+
+    @Test
+    public void testLongCycleIsMerged() {
+        // Longer than the call stack of a recursive Tarjan's algorithm allows.
+        int length = 100000;
+        List<SourceVariableSlot> v = variables(length);
+        List<Constraint> constraints = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            constraints.add(
+                    constraintManager.createSubtypeConstraint(v.get(i), v.get((i + 1) % length)));
+        }
+
+        PresolvedConstraints presolved = presolve(constraints);
+
+        Assert.assertEquals(length - 1, presolved.getAliases().size());
+        Assert.assertTrue(presolved.getConstraints().isEmpty());
+    }
+
+    @Test
+    public void testInequalityOnCycleIsUnsatisfiable() {
+        List<SourceVariableSlot> v = variables(3);
+        List<Constraint> constraints =
+                Arrays.asList(
+                        constraintManager.createSubtypeConstraint(v.get(0), v.get(1)),
+                        constraintManager.createSubtypeConstraint(v.get(1), v.get(2)),
+                        constraintManager.createSubtypeConstraint(v.get(2), v.get(0)),
+                        constraintManager.createInequalityConstraint(v.get(0), v.get(2)));
+
+        Assert.assertNull(presolve(constraints));
+    }
+}
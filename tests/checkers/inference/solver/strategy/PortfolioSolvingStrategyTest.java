@@ -0,0 +1,226 @@
+package checkers.inference.solver.strategy;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import javax.lang.model.element.AnnotationMirror;
+
+import checkers.inference.InferenceAnnotatedTypeFactory;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.solver.backend.FormatTranslator;
+import checkers.inference.solver.backend.Solver;
+import checkers.inference.solver.backend.SolverFactory;
+import checkers.inference.solver.constraintgraph.ConstraintGraph;
+import checkers.inference.solver.constraintgraph.GraphBuilder;
+import checkers.inference.solver.frontend.Lattice;
+import checkers.inference.solver.strategy.PortfolioSolvingStrategy.PortfolioSolvingStrategyArg;
+import checkers.inference.solver.util.SolverEnvironment;
+
+public class PortfolioSolvingStrategyTest {
+
+    /** How a backend created by a {@link BackendFactory} behaves. */
+    private enum Behavior {
+        /** Returns its solution at once. */
+        SOLVE,
+        /** Throws an exception, as a backend whose solver is not installed. */
+        FAIL,
+        /** Runs until it is cancelled. */
+        WAIT
+    }
+
+    private List<Slot> slots;
+    private List<Constraint> constraints;
+    private ConstraintGraph graph;
+
+    @Before
+    public void setUp() {
+        ConstraintManager constraintManager = new ConstraintManager();
+        constraintManager.init(Mockito.mock(InferenceAnnotatedTypeFactory.class));
+        slots = new ArrayList<>();
+        for (int id = 1; id <= 3; id++) {
+            slots.add(
+                    new SourceVariableSlot(
+                            id, AnnotationLocation.MISSING_LOCATION, null, null, true));
+        }
+        // One component of two constraints.
+        constraints =
+                Arrays.asList(
+                        constraintManager.createEqualityConstraint(slots.get(0), slots.get(1)),
+                        constraintManager.createEqualityConstraint(slots.get(1), slots.get(2)));
+        graph = new GraphBuilder(slots, constraints, null).buildGraph();
+    }
+
+    private static SolverEnvironment environment(int threads, int minConstraints) {
+        Map<String, String> args = new HashMap<>();
+        args.put(PortfolioSolvingStrategyArg.portfolioThreads.name(), String.valueOf(threads));
+        args.put(
+                PortfolioSolvingStrategyArg.portfolioMinConstraints.name(),
+                String.valueOf(minConstraints));
+        return new SolverEnvironment(args, null);
+    }
+
+    /** Returns the solver of the only component, with a backend of each given factory. */
+    private Solver<?> separate(SolverEnvironment environment, BackendFactory... factories) {
+        PortfolioSolvingStrategy strategy =
+                new PortfolioSolvingStrategy(
+                        factories[0], Arrays.asList(factories).subList(1, factories.length));
+        List<Solver<?>> solvers =
+                strategy.separateGraph(environment, graph, slots, constraints, null);
+        Assert.assertEquals(1, solvers.size());
+        return solvers.get(0);
+    }
+
+    @Test
+    public void testFirstSolutionWinsAndLosersAreCancelled() {
+        BackendFactory solving = new BackendFactory(Behavior.SOLVE);
+        BackendFactory waiting = new BackendFactory(Behavior.WAIT);
+        Solver<?> portfolio = separate(environment(2, 1), solving, waiting);
+
+        Assert.assertSame(solving.solution, portfolio.solve());
+        Assert.assertTrue(waiting.backend.isCancelled());
+        Assert.assertFalse(solving.backend.isCancelled());
+    }
+
+    @Test
+    public void testFailedBackendDoesNotWin() {
+        BackendFactory failing = new BackendFactory(Behavior.FAIL);
+        BackendFactory solving = new BackendFactory(Behavior.SOLVE);
+        Solver<?> portfolio = separate(environment(2, 1), failing, solving);
+
+        Assert.assertSame(solving.solution, portfolio.solve());
+    }
+
+    @Test
+    public void testAllBackendsFail() {
+        Solver<?> portfolio =
+                separate(
+                        environment(2, 1),
+                        new BackendFactory(Behavior.FAIL),
+                        new BackendFactory(Behavior.FAIL));
+        try {
+            portfolio.solve();
+            Assert.fail("The failure of the backends was lost.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("not installed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testThreadBudgetLimitsBackends() {
+        BackendFactory solving = new BackendFactory(Behavior.SOLVE);
+        BackendFactory waiting = new BackendFactory(Behavior.WAIT);
+        BackendFactory unused = new BackendFactory(Behavior.SOLVE);
+        Solver<?> portfolio = separate(environment(2, 1), solving, waiting, unused);
+
+        Assert.assertSame(solving.solution, portfolio.solve());
+        Assert.assertNull(unused.backend);
+    }
+
+    @Test
+    public void testSmallComponentIsSolvedByFirstBackend() {
+        BackendFactory first = new BackendFactory(Behavior.SOLVE);
+        BackendFactory second = new BackendFactory(Behavior.SOLVE);
+        // The component has 2 constraints.
+        Solver<?> solver = separate(environment(2, 3), first, second);
+
+        Assert.assertSame(first.backend, solver);
+        Assert.assertNull(second.backend);
+    }
+
+    @Test
+    public void testSingleThreadDisablesRacing() {
+        BackendFactory first = new BackendFactory(Behavior.SOLVE);
+        BackendFactory second = new BackendFactory(Behavior.SOLVE);
+        Solver<?> solver = separate(environment(1, 1), first, second);
+
+        Assert.assertSame(first.backend, solver);
+        Assert.assertNull(second.backend);
+    }
+
+    /** Creates a {@link Backend} of the given behavior, and remembers it. */
+    private class BackendFactory implements SolverFactory {
+
+        private final Behavior behavior;
+
+        /** The solution of the backends of this factory. */
+        private final Map<Integer, AnnotationMirror> solution = new HashMap<>();
+
+        /** The backend created last, or null. */
+        private Backend backend;
+
+        BackendFactory(Behavior behavior) {
+            this.behavior = behavior;
+        }
+
+        @Override
+        public Solver<?> createSolver(
+                SolverEnvironment solverEnvironment,
+                Collection<Slot> slots,
+                Collection<Constraint> constraints,
+                Lattice lattice) {
+            backend = new Backend(solverEnvironment, slots, constraints, this);
+            return backend;
+        }
+    }
+
+    private class Backend extends Solver<FormatTranslator<?, ?, ?>> {
+
+        private final BackendFactory factory;
+
+        Backend(
+                SolverEnvironment solverEnvironment,
+                Collection<Slot> slots,
+                Collection<Constraint> constraints,
+                BackendFactory factory) {
+            super(solverEnvironment, slots, constraints, null, null);
+            this.factory = factory;
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public Map<Integer, AnnotationMirror> solve() {
+            switch (factory.behavior) {
+                case FAIL:
+                    throw new IllegalStateException("not installed");
+                case SOLVE:
+                    return factory.solution;
+                default:
+                    // Wait for the cancellation, as an in-process solver that is not interrupted.
+                    try {
+                        while (!isCancelled()) {
+                            Thread.sleep(1);
+                        }
+                    } catch (InterruptedException e) {
+                        // Cancelled by interruption, as an external solver.
+                    }
+                    throw new CancellationException();
+            }
+        }
+
+        @Override
+        public Collection<Constraint> explainUnsatisfiable() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        protected void encodeAllConstraints() {}
+    }
+}
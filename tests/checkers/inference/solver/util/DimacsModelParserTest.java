@@ -0,0 +1,63 @@
+package checkers.inference.solver.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DimacsModelParserTest {
+
+    private static List<Integer> parse(InputStream stream) throws IOException {
+        List<Integer> literals = new ArrayList<>();
+        DimacsModelParser.parseModel(stream, literals::add);
+        return literals;
+    }
+
+    private static List<Integer> parse(String output) throws IOException {
+        return parse(new ByteArrayInputStream(output.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    public void testMultiLineModel() throws IOException {
+        String output =
+                "c comment with digits 1 2 3\n"
+                        + "s SATISFIABLE\n"
+                        + "v 1 -2 3\n"
+                        + "v -4 5 -60\n"
+                        + "v 7 0\n";
+        Assert.assertEquals(Arrays.asList(1, -2, 3, -4, 5, -60, 7), parse(output));
+    }
+
+    @Test
+    public void testTerminatingZeroWithoutNewline() throws IOException {
+        Assert.assertEquals(Arrays.asList(-1, 2), parse("s SATISFIABLE\nv -1  2\t0"));
+        Assert.assertEquals(Arrays.asList(-1, 2), parse("s SATISFIABLE\nv -1 2"));
+    }
+
+    @Test
+    public void testUnsatisfiableHasEmptyModel() throws IOException {
+        Assert.assertEquals(Collections.emptyList(), parse("c solving\ns UNSATISFIABLE\n"));
+        Assert.assertEquals(Collections.emptyList(), parse(""));
+    }
+
+    @Test
+    public void testLiteralsSplitAcrossReads() throws IOException {
+        byte[] output = "s SATISFIABLE\nv 123 -456\nv 789 0\n".getBytes(StandardCharsets.US_ASCII);
+        // A stream that returns one byte per read, so that every literal is split.
+        InputStream stream =
+                new ByteArrayInputStream(output) {
+                    @Override
+                    public synchronized int read(byte[] buffer, int offset, int length) {
+                        return super.read(buffer, offset, Math.min(1, length));
+                    }
+                };
+        Assert.assertEquals(Arrays.asList(123, -456, 789), parse(stream));
+    }
+}
@@ -0,0 +1,172 @@
+package checkers.inference.solver.util;
+
+import org.checkerframework.javacutil.UserError;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+public class ExternalSolverPoolTest {
+
+    private static final String[] SLEEP = {"sleep", "10"};
+
+    private static final long MAX_KILL_MILLIS = 5000;
+
+    private static int run(ExternalSolverPool pool, String[] command) {
+        return pool.run(
+                command, null, ExternalSolverPoolTest::drain, ExternalSolverPoolTest::drain);
+    }
+
+    private static void drain(InputStream stream) {
+        new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))
+                .lines()
+                .count();
+    }
+
+    /** Runs the command on its own thread, the returned reference receives its exception. */
+    private static Thread start(
+            ExternalSolverPool pool, String[] command, AtomicReference<Throwable> thrown) {
+        Thread thread =
+                new Thread(
+                        () -> {
+                            try {
+                                run(pool, command);
+                            } catch (Throwable t) {
+                                thrown.set(t);
+                            }
+                        });
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testPipesInputAndOutput() {
+        ExternalSolverPool pool = new ExternalSolverPool(1, 0);
+        AtomicReference<String> output = new AtomicReference<>();
+        int exitStatus =
+                pool.run(
+                        new String[] {"cat"},
+                        stdIn -> stdIn.write("(check-sat)\n".getBytes(StandardCharsets.UTF_8)),
+                        stdOut ->
+                                output.set(
+                                        new BufferedReader(
+                                                        new InputStreamReader(
+                                                                stdOut, StandardCharsets.UTF_8))
+                                                .lines()
+                                                .collect(Collectors.joining("\n"))),
+                        ExternalSolverPoolTest::drain);
+        Assert.assertEquals(0, exitStatus);
+        Assert.assertEquals("(check-sat)", output.get());
+    }
+
+    @Test
+    public void testTimeoutKillsProcess() {
+        ExternalSolverPool pool = new ExternalSolverPool(1, 200);
+        long start = System.currentTimeMillis();
+        try {
+            run(pool, SLEEP);
+            Assert.fail("Expected the process to time out.");
+        } catch (UserError e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < MAX_KILL_MILLIS);
+    }
+
+    @Test
+    public void testInterruptKillsProcess() throws Exception {
+        ExternalSolverPool pool = new ExternalSolverPool(1, 0);
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = start(pool, SLEEP, thrown);
+        Thread.sleep(200);
+
+        thread.interrupt();
+        thread.join(MAX_KILL_MILLIS);
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertTrue(thrown.get() instanceof CancellationException);
+
+        // The permit of the killed process was released.
+        Assert.assertEquals(0, run(pool, new String[] {"true"}));
+    }
+
+    @Test
+    public void testInterruptWhileWaitingForPermit() throws Exception {
+        ExternalSolverPool pool = new ExternalSolverPool(1, 0);
+        AtomicReference<Throwable> runningThrown = new AtomicReference<>();
+        AtomicReference<Throwable> waitingThrown = new AtomicReference<>();
+        Thread running = start(pool, SLEEP, runningThrown);
+        Thread.sleep(200);
+        Thread waiting = start(pool, SLEEP, waitingThrown);
+        Thread.sleep(200);
+
+        waiting.interrupt();
+        waiting.join(MAX_KILL_MILLIS);
+        Assert.assertFalse(waiting.isAlive());
+        Assert.assertTrue(waitingThrown.get() instanceof CancellationException);
+        Assert.assertTrue(running.isAlive());
+
+        running.interrupt();
+        running.join(MAX_KILL_MILLIS);
+        Assert.assertFalse(running.isAlive());
+    }
+
+    @Test
+    public void testReconfigure() throws Exception {
+        ExternalSolverPool pool = new ExternalSolverPool(2, 0);
+
+        // Only one process runs at a time.
+        pool.reconfigure(1, 0);
+        String[] shortSleep = {"sleep", "0.3"};
+        long start = System.currentTimeMillis();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread first = start(pool, shortSleep, thrown);
+        Thread second = start(pool, shortSleep, thrown);
+        first.join(MAX_KILL_MILLIS);
+        second.join(MAX_KILL_MILLIS);
+        Assert.assertNull(thrown.get());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 600);
+
+        // The new timeout applies.
+        pool.reconfigure(1, 200);
+        try {
+            run(pool, SLEEP);
+            Assert.fail("Expected the process to time out.");
+        } catch (UserError e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+        }
+    }
+
+    @Test(expected = UserError.class)
+    public void testRejectsInvalidConfiguration() {
+        new ExternalSolverPool(1, 0).reconfigure(0, 0);
+    }
+
+    @Test
+    public void testSharedPoolFollowsSolverEnvironment() {
+        ExternalSolverPool pool =
+                ExternalSolverPool.getInstance(
+                        new SolverEnvironment(Collections.emptyMap(), null));
+        try {
+            Assert.assertSame(
+                    pool,
+                    ExternalSolverPool.getInstance(
+                            new SolverEnvironment(
+                                    Collections.singletonMap("externalSolverTimeout", "200"),
+                                    null)));
+            try {
+                run(pool, SLEEP);
+                Assert.fail("Expected the process to time out.");
+            } catch (UserError e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+            }
+        } finally {
+            ExternalSolverPool.getInstance(new SolverEnvironment(Collections.emptyMap(), null));
+        }
+    }
+}
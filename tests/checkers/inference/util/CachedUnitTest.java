@@ -0,0 +1,219 @@
+package checkers.inference.util;
+
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.util.JavacTask;
+
+import org.checkerframework.javacutil.AnnotationBuilder;
+import org.checkerframework.javacutil.AnnotationUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.type.TypeKind;
+import javax.tools.ToolProvider;
+
+import checkers.inference.DefaultSlotManager;
+import checkers.inference.SlotManager;
+import checkers.inference.model.AnnotationLocation;
+import checkers.inference.model.AnnotationLocation.ClassDeclLocation;
+import checkers.inference.model.ArithmeticConstraint.ArithmeticOperationKind;
+import checkers.inference.model.ArithmeticVariableSlot;
+import checkers.inference.model.ComparisonConstraint.ComparisonOperationKind;
+import checkers.inference.model.ComparisonVariableSlot;
+import checkers.inference.model.ConstantSlot;
+import checkers.inference.model.Constraint;
+import checkers.inference.model.ConstraintManager;
+import checkers.inference.model.Slot;
+import checkers.inference.model.SourceVariableSlot;
+import checkers.inference.model.VariableSlot;
+import checkers.inference.model.serialization.AnnotationMirrorSerializer;
+import checkers.inference.model.serialization.SimpleAnnotationMirrorSerializer;
+
+public class CachedUnitTest {
+
+    @interface Top {}
+
+    @interface Bottom {}
+
+    private static final AnnotationLocation FIELD = new ClassDeclLocation("p.Unit");
+    private static final AnnotationLocation PARAMETER = new ClassDeclLocation("p.Unit$Inner");
+    private static final AnnotationLocation ASSIGNMENT = new ClassDeclLocation("p.Unit$1");
+    private static final AnnotationLocation ADDITION = new ClassDeclLocation("p.Unit$2");
+    private static final AnnotationLocation COMPARISON = new ClassDeclLocation("p.Unit$3");
+    private static final AnnotationLocation OTHER = new ClassDeclLocation("p.Other");
+
+    private ProcessingEnvironment processingEnvironment;
+
+    private AnnotationMirror top;
+    private AnnotationMirror bottom;
+
+    private AnnotationMirrorSerializer annotationSerializer;
+
+    /** Creates the constraints of both runs, always at a given location. */
+    private final ConstraintManager constraintManager = new ConstraintManager();
+
+    private final CachedUnit.Units units =
+            new CachedUnit.Units() {
+                @Override
+                public String nameOf(CompilationUnitTree unit) {
+                    return null;
+                }
+
+                @Override
+                public boolean noteClassDeclaration(String flatName) {
+                    return true;
+                }
+
+                @Override
+                public CompilationUnitTree find(String name) {
+                    return null;
+                }
+            };
+
+    @Before
+    public void setUp() {
+        JavacTask task =
+                (JavacTask)
+                        ToolProvider.getSystemJavaCompiler()
+                                .getTask(
+                                        null,
+                                        null,
+                                        null,
+                                        Arrays.asList(
+                                                "-classpath", System.getProperty("java.class.path")),
+                                        null,
+                                        null);
+        processingEnvironment = Mockito.mock(ProcessingEnvironment.class);
+        Mockito.when(processingEnvironment.getElementUtils()).thenReturn(task.getElements());
+        Mockito.when(processingEnvironment.getTypeUtils()).thenReturn(task.getTypes());
+        top = AnnotationBuilder.fromClass(task.getElements(), Top.class);
+        bottom = AnnotationBuilder.fromClass(task.getElements(), Bottom.class);
+        annotationSerializer = new SimpleAnnotationMirrorSerializer(top, bottom);
+    }
+
+    private SlotManager newSlotManager() {
+        return new DefaultSlotManager(processingEnvironment, top, Collections.emptySet(), false);
+    }
+
+    /** Returns the slots of the given slot manager, in order of id. */
+    private static List<Slot> slotsOf(SlotManager slotManager) {
+        List<Slot> slots = new ArrayList<>(slotManager.getSlots());
+        Collections.sort(slots);
+        return slots;
+    }
+
+    /** Describes a slot by what identifies it across runs, rather than by its id. */
+    private static String describe(Slot slot) {
+        if (slot instanceof ConstantSlot) {
+            return "constant " + AnnotationUtils.annotationName(((ConstantSlot) slot).getValue());
+        }
+        return slot.getKind() + " at " + ((VariableSlot) slot).getLocation();
+    }
+
+    private static List<String> describe(Collection<Constraint> constraints) {
+        List<String> descriptions = new ArrayList<>();
+        for (Constraint constraint : constraints) {
+            StringBuilder description =
+                    new StringBuilder(constraint.getClass().getSimpleName())
+                            .append(" at ")
+                            .append(constraint.getLocation());
+            for (Slot slot : constraint.getSlots()) {
+                description.append(", ").append(describe(slot));
+            }
+            descriptions.add(description.toString());
+        }
+        return descriptions;
+    }
+
+    /** Generates the constraints of a class with the given slot manager and records them. */
+    private byte[] record(SlotManager slotManager, List<Constraint> constraints)
+            throws IOException {
+        SourceVariableSlot field = slotManager.replaySourceVariableSlot(FIELD, bottom, true);
+        SourceVariableSlot parameter =
+                slotManager.replaySourceVariableSlot(PARAMETER, null, false);
+        ConstantSlot topSlot = slotManager.createConstantSlot(top);
+        ConstantSlot bottomSlot = slotManager.createConstantSlot(bottom);
+        ArithmeticVariableSlot sum =
+                slotManager.replayArithmeticVariableSlot(ADDITION, TypeKind.INT);
+        ComparisonVariableSlot refined =
+                slotManager.createComparisonVariableSlot(COMPARISON, field, true);
+
+        constraints.add(constraintManager.createSubtypeConstraint(parameter, field, ASSIGNMENT));
+        constraints.add(constraintManager.createEqualityConstraint(field, topSlot, FIELD));
+        constraints.add(
+                constraintManager.createPreferenceConstraint(
+                        parameter, bottomSlot, 3, PARAMETER));
+        constraints.add(
+                constraintManager.createArithmeticConstraint(
+                        ArithmeticOperationKind.PLUS, field, parameter, sum, ADDITION));
+        constraints.add(
+                constraintManager.createComparisonConstraint(
+                        ComparisonOperationKind.EQUAL_TO, field, parameter, refined, COMPARISON));
+
+        return CachedUnit.write(
+                slotsOf(slotManager),
+                constraints,
+                Collections.emptyList(),
+                Collections.emptyMap(),
+                slotManager,
+                annotationSerializer,
+                units);
+    }
+
+    @Test
+    public void testReplayRecreatesSlotsConstraintsAndLocations() throws IOException {
+        SlotManager recording = newSlotManager();
+        List<Constraint> recorded = new ArrayList<>();
+        byte[] bytes = record(recording, recorded);
+
+        // In the later run, another class was visited first, so the ids of the slots differ.
+        SlotManager replaying = newSlotManager();
+        replaying.replaySourceVariableSlot(OTHER, null, true);
+        List<Constraint> replayed =
+                CachedUnit.read(bytes)
+                        .replay(replaying, constraintManager, annotationSerializer, units);
+
+        Assert.assertEquals(describe(recorded), describe(replayed));
+        List<String> recordedSlots = new ArrayList<>();
+        for (Slot slot : slotsOf(recording)) {
+            recordedSlots.add(describe(slot));
+        }
+        List<String> replayedSlots = new ArrayList<>();
+        for (Slot slot : slotsOf(replaying)) {
+            replayedSlots.add(describe(slot));
+        }
+        Assert.assertEquals(recordedSlots, replayedSlots.subList(1, replayedSlots.size()));
+
+        SourceVariableSlot parameter = (SourceVariableSlot) replayed.get(0).getSlots().get(0);
+        Assert.assertNotEquals(recorded.get(0).getSlots().get(0).getId(), parameter.getId());
+        Assert.assertFalse(parameter.isInsertable());
+        SourceVariableSlot field = (SourceVariableSlot) replayed.get(0).getSlots().get(1);
+        Assert.assertTrue(AnnotationUtils.areSame(bottom, field.getDefaultAnnotation()));
+    }
+
+    @Test
+    public void testCorruptUnitLeavesSlotManagerUnchanged() throws IOException {
+        byte[] bytes = record(newSlotManager(), new ArrayList<>());
+
+        SlotManager replaying = newSlotManager();
+        replaying.replaySourceVariableSlot(OTHER, null, true);
+        CachedUnit unit = CachedUnit.read(Arrays.copyOf(bytes, bytes.length - 1));
+        try {
+            unit.replay(replaying, constraintManager, annotationSerializer, units);
+            Assert.fail("A truncated unit was replayed.");
+        } catch (IOException e) {
+            // expected
+        }
+        Assert.assertEquals(1, replaying.getNumberOfSlots());
+    }
+}
@@ -0,0 +1,88 @@
+package checkers.inference.util;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+public class ConstraintCacheTest {
+
+    private static final List<String> OPTIONS = Arrays.asList("2", "ostrusted.OsTrustedChecker");
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File classes;
+    private File library;
+
+    @Before
+    public void setUp() throws Exception {
+        classes = folder.newFolder("classes");
+        write(new File(classes, "Library.class"), "library v1");
+        library = write(folder.newFile("library.jar"), "jar v1");
+    }
+
+    private static File write(File file, String content) throws Exception {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private String fingerprint(List<String> options) {
+        return ConstraintCache.computeFingerprint(
+                options,
+                Arrays.asList("-classpath", library.getPath(), "-Xmaxerrs", "1000"),
+                classes.getPath());
+    }
+
+    private String fingerprint() {
+        return fingerprint(OPTIONS);
+    }
+
+    @Test
+    public void testStableFingerprint() {
+        Assert.assertEquals(fingerprint(), fingerprint());
+    }
+
+    @Test
+    public void testOptionsChangeFingerprint() {
+        Assert.assertNotEquals(
+                fingerprint(), fingerprint(Arrays.asList("2", "ostrusted.OsTrustedChecker", "-x")));
+        Assert.assertNotEquals(
+                fingerprint(),
+                ConstraintCache.computeFingerprint(
+                        OPTIONS,
+                        Arrays.asList("-classpath", library.getPath()),
+                        classes.getPath()));
+    }
+
+    @Test
+    public void testRebuiltClasspathChangesFingerprint() throws Exception {
+        String before = fingerprint();
+        write(new File(classes, "Library.class"), "library v2 rebuilt");
+        String afterClass = fingerprint();
+        Assert.assertNotEquals(before, afterClass);
+
+        Assert.assertTrue(library.setLastModified(library.lastModified() + 2000));
+        Assert.assertNotEquals(afterClass, fingerprint());
+    }
+
+    @Test
+    public void testNewClassChangesFingerprint() throws Exception {
+        String before = fingerprint();
+        write(new File(classes, "Added.class"), "added");
+        Assert.assertNotEquals(before, fingerprint());
+    }
+
+    @Test
+    public void testOtherFilesDoNotChangeFingerprint() throws Exception {
+        String before = fingerprint();
+        write(new File(classes, "notes.txt"), "notes");
+        Assert.assertEquals(before, fingerprint());
+    }
+}
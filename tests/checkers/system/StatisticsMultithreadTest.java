@@ -106,6 +106,103 @@ public class StatisticsMultithreadTest extends TestCase {
 
     // =======================================
 
+    public static final String HistogramKey = "histogramkey";
+    public static final int HistogramValuesPerThread = 1000;
+
+    @Test
+    public void testHistogramRecord() {
+        Statistics.Histogram histogram = Statistics.registerHistogram(HistogramKey);
+        // each thread records its own range, so that together they record 0 to n - 1 once each
+        runThreads(
+                threadID ->
+                        () -> {
+                            for (int i = 0; i < HistogramValuesPerThread; i++) {
+                                histogram.record(threadID * HistogramValuesPerThread + i);
+                            }
+                        });
+
+        long n = (long) numOfThreads * HistogramValuesPerThread;
+        assertEquals(n, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(n - 1, histogram.getMax());
+        for (double fraction : new double[] {0.01, 0.25, 0.5, 0.9, 0.99, 1}) {
+            // the value of rank ceil(fraction * n) is one less than its rank
+            long exact = (long) Math.ceil(fraction * n) - 1;
+            checkPercentile(histogram, fraction, exact);
+        }
+
+        Map<String, Long> finalStatistics = Statistics.getStatistics();
+        checkEqual(finalStatistics, HistogramKey + "_count", n);
+        checkEqual(finalStatistics, HistogramKey + "_min", 0);
+        checkEqual(finalStatistics, HistogramKey + "_max", n - 1);
+        checkEqual(finalStatistics, HistogramKey + "_p50", histogram.getPercentile(0.5));
+    }
+
+    /**
+     * Helper method which checks that the given percentile of the histogram is an upper bound of
+     * the exact one that is at most 25% larger.
+     */
+    private void checkPercentile(Statistics.Histogram histogram, double fraction, long exact) {
+        long percentile = histogram.getPercentile(fraction);
+        String message = "percentile " + fraction + " of exact value " + exact + ": " + percentile;
+        assertTrue(message, percentile >= exact);
+        assertTrue(message, percentile <= exact + exact / 4);
+    }
+
+    @Test
+    public void testHistogramMinAndMaxAreExact() {
+        Statistics.Histogram histogram = Statistics.registerHistogram("histogramextremes");
+        // the values share their buckets with neighbours, but are reported exactly
+        long[] values = {1_000_003L, 5, 1_000_001L, 1L << 40, (1L << 40) + 3};
+        runThreads(threadID -> () -> histogram.record(values[threadID % values.length]));
+
+        assertEquals(numOfThreads, histogram.getCount());
+        assertEquals(5, histogram.getMin());
+        assertEquals((1L << 40) + 3, histogram.getMax());
+        assertEquals((1L << 40) + 3, histogram.getPercentile(1));
+
+        Statistics.Histogram extremes = Statistics.registerHistogram("histogramlimits");
+        extremes.record(-7);
+        extremes.record(Long.MAX_VALUE);
+        assertEquals(0, extremes.getMin());
+        assertEquals(Long.MAX_VALUE, extremes.getMax());
+        assertEquals(0, extremes.getPercentile(0.5));
+        assertEquals(Long.MAX_VALUE, extremes.getPercentile(1));
+
+        // values below four have a bucket each, so their percentiles are exact
+        Statistics.Histogram small = Statistics.registerHistogram("histogramsmall");
+        for (long value = 0; value < 4; value++) {
+            small.record(value);
+        }
+        assertEquals(1, small.getPercentile(0.5));
+        assertEquals(2, small.getPercentile(0.75));
+    }
+
+    @Test
+    public void testClearStatisticsResetsHistogram() {
+        Statistics.Histogram histogram = Statistics.registerHistogram("histogramcleared");
+        runThreads(threadID -> () -> histogram.record(1000 + threadID));
+        assertEquals(numOfThreads, histogram.getCount());
+
+        Statistics.clearStatistics();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.5));
+        assertFalse(Statistics.getStatistics().containsKey("histogramcleared_count"));
+
+        // the handle stays registered, and only reports the values recorded after clearing
+        histogram.record(7);
+        assertSame(histogram, Statistics.registerHistogram("HistogramCleared"));
+        Map<String, Long> finalStatistics = Statistics.getStatistics();
+        checkEqual(finalStatistics, "histogramcleared_count", 1);
+        checkEqual(finalStatistics, "histogramcleared_min", 7);
+        checkEqual(finalStatistics, "histogramcleared_p99", 7);
+        checkEqual(finalStatistics, "histogramcleared_max", 7);
+    }
+
+    // =======================================
+
     /**
      * Helper method which returns the simple class name in lower case of the given class to be used
      * as a statistics key